@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop;
+
+import java.util.Random;
+
+import org.apache.mahout.common.RandomUtils;
+
+/**
+ * <p>
+ * Down-samples the preferences of a user, or of an item, to at most a fixed number, so that a few very active
+ * users or very popular items cannot dominate the number of pairs a job has to produce.
+ * </p>
+ *
+ * <p>
+ * The sample for a given user or item depends only on its ID and on the seed, so it is the same whichever
+ * task processes it and however often the job is re-run.
+ * </p>
+ */
+public final class PreferenceSampler {
+
+  public static final String SAMPLING_SEED = "org.apache.mahout.cf.taste.hadoop.samplingSeed";
+  public static final long DEFAULT_SAMPLING_SEED = 0x5DEECE66DL;
+
+  private final int maxPrefs;
+  private final long seed;
+  private final Random random;
+
+  /**
+   * @param maxPrefs maximum number of preferences to keep per user or item; zero or less disables sampling
+   * @param seed seed that, combined with the ID, determines each sample
+   */
+  public PreferenceSampler(int maxPrefs, long seed) {
+    this.maxPrefs = maxPrefs;
+    this.seed = seed;
+    this.random = new Random();
+  }
+
+  /**
+   * @return true iff a user or item with this many preferences is down-sampled
+   */
+  public boolean isSampled(int numPrefs) {
+    return maxPrefs > 0 && numPrefs > maxPrefs;
+  }
+
+  /**
+   * Chooses which of the preferences of a user or item to keep, uniformly at random.
+   *
+   * @param id user or item ID
+   * @param numPrefs number of preferences the user or item has
+   * @return indexes of the preferences to keep, in ascending order; all of them if {@link #isSampled(int)}
+   *  is false
+   */
+  public int[] sample(long id, int numPrefs) {
+    int numToKeep = isSampled(numPrefs) ? maxPrefs : numPrefs;
+    int[] kept = new int[numToKeep];
+    if (numToKeep == numPrefs) {
+      for (int i = 0; i < numPrefs; i++) {
+        kept[i] = i;
+      }
+      return kept;
+    }
+    random.setSeed(seed ^ RandomUtils.hashLong(id) * 0x9E3779B97F4A7C15L);
+    // selection sampling: visits each index once and yields the sample already sorted
+    int numKept = 0;
+    for (int i = 0; i < numPrefs && numKept < numToKeep; i++) {
+      if (random.nextInt(numPrefs - i) < numToKeep - numKept) {
+        kept[numKept++] = i;
+      }
+    }
+    return kept;
+  }
+
+}
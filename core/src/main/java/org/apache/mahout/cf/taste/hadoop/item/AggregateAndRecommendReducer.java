@@ -88,12 +88,7 @@ public final class AggregateAndRecommendReducer extends
                         Iterable<VectorWritable> values,
                         Context context) throws IOException, InterruptedException {
 
-    Vector recommendationVector = null;
-    for (VectorWritable vectorWritable : values) {
-      recommendationVector = recommendationVector == null
-          ? vectorWritable.get()
-          : recommendationVector.plus(vectorWritable.get());
-    }
+    Vector recommendationVector = AggregateCombiner.sum(values);
     if (recommendationVector == null) {
       return;
     }
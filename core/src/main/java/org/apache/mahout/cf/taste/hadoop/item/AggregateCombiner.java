@@ -20,10 +20,15 @@ package org.apache.mahout.cf.taste.hadoop.item;
 import java.io.IOException;
 
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.mahout.math.RandomAccessSparseVector;
 import org.apache.mahout.math.VarLongWritable;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.VectorWritable;
 
+/**
+ * Sums the partial recommendation vectors for a user before they are shuffled to
+ * {@link AggregateAndRecommendReducer}.
+ */
 public final class AggregateCombiner extends
     Reducer<VarLongWritable,VectorWritable,VarLongWritable,VectorWritable> {
 
@@ -32,10 +37,7 @@ public final class AggregateCombiner extends
                         Iterable<VectorWritable> values,
                         Context context) throws IOException, InterruptedException {
 
-    Vector partial = null;
-    for (VectorWritable vectorWritable : values) {
-      partial = partial == null ? vectorWritable.get() : partial.plus(vectorWritable.get());
-    }
+    Vector partial = sum(values);
     if (partial != null) {
       VectorWritable vw = new VectorWritable(partial);
       vw.setWritesLaxPrecision(true);
@@ -43,4 +45,24 @@ public final class AggregateCombiner extends
     }
   }
 
-}
\ No newline at end of file
+  /**
+   * Sums vectors into one accumulator in place, rather than allocating a new vector per value as
+   * {@link Vector#plus(Vector)} would. A NaN in any value, which marks an item to exclude, stays NaN.
+   *
+   * @return the sum, or {@code null} if there are no values
+   */
+  static Vector sum(Iterable<VectorWritable> values) {
+    Vector sum = null;
+    for (VectorWritable vectorWritable : values) {
+      Vector value = vectorWritable.get();
+      if (sum == null) {
+        // Each value is deserialized into a new vector, so the first can be kept if it is cheap to update
+        sum = value instanceof RandomAccessSparseVector ? value : new RandomAccessSparseVector(value);
+      } else {
+        value.addTo(sum);
+      }
+    }
+    return sum;
+  }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop.item;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.VarIntWritable;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+
+/**
+ * Sums the partial co-occurrence rows emitted by {@link UserVectorToCooccurrenceStripesMapper} for an item into
+ * its row of the co-occurrence matrix, as {@link UserVectorToCooccurrenceReducer} does for pairs. Since the sum
+ * is associative, this also serves as the combiner.
+ */
+public final class CooccurrenceStripesReducer extends
+    Reducer<VarIntWritable,VectorWritable,VarIntWritable,VectorWritable> {
+
+  @Override
+  protected void reduce(VarIntWritable itemIndex1,
+                        Iterable<VectorWritable> partialRows,
+                        Context context) throws IOException, InterruptedException {
+    Vector cooccurrenceRow = null;
+    for (VectorWritable partialRowWritable : partialRows) {
+      Vector partialRow = partialRowWritable.get();
+      if (cooccurrenceRow == null) {
+        // The framework reuses the value object, so copy rather than keep it
+        cooccurrenceRow = new RandomAccessSparseVector(Integer.MAX_VALUE,
+                                                       partialRow.getNumNondefaultElements());
+      }
+      Iterator<Vector.Element> it = partialRow.iterateNonZero();
+      while (it.hasNext()) {
+        Vector.Element e = it.next();
+        int itemIndex2 = e.index();
+        cooccurrenceRow.setQuick(itemIndex2, cooccurrenceRow.getQuick(itemIndex2) + e.get());
+      }
+    }
+    VectorWritable vw = new VectorWritable(cooccurrenceRow);
+    vw.setWritesLaxPrecision(true);
+    context.write(itemIndex1, vw);
+  }
+
+}
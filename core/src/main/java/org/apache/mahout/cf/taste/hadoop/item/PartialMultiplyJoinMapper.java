@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop.item;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.mahout.math.VarIntWritable;
+import org.apache.mahout.math.VarLongWritable;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+
+/**
+ * Reads the co-occurrence matrix and the user vectors together, and keys both by item index for
+ * {@link ToVectorAndPrefReducer}. This does in one map what {@link CooccurrenceColumnWrapperMapper} and
+ * {@link UserVectorSplitterMapper} do in two separate jobs, so neither of their outputs needs to be written
+ * out and read back before the join. The two inputs are told apart by their key type: co-occurrence columns
+ * are keyed by {@link VarIntWritable} item index, user vectors by {@link VarLongWritable} user ID.
+ */
+public final class PartialMultiplyJoinMapper extends
+    Mapper<Writable,VectorWritable,VarIntWritable,VectorOrPrefWritable> {
+
+  private UserVectorSplitter splitter;
+  private final VarIntWritable itemIndexWritable = new VarIntWritable();
+  private final VectorOrPrefWritable vectorOrPref = new VectorOrPrefWritable();
+
+  @Override
+  protected void setup(Context context) {
+    try {
+      splitter = new UserVectorSplitter(context.getConfiguration());
+    } catch (IOException ioe) {
+      throw new IllegalStateException(ioe);
+    }
+  }
+
+  @Override
+  protected void map(Writable key,
+                     VectorWritable value,
+                     Context context) throws IOException, InterruptedException {
+    if (key instanceof VarIntWritable) {
+      vectorOrPref.set(value.get());
+      context.write((VarIntWritable) key, vectorOrPref);
+    } else if (key instanceof VarLongWritable) {
+      long userID = ((VarLongWritable) key).get();
+      if (!splitter.isRecommendedFor(userID)) {
+        return;
+      }
+      Vector userVector = splitter.maybePruneUserVector(value.get());
+      Iterator<Vector.Element> it = userVector.iterateNonZero();
+      while (it.hasNext()) {
+        Vector.Element e = it.next();
+        itemIndexWritable.set(e.index());
+        vectorOrPref.set(userID, (float) e.get());
+        context.write(itemIndexWritable, vectorOrPref);
+      }
+    } else {
+      throw new IllegalStateException("Unexpected key type " + key.getClass());
+    }
+  }
+
+}
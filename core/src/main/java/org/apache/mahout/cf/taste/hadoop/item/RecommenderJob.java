@@ -17,6 +17,7 @@
 
 package org.apache.mahout.cf.taste.hadoop.item;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -25,7 +26,10 @@ import java.util.regex.Pattern;
 
 import org.apache.commons.cli2.Option;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.Mapper;
@@ -36,9 +40,12 @@ import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.mahout.cf.taste.hadoop.EntityPrefWritable;
+import org.apache.mahout.cf.taste.hadoop.PreferenceSampler;
 import org.apache.mahout.cf.taste.hadoop.RecommendedItemsWritable;
 import org.apache.mahout.cf.taste.hadoop.ToItemPrefsMapper;
+import org.apache.mahout.cf.taste.impl.recommender.PrecomputedRecommenderWriter;
 import org.apache.mahout.common.AbstractJob;
+import org.apache.mahout.common.IOUtils;
 import org.apache.mahout.common.commandline.DefaultOptionCreator;
 import org.apache.mahout.math.VarIntWritable;
 import org.apache.mahout.math.VarLongWritable;
@@ -60,6 +67,21 @@ import org.apache.mahout.math.VectorWritable;
  *  final recommendation phase (10)</li>
  * <li>--maxCooccurrencesPerItemConsidered: Maximum number of cooccurrences considered per item
  *  in count phase (100)</li>
+ * <li>--cooccurrenceStripes (boolean): Aggregate cooccurrences into partial rows in the mapper of the count
+ *  phase, rather than emitting each pair (true)</li>
+ * <li>--maxBufferedCooccurrences (integer): Number of distinct cooccurrences the count phase mapper buffers
+ *  before emitting partial rows, when aggregating (1000000)</li>
+ * <li>--maxPrefsPerUserSampled (integer): In the count phase, down-sample users with more preferences than
+ *  this (optional)</li>
+ * <li>--maxPrefsPerItemSampled (integer): In the count phase, stop counting cooccurrences for an item once each
+ *  mapper has seen it this many times (optional)</li>
+ * <li>--samplingSeed (long): Seed for down-sampling users; the same seed gives the same samples (optional)</li>
+ * <li>--fusedPartialMultiply (boolean): Join the co-occurrence columns with the user preferences in a single
+ *  job, rather than first rewriting each of them in its own job (true)</li>
+ * <li>--precomputedStore (path): Local file to which to also write the recommendations as a store for
+ *  {@link org.apache.mahout.cf.taste.impl.recommender.PrecomputedRecommender}; the output path then holds a
+ *  SequenceFile of user IDs and {@link RecommendedItemsWritable} rather than text. It is only written when the
+ *  final phase runs (optional)</li>
  * </ol>
  *
  * <p>General command line options are documented in {@link AbstractJob}.</p>
@@ -84,6 +106,21 @@ public final class RecommenderJob extends AbstractJob {
     addOption("maxCooccurrencesPerItemConsidered", null,
       "Maximum number of cooccurrences considered per item in count phase",
       String.valueOf(UserVectorToCooccurrenceMapper.DEFAULT_MAX_COOCCURRENCES_PER_ITEM_CONSIDERED));
+    addOption("cooccurrenceStripes", null,
+      "Aggregate cooccurrences into partial rows in the mapper of the count phase", Boolean.TRUE.toString());
+    addOption("maxBufferedCooccurrences", null,
+      "Number of distinct cooccurrences buffered in the mapper of the count phase, when aggregating",
+      String.valueOf(UserVectorToCooccurrenceStripesMapper.DEFAULT_MAX_BUFFERED_COOCCURRENCES));
+    addOption("maxPrefsPerUserSampled", null,
+      "Down-sample users with more preferences than this in the count phase", false);
+    addOption("maxPrefsPerItemSampled", null,
+      "Maximum number of users per item each mapper of the count phase considers", false);
+    addOption("samplingSeed", null, "Seed for down-sampling users",
+      String.valueOf(PreferenceSampler.DEFAULT_SAMPLING_SEED));
+    addOption("fusedPartialMultiply", null,
+      "Join co-occurrence columns and user preferences in a single job", Boolean.TRUE.toString());
+    addOption("precomputedStore", null,
+      "Local file to write the recommendations to as a precomputed store; output is then a SequenceFile", false);
 
     Map<String,String> parsedArgs = parseArguments(args);
     if (parsedArgs == null) {
@@ -99,6 +136,13 @@ public final class RecommenderJob extends AbstractJob {
     boolean booleanData = Boolean.valueOf(parsedArgs.get("--booleanData"));
     int maxPrefsPerUserConsidered = Integer.parseInt(parsedArgs.get("--maxPrefsPerUserConsidered"));
     int maxCooccurrencesPerItemConsidered = Integer.parseInt(parsedArgs.get("--maxCooccurrencesPerItemConsidered"));
+    boolean cooccurrenceStripes = Boolean.valueOf(parsedArgs.get("--cooccurrenceStripes"));
+    int maxBufferedCooccurrences = Integer.parseInt(parsedArgs.get("--maxBufferedCooccurrences"));
+    String maxPrefsPerUserSampled = parsedArgs.get("--maxPrefsPerUserSampled");
+    String maxPrefsPerItemSampled = parsedArgs.get("--maxPrefsPerItemSampled");
+    long samplingSeed = Long.parseLong(parsedArgs.get("--samplingSeed"));
+    boolean fusedPartialMultiply = Boolean.valueOf(parsedArgs.get("--fusedPartialMultiply"));
+    String precomputedStore = parsedArgs.get("--precomputedStore");
 
     Path userVectorPath = new Path(tempDirPath, "userVectors");
     Path itemIDIndexPath = new Path(tempDirPath, "itemIDIndex");
@@ -108,8 +152,12 @@ public final class RecommenderJob extends AbstractJob {
     Path partialMultiplyPath = new Path(tempDirPath, "partialMultiply");
 
     AtomicInteger currentPhase = new AtomicInteger();
+    // Changes to the input after this may not be reflected in the recommendations
+    long snapshotTime = System.currentTimeMillis();
+    boolean inputRead = false;
 
     if (shouldRunNextPhase(parsedArgs, currentPhase)) {
+      inputRead = true;
       Job itemIDIndex = prepareJob(
         inputPath, itemIDIndexPath, TextInputFormat.class,
         ItemIDIndexMapper.class, VarIntWritable.class, VarLongWritable.class,
@@ -120,6 +168,7 @@ public final class RecommenderJob extends AbstractJob {
     }
 
     if (shouldRunNextPhase(parsedArgs, currentPhase)) {
+      inputRead = true;
       Job toUserVector = prepareJob(
         inputPath, userVectorPath, TextInputFormat.class,
         ToItemPrefsMapper.class, VarLongWritable.class, booleanData ? VarLongWritable.class : EntityPrefWritable.class,
@@ -130,52 +179,88 @@ public final class RecommenderJob extends AbstractJob {
     }
 
     if (shouldRunNextPhase(parsedArgs, currentPhase)) {
-      Job toCooccurrence = prepareJob(
-        userVectorPath, cooccurrencePath, SequenceFileInputFormat.class,
-        UserVectorToCooccurrenceMapper.class, VarIntWritable.class, VarIntWritable.class,
-        UserVectorToCooccurrenceReducer.class, VarIntWritable.class, VectorWritable.class,
-        SequenceFileOutputFormat.class);
+      Job toCooccurrence;
+      if (cooccurrenceStripes) {
+        toCooccurrence = prepareJob(
+          userVectorPath, cooccurrencePath, SequenceFileInputFormat.class,
+          UserVectorToCooccurrenceStripesMapper.class, VarIntWritable.class, VectorWritable.class,
+          CooccurrenceStripesReducer.class, VarIntWritable.class, VectorWritable.class,
+          SequenceFileOutputFormat.class);
+        toCooccurrence.setCombinerClass(CooccurrenceStripesReducer.class);
+        toCooccurrence.getConfiguration().setInt(UserVectorToCooccurrenceStripesMapper.MAX_BUFFERED_COOCCURRENCES,
+                                                 maxBufferedCooccurrences);
+      } else {
+        toCooccurrence = prepareJob(
+          userVectorPath, cooccurrencePath, SequenceFileInputFormat.class,
+          UserVectorToCooccurrenceMapper.class, VarIntWritable.class, VarIntWritable.class,
+          UserVectorToCooccurrenceReducer.class, VarIntWritable.class, VectorWritable.class,
+          SequenceFileOutputFormat.class);
+      }
       setIOSort(toCooccurrence);
-      toCooccurrence.getConfiguration().setInt(UserVectorToCooccurrenceMapper.MAX_COOCCURRENCES_PER_ITEM_CONSIDERED,
-                                               maxCooccurrencesPerItemConsidered);
+      Configuration toCooccurrenceConf = toCooccurrence.getConfiguration();
+      toCooccurrenceConf.setInt(UserVectorToCooccurrenceMapper.MAX_COOCCURRENCES_PER_ITEM_CONSIDERED,
+                                maxCooccurrencesPerItemConsidered);
+      if (maxPrefsPerUserSampled != null) {
+        toCooccurrenceConf.setInt(UserVectorPruner.MAX_PREFS_PER_USER, Integer.parseInt(maxPrefsPerUserSampled));
+      }
+      if (maxPrefsPerItemSampled != null) {
+        toCooccurrenceConf.setInt(UserVectorPruner.MAX_PREFS_PER_ITEM, Integer.parseInt(maxPrefsPerItemSampled));
+      }
+      toCooccurrenceConf.setLong(PreferenceSampler.SAMPLING_SEED, samplingSeed);
       toCooccurrence.waitForCompletion(true);
     }
 
     if (shouldRunNextPhase(parsedArgs, currentPhase)) {
-      Job prePartialMultiply1 = prepareJob(
-        cooccurrencePath, prePartialMultiplyPath1, SequenceFileInputFormat.class,
-        CooccurrenceColumnWrapperMapper.class, VarIntWritable.class, VectorOrPrefWritable.class,
-        Reducer.class, VarIntWritable.class, VectorOrPrefWritable.class,
-        SequenceFileOutputFormat.class);
-      prePartialMultiply1.waitForCompletion(true);
+      if (fusedPartialMultiply) {
+        Job partialMultiply = prepareJob(
+          new Path(cooccurrencePath + "," + userVectorPath), partialMultiplyPath,
+          SequenceFileInputFormat.class,
+          PartialMultiplyJoinMapper.class, VarIntWritable.class, VectorOrPrefWritable.class,
+          ToVectorAndPrefReducer.class, VarIntWritable.class, VectorAndPrefsWritable.class,
+          SequenceFileOutputFormat.class);
+        if (usersFile != null) {
+          partialMultiply.getConfiguration().set(UserVectorSplitterMapper.USERS_FILE, usersFile);
+        }
+        partialMultiply.getConfiguration().setInt(UserVectorSplitterMapper.MAX_PREFS_PER_USER_CONSIDERED,
+                                                  maxPrefsPerUserConsidered);
+        partialMultiply.waitForCompletion(true);
+      } else {
+        Job prePartialMultiply1 = prepareJob(
+          cooccurrencePath, prePartialMultiplyPath1, SequenceFileInputFormat.class,
+          CooccurrenceColumnWrapperMapper.class, VarIntWritable.class, VectorOrPrefWritable.class,
+          Reducer.class, VarIntWritable.class, VectorOrPrefWritable.class,
+          SequenceFileOutputFormat.class);
+        prePartialMultiply1.waitForCompletion(true);
 
-      Job prePartialMultiply2 = prepareJob(
-        userVectorPath, prePartialMultiplyPath2, SequenceFileInputFormat.class,
-        UserVectorSplitterMapper.class, VarIntWritable.class, VectorOrPrefWritable.class,
-        Reducer.class, VarIntWritable.class, VectorOrPrefWritable.class,
-        SequenceFileOutputFormat.class);
-      if (usersFile != null) {
-        prePartialMultiply2.getConfiguration().set(UserVectorSplitterMapper.USERS_FILE, usersFile);
+        Job prePartialMultiply2 = prepareJob(
+          userVectorPath, prePartialMultiplyPath2, SequenceFileInputFormat.class,
+          UserVectorSplitterMapper.class, VarIntWritable.class, VectorOrPrefWritable.class,
+          Reducer.class, VarIntWritable.class, VectorOrPrefWritable.class,
+          SequenceFileOutputFormat.class);
+        if (usersFile != null) {
+          prePartialMultiply2.getConfiguration().set(UserVectorSplitterMapper.USERS_FILE, usersFile);
+        }
+        prePartialMultiply2.getConfiguration().setInt(UserVectorSplitterMapper.MAX_PREFS_PER_USER_CONSIDERED,
+                                                      maxPrefsPerUserConsidered);
+        prePartialMultiply2.waitForCompletion(true);
+
+        Job partialMultiply = prepareJob(
+          new Path(prePartialMultiplyPath1 + "," + prePartialMultiplyPath2), partialMultiplyPath,
+          SequenceFileInputFormat.class,
+          Mapper.class, VarIntWritable.class, VectorOrPrefWritable.class,
+          ToVectorAndPrefReducer.class, VarIntWritable.class, VectorAndPrefsWritable.class,
+          SequenceFileOutputFormat.class);
+        partialMultiply.waitForCompletion(true);
       }
-      prePartialMultiply2.getConfiguration().setInt(UserVectorSplitterMapper.MAX_PREFS_PER_USER_CONSIDERED,
-                                                    maxPrefsPerUserConsidered);
-      prePartialMultiply2.waitForCompletion(true);
-
-      Job partialMultiply = prepareJob(
-        new Path(prePartialMultiplyPath1 + "," + prePartialMultiplyPath2), partialMultiplyPath,
-        SequenceFileInputFormat.class,
-        Mapper.class, VarIntWritable.class, VectorOrPrefWritable.class,
-        ToVectorAndPrefReducer.class, VarIntWritable.class, VectorAndPrefsWritable.class,
-        SequenceFileOutputFormat.class);
-      partialMultiply.waitForCompletion(true);
     }
 
-    if (shouldRunNextPhase(parsedArgs, currentPhase)) {
+    boolean recommended = shouldRunNextPhase(parsedArgs, currentPhase);
+    if (recommended) {
       Job aggregateAndRecommend = prepareJob(
           partialMultiplyPath, outputPath, SequenceFileInputFormat.class,
           PartialMultiplyMapper.class, VarLongWritable.class, VectorWritable.class,
           AggregateAndRecommendReducer.class, VarLongWritable.class, RecommendedItemsWritable.class,
-          TextOutputFormat.class);
+          precomputedStore == null ? TextOutputFormat.class : SequenceFileOutputFormat.class);
       Configuration jobConf = aggregateAndRecommend.getConfiguration();
       setIOSort(aggregateAndRecommend);
       aggregateAndRecommend.setCombinerClass(AggregateCombiner.class);
@@ -184,9 +269,49 @@ public final class RecommenderJob extends AbstractJob {
       aggregateAndRecommend.waitForCompletion(true);
     }
 
+    if ((precomputedStore != null) && recommended) {
+      if (!inputRead) {
+        // Resumed after the input was read; the user vectors were written soon after it was
+        snapshotTime = userVectorPath.getFileSystem(originalConf).getFileStatus(userVectorPath).getModificationTime();
+      }
+      writePrecomputedStore(outputPath, new File(precomputedStore), numRecommendations, snapshotTime, originalConf);
+    }
+
     return 0;
   }
 
+  /**
+   * Reads the recommendations written by the last phase, as a SequenceFile of user IDs and
+   * {@link RecommendedItemsWritable}, and writes them to a local store file.
+   *
+   * @param snapshotTime
+   *          when the input was read, so that users changed since are recomputed
+   */
+  private static void writePrecomputedStore(Path outputPath,
+                                            File storeFile,
+                                            int numRecommendations,
+                                            long snapshotTime,
+                                            Configuration conf) throws IOException {
+    PrecomputedRecommenderWriter writer = new PrecomputedRecommenderWriter(numRecommendations, snapshotTime);
+    FileSystem fs = outputPath.getFileSystem(conf);
+    VarLongWritable userID = new VarLongWritable();
+    RecommendedItemsWritable recommended = new RecommendedItemsWritable();
+    for (FileStatus status : fs.listStatus(outputPath)) {
+      if (!status.getPath().getName().startsWith("part-")) {
+        continue;
+      }
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, status.getPath(), conf);
+      try {
+        while (reader.next(userID, recommended)) {
+          writer.add(userID.get(), recommended.getRecommendedItems());
+        }
+      } finally {
+        IOUtils.quietClose(reader);
+      }
+    }
+    writer.write(storeFile);
+  }
+
   private static void setIOSort(JobContext job) {
     Configuration conf = job.getConfiguration();
     conf.setInt("io.sort.factor", 100);
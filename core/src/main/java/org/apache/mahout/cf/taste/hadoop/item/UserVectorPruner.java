@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop.item;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.mahout.cf.taste.hadoop.PreferenceSampler;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.list.IntArrayList;
+import org.apache.mahout.math.map.OpenIntIntHashMap;
+
+/**
+ * Limits the number of items per user vector that the co-occurrence mappers consider, keeping the items
+ * seen least often so far by this mapper. Shared by {@link UserVectorToCooccurrenceMapper} and
+ * {@link UserVectorToCooccurrenceStripesMapper}.
+ *
+ * Before that, users with more than {@link #MAX_PREFS_PER_USER} preferences are down-sampled, and items
+ * that this mapper has already seen {@link #MAX_PREFS_PER_ITEM} times are dropped from further user vectors.
+ */
+final class UserVectorPruner {
+
+  static final String MAX_PREFS_PER_USER = "maxPrefsPerUserSampled";
+  static final String MAX_PREFS_PER_ITEM = "maxPrefsPerItemSampled";
+
+  private final int maxCooccurrencesPerItemConsidered;
+  private final PreferenceSampler userSampler;
+  private final int maxPrefsPerItem;
+  private final OpenIntIntHashMap indexCounts = new OpenIntIntHashMap();
+  private int numUserPrefsSampledOut;
+  private int numItemPrefsCappedOut;
+  private int numUserPrefsSkipped;
+
+  UserVectorPruner(Configuration jobConf) {
+    this(jobConf.getInt(UserVectorToCooccurrenceMapper.MAX_COOCCURRENCES_PER_ITEM_CONSIDERED,
+                        UserVectorToCooccurrenceMapper.DEFAULT_MAX_COOCCURRENCES_PER_ITEM_CONSIDERED),
+         jobConf.getInt(MAX_PREFS_PER_USER, -1),
+         jobConf.getInt(MAX_PREFS_PER_ITEM, -1),
+         jobConf.getLong(PreferenceSampler.SAMPLING_SEED, PreferenceSampler.DEFAULT_SAMPLING_SEED));
+  }
+
+  UserVectorPruner(int maxCooccurrencesPerItemConsidered, int maxPrefsPerUser, int maxPrefsPerItem, long seed) {
+    this.maxCooccurrencesPerItemConsidered = maxCooccurrencesPerItemConsidered;
+    this.userSampler = new PreferenceSampler(maxPrefsPerUser, seed);
+    this.maxPrefsPerItem = maxPrefsPerItem;
+  }
+
+  /**
+   * Down-samples the vector, counts its items as seen, then prunes it in place.
+   *
+   * @return the vector
+   */
+  Vector countAndPrune(long userID, Vector userVector) {
+    numUserPrefsSampledOut = 0;
+    numItemPrefsCappedOut = 0;
+    numUserPrefsSkipped = 0;
+    maybeSampleUserVector(userID, userVector);
+    if (maxPrefsPerItem > 0) {
+      capItems(userVector);
+    }
+    countSeen(userVector);
+    return maybePruneUserVector(userVector);
+  }
+
+  /**
+   * @return number of preferences the last call to {@link #countAndPrune(long, Vector)} dropped because the
+   *  user had too many
+   */
+  int getNumUserPrefsSampledOut() {
+    return numUserPrefsSampledOut;
+  }
+
+  /**
+   * @return number of preferences the last call to {@link #countAndPrune(long, Vector)} dropped because their
+   *  item had been seen too often
+   */
+  int getNumItemPrefsCappedOut() {
+    return numItemPrefsCappedOut;
+  }
+
+  /**
+   * @return number of preferences the last call to {@link #countAndPrune(long, Vector)} dropped because their
+   *  items had been seen more often than the user's other items; not including those dropped before
+   */
+  int getNumUserPrefsSkipped() {
+    return numUserPrefsSkipped;
+  }
+
+  private void maybeSampleUserVector(long userID, Vector userVector) {
+    int numPrefs = userVector.getNumNondefaultElements();
+    if (!userSampler.isSampled(numPrefs)) {
+      return;
+    }
+    // iteration order of a sparse vector depends on its history, so sort the indexes to be reproducible
+    IntArrayList indexes = new IntArrayList(numPrefs);
+    Iterator<Vector.Element> it = userVector.iterateNonZero();
+    while (it.hasNext()) {
+      indexes.add(it.next().index());
+    }
+    indexes.quickSortFromTo(0, indexes.size() - 1);
+    int[] kept = userSampler.sample(userID, indexes.size());
+    int next = 0;
+    for (int i = 0; i < indexes.size(); i++) {
+      if (next < kept.length && kept[next] == i) {
+        next++;
+      } else {
+        userVector.setQuick(indexes.get(i), 0.0);
+        numUserPrefsSampledOut++;
+      }
+    }
+  }
+
+  private void capItems(Vector userVector) {
+    Iterator<Vector.Element> it = userVector.iterateNonZero();
+    while (it.hasNext()) {
+      Vector.Element e = it.next();
+      if (indexCounts.get(e.index()) >= maxPrefsPerItem) {
+        e.set(0.0);
+        numItemPrefsCappedOut++;
+      }
+    }
+  }
+
+  private Vector maybePruneUserVector(Vector userVector) {
+    int numPrefs = userVector.getNumNondefaultElements();
+    if (numPrefs <= maxCooccurrencesPerItemConsidered) {
+      return userVector;
+    }
+
+    PriorityQueue<Integer> smallCounts =
+        new PriorityQueue<Integer>(maxCooccurrencesPerItemConsidered + 1, Collections.reverseOrder());
+
+    Iterator<Vector.Element> it = userVector.iterateNonZero();
+    while (it.hasNext()) {
+      int count = indexCounts.get(it.next().index());
+      if (count > 0) {
+        if (smallCounts.size() < maxCooccurrencesPerItemConsidered) {
+          smallCounts.add(count);
+        } else if (count < smallCounts.peek()) {
+          smallCounts.add(count);
+          smallCounts.poll();
+        }
+      }
+    }
+    int greatestSmallCount = smallCounts.peek();
+
+    if (greatestSmallCount > 0) {
+      Iterator<Vector.Element> it2 = userVector.iterateNonZero();
+      while (it2.hasNext()) {
+        Vector.Element e = it2.next();
+        if (indexCounts.get(e.index()) > greatestSmallCount) {
+          e.set(0.0);
+        }
+      }
+      numUserPrefsSkipped = numPrefs - userVector.getNumNondefaultElements();
+    }
+
+    return userVector;
+  }
+
+  private void countSeen(Vector userVector) {
+    Iterator<Vector.Element> it = userVector.iterateNonZero();
+    while (it.hasNext()) {
+      int index = it.next().index();
+      indexCounts.adjustOrPutValue(index, 1, 1);
+    }
+  }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop.item;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.common.FileLineIterable;
+import org.apache.mahout.math.Vector;
+
+/**
+ * Decides which users get recommendations and which of their preferences are considered when they do, as
+ * configured by {@link UserVectorSplitterMapper#USERS_FILE} and
+ * {@link UserVectorSplitterMapper#MAX_PREFS_PER_USER_CONSIDERED}. Shared by {@link UserVectorSplitterMapper}
+ * and {@link PartialMultiplyJoinMapper}.
+ */
+final class UserVectorSplitter {
+
+  private final int maxPrefsPerUserConsidered;
+  private final FastIDSet usersToRecommendFor;
+
+  UserVectorSplitter(Configuration jobConf) throws IOException {
+    maxPrefsPerUserConsidered = jobConf.getInt(UserVectorSplitterMapper.MAX_PREFS_PER_USER_CONSIDERED,
+                                               UserVectorSplitterMapper.DEFAULT_MAX_PREFS_PER_USER_CONSIDERED);
+    String usersFilePathString = jobConf.get(UserVectorSplitterMapper.USERS_FILE);
+    if (usersFilePathString == null) {
+      usersToRecommendFor = null;
+    } else {
+      usersToRecommendFor = new FastIDSet();
+      FileSystem fs = FileSystem.get(jobConf);
+      Path usersFilePath = new Path(usersFilePathString).makeQualified(fs);
+      FSDataInputStream in = fs.open(usersFilePath);
+      for (String line : new FileLineIterable(in)) {
+        usersToRecommendFor.add(Long.parseLong(line));
+      }
+    }
+  }
+
+  boolean isRecommendedFor(long userID) {
+    return usersToRecommendFor == null || usersToRecommendFor.contains(userID);
+  }
+
+  Vector maybePruneUserVector(Vector userVector) {
+    if (userVector.getNumNondefaultElements() <= maxPrefsPerUserConsidered) {
+      return userVector;
+    }
+
+    float smallestLargeValue = findSmallestLargeValue(userVector);
+
+    // "Blank out" small-sized prefs to reduce the amount of partial products
+    // generated later. They're not zeroed, but NaN-ed, so they come through
+    // and can be used to exclude these items from prefs.
+    Iterator<Vector.Element> it = userVector.iterateNonZero();
+    while (it.hasNext()) {
+      Vector.Element e = it.next();
+      float absValue = Math.abs((float) e.get());
+      if (absValue < smallestLargeValue) {
+        e.set(Float.NaN);
+      }
+    }
+
+    return userVector;
+  }
+
+  private float findSmallestLargeValue(Vector userVector) {
+    PriorityQueue<Float> topPrefValues = new PriorityQueue<Float>(maxPrefsPerUserConsidered + 1);
+    Iterator<Vector.Element> it = userVector.iterateNonZero();
+    while (it.hasNext()) {
+      float absValue = Math.abs((float) it.next().get());
+      if (topPrefValues.size() < maxPrefsPerUserConsidered) {
+        topPrefValues.add(absValue);
+      } else {
+        if (absValue > topPrefValues.peek()) {
+          topPrefValues.add(absValue);
+          topPrefValues.poll();
+        }
+      }
+    }
+    return topPrefValues.peek();
+  }
+
+}
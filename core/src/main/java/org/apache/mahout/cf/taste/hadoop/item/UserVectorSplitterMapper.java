@@ -19,15 +19,8 @@ package org.apache.mahout.cf.taste.hadoop.item;
 
 import java.io.IOException;
 import java.util.Iterator;
-import java.util.PriorityQueue;
 
-import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FSDataInputStream;
-import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.Mapper;
-import org.apache.mahout.cf.taste.impl.common.FastIDSet;
-import org.apache.mahout.common.FileLineIterable;
 import org.apache.mahout.math.VarIntWritable;
 import org.apache.mahout.math.VarLongWritable;
 import org.apache.mahout.math.Vector;
@@ -40,27 +33,12 @@ public final class UserVectorSplitterMapper extends
   static final String MAX_PREFS_PER_USER_CONSIDERED = "maxPrefsPerUserConsidered";
   static final int DEFAULT_MAX_PREFS_PER_USER_CONSIDERED = 10;
 
-  private int maxPrefsPerUserConsidered;
-  private FastIDSet usersToRecommendFor;
+  private UserVectorSplitter splitter;
 
   @Override
   protected void setup(Context context) {
-    Configuration jobConf = context.getConfiguration();
-    maxPrefsPerUserConsidered = jobConf.getInt(MAX_PREFS_PER_USER_CONSIDERED,
-                                               DEFAULT_MAX_PREFS_PER_USER_CONSIDERED);
     try {
-      FileSystem fs = FileSystem.get(jobConf);
-      String usersFilePathString = jobConf.get(USERS_FILE);
-      if (usersFilePathString == null) {
-        usersToRecommendFor = null;
-      } else {
-        usersToRecommendFor = new FastIDSet();
-        Path usersFilePath = new Path(usersFilePathString).makeQualified(fs);
-        FSDataInputStream in = fs.open(usersFilePath);
-        for (String line : new FileLineIterable(in)) {
-          usersToRecommendFor.add(Long.parseLong(line));
-        }
-      }
+      splitter = new UserVectorSplitter(context.getConfiguration());
     } catch (IOException ioe) {
       throw new IllegalStateException(ioe);
     }
@@ -71,10 +49,10 @@ public final class UserVectorSplitterMapper extends
                      VectorWritable value,
                      Context context) throws IOException, InterruptedException {
     long userID = key.get();
-    if (usersToRecommendFor != null && !usersToRecommendFor.contains(userID)) {
+    if (!splitter.isRecommendedFor(userID)) {
       return;
     }
-    Vector userVector = maybePruneUserVector(value.get());
+    Vector userVector = splitter.maybePruneUserVector(value.get());
     Iterator<Vector.Element> it = userVector.iterateNonZero();
     VarIntWritable itemIndexWritable = new VarIntWritable();
     VectorOrPrefWritable vectorOrPref = new VectorOrPrefWritable();
@@ -86,43 +64,4 @@ public final class UserVectorSplitterMapper extends
     }
   }
 
-  private Vector maybePruneUserVector(Vector userVector) {
-    if (userVector.getNumNondefaultElements() <= maxPrefsPerUserConsidered) {
-      return userVector;
-    }
-
-    float smallestLargeValue = findSmallestLargeValue(userVector);
-
-    // "Blank out" small-sized prefs to reduce the amount of partial products
-    // generated later. They're not zeroed, but NaN-ed, so they come through
-    // and can be used to exclude these items from prefs.
-    Iterator<Vector.Element> it = userVector.iterateNonZero();
-    while (it.hasNext()) {
-      Vector.Element e = it.next();
-      float absValue = Math.abs((float) e.get());
-      if (absValue < smallestLargeValue) {
-        e.set(Float.NaN);
-      }
-    }
-
-    return userVector;
-  }
-
-  private float findSmallestLargeValue(Vector userVector) {
-    PriorityQueue<Float> topPrefValues = new PriorityQueue<Float>(maxPrefsPerUserConsidered + 1);
-    Iterator<Vector.Element> it = userVector.iterateNonZero();
-    while (it.hasNext()) {
-      float absValue = Math.abs((float) it.next().get());
-      if (topPrefValues.size() < maxPrefsPerUserConsidered) {
-        topPrefValues.add(absValue);
-      } else {
-        if (absValue > topPrefValues.peek()) {
-          topPrefValues.add(absValue);
-          topPrefValues.poll();
-        }
-      }
-    }
-    return topPrefValues.peek();
-  }
-
-}
\ No newline at end of file
+}
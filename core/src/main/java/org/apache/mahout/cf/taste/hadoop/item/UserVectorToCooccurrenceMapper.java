@@ -18,16 +18,13 @@
 package org.apache.mahout.cf.taste.hadoop.item;
 
 import java.io.IOException;
-import java.util.Collections;
 import java.util.Iterator;
-import java.util.PriorityQueue;
 
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.mahout.math.VarIntWritable;
 import org.apache.mahout.math.VarLongWritable;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.VectorWritable;
-import org.apache.mahout.math.map.OpenIntIntHashMap;
 
 public final class UserVectorToCooccurrenceMapper extends
     Mapper<VarLongWritable,VectorWritable,VarIntWritable,VarIntWritable> {
@@ -37,16 +34,15 @@ public final class UserVectorToCooccurrenceMapper extends
 
   private enum Counters {
     USER_PREFS_SKIPPED,
+    USER_PREFS_SAMPLED_OUT,
+    ITEM_PREFS_CAPPED_OUT,
   }
 
-  private int maxCooccurrencesPerItemConsidered;
-  private final OpenIntIntHashMap indexCounts = new OpenIntIntHashMap();
+  private UserVectorPruner pruner;
 
   @Override
   protected void setup(Context context) {
-    maxCooccurrencesPerItemConsidered =
-        context.getConfiguration().getInt(MAX_COOCCURRENCES_PER_ITEM_CONSIDERED,
-                                          DEFAULT_MAX_COOCCURRENCES_PER_ITEM_CONSIDERED);
+    pruner = new UserVectorPruner(context.getConfiguration());
   }
 
   @Override
@@ -55,13 +51,15 @@ public final class UserVectorToCooccurrenceMapper extends
                      Context context) throws IOException, InterruptedException {
 
     Vector userVector = userVectorWritable.get();
-    countSeen(userVector);
-
-    int originalSize = userVector.getNumNondefaultElements();
-    userVector = maybePruneUserVector(userVector);
-    int newSize = userVector.getNumNondefaultElements();
-    if (newSize < originalSize) {
-      context.getCounter(Counters.USER_PREFS_SKIPPED).increment(originalSize - newSize);
+    userVector = pruner.countAndPrune(userID.get(), userVector);
+    if (pruner.getNumUserPrefsSampledOut() > 0) {
+      context.getCounter(Counters.USER_PREFS_SAMPLED_OUT).increment(pruner.getNumUserPrefsSampledOut());
+    }
+    if (pruner.getNumItemPrefsCappedOut() > 0) {
+      context.getCounter(Counters.ITEM_PREFS_CAPPED_OUT).increment(pruner.getNumItemPrefsCappedOut());
+    }
+    if (pruner.getNumUserPrefsSkipped() > 0) {
+      context.getCounter(Counters.USER_PREFS_SKIPPED).increment(pruner.getNumUserPrefsSkipped());
     }
 
     Iterator<Vector.Element> it = userVector.iterateNonZero();
@@ -79,47 +77,4 @@ public final class UserVectorToCooccurrenceMapper extends
     }
   }
 
-  private Vector maybePruneUserVector(Vector userVector) {
-    if (userVector.getNumNondefaultElements() <= maxCooccurrencesPerItemConsidered) {
-      return userVector;
-    }
-
-    PriorityQueue<Integer> smallCounts =
-        new PriorityQueue<Integer>(maxCooccurrencesPerItemConsidered + 1, Collections.reverseOrder());
-
-    Iterator<Vector.Element> it = userVector.iterateNonZero();
-    while (it.hasNext()) {
-      int count = indexCounts.get(it.next().index());
-      if (count > 0) {
-        if (smallCounts.size() < maxCooccurrencesPerItemConsidered) {
-          smallCounts.add(count);
-        } else if (count < smallCounts.peek()) {
-          smallCounts.add(count);
-          smallCounts.poll();
-        }
-      }
-    }
-    int greatestSmallCount = smallCounts.peek();
-
-    if (greatestSmallCount > 0) {
-      Iterator<Vector.Element> it2 = userVector.iterateNonZero();
-      while (it2.hasNext()) {
-        Vector.Element e = it2.next();
-        if (indexCounts.get(e.index()) > greatestSmallCount) {
-          e.set(0.0);
-        }
-      }
-    }
-
-    return userVector;
-  }
-
-  private void countSeen(Vector userVector) {
-    Iterator<Vector.Element> it = userVector.iterateNonZero();
-    while (it.hasNext()) {
-      int index = it.next().index();
-      indexCounts.adjustOrPutValue(index, 1, 1);
-    }
-  }
-  
 }
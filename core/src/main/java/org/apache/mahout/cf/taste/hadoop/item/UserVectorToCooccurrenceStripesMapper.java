@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop.item;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.VarIntWritable;
+import org.apache.mahout.math.VarLongWritable;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+import org.apache.mahout.math.list.IntArrayList;
+import org.apache.mahout.math.map.OpenIntIntHashMap;
+import org.apache.mahout.math.map.OpenIntObjectHashMap;
+
+/**
+ * <p>
+ * Like {@link UserVectorToCooccurrenceMapper}, but rather than emitting one record per pair of co-occurring
+ * items, adds each pair to a "stripe": a partial row of the co-occurrence matrix, kept per item in memory.
+ * Stripes are emitted as sparse vectors once they hold {@link #MAX_BUFFERED_COOCCURRENCES} distinct pairs
+ * between them, and at the end of the input, and are summed by {@link CooccurrenceStripesReducer}.
+ * </p>
+ *
+ * <p>
+ * Each item co-occurs with many others across the users of one split, so this emits far fewer, and far fewer
+ * bytes of, records than there are pairs, and the map output spills less often.
+ * </p>
+ */
+public final class UserVectorToCooccurrenceStripesMapper extends
+    Mapper<VarLongWritable,VectorWritable,VarIntWritable,VectorWritable> {
+
+  static final String MAX_BUFFERED_COOCCURRENCES = "maxBufferedCooccurrences";
+  static final int DEFAULT_MAX_BUFFERED_COOCCURRENCES = 1000000;
+
+  private enum Counters {
+    USER_PREFS_SKIPPED,
+    USER_PREFS_SAMPLED_OUT,
+    ITEM_PREFS_CAPPED_OUT,
+    STRIPE_FLUSHES,
+  }
+
+  private UserVectorPruner pruner;
+  private int maxBufferedCooccurrences;
+  private final OpenIntObjectHashMap<OpenIntIntHashMap> stripes = new OpenIntObjectHashMap<OpenIntIntHashMap>();
+  private int numBufferedCooccurrences;
+
+  @Override
+  protected void setup(Context context) {
+    pruner = new UserVectorPruner(context.getConfiguration());
+    maxBufferedCooccurrences =
+        context.getConfiguration().getInt(MAX_BUFFERED_COOCCURRENCES, DEFAULT_MAX_BUFFERED_COOCCURRENCES);
+  }
+
+  @Override
+  protected void map(VarLongWritable userID,
+                     VectorWritable userVectorWritable,
+                     Context context) throws IOException, InterruptedException {
+
+    Vector userVector = userVectorWritable.get();
+    userVector = pruner.countAndPrune(userID.get(), userVector);
+    if (pruner.getNumUserPrefsSampledOut() > 0) {
+      context.getCounter(Counters.USER_PREFS_SAMPLED_OUT).increment(pruner.getNumUserPrefsSampledOut());
+    }
+    if (pruner.getNumItemPrefsCappedOut() > 0) {
+      context.getCounter(Counters.ITEM_PREFS_CAPPED_OUT).increment(pruner.getNumItemPrefsCappedOut());
+    }
+    if (pruner.getNumUserPrefsSkipped() > 0) {
+      context.getCounter(Counters.USER_PREFS_SKIPPED).increment(pruner.getNumUserPrefsSkipped());
+    }
+
+    IntArrayList indexes = new IntArrayList(userVector.getNumNondefaultElements());
+    Iterator<Vector.Element> it = userVector.iterateNonZero();
+    while (it.hasNext()) {
+      indexes.add(it.next().index());
+    }
+    int newSize = indexes.size();
+
+    for (int i = 0; i < newSize; i++) {
+      int index1 = indexes.get(i);
+      OpenIntIntHashMap stripe = stripes.get(index1);
+      if (stripe == null) {
+        stripe = new OpenIntIntHashMap();
+        stripes.put(index1, stripe);
+      }
+      for (int j = 0; j < newSize; j++) {
+        if (stripe.adjustOrPutValue(indexes.get(j), 1, 1) == 1) {
+          numBufferedCooccurrences++;
+        }
+      }
+    }
+
+    if (numBufferedCooccurrences >= maxBufferedCooccurrences) {
+      flush(context);
+    }
+  }
+
+  @Override
+  protected void cleanup(Context context) throws IOException, InterruptedException {
+    flush(context);
+  }
+
+  private void flush(Context context) throws IOException, InterruptedException {
+    if (stripes.isEmpty()) {
+      return;
+    }
+    VarIntWritable itemIndex = new VarIntWritable();
+    IntArrayList itemIndexes = new IntArrayList(stripes.size());
+    stripes.keys(itemIndexes);
+    IntArrayList otherIndexes = new IntArrayList();
+    for (int i = 0; i < itemIndexes.size(); i++) {
+      int index1 = itemIndexes.get(i);
+      OpenIntIntHashMap stripe = stripes.get(index1);
+      stripe.keys(otherIndexes);
+      Vector cooccurrenceRow = new RandomAccessSparseVector(Integer.MAX_VALUE, otherIndexes.size());
+      for (int j = 0; j < otherIndexes.size(); j++) {
+        int index2 = otherIndexes.get(j);
+        cooccurrenceRow.setQuick(index2, stripe.get(index2));
+      }
+      itemIndex.set(index1);
+      VectorWritable vw = new VectorWritable(cooccurrenceRow);
+      vw.setWritesLaxPrecision(true);
+      context.write(itemIndex, vw);
+    }
+    stripes.clear();
+    numBufferedCooccurrences = 0;
+    context.getCounter(Counters.STRIPE_FLUSHES).increment(1);
+  }
+
+}
@@ -21,17 +21,21 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.cli2.Option;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
@@ -41,9 +45,11 @@ import org.apache.hadoop.util.ToolRunner;
 import org.apache.mahout.cf.taste.hadoop.EntityEntityWritable;
 import org.apache.mahout.cf.taste.hadoop.EntityPrefWritable;
 import org.apache.mahout.cf.taste.hadoop.EntityPrefWritableArrayWritable;
+import org.apache.mahout.cf.taste.hadoop.PreferenceSampler;
 import org.apache.mahout.cf.taste.hadoop.ToUserPrefsMapper;
 import org.apache.mahout.cf.taste.hadoop.similarity.CoRating;
 import org.apache.mahout.cf.taste.hadoop.similarity.DistributedItemSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity.ItemItemSimilarity;
 import org.apache.mahout.common.AbstractJob;
 import org.apache.mahout.math.VarIntWritable;
 import org.apache.mahout.math.VarLongWritable;
@@ -98,6 +104,14 @@ import org.apache.mahout.math.VarLongWritable;
  * <li>-Dmapred.output.dir=(path): output path where the computations output should go</li>
  * <li>--similarityClassname (classname): an implemenation of {@link DistributedItemSimilarity} used to compute the
  * similarity</li>
+ * <li>--similarityThreshold (double): discard item pairs with a similarity lower than this (optional)</li>
+ * <li>--maxSimilaritiesPerItem (integer): keep only this many of the most similar items per item, and write
+ * them as {@link SimilarItemsWritable}s to a sequence file, which {@link #readTopSimilarities(Configuration, Path)}
+ * loads for an in-memory item similarity. If not set, all item pairs are written out as text (optional)</li>
+ * <li>--maxPrefsPerUser (integer): down-sample the preferences of users with more than this many, before pairing
+ * up their items (optional)</li>
+ * <li>--maxPrefsPerItem (integer): down-sample the preferences for items with more than this many (optional)</li>
+ * <li>--samplingSeed (long): seed for the down-sampling; the same seed gives the same samples (optional)</li>
  * </ol>
  *
  *
@@ -115,10 +129,35 @@ public final class ItemSimilarityJob extends AbstractJob {
   public static final String NUMBER_OF_USERS =
     "org.apache.mahout.cf.taste.hadoop.similarity.item.ItemSimilarityJob.numberOfUsers";
 
+  public static final String SIMILARITY_THRESHOLD =
+    "org.apache.mahout.cf.taste.hadoop.similarity.item.ItemSimilarityJob.similarityThreshold";
+
+  public static final String MAX_SIMILARITIES_PER_ITEM =
+    "org.apache.mahout.cf.taste.hadoop.similarity.item.ItemSimilarityJob.maxSimilaritiesPerItem";
+
+  public static final String MAX_PREFS_PER_USER =
+    "org.apache.mahout.cf.taste.hadoop.similarity.item.ItemSimilarityJob.maxPrefsPerUser";
+
+  public static final String MAX_PREFS_PER_ITEM =
+    "org.apache.mahout.cf.taste.hadoop.similarity.item.ItemSimilarityJob.maxPrefsPerItem";
+
+  private static final PathFilter PARTS_FILTER = new PathFilter() {
+    @Override
+    public boolean accept(Path path) {
+      return path.getName().startsWith("part-");
+    }
+  };
+
   @Override
   public int run(String[] args) throws IOException, ClassNotFoundException, InterruptedException {
 
     addOption("similarityClassname", "s", "Name of distributed similarity class to instantiate");
+    addOption("similarityThreshold", null, "Discard item pairs with a similarity lower than this", false);
+    addOption("maxSimilaritiesPerItem", null, "Keep only this many of the most similar items per item", false);
+    addOption("maxPrefsPerUser", null, "Down-sample users with more preferences than this", false);
+    addOption("maxPrefsPerItem", null, "Down-sample items with more preferences than this", false);
+    addOption("samplingSeed", null, "Seed for down-sampling users and items",
+        String.valueOf(PreferenceSampler.DEFAULT_SAMPLING_SEED));
 
     Map<String,String> parsedArgs = parseArguments(args);
     if (parsedArgs == null) {
@@ -128,6 +167,14 @@ public final class ItemSimilarityJob extends AbstractJob {
     Configuration originalConf = getConf();
 
     String distributedSimilarityClassname = parsedArgs.get("--similarityClassname");
+    String similarityThreshold = parsedArgs.get("--similarityThreshold");
+    String maxSimilaritiesPerItemString = parsedArgs.get("--maxSimilaritiesPerItem");
+    int maxSimilaritiesPerItem =
+        maxSimilaritiesPerItemString == null ? -1 : Integer.parseInt(maxSimilaritiesPerItemString);
+    boolean pruneSimilarities = maxSimilaritiesPerItem > 0;
+    String maxPrefsPerUser = parsedArgs.get("--maxPrefsPerUser");
+    String maxPrefsPerItem = parsedArgs.get("--maxPrefsPerItem");
+    long samplingSeed = Long.parseLong(parsedArgs.get("--samplingSeed"));
 
     Path inputPath = new Path(originalConf.get("mapred.input.dir"));
     Path outputPath = new Path(originalConf.get("mapred.output.dir"));
@@ -136,6 +183,7 @@ public final class ItemSimilarityJob extends AbstractJob {
     Path countUsersPath = new Path(tempDirPath, "countUsers");
     Path itemVectorsPath = new Path(tempDirPath, "itemVectors");
     Path userVectorsPath = new Path(tempDirPath, "userVectors");
+    Path pairwiseSimilarityPath = pruneSimilarities ? new Path(tempDirPath, "pairwiseSimilarity") : outputPath;
 
     AtomicInteger currentPhase = new AtomicInteger();
 
@@ -181,13 +229,21 @@ public final class ItemSimilarityJob extends AbstractJob {
                                    VarLongWritable.class,
                                    ItemPrefWithItemVectorWeightArrayWritable.class,
                                    SequenceFileOutputFormat.class);
-      userVectors.getConfiguration().set(DISTRIBUTED_SIMILARITY_CLASSNAME, distributedSimilarityClassname);
+      Configuration conf = userVectors.getConfiguration();
+      conf.set(DISTRIBUTED_SIMILARITY_CLASSNAME, distributedSimilarityClassname);
+      if (maxPrefsPerUser != null) {
+        conf.setInt(MAX_PREFS_PER_USER, Integer.parseInt(maxPrefsPerUser));
+      }
+      if (maxPrefsPerItem != null) {
+        conf.setInt(MAX_PREFS_PER_ITEM, Integer.parseInt(maxPrefsPerItem));
+      }
+      conf.setLong(PreferenceSampler.SAMPLING_SEED, samplingSeed);
       userVectors.waitForCompletion(true);
     }
 
     if (shouldRunNextPhase(parsedArgs, currentPhase)) {
       Job similarity = prepareJob(userVectorsPath,
-                                  outputPath,
+                                  pairwiseSimilarityPath,
                                   SequenceFileInputFormat.class,
                                   CopreferredItemsMapper.class,
                                   ItemPairWritable.class,
@@ -195,14 +251,34 @@ public final class ItemSimilarityJob extends AbstractJob {
                                   SimilarityReducer.class,
                                   EntityEntityWritable.class,
                                   DoubleWritable.class,
-                                  TextOutputFormat.class);
+                                  pruneSimilarities ? SequenceFileOutputFormat.class : TextOutputFormat.class);
       Configuration conf = similarity.getConfiguration();
       int numberOfUsers = readNumberOfUsers(conf, countUsersPath);
       conf.set(DISTRIBUTED_SIMILARITY_CLASSNAME, distributedSimilarityClassname);
       conf.setInt(NUMBER_OF_USERS, numberOfUsers);
+      if (similarityThreshold != null) {
+        conf.set(SIMILARITY_THRESHOLD, similarityThreshold);
+      }
       similarity.waitForCompletion(true);
     }
 
+    if (shouldRunNextPhase(parsedArgs, currentPhase) && pruneSimilarities) {
+      /* keep only the most similar items per item */
+      Job topSimilarities = prepareJob(pairwiseSimilarityPath,
+                                       outputPath,
+                                       SequenceFileInputFormat.class,
+                                       TopSimilarItemsMapper.class,
+                                       VarLongWritable.class,
+                                       EntityPrefWritable.class,
+                                       TopSimilarItemsReducer.class,
+                                       VarLongWritable.class,
+                                       SimilarItemsWritable.class,
+                                       SequenceFileOutputFormat.class);
+      topSimilarities.setCombinerClass(TopSimilarItemsCombiner.class);
+      topSimilarities.getConfiguration().setInt(MAX_SIMILARITIES_PER_ITEM, maxSimilaritiesPerItem);
+      topSimilarities.waitForCompletion(true);
+    }
+
     return 0;
   }
 
@@ -212,12 +288,7 @@ public final class ItemSimilarityJob extends AbstractJob {
 
   static int readNumberOfUsers(Configuration conf, Path outputDir) throws IOException {
     FileSystem fs = FileSystem.get(conf);
-    Path outputFile = fs.listStatus(outputDir, new PathFilter() {
-      @Override
-      public boolean accept(Path path) {
-        return path.getName().startsWith("part-");
-      }
-    })[0].getPath();
+    Path outputFile = fs.listStatus(outputDir, PARTS_FILTER)[0].getPath();
     InputStream in = null;
     try  {
       in = fs.open(outputFile);
@@ -229,6 +300,33 @@ public final class ItemSimilarityJob extends AbstractJob {
     }
   }
 
+  /**
+   * Reads the most similar items per item, as written when --maxSimilaritiesPerItem is set, into a form that
+   * can be passed to {@link org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity} or
+   * {@link org.apache.mahout.cf.taste.impl.recommender.ItemNeighborhoodIndex}.
+   */
+  public static List<ItemItemSimilarity> readTopSimilarities(Configuration conf, Path outputDir) throws IOException {
+    FileSystem fs = FileSystem.get(conf);
+    List<ItemItemSimilarity> similarities = new ArrayList<ItemItemSimilarity>();
+    VarLongWritable itemID = new VarLongWritable();
+    SimilarItemsWritable similarItems = new SimilarItemsWritable();
+    for (FileStatus status : fs.listStatus(outputDir, PARTS_FILTER)) {
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, status.getPath().makeQualified(fs), conf);
+      try {
+        while (reader.next(itemID, similarItems)) {
+          long[] itemIDs = similarItems.getItemIDs();
+          float[] values = similarItems.getSimilarities();
+          for (int i = 0; i < itemIDs.length; i++) {
+            similarities.add(new ItemItemSimilarity(itemID.get(), itemIDs[i], values[i]));
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    return similarities;
+  }
+
   static DistributedItemSimilarity instantiateSimilarity(String classname) {
     try {
       return (DistributedItemSimilarity) Class.forName(classname).newInstance();
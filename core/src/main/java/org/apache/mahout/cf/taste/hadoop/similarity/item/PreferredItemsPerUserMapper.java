@@ -18,6 +18,8 @@
 package org.apache.mahout.cf.taste.hadoop.similarity.item;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -25,24 +27,43 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.mahout.cf.taste.hadoop.EntityPrefWritable;
 import org.apache.mahout.cf.taste.hadoop.EntityPrefWritableArrayWritable;
+import org.apache.mahout.cf.taste.hadoop.PreferenceSampler;
 import org.apache.mahout.cf.taste.hadoop.similarity.DistributedItemSimilarity;
 import org.apache.mahout.common.iterator.IteratorIterable;
 import org.apache.mahout.math.VarLongWritable;
 
 /**
  * for each item-vector, we compute its weight here and map out all entries with the user as key,
- * so we can create the user-vectors in the reducer
+ * so we can create the user-vectors in the reducer. Item-vectors with more than
+ * {@link ItemSimilarityJob#MAX_PREFS_PER_ITEM} entries are down-sampled first.
  */
 public final class PreferredItemsPerUserMapper extends
     Mapper<VarLongWritable,EntityPrefWritableArrayWritable,VarLongWritable,ItemPrefWithItemVectorWeightWritable> {
 
+  private enum Counters {
+    ITEMS_SAMPLED,
+    ITEM_PREFS_DROPPED,
+  }
+
+  private static final Comparator<EntityPrefWritable> BY_USER_ID = new Comparator<EntityPrefWritable>() {
+    @Override
+    public int compare(EntityPrefWritable a, EntityPrefWritable b) {
+      long userA = a.getID();
+      long userB = b.getID();
+      return userA < userB ? -1 : userA > userB ? 1 : 0;
+    }
+  };
+
   private DistributedItemSimilarity distributedSimilarity;
+  private PreferenceSampler sampler = new PreferenceSampler(-1, PreferenceSampler.DEFAULT_SAMPLING_SEED);
 
   @Override
   protected void setup(Context context) {
     Configuration jobConf = context.getConfiguration();
     distributedSimilarity =
       ItemSimilarityJob.instantiateSimilarity(jobConf.get(ItemSimilarityJob.DISTRIBUTED_SIMILARITY_CLASSNAME));
+    sampler = new PreferenceSampler(jobConf.getInt(ItemSimilarityJob.MAX_PREFS_PER_ITEM, -1),
+        jobConf.getLong(PreferenceSampler.SAMPLING_SEED, PreferenceSampler.DEFAULT_SAMPLING_SEED));
   }
 
   @Override
@@ -52,6 +73,21 @@ public final class PreferredItemsPerUserMapper extends
 
     EntityPrefWritable[] userPrefs = userPrefsArray.getPrefs();
 
+    if (sampler.isSampled(userPrefs.length)) {
+      // ToItemVectorReducer collects the array from a set, whose order depends on hashing, so sort first to
+      // make the sample reproducible
+      userPrefs = userPrefs.clone();
+      Arrays.sort(userPrefs, BY_USER_ID);
+      int[] kept = sampler.sample(item.get(), userPrefs.length);
+      EntityPrefWritable[] sampledUserPrefs = new EntityPrefWritable[kept.length];
+      for (int i = 0; i < kept.length; i++) {
+        sampledUserPrefs[i] = userPrefs[kept[i]];
+      }
+      context.getCounter(Counters.ITEMS_SAMPLED).increment(1);
+      context.getCounter(Counters.ITEM_PREFS_DROPPED).increment(userPrefs.length - kept.length);
+      userPrefs = sampledUserPrefs;
+    }
+
     double weight = distributedSimilarity.weightOfItemVector(
         new IteratorIterable<Float>(new UserPrefsIterator(userPrefs)));
 
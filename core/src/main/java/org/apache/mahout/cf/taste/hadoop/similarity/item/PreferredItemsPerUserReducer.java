@@ -18,16 +18,48 @@
 package org.apache.mahout.cf.taste.hadoop.similarity.item;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.mahout.cf.taste.hadoop.PreferenceSampler;
 import org.apache.mahout.math.VarLongWritable;
 
+/**
+ * collects the user-vectors; those with more than {@link ItemSimilarityJob#MAX_PREFS_PER_USER} entries are
+ * down-sampled, as they would otherwise produce a quadratic number of item pairs in the next step
+ */
 public final class PreferredItemsPerUserReducer extends
     Reducer<VarLongWritable,ItemPrefWithItemVectorWeightWritable,
             VarLongWritable,ItemPrefWithItemVectorWeightArrayWritable> {
 
+  private enum Counters {
+    USERS_SAMPLED,
+    USER_PREFS_DROPPED,
+  }
+
+  private static final Comparator<ItemPrefWithItemVectorWeightWritable> BY_ITEM_ID =
+      new Comparator<ItemPrefWithItemVectorWeightWritable>() {
+        @Override
+        public int compare(ItemPrefWithItemVectorWeightWritable a, ItemPrefWithItemVectorWeightWritable b) {
+          long itemA = a.getItemID();
+          long itemB = b.getItemID();
+          return itemA < itemB ? -1 : itemA > itemB ? 1 : 0;
+        }
+      };
+
+  private PreferenceSampler sampler = new PreferenceSampler(-1, PreferenceSampler.DEFAULT_SAMPLING_SEED);
+
+  @Override
+  protected void setup(Context context) {
+    Configuration jobConf = context.getConfiguration();
+    sampler = new PreferenceSampler(jobConf.getInt(ItemSimilarityJob.MAX_PREFS_PER_USER, -1),
+        jobConf.getLong(PreferenceSampler.SAMPLING_SEED, PreferenceSampler.DEFAULT_SAMPLING_SEED));
+  }
+
   @Override
   protected void reduce(VarLongWritable user,
                         Iterable<ItemPrefWithItemVectorWeightWritable> itemPrefs,
@@ -40,9 +72,23 @@ public final class PreferredItemsPerUserReducer extends
       itemPrefsWithItemVectorWeight.add(writable.clone());
     }
 
-    context.write(user, new ItemPrefWithItemVectorWeightArrayWritable(
-        itemPrefsWithItemVectorWeight.toArray(
-        new ItemPrefWithItemVectorWeightWritable[itemPrefsWithItemVectorWeight.size()])));
+    ItemPrefWithItemVectorWeightWritable[] userVector = itemPrefsWithItemVectorWeight.toArray(
+        new ItemPrefWithItemVectorWeightWritable[itemPrefsWithItemVectorWeight.size()]);
+
+    if (sampler.isSampled(userVector.length)) {
+      // the order of the set depends on hashing, so sort first to make the sample reproducible
+      Arrays.sort(userVector, BY_ITEM_ID);
+      int[] kept = sampler.sample(user.get(), userVector.length);
+      ItemPrefWithItemVectorWeightWritable[] sampledUserVector = new ItemPrefWithItemVectorWeightWritable[kept.length];
+      for (int i = 0; i < kept.length; i++) {
+        sampledUserVector[i] = userVector[kept[i]];
+      }
+      context.getCounter(Counters.USERS_SAMPLED).increment(1);
+      context.getCounter(Counters.USER_PREFS_DROPPED).increment(userVector.length - kept.length);
+      userVector = sampledUserVector;
+    }
+
+    context.write(user, new ItemPrefWithItemVectorWeightArrayWritable(userVector));
   }
 
 
@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop.similarity.item;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.mahout.math.Varint;
+
+/**
+ * A {@link Writable} holding the most similar items to one item, as parallel arrays of item IDs and
+ * similarities, most similar first. IDs are written as variable-length longs and similarities as floats.
+ */
+public final class SimilarItemsWritable implements Writable {
+
+  private long[] itemIDs;
+  private float[] similarities;
+
+  public SimilarItemsWritable() {
+  }
+
+  public SimilarItemsWritable(long[] itemIDs, float[] similarities) {
+    set(itemIDs, similarities);
+  }
+
+  public long[] getItemIDs() {
+    return itemIDs;
+  }
+
+  public float[] getSimilarities() {
+    return similarities;
+  }
+
+  public void set(long[] itemIDs, float[] similarities) {
+    if (itemIDs.length != similarities.length) {
+      throw new IllegalArgumentException("itemIDs and similarities differ in length");
+    }
+    this.itemIDs = itemIDs;
+    this.similarities = similarities;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    Varint.writeUnsignedVarInt(itemIDs.length, out);
+    for (int i = 0; i < itemIDs.length; i++) {
+      Varint.writeSignedVarLong(itemIDs[i], out);
+      out.writeFloat(similarities[i]);
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    int size = Varint.readUnsignedVarInt(in);
+    itemIDs = new long[size];
+    similarities = new float[size];
+    for (int i = 0; i < size; i++) {
+      itemIDs[i] = Varint.readSignedVarLong(in);
+      similarities[i] = in.readFloat();
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(itemIDs) ^ Arrays.hashCode(similarities);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof SimilarItemsWritable)) {
+      return false;
+    }
+    SimilarItemsWritable other = (SimilarItemsWritable) o;
+    return Arrays.equals(itemIDs, other.itemIDs) && Arrays.equals(similarities, other.similarities);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder(200);
+    result.append('[');
+    for (int i = 0; i < itemIDs.length; i++) {
+      if (i > 0) {
+        result.append(',');
+      }
+      result.append(itemIDs[i]).append(':').append(similarities[i]);
+    }
+    result.append(']');
+    return result.toString();
+  }
+
+}
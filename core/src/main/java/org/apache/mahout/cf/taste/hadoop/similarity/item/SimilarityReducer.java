@@ -29,12 +29,14 @@ import org.apache.mahout.cf.taste.hadoop.similarity.DistributedItemSimilarity;
 /**
  * Finally compute the similarity for each item-pair, that has been corated at least once.
  * Computation is done with an external implementation of {@link DistributedItemSimilarity}.
+ * Pairs less similar than {@link ItemSimilarityJob#SIMILARITY_THRESHOLD}, if set, are not written.
  */
 public final class SimilarityReducer extends
     Reducer<ItemPairWritable,CoRating,EntityEntityWritable,DoubleWritable> {
 
   private DistributedItemSimilarity distributedItemSimilarity;
   private int numberOfUsers;
+  private double threshold;
 
   @Override
   protected void setup(Context context) {
@@ -45,6 +47,8 @@ public final class SimilarityReducer extends
     if (numberOfUsers <= 0) {
       throw new IllegalStateException("Number of users was not set correctly");
     }
+    String thresholdString = jobConf.get(ItemSimilarityJob.SIMILARITY_THRESHOLD);
+    threshold = thresholdString == null ? Double.NEGATIVE_INFINITY : Double.parseDouble(thresholdString);
   }
 
   @Override
@@ -55,7 +59,7 @@ public final class SimilarityReducer extends
     double similarity =
       distributedItemSimilarity.similarity(coRatings, pair.getItemAWeight(), pair.getItemBWeight(), numberOfUsers);
 
-    if (!Double.isNaN(similarity)) {
+    if (!Double.isNaN(similarity) && similarity >= threshold) {
       context.write(pair.getItemItemWritable(), new DoubleWritable(similarity));
     }
   }
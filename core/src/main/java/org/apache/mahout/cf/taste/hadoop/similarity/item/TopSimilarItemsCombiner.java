@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop.similarity.item;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.mahout.cf.taste.hadoop.EntityPrefWritable;
+import org.apache.mahout.math.VarLongWritable;
+
+/**
+ * Passes on only the most similar items to each item seen by one mapper, so that at most
+ * {@link ItemSimilarityJob#MAX_SIMILARITIES_PER_ITEM} of them per item are shuffled to
+ * {@link TopSimilarItemsReducer}.
+ */
+public final class TopSimilarItemsCombiner extends
+    Reducer<VarLongWritable,EntityPrefWritable,VarLongWritable,EntityPrefWritable> {
+
+  private int maxSimilaritiesPerItem;
+
+  @Override
+  protected void setup(Context context) {
+    maxSimilaritiesPerItem = TopSimilarItemsReducer.readMaxSimilaritiesPerItem(context.getConfiguration());
+  }
+
+  @Override
+  protected void reduce(VarLongWritable itemID,
+                        Iterable<EntityPrefWritable> similarItems,
+                        Context context) throws IOException, InterruptedException {
+    List<EntityPrefWritable> topSimilarItems =
+        TopSimilarItemsReducer.topSimilarItems(similarItems, maxSimilaritiesPerItem);
+    for (EntityPrefWritable similarItem : topSimilarItems) {
+      context.write(itemID, similarItem);
+    }
+  }
+
+}
@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop.similarity.item;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.mahout.cf.taste.hadoop.EntityEntityWritable;
+import org.apache.mahout.cf.taste.hadoop.EntityPrefWritable;
+import org.apache.mahout.math.VarLongWritable;
+
+/**
+ * Emits each item pair computed by {@link SimilarityReducer} once for each of its items, so that every item
+ * sees all of its similar items in {@link TopSimilarItemsReducer}.
+ */
+public final class TopSimilarItemsMapper extends
+    Mapper<EntityEntityWritable,DoubleWritable,VarLongWritable,EntityPrefWritable> {
+
+  private final VarLongWritable itemIDWritable = new VarLongWritable();
+  private final EntityPrefWritable similarItemWritable = new EntityPrefWritable();
+
+  @Override
+  protected void map(EntityEntityWritable pair,
+                     DoubleWritable similarity,
+                     Context context) throws IOException, InterruptedException {
+    float value = (float) similarity.get();
+    itemIDWritable.set(pair.getAID());
+    similarItemWritable.set(pair.getBID(), value);
+    context.write(itemIDWritable, similarItemWritable);
+    itemIDWritable.set(pair.getBID());
+    similarItemWritable.set(pair.getAID(), value);
+    context.write(itemIDWritable, similarItemWritable);
+  }
+
+}
@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop.similarity.item;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.mahout.cf.taste.hadoop.EntityPrefWritable;
+import org.apache.mahout.math.VarLongWritable;
+
+/**
+ * Keeps only the {@link ItemSimilarityJob#MAX_SIMILARITIES_PER_ITEM} most similar items to each item, using a
+ * bounded heap, and writes them as a {@link SimilarItemsWritable}, most similar first.
+ */
+public final class TopSimilarItemsReducer extends
+    Reducer<VarLongWritable,EntityPrefWritable,VarLongWritable,SimilarItemsWritable> {
+
+  private static final Comparator<EntityPrefWritable> BY_SIMILARITY = new Comparator<EntityPrefWritable>() {
+    @Override
+    public int compare(EntityPrefWritable a, EntityPrefWritable b) {
+      float similarityA = a.getPrefValue();
+      float similarityB = b.getPrefValue();
+      return similarityA < similarityB ? -1 : similarityA > similarityB ? 1 : 0;
+    }
+  };
+
+  private int maxSimilaritiesPerItem;
+
+  @Override
+  protected void setup(Context context) {
+    maxSimilaritiesPerItem = readMaxSimilaritiesPerItem(context.getConfiguration());
+  }
+
+  @Override
+  protected void reduce(VarLongWritable itemID,
+                        Iterable<EntityPrefWritable> similarItems,
+                        Context context) throws IOException, InterruptedException {
+    List<EntityPrefWritable> topSimilarItems = topSimilarItems(similarItems, maxSimilaritiesPerItem);
+    int size = topSimilarItems.size();
+    if (size == 0) {
+      return;
+    }
+    long[] itemIDs = new long[size];
+    float[] similarities = new float[size];
+    for (int i = 0; i < size; i++) {
+      EntityPrefWritable similarItem = topSimilarItems.get(i);
+      itemIDs[i] = similarItem.getID();
+      similarities[i] = similarItem.getPrefValue();
+    }
+    context.write(itemID, new SimilarItemsWritable(itemIDs, similarities));
+  }
+
+  static int readMaxSimilaritiesPerItem(Configuration conf) {
+    int maxSimilaritiesPerItem = conf.getInt(ItemSimilarityJob.MAX_SIMILARITIES_PER_ITEM, -1);
+    if (maxSimilaritiesPerItem <= 0) {
+      throw new IllegalStateException("Maximum number of similarities per item was not set correctly");
+    }
+    return maxSimilaritiesPerItem;
+  }
+
+  /**
+   * @return the most similar of the given items, at most howMany of them, most similar first
+   */
+  static List<EntityPrefWritable> topSimilarItems(Iterable<EntityPrefWritable> similarItems, int howMany) {
+    Queue<EntityPrefWritable> topItems = new PriorityQueue<EntityPrefWritable>(howMany + 1, BY_SIMILARITY);
+    for (EntityPrefWritable similarItem : similarItems) {
+      if (topItems.size() < howMany) {
+        // The framework reuses the value object, so keep a copy
+        topItems.add(similarItem.clone());
+      } else if (similarItem.getPrefValue() > topItems.peek().getPrefValue()) {
+        topItems.add(similarItem.clone());
+        topItems.poll();
+      }
+    }
+    List<EntityPrefWritable> result = new ArrayList<EntityPrefWritable>(topItems);
+    Collections.sort(result, Collections.reverseOrder(BY_SIMILARITY));
+    return result;
+  }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Refreshes a {@link Refreshable}, typically the {@link org.apache.mahout.cf.taste.recommender.Recommender}
+ * at the top of a graph of components, on a background thread. {@link #refresh(Collection)} returns at once,
+ * and the components keep answering requests from their current state until each has built its new state and
+ * swapped it in. The whole graph is refreshed with one collection of already-refreshed components, so that
+ * a component shared by several others is refreshed once.
+ * </p>
+ *
+ * <p>
+ * Requests to refresh while one is waiting to start join that one, since it will see the same changes.
+ * Requests while one is running queue one more, rather than being dropped. The number of completed refreshes
+ * (the generation) and the duration of the last one are available for monitoring.
+ * </p>
+ */
+public final class BackgroundRefresher implements Refreshable {
+
+  private static final Logger log = LoggerFactory.getLogger(BackgroundRefresher.class);
+
+  private final Refreshable refreshable;
+  private final ExecutorService executor;
+  private final boolean ownsExecutor;
+  private final ReentrantLock refreshLock;
+  private final AtomicLong generation;
+  private final AtomicLong failures;
+  private volatile long lastRefreshDurationMillis;
+  private volatile long lastRefreshTimeMillis;
+  private Future<?> waitingRefresh;
+
+  /**
+   * Refreshes on a thread of its own, which is stopped by {@link #close()}.
+   */
+  public BackgroundRefresher(Refreshable refreshable) {
+    this(refreshable, Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "BackgroundRefresher");
+        thread.setDaemon(true);
+        return thread;
+      }
+    }), true);
+  }
+
+  /**
+   * Refreshes on the given executor, which {@link #close()} leaves running.
+   */
+  public BackgroundRefresher(Refreshable refreshable, ExecutorService executor) {
+    this(refreshable, executor, false);
+  }
+
+  private BackgroundRefresher(Refreshable refreshable, ExecutorService executor, boolean ownsExecutor) {
+    if ((refreshable == null) || (executor == null)) {
+      throw new IllegalArgumentException("refreshable or executor is null");
+    }
+    this.refreshable = refreshable;
+    this.executor = executor;
+    this.ownsExecutor = ownsExecutor;
+    this.refreshLock = new ReentrantLock();
+    this.generation = new AtomicLong();
+    this.failures = new AtomicLong();
+  }
+
+  /**
+   * Starts a refresh in the background, and returns at once. <code>alreadyRefreshed</code> is ignored, as the
+   * refresh runs after the caller's own refresh has finished.
+   */
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshInBackground();
+  }
+
+  /**
+   * Starts a refresh in the background, or joins one that has not started yet.
+   *
+   * @return completes when the refresh has been done
+   */
+  public synchronized Future<?> refreshInBackground() {
+    if (waitingRefresh == null) {
+      waitingRefresh = executor.submit(new Callable<Object>() {
+        @Override
+        public Object call() {
+          synchronized (BackgroundRefresher.this) {
+            waitingRefresh = null;
+          }
+          doRefresh();
+          return null;
+        }
+      });
+    }
+    return waitingRefresh;
+  }
+
+  private void doRefresh() {
+    // Executors with several threads could otherwise run two refreshes at once
+    refreshLock.lock();
+    try {
+      long start = System.currentTimeMillis();
+      try {
+        refreshable.refresh(null);
+      } catch (RuntimeException re) {
+        failures.incrementAndGet();
+        log.warn("Unexpected exception while refreshing", re);
+        return;
+      }
+      long end = System.currentTimeMillis();
+      lastRefreshDurationMillis = end - start;
+      lastRefreshTimeMillis = end;
+      long newGeneration = generation.incrementAndGet();
+      log.info("Refresh {} of {} took {}ms",
+               new Object[] {newGeneration, refreshable, lastRefreshDurationMillis});
+    } finally {
+      refreshLock.unlock();
+    }
+  }
+
+  /**
+   * @return true iff a refresh is running
+   */
+  public boolean isRefreshing() {
+    return refreshLock.isLocked();
+  }
+
+  /**
+   * @return number of refreshes completed so far
+   */
+  public long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * @return number of refreshes that failed with an exception
+   */
+  public long getFailures() {
+    return failures.get();
+  }
+
+  /**
+   * @return how long the last completed refresh took, in milliseconds, or 0 if none has completed
+   */
+  public long getLastRefreshDurationMillis() {
+    return lastRefreshDurationMillis;
+  }
+
+  /**
+   * @return when the last completed refresh finished, as from {@link System#currentTimeMillis()}, or 0 if none
+   *  has completed
+   */
+  public long getLastRefreshTimeMillis() {
+    return lastRefreshTimeMillis;
+  }
+
+  /**
+   * Stops the thread this created, if any, once any queued refresh has run.
+   */
+  public void close() {
+    if (ownsExecutor) {
+      executor.shutdown();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "BackgroundRefresher[" + refreshable + ", generation:" + generation.get() + ']';
+  }
+
+}
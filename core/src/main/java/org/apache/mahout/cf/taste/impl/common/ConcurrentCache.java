@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+
+/**
+ * <p>
+ * A {@link Cache} variant for heavily multi-threaded use. {@link Cache} guards its single {@link FastMap}
+ * with one monitor, so all threads contend on every lookup. This class instead splits the keys, by hash,
+ * across a number of independent segments, each one a bounded {@link FastMap} with its own lock. Threads
+ * looking up keys in different segments never block each other.
+ * </p>
+ *
+ * <p>
+ * The contract is otherwise that of {@link Cache}: values are loaded through a {@link Retriever}, the total
+ * number of entries is bounded, and <code>null</code> keys are not supported. As with {@link Cache}, the
+ * value for a key may occasionally be retrieved more than once when several threads miss on it at the same
+ * time.
+ * </p>
+ */
+public final class ConcurrentCache<K,V> implements Retriever<K,V> {
+
+  private static final Object NULL = new Object();
+  private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+  private final List<FastMap<K,V>> segments;
+  private final int segmentMask;
+  private final Retriever<? super K,? extends V> retriever;
+
+  /**
+   * <p>
+   * Creates a new cache based on the given {@link Retriever}.
+   * </p>
+   *
+   * @param retriever
+   *          object which can retrieve values for keys
+   */
+  public ConcurrentCache(Retriever<? super K,? extends V> retriever) {
+    this(retriever, FastMap.NO_MAX_SIZE);
+  }
+
+  /**
+   * <p>
+   * Creates a new cache based on the given {@link Retriever} and with given maximum size.
+   * </p>
+   *
+   * @param retriever
+   *          object which can retrieve values for keys
+   * @param maxEntries
+   *          maximum number of entries the cache will store before evicting some
+   */
+  public ConcurrentCache(Retriever<? super K,? extends V> retriever, int maxEntries) {
+    this(retriever, maxEntries, DEFAULT_CONCURRENCY_LEVEL);
+  }
+
+  /**
+   * <p>
+   * Creates a new cache based on the given {@link Retriever}, with given maximum size and number of
+   * segments.
+   * </p>
+   *
+   * @param retriever
+   *          object which can retrieve values for keys
+   * @param maxEntries
+   *          maximum number of entries the cache will store before evicting some
+   * @param concurrencyLevel
+   *          expected number of threads using the cache concurrently; this is rounded up to a power of two to
+   *          give the number of segments, but no more segments than entries are used, and the segments' sizes
+   *          add up to <code>maxEntries</code>
+   */
+  public ConcurrentCache(Retriever<? super K,? extends V> retriever, int maxEntries, int concurrencyLevel) {
+    if (retriever == null) {
+      throw new IllegalArgumentException("retriever is null");
+    }
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException("maxEntries must be at least 1");
+    }
+    if (concurrencyLevel < 1) {
+      throw new IllegalArgumentException("concurrencyLevel must be at least 1");
+    }
+    // A power of two, but no more than maxEntries, so that every segment can hold at least one entry
+    int numSegments = 1;
+    while ((numSegments < concurrencyLevel) && (numSegments <= maxEntries >> 1)) {
+      numSegments <<= 1;
+    }
+    segments = new ArrayList<FastMap<K,V>>(numSegments);
+    boolean bounded = maxEntries != FastMap.NO_MAX_SIZE;
+    // The first maxEntries % numSegments segments hold one more entry, so that together they hold maxEntries
+    int maxSegmentEntries = maxEntries / numSegments;
+    int numLargerSegments = maxEntries % numSegments;
+    for (int i = 0; i < numSegments; i++) {
+      int segmentMaxSize = !bounded ? FastMap.NO_MAX_SIZE
+          : i < numLargerSegments ? maxSegmentEntries + 1 : maxSegmentEntries;
+      segments.add(new FastMap<K,V>(11, segmentMaxSize));
+    }
+    segmentMask = numSegments - 1;
+    this.retriever = retriever;
+  }
+
+  /**
+   * <p>
+   * Returns cached value for a key. If it does not exist, it is loaded using a {@link Retriever}.
+   * </p>
+   *
+   * @param key
+   *          cache key
+   * @return value for that key
+   * @throws TasteException
+   *           if an exception occurs while retrieving a new cached value
+   */
+  @Override
+  public V get(K key) throws TasteException {
+    FastMap<K,V> segment = segmentFor(key);
+    V value;
+    synchronized (segment) {
+      value = segment.get(key);
+    }
+    if (value == null) {
+      return getAndCacheValue(segment, key);
+    }
+    return value == NULL ? null : value;
+  }
+
+  /**
+   * <p>
+   * Uncaches any existing value for a given key.
+   * </p>
+   *
+   * @param key
+   *          cache key
+   */
+  public void remove(K key) {
+    FastMap<K,V> segment = segmentFor(key);
+    synchronized (segment) {
+      segment.remove(key);
+    }
+  }
+
+  /**
+   * <p>
+   * Clears the cache.
+   * </p>
+   */
+  public void clear() {
+    for (FastMap<K,V> segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  private V getAndCacheValue(FastMap<K,V> segment, K key) throws TasteException {
+    V value = retriever.get(key);
+    synchronized (segment) {
+      segment.put(key, value == null ? (V) NULL : value);
+    }
+    return value;
+  }
+
+  private FastMap<K,V> segmentFor(Object key) {
+    // Spread the hash so that keys differing only in high bits still land in different segments
+    int hash = key.hashCode();
+    hash ^= (hash >>> 20) ^ (hash >>> 12);
+    hash ^= (hash >>> 7) ^ (hash >>> 4);
+    return segments.get(hash & segmentMask);
+  }
+
+  @Override
+  public String toString() {
+    return "ConcurrentCache[retriever:" + retriever + ']';
+  }
+
+}
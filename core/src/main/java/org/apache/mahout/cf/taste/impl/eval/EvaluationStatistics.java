@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.io.Serializable;
+
+/**
+ * Results of a {@link KFoldRecommenderEvaluator} run: accuracy of estimated preferences, precision and recall
+ * of recommendations, and timing.
+ */
+public final class EvaluationStatistics implements Serializable {
+
+  private final double rmse;
+  private final double meanAbsoluteError;
+  private final double precision;
+  private final double recall;
+  private final int numEstimates;
+  private final long wallTimeMillis;
+  /** Latency of each recommendation request, in nanoseconds, ascending. */
+  private final long[] latencies;
+
+  EvaluationStatistics(double rmse,
+                       double meanAbsoluteError,
+                       double precision,
+                       double recall,
+                       int numEstimates,
+                       long wallTimeMillis,
+                       long[] latencies) {
+    this.rmse = rmse;
+    this.meanAbsoluteError = meanAbsoluteError;
+    this.precision = precision;
+    this.recall = recall;
+    this.numEstimates = numEstimates;
+    this.wallTimeMillis = wallTimeMillis;
+    this.latencies = latencies;
+  }
+
+  /** @return root-mean-square error of estimated preferences, or {@link Double#NaN} if none were made */
+  public double getRMSE() {
+    return rmse;
+  }
+
+  /** @return mean absolute error of estimated preferences, or {@link Double#NaN} if none were made */
+  public double getMeanAbsoluteError() {
+    return meanAbsoluteError;
+  }
+
+  /** @return average precision at N over users, or {@link Double#NaN} if nothing was recommended */
+  public double getPrecision() {
+    return precision;
+  }
+
+  /** @return average recall at N over users, or {@link Double#NaN} if no user had relevant items */
+  public double getRecall() {
+    return recall;
+  }
+
+  /** @return number of preferences which could be estimated */
+  public int getNumEstimates() {
+    return numEstimates;
+  }
+
+  public long getWallTimeMillis() {
+    return wallTimeMillis;
+  }
+
+  /** @return number of recommendation requests timed */
+  public int getNumRequests() {
+    return latencies.length;
+  }
+
+  /**
+   * @param percentile
+   *          in [0,100]; 50 for the median
+   * @return latency of recommendation requests at the given percentile, in milliseconds, or
+   *         {@link Double#NaN} if there were none
+   */
+  public double getLatencyPercentileMillis(double percentile) {
+    if (Double.isNaN(percentile) || (percentile < 0.0) || (percentile > 100.0)) {
+      throw new IllegalArgumentException("Invalid percentile: " + percentile);
+    }
+    if (latencies.length == 0) {
+      return Double.NaN;
+    }
+    // Nearest rank
+    int rank = (int) Math.ceil(percentile / 100.0 * latencies.length);
+    return latencies[Math.max(0, rank - 1)] / 1000000.0;
+  }
+
+  @Override
+  public String toString() {
+    return "EvaluationStatistics[rmse:" + rmse + ",mae:" + meanAbsoluteError + ",precision:" + precision
+        + ",recall:" + recall + ",wallTimeMillis:" + wallTimeMillis + ",latencyMillis50/90/99:"
+        + getLatencyPercentileMillis(50.0) + '/' + getLatencyPercentileMillis(90.0) + '/'
+        + getLatencyPercentileMillis(99.0) + ']';
+  }
+
+}
@@ -0,0 +1,446 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.DataModelBuilder;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.FullRunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.common.RandomUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Evaluates a {@link Recommender} by k-fold cross-validation. Each user's preferences are shuffled and dealt
+ * out evenly over k folds. For each fold, a recommender is built on all other folds and is then asked to
+ * estimate the preferences in the fold, which yields RMSE and mean absolute error, and to recommend the top
+ * <code>at</code> items to each user, which yields precision and recall against the user's relevant
+ * preferences in the fold.
+ * </p>
+ *
+ * <p>
+ * Unlike {@link AbstractDifferenceRecommenderEvaluator} and {@link GenericRecommenderIRStatsEvaluator}, this
+ * builds the k training models and recommenders concurrently, and then evaluates all folds' users at once on
+ * the same threads. Only k recommenders are built, rather than one per evaluated user. Every preference array
+ * is copied once, and a user with no preferences held out of a fold shares that copy with the fold's training
+ * data rather than getting their own.
+ * </p>
+ *
+ * <p>
+ * Each recommendation request is timed, and the resulting {@link EvaluationStatistics} reports latency
+ * percentiles along with wall time.
+ * </p>
+ */
+public final class KFoldRecommenderEvaluator {
+
+  private static final Logger log = LoggerFactory.getLogger(KFoldRecommenderEvaluator.class);
+
+  /**
+   * Pass as "relevanceThreshold" argument to
+   * {@link #evaluate(RecommenderBuilder, DataModelBuilder, DataModel, int, double)} to use, for each user, the
+   * average plus one standard deviation of their preference values.
+   */
+  public static final double CHOOSE_THRESHOLD = Double.NaN;
+
+  /** Users evaluated per task; large enough to amortize task overhead, small enough to balance load. */
+  private static final int USERS_PER_TASK = 100;
+
+  private final int numFolds;
+  private final int numThreads;
+  private final Random random;
+
+  /**
+   * Creates an evaluator using all processors.
+   */
+  public KFoldRecommenderEvaluator(int numFolds) {
+    this(numFolds, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param numFolds
+   *          number of folds, from 2 to 127
+   * @param numThreads
+   *          number of threads on which to build and evaluate the folds
+   */
+  public KFoldRecommenderEvaluator(int numFolds, int numThreads) {
+    if ((numFolds < 2) || (numFolds > Byte.MAX_VALUE)) {
+      throw new IllegalArgumentException("numFolds must be in [2," + Byte.MAX_VALUE + "]: " + numFolds);
+    }
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("numThreads must be at least 1");
+    }
+    this.numFolds = numFolds;
+    this.numThreads = numThreads;
+    this.random = RandomUtils.getRandom();
+  }
+
+  /**
+   * @param recommenderBuilder
+   *          object that can build a {@link Recommender} to test
+   * @param dataModelBuilder
+   *          {@link DataModelBuilder} to use, or if null, a default {@link DataModel} implementation will be used
+   * @param dataModel
+   *          dataset to test on
+   * @param at
+   *          number of items to recommend to each user, as in "precision at 5"
+   * @param relevanceThreshold
+   *          items in a fold whose preference value is at least this value are considered "relevant" for
+   *          precision and recall; or {@link #CHOOSE_THRESHOLD}
+   * @return statistics over all folds
+   * @throws TasteException
+   *           if an error occurs while building or using a recommender
+   */
+  public EvaluationStatistics evaluate(RecommenderBuilder recommenderBuilder,
+                                       DataModelBuilder dataModelBuilder,
+                                       DataModel dataModel,
+                                       int at,
+                                       double relevanceThreshold) throws TasteException {
+    if (recommenderBuilder == null) {
+      throw new IllegalArgumentException("recommenderBuilder is null");
+    }
+    if (dataModel == null) {
+      throw new IllegalArgumentException("dataModel is null");
+    }
+    if (at < 1) {
+      throw new IllegalArgumentException("at must be at least 1");
+    }
+
+    long start = System.currentTimeMillis();
+    log.info("Beginning {}-fold evaluation of {}", numFolds, dataModel);
+
+    int numUsers = dataModel.getNumUsers();
+    long[] userIDs = new long[numUsers];
+    PreferenceArray[] userPrefs = new PreferenceArray[numUsers];
+    byte[][] userFolds = new byte[numUsers][];
+    double[] thresholds = new double[numUsers];
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    for (int u = 0; u < numUsers; u++) {
+      long userID = it.nextLong();
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID).clone();
+      // Sorted up front, so that GenericDataModel can share it between folds without changing it
+      prefs.sortByItem();
+      userIDs[u] = userID;
+      userPrefs[u] = prefs;
+      userFolds[u] = assignFolds(prefs.length());
+      thresholds[u] = Double.isNaN(relevanceThreshold) ? computeThreshold(prefs) : relevanceThreshold;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      Recommender[] recommenders = buildRecommenders(executor, recommenderBuilder, dataModelBuilder,
+                                                     userIDs, userPrefs, userFolds);
+      log.info("Built {} recommenders in {}ms", numFolds, System.currentTimeMillis() - start);
+
+      List<Callable<FoldStatistics>> tasks = new ArrayList<Callable<FoldStatistics>>();
+      for (int fold = 0; fold < numFolds; fold++) {
+        for (int from = 0; from < numUsers; from += USERS_PER_TASK) {
+          tasks.add(new EvaluationCallable(recommenders[fold], (byte) fold, userIDs, userPrefs, userFolds,
+                                           thresholds, from, Math.min(numUsers, from + USERS_PER_TASK), at));
+        }
+      }
+      FoldStatistics total = new FoldStatistics();
+      for (Future<FoldStatistics> future : executor.invokeAll(tasks)) {
+        total.merge(future.get());
+      }
+
+      long[] latencies = Arrays.copyOf(total.latencies, total.numLatencies);
+      Arrays.sort(latencies);
+      EvaluationStatistics result = new EvaluationStatistics(
+          Math.sqrt(total.sumSquaredError / total.numEstimates),
+          total.sumAbsoluteError / total.numEstimates,
+          total.sumPrecision / total.numPrecision,
+          total.sumRecall / total.numRecall,
+          total.numEstimates,
+          System.currentTimeMillis() - start,
+          latencies);
+      log.info("Evaluation result: {}", result);
+      return result;
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      throw new TasteException(ee.getCause());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /** @return fold of each of a user's preferences, dealt round robin after a shuffle */
+  private byte[] assignFolds(int numPrefs) {
+    byte[] folds = new byte[numPrefs];
+    int offset;
+    synchronized (random) {
+      offset = random.nextInt(numFolds);
+      for (int i = 0; i < numPrefs; i++) {
+        folds[i] = (byte) ((offset + i) % numFolds);
+      }
+      for (int i = numPrefs - 1; i > 0; i--) {
+        int j = random.nextInt(i + 1);
+        byte temp = folds[i];
+        folds[i] = folds[j];
+        folds[j] = temp;
+      }
+    }
+    return folds;
+  }
+
+  private Recommender[] buildRecommenders(ExecutorService executor,
+                                          final RecommenderBuilder recommenderBuilder,
+                                          final DataModelBuilder dataModelBuilder,
+                                          final long[] userIDs,
+                                          final PreferenceArray[] userPrefs,
+                                          final byte[][] userFolds)
+    throws InterruptedException, ExecutionException {
+    List<Callable<Recommender>> builders = new ArrayList<Callable<Recommender>>(numFolds);
+    for (int fold = 0; fold < numFolds; fold++) {
+      final byte theFold = (byte) fold;
+      builders.add(new Callable<Recommender>() {
+        @Override
+        public Recommender call() throws TasteException {
+          FastByIDMap<PreferenceArray> trainingUsers = new FastByIDMap<PreferenceArray>(userIDs.length);
+          for (int u = 0; u < userIDs.length; u++) {
+            PreferenceArray training = trainingPrefs(userIDs[u], userPrefs[u], userFolds[u], theFold);
+            if (training != null) {
+              trainingUsers.put(userIDs[u], training);
+            }
+          }
+          DataModel trainingModel = dataModelBuilder == null ? new GenericDataModel(trainingUsers)
+              : dataModelBuilder.buildDataModel(trainingUsers);
+          return recommenderBuilder.buildRecommender(trainingModel);
+        }
+      });
+    }
+    Recommender[] recommenders = new Recommender[numFolds];
+    int fold = 0;
+    for (Future<Recommender> future : executor.invokeAll(builders)) {
+      recommenders[fold++] = future.get();
+    }
+    return recommenders;
+  }
+
+  /**
+   * @return the user's preferences outside the given fold, which is the shared array itself if none are in
+   *         the fold, or null if all are
+   */
+  private static PreferenceArray trainingPrefs(long userID, PreferenceArray prefs, byte[] folds, byte fold) {
+    int numInFold = 0;
+    for (byte f : folds) {
+      if (f == fold) {
+        numInFold++;
+      }
+    }
+    if (numInFold == 0) {
+      return prefs;
+    }
+    int size = folds.length - numInFold;
+    if (size == 0) {
+      return null;
+    }
+    PreferenceArray training = new GenericUserPreferenceArray(size);
+    training.setUserID(0, userID);
+    int j = 0;
+    for (int i = 0; i < folds.length; i++) {
+      if (folds[i] != fold) {
+        training.setItemID(j, prefs.getItemID(i));
+        training.setValue(j, prefs.getValue(i));
+        j++;
+      }
+    }
+    return training;
+  }
+
+  private static double computeThreshold(PreferenceArray prefs) {
+    if (prefs.length() < 2) {
+      // Not enough data points -- return a threshold that allows everything
+      return Double.NEGATIVE_INFINITY;
+    }
+    RunningAverageAndStdDev stdDev = new FullRunningAverageAndStdDev();
+    int size = prefs.length();
+    for (int i = 0; i < size; i++) {
+      stdDev.addDatum(prefs.getValue(i));
+    }
+    return stdDev.getAverage() + stdDev.getStandardDeviation();
+  }
+
+  @Override
+  public String toString() {
+    return "KFoldRecommenderEvaluator[numFolds:" + numFolds + ", numThreads:" + numThreads + ']';
+  }
+
+  /** Evaluates one range of users against one fold. */
+  private static final class EvaluationCallable implements Callable<FoldStatistics> {
+
+    private final Recommender recommender;
+    private final byte fold;
+    private final long[] userIDs;
+    private final PreferenceArray[] userPrefs;
+    private final byte[][] userFolds;
+    private final double[] thresholds;
+    private final int from;
+    private final int to;
+    private final int at;
+
+    private EvaluationCallable(Recommender recommender,
+                               byte fold,
+                               long[] userIDs,
+                               PreferenceArray[] userPrefs,
+                               byte[][] userFolds,
+                               double[] thresholds,
+                               int from,
+                               int to,
+                               int at) {
+      this.recommender = recommender;
+      this.fold = fold;
+      this.userIDs = userIDs;
+      this.userPrefs = userPrefs;
+      this.userFolds = userFolds;
+      this.thresholds = thresholds;
+      this.from = from;
+      this.to = to;
+      this.at = at;
+    }
+
+    @Override
+    public FoldStatistics call() throws TasteException {
+      FoldStatistics stats = new FoldStatistics();
+      for (int u = from; u < to; u++) {
+        long userID = userIDs[u];
+        PreferenceArray prefs = userPrefs[u];
+        byte[] folds = userFolds[u];
+        FastIDSet relevantItemIDs = new FastIDSet();
+        boolean anyInFold = false;
+        for (int i = 0; i < folds.length; i++) {
+          if (folds[i] != fold) {
+            continue;
+          }
+          anyInFold = true;
+          long itemID = prefs.getItemID(i);
+          float value = prefs.getValue(i);
+          if (value >= thresholds[u]) {
+            relevantItemIDs.add(itemID);
+          }
+          try {
+            float estimate = recommender.estimatePreference(userID, itemID);
+            if (!Float.isNaN(estimate)) {
+              stats.addEstimate(estimate - value);
+            }
+          } catch (NoSuchUserException nsue) {
+            // All of the user's preferences are in this fold
+          } catch (NoSuchItemException nsie) {
+            // All of the item's preferences are in this fold
+          }
+        }
+        if (anyInFold && !relevantItemIDs.isEmpty()) {
+          try {
+            long start = System.nanoTime();
+            List<RecommendedItem> recommendedItems = recommender.recommend(userID, at);
+            stats.addLatency(System.nanoTime() - start);
+            int intersectionSize = 0;
+            for (RecommendedItem recommendedItem : recommendedItems) {
+              if (relevantItemIDs.contains(recommendedItem.getItemID())) {
+                intersectionSize++;
+              }
+            }
+            if (!recommendedItems.isEmpty()) {
+              stats.addPrecision((double) intersectionSize / recommendedItems.size());
+            }
+            stats.addRecall((double) intersectionSize / Math.min(at, relevantItemIDs.size()));
+          } catch (NoSuchUserException nsue) {
+            // All of the user's preferences are in this fold
+          }
+        }
+      }
+      return stats;
+    }
+
+  }
+
+  /** Accumulates statistics for one task, to be merged afterwards without contention. */
+  private static final class FoldStatistics {
+
+    private double sumSquaredError;
+    private double sumAbsoluteError;
+    private int numEstimates;
+    private double sumPrecision;
+    private int numPrecision;
+    private double sumRecall;
+    private int numRecall;
+    private long[] latencies = new long[16];
+    private int numLatencies;
+
+    void addEstimate(double error) {
+      sumSquaredError += error * error;
+      sumAbsoluteError += Math.abs(error);
+      numEstimates++;
+    }
+
+    void addPrecision(double precision) {
+      sumPrecision += precision;
+      numPrecision++;
+    }
+
+    void addRecall(double recall) {
+      sumRecall += recall;
+      numRecall++;
+    }
+
+    void addLatency(long nanos) {
+      if (numLatencies == latencies.length) {
+        latencies = Arrays.copyOf(latencies, 2 * numLatencies);
+      }
+      latencies[numLatencies++] = nanos;
+    }
+
+    void merge(FoldStatistics other) {
+      sumSquaredError += other.sumSquaredError;
+      sumAbsoluteError += other.sumAbsoluteError;
+      numEstimates += other.numEstimates;
+      sumPrecision += other.sumPrecision;
+      numPrecision += other.numPrecision;
+      sumRecall += other.sumRecall;
+      numRecall += other.numRecall;
+      for (int i = 0; i < other.numLatencies; i++) {
+        addLatency(other.latencies[i]);
+      }
+    }
+
+  }
+
+}
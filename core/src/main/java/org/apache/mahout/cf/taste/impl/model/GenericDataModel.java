@@ -18,7 +18,6 @@
 package org.apache.mahout.cf.taste.impl.model;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -61,7 +60,7 @@ public final class GenericDataModel extends AbstractDataModel implements Seriali
    * 
    * @param userData
    *          users to include in this  (see also
-   *          {@link #toDataMap(FastByIDMap, boolean)})
+   *          {@link #toDataMap(FastByIDMap, boolean)} and {@link PreferenceArrayBuilder})
    */
   public GenericDataModel(FastByIDMap<PreferenceArray> userData) {
     if (userData == null) {
@@ -69,24 +68,33 @@ public final class GenericDataModel extends AbstractDataModel implements Seriali
     }
     
     this.preferenceFromUsers = userData;
-    FastByIDMap<Collection<Preference>> prefsForItems = new FastByIDMap<Collection<Preference>>();
-    FastIDSet itemIDSet = new FastIDSet();
+    this.userIDs = new long[userData.size()];
+    int i = 0;
+    LongPrimitiveIterator it = userData.keySetIterator();
+    while (it.hasNext()) {
+      userIDs[i++] = it.next();
+    }
+    Arrays.sort(userIDs);
+
+    // Count each item's preferences first, so that the item arrays can be allocated at their final size and
+    // filled directly, without a Preference object per entry
+    FastByIDMap<int[]> itemCounts = new FastByIDMap<int[]>();
     int currentCount = 0;
     float maxPrefValue = Float.NEGATIVE_INFINITY;
     float minPrefValue = Float.POSITIVE_INFINITY;
-    for (Map.Entry<Long,PreferenceArray> entry : preferenceFromUsers.entrySet()) {
-      PreferenceArray prefs = entry.getValue();
+    for (long userID : userIDs) {
+      PreferenceArray prefs = userData.get(userID);
       prefs.sortByItem();
-      for (Preference preference : prefs) {
-        long itemID = preference.getItemID();
-        itemIDSet.add(itemID);
-        List<Preference> prefsForItem = (List<Preference>) prefsForItems.get(itemID);
-        if (prefsForItem == null) {
-          prefsForItem = new ArrayList<Preference>(2);
-          prefsForItems.put(itemID, prefsForItem);
+      int length = prefs.length();
+      for (int j = 0; j < length; j++) {
+        long itemID = prefs.getItemID(j);
+        int[] count = itemCounts.get(itemID);
+        if (count == null) {
+          count = new int[1];
+          itemCounts.put(itemID, count);
         }
-        prefsForItem.add(preference);
-        float value = preference.getValue();
+        count[0]++;
+        float value = prefs.getValue(j);
         if (value > maxPrefValue) {
           maxPrefValue = value;
         }
@@ -102,24 +110,33 @@ public final class GenericDataModel extends AbstractDataModel implements Seriali
 
     setMinPreference(minPrefValue);
     setMaxPreference(maxPrefValue);
-    
-    this.itemIDs = itemIDSet.toArray();
-    itemIDSet = null; // Might help GC -- this is big
-    Arrays.sort(itemIDs);
-    
-    this.preferenceForItems = toDataMap(prefsForItems, false);
-    
-    for (Map.Entry<Long,PreferenceArray> entry : preferenceForItems.entrySet()) {
-      entry.getValue().sortByUser();
+
+    this.itemIDs = new long[itemCounts.size()];
+    this.preferenceForItems = new FastByIDMap<PreferenceArray>(itemIDs.length);
+    i = 0;
+    for (Map.Entry<Long,int[]> entry : itemCounts.entrySet()) {
+      long itemID = entry.getKey();
+      itemIDs[i++] = itemID;
+      PreferenceArray prefsForItem = new GenericItemPreferenceArray(entry.getValue()[0]);
+      prefsForItem.setItemID(0, itemID);
+      preferenceForItems.put(itemID, prefsForItem);
+      // From here on, the next position to fill
+      entry.getValue()[0] = 0;
     }
-    
-    this.userIDs = new long[userData.size()];
-    int i = 0;
-    LongPrimitiveIterator it = userData.keySetIterator();
-    while (it.hasNext()) {
-      userIDs[i++] = it.next();
+    Arrays.sort(itemIDs);
+
+    // Users are visited in ascending order, so each item's preferences come out sorted by user
+    for (long userID : userIDs) {
+      PreferenceArray prefs = userData.get(userID);
+      int length = prefs.length();
+      for (int j = 0; j < length; j++) {
+        long itemID = prefs.getItemID(j);
+        PreferenceArray prefsForItem = preferenceForItems.get(itemID);
+        int position = itemCounts.get(itemID)[0]++;
+        prefsForItem.setUserID(position, userID);
+        prefsForItem.setValue(position, prefs.getValue(j));
+      }
     }
-    Arrays.sort(userIDs);
   }
   
   /**
@@ -138,7 +155,8 @@ public final class GenericDataModel extends AbstractDataModel implements Seriali
   }
   
   /**
-   * Swaps, in-place, {@link List}s for arrays in {@link Map} values .
+   * Swaps, in-place, {@link List}s for arrays in {@link Map} values . To load large amounts of data, prefer
+   * {@link PreferenceArrayBuilder}, which doesn't need a {@link Preference} object per entry.
    * 
    * @return input value
    */
@@ -0,0 +1,297 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/**
+ * <p>
+ * Collects preferences for bulk loading into parallel arrays of user IDs, item IDs and values, rather than as
+ * one {@link org.apache.mahout.cf.taste.model.Preference} object each, and then builds each user's
+ * {@link PreferenceArray} directly from them. This takes about half the memory of a
+ * {@link java.util.List} of {@link GenericPreference}s per user, and far fewer objects.
+ * </p>
+ *
+ * <p>
+ * Preferences may be added in any order. A later preference for the same user and item replaces an earlier
+ * one, and {@link #remove(long, long)} removes the earlier ones, so that update data can simply be added after
+ * the data it updates. {@link #buildUserData()} sorts the arrays in place, using a few threads for large
+ * inputs, and keeps only the last preference for each user and item.
+ * </p>
+ *
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ */
+public final class PreferenceArrayBuilder {
+
+  private static final int INSERTION_SORT_THRESHOLD = 16;
+  private static final int PARALLEL_SORT_THRESHOLD = 1 << 16;
+
+  private long[] userIDs;
+  private long[] itemIDs;
+  private float[] values;
+  // Order of addition, which decides between preferences for the same user and item
+  private int[] sequence;
+  private int size;
+
+  public PreferenceArrayBuilder() {
+    this(1 << 10);
+  }
+
+  /**
+   * @param initialCapacity
+   *          number of preferences to make room for at first
+   */
+  public PreferenceArrayBuilder(int initialCapacity) {
+    if (initialCapacity < 1) {
+      throw new IllegalArgumentException("initialCapacity must be at least 1");
+    }
+    userIDs = new long[initialCapacity];
+    itemIDs = new long[initialCapacity];
+    values = new float[initialCapacity];
+    sequence = new int[initialCapacity];
+  }
+
+  /**
+   * @param value
+   *          preference value; may not be NaN
+   */
+  public void add(long userID, long itemID, float value) {
+    if (Float.isNaN(value)) {
+      throw new IllegalArgumentException("Invalid value: " + value);
+    }
+    append(userID, itemID, value);
+  }
+
+  /**
+   * Removes the preferences for this user and item added so far, if any.
+   */
+  public void remove(long userID, long itemID) {
+    // Recorded as a NaN value, which is dropped when building
+    append(userID, itemID, Float.NaN);
+  }
+
+  private void append(long userID, long itemID, float value) {
+    if (size == userIDs.length) {
+      int newCapacity = size + (size >> 1) + 1;
+      userIDs = Arrays.copyOf(userIDs, newCapacity);
+      itemIDs = Arrays.copyOf(itemIDs, newCapacity);
+      values = Arrays.copyOf(values, newCapacity);
+      sequence = Arrays.copyOf(sequence, newCapacity);
+    }
+    userIDs[size] = userID;
+    itemIDs[size] = itemID;
+    values[size] = value;
+    sequence[size] = size;
+    size++;
+  }
+
+  /**
+   * @return number of preferences and removals added
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Builds the arrays of preferences of each user, sorted by item. The builder is left empty.
+   *
+   * @return user IDs mapped to their preferences, as for {@link GenericDataModel#GenericDataModel(FastByIDMap)}
+   */
+  public FastByIDMap<PreferenceArray> buildUserData() {
+    int threads = Runtime.getRuntime().availableProcessors();
+    if ((threads > 1) && (size > PARALLEL_SORT_THRESHOLD)) {
+      // Each split hands one side to the pool, and no more than threads - 1 splits are made
+      ExecutorService executor = Executors.newFixedThreadPool(threads - 1);
+      try {
+        sort(0, size, threads, executor);
+      } finally {
+        executor.shutdown();
+      }
+    } else {
+      sort(0, size, 1, null);
+    }
+
+    FastByIDMap<PreferenceArray> result = new FastByIDMap<PreferenceArray>();
+    int start = 0;
+    while (start < size) {
+      long userID = userIDs[start];
+      int end = start + 1;
+      while ((end < size) && (userIDs[end] == userID)) {
+        end++;
+      }
+      // Count the preferences which survive: the last one for each item, unless it is a removal
+      int length = 0;
+      for (int i = start; i < end; i++) {
+        if (isLastForItem(i, end) && !Float.isNaN(values[i])) {
+          length++;
+        }
+      }
+      if (length > 0) {
+        PreferenceArray prefs = new GenericUserPreferenceArray(length);
+        prefs.setUserID(0, userID);
+        int j = 0;
+        for (int i = start; i < end; i++) {
+          if (isLastForItem(i, end) && !Float.isNaN(values[i])) {
+            prefs.setItemID(j, itemIDs[i]);
+            prefs.setValue(j, values[i]);
+            j++;
+          }
+        }
+        result.put(userID, prefs);
+      }
+      start = end;
+    }
+
+    clear();
+    return result;
+  }
+
+  /**
+   * Builds a {@link GenericDataModel} of the preferences added. The builder is left empty.
+   */
+  public GenericDataModel buildDataModel() {
+    return new GenericDataModel(buildUserData());
+  }
+
+  private boolean isLastForItem(int i, int end) {
+    return (i + 1 == end) || (itemIDs[i + 1] != itemIDs[i]);
+  }
+
+  private void clear() {
+    size = 0;
+    userIDs = new long[1];
+    itemIDs = new long[1];
+    values = new float[1];
+    sequence = new int[1];
+  }
+
+  /**
+   * Quicksorts the range [from,to) by user ID, item ID and order of addition. While threads remain, one side
+   * of a large partition is sorted in the executor while this thread sorts the other; they don't overlap, so
+   * need no locking.
+   */
+  private void sort(int from, int to, int threads, final ExecutorService executor) {
+    int low = from;
+    int high = to;
+    while (high - low > INSERTION_SORT_THRESHOLD) {
+      int pivot = partition(low, high);
+      if ((threads > 1) && (high - low > PARALLEL_SORT_THRESHOLD)) {
+        final int otherFrom = low;
+        final int otherTo = pivot;
+        final int otherThreads = threads / 2;
+        Future<?> other = executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            sort(otherFrom, otherTo, otherThreads, executor);
+          }
+        });
+        sort(pivot + 1, high, threads - otherThreads, executor);
+        try {
+          other.get();
+        } catch (InterruptedException ie) {
+          throw new IllegalStateException(ie);
+        } catch (ExecutionException ee) {
+          throw new IllegalStateException(ee.getCause());
+        }
+        return;
+      }
+      // Recurse into the smaller side, loop on the larger, to bound the stack depth
+      if (pivot - low < high - pivot) {
+        sort(low, pivot, 1, executor);
+        low = pivot + 1;
+      } else {
+        sort(pivot + 1, high, 1, executor);
+        high = pivot;
+      }
+    }
+    insertionSort(low, high);
+  }
+
+  /**
+   * Partitions [from,to) around a median-of-three pivot.
+   *
+   * @return final index of the pivot
+   */
+  private int partition(int from, int to) {
+    int last = to - 1;
+    int middle = (from + last) >>> 1;
+    if (isLess(middle, from)) {
+      swap(middle, from);
+    }
+    if (isLess(last, from)) {
+      swap(last, from);
+    }
+    if (isLess(last, middle)) {
+      swap(last, middle);
+    }
+    // The median is now at middle; park it at the end
+    swap(middle, last);
+    int store = from;
+    for (int i = from; i < last; i++) {
+      if (isLess(i, last)) {
+        swap(i, store);
+        store++;
+      }
+    }
+    swap(store, last);
+    return store;
+  }
+
+  private void insertionSort(int from, int to) {
+    for (int i = from + 1; i < to; i++) {
+      for (int j = i; (j > from) && isLess(j, j - 1); j--) {
+        swap(j, j - 1);
+      }
+    }
+  }
+
+  private boolean isLess(int i, int j) {
+    if (userIDs[i] != userIDs[j]) {
+      return userIDs[i] < userIDs[j];
+    }
+    if (itemIDs[i] != itemIDs[j]) {
+      return itemIDs[i] < itemIDs[j];
+    }
+    return sequence[i] < sequence[j];
+  }
+
+  private void swap(int i, int j) {
+    long tempUserID = userIDs[i];
+    userIDs[i] = userIDs[j];
+    userIDs[j] = tempUserID;
+    long tempItemID = itemIDs[i];
+    itemIDs[i] = itemIDs[j];
+    itemIDs[j] = tempItemID;
+    float tempValue = values[i];
+    values[i] = values[j];
+    values[j] = tempValue;
+    int tempSequence = sequence[i];
+    sequence[i] = sequence[j];
+    sequence[j] = tempSequence;
+  }
+
+}
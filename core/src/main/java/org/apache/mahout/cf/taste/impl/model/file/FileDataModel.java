@@ -25,6 +25,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.mahout.cf.taste.common.Refreshable;
@@ -37,6 +38,7 @@ import org.apache.mahout.cf.taste.impl.model.GenericBooleanPrefDataModel;
 import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
 import org.apache.mahout.cf.taste.impl.model.GenericPreference;
 import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.PreferenceArrayBuilder;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Preference;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
@@ -58,7 +60,9 @@ import org.slf4j.LoggerFactory;
  * 
  * <p>
  * This class will reload data from the data file when {@link #refresh(Collection)} is called, unless the file
- * has been reloaded very recently already.
+ * has been reloaded very recently already. The current data keeps answering requests while the new data is
+ * loaded, and is replaced by it all at once. A refresh requested during a reload waits for it to finish, then
+ * reloads again if the files changed meanwhile.
  * </p>
  * 
  * <p>
@@ -92,13 +96,19 @@ import org.slf4j.LoggerFactory;
  * 
  * <p>
  * This class is not intended for use with very large amounts of data (over, say, tens of millions of rows).
- * For that, a JDBC-backed {@link DataModel} and a database are more appropriate.
+ * For that, a JDBC-backed {@link DataModel} and a database are more appropriate. Alternatively, the file
+ * can be converted once with {@link MemoryMappedDataModelWriter} and then opened through
+ * {@link MemoryMappedDataModel}, which does not parse the file or hold the preferences on the heap.
  * </p>
  * 
  * <p>
  * It is possible and likely useful to subclass this class and customize its behavior to accommodate
- * application-specific needs and input formats. See {@link #processLine(String, FastByIDMap, boolean)} and
- * {@link #processLineWithoutID(String, FastByIDMap)}
+ * application-specific needs and input formats. See {@link #processLine(String, PreferenceArrayBuilder)},
+ * which reads the data when it is loaded afresh, {@link #processLine(String, FastByIDMap, boolean)}, which
+ * applies update files to data already loaded, and {@link #processLineWithoutID(String, FastByIDMap)}.
+ * A subclass which overrides only {@link #processLine(String, FastByIDMap, boolean)} keeps reading fresh data
+ * through it too, as before, with <code>fromPriorData</code> false, but without the lower memory use of the
+ * {@link PreferenceArrayBuilder}.
  */
 public class FileDataModel extends AbstractDataModel {
   
@@ -108,14 +118,15 @@ public class FileDataModel extends AbstractDataModel {
   private static final char COMMENT_CHAR = '#';
   
   private final File dataFile;
-  private long lastModified;
-  private long lastUpdateFileModified;
+  private volatile long lastModified;
+  private volatile long lastUpdateFileModified;
   private final char delimiter;
   private final boolean hasPrefValues;
-  private boolean loaded;
-  private DataModel delegate;
+  private volatile boolean loaded;
+  private volatile DataModel delegate;
   private final ReentrantLock reloadLock;
   private final boolean transpose;
+  private final boolean legacyProcessLine;
   
   /**
    * @param dataFile
@@ -161,6 +172,27 @@ public class FileDataModel extends AbstractDataModel {
     
     this.reloadLock = new ReentrantLock();
     this.transpose = transpose;
+    this.legacyProcessLine = overridesProcessLine(getClass(), FastByIDMap.class, boolean.class)
+        && !overridesProcessLine(getClass(), PreferenceArrayBuilder.class);
+  }
+  
+  /**
+   * @return true if a subclass of this class, up to the given class, declares a <code>processLine</code>
+   *  method taking a line and the given parameter types
+   */
+  private static boolean overridesProcessLine(Class<?> clazz, Class<?>... parameterTypes) {
+    Class<?>[] allParameterTypes = new Class<?>[parameterTypes.length + 1];
+    allParameterTypes[0] = String.class;
+    System.arraycopy(parameterTypes, 0, allParameterTypes, 1, parameterTypes.length);
+    for (Class<?> c = clazz; !FileDataModel.class.equals(c); c = c.getSuperclass()) {
+      try {
+        c.getDeclaredMethod("processLine", allParameterTypes);
+        return true;
+      } catch (NoSuchMethodException nsme) {
+        // not declared here; look at the superclass
+      }
+    }
+    return false;
   }
   
   public File getDataFile() {
@@ -172,16 +204,14 @@ public class FileDataModel extends AbstractDataModel {
   }
   
   protected void reload() {
-    if (!reloadLock.isLocked()) {
-      reloadLock.lock();
-      try {
-        delegate = buildModel();
-        loaded = true;
-      } catch (IOException ioe) {
-        log.warn("Exception while reloading", ioe);
-      } finally {
-        reloadLock.unlock();
-      }
+    reloadLock.lock();
+    try {
+      delegate = buildModel();
+      loaded = true;
+    } catch (IOException ioe) {
+      log.warn("Exception while reloading", ioe);
+    } finally {
+      reloadLock.unlock();
     }
   }
   
@@ -198,7 +228,7 @@ public class FileDataModel extends AbstractDataModel {
     
     if (hasPrefValues) {
       
-      if (loadFreshData) {
+      if (loadFreshData && legacyProcessLine) {
         
         FastByIDMap<Collection<Preference>> data = new FastByIDMap<Collection<Preference>>();
         FileLineIterator iterator = new FileLineIterator(dataFile, false);
@@ -210,9 +240,22 @@ public class FileDataModel extends AbstractDataModel {
         
         return new GenericDataModel(GenericDataModel.toDataMap(data, true));
         
+      } else if (loadFreshData) {
+        
+        PreferenceArrayBuilder builder = new PreferenceArrayBuilder();
+        FileLineIterator iterator = new FileLineIterator(dataFile, false);
+        processFile(iterator, builder);
+        
+        for (File updateFile : findUpdateFiles()) {
+          processFile(new FileLineIterator(updateFile, false), builder);
+        }
+        
+        return builder.buildDataModel();
+        
       } else {
         
-        FastByIDMap<PreferenceArray> rawData = ((GenericDataModel) delegate).getRawUserData();
+        // Copy, so that the current model is not changed while it is still in use
+        FastByIDMap<PreferenceArray> rawData = copyOf(((GenericDataModel) delegate).getRawUserData());
         
         for (File updateFile : findUpdateFiles()) {
           processFile(new FileLineIterator(updateFile, false), rawData, true);
@@ -238,7 +281,7 @@ public class FileDataModel extends AbstractDataModel {
         
       } else {
         
-        FastByIDMap<FastIDSet> rawData = ((GenericBooleanPrefDataModel) delegate).getRawUserData();
+        FastByIDMap<FastIDSet> rawData = copyOfIDs(((GenericBooleanPrefDataModel) delegate).getRawUserData());
         
         for (File updateFile : findUpdateFiles()) {
           processFileWithoutID(new FileLineIterator(updateFile, false), rawData);
@@ -251,6 +294,22 @@ public class FileDataModel extends AbstractDataModel {
     }
   }
   
+  private static FastByIDMap<PreferenceArray> copyOf(FastByIDMap<PreferenceArray> rawData) {
+    FastByIDMap<PreferenceArray> copy = new FastByIDMap<PreferenceArray>(rawData.size());
+    for (Map.Entry<Long,PreferenceArray> entry : rawData.entrySet()) {
+      copy.put(entry.getKey(), entry.getValue().clone());
+    }
+    return copy;
+  }
+  
+  private static FastByIDMap<FastIDSet> copyOfIDs(FastByIDMap<FastIDSet> rawData) {
+    FastByIDMap<FastIDSet> copy = new FastByIDMap<FastIDSet>(rawData.size());
+    for (Map.Entry<Long,FastIDSet> entry : rawData.entrySet()) {
+      copy.put(entry.getKey(), entry.getValue().clone());
+    }
+    return copy;
+  }
+  
   /**
    * Finds update delta files in the same directory as the data file. This finds any file whose name starts
    * the same way as the data file (up to first period) but isn't the data file itself. For example, if the
@@ -324,6 +383,71 @@ public class FileDataModel extends AbstractDataModel {
     log.info("Read lines: {}", count);
   }
   
+  protected void processFile(FileLineIterator dataOrUpdateFileIterator, PreferenceArrayBuilder builder) {
+    log.info("Reading file info...");
+    int count = 0;
+    while (dataOrUpdateFileIterator.hasNext()) {
+      String line = dataOrUpdateFileIterator.next();
+      if (line.length() > 0) {
+        processLine(line, builder);
+        if (++count % 1000000 == 0) {
+          log.info("Processed {} lines", count);
+        }
+      }
+    }
+    log.info("Read lines: {}", count);
+  }
+  
+  /**
+   * <p>
+   * Reads one line from the data file or an update file, while loading the data afresh, and adds the
+   * preference to the {@link PreferenceArrayBuilder}, or removes it if the line has an empty preference value.
+   * </p>
+   * 
+   * <p>
+   * Note that if the line is empty or begins with '#' it will be ignored as a comment.
+   * </p>
+   * 
+   * @param line
+   *          line from input data file
+   * @param builder
+   *          collects all data read so far
+   */
+  protected void processLine(String line, PreferenceArrayBuilder builder) {
+    
+    if ((line.length() == 0) || (line.charAt(0) == COMMENT_CHAR)) {
+      return;
+    }
+    
+    int delimiterOne = line.indexOf(delimiter);
+    if (delimiterOne < 0) {
+      throw new IllegalArgumentException("Bad line: " + line);
+    }
+    int delimiterTwo = line.indexOf(delimiter, delimiterOne + 1);
+    if (delimiterTwo < 0) {
+      throw new IllegalArgumentException("Bad line: " + line);
+    }
+    // Look for beginning of additional, ignored fields:
+    int delimiterThree = line.indexOf(delimiter, delimiterTwo + 1);
+    
+    long userID = readUserIDFromString(line.substring(0, delimiterOne));
+    long itemID = readItemIDFromString(line.substring(delimiterOne + 1, delimiterTwo));
+    String preferenceValueString = delimiterThree > delimiterTwo
+        ? line.substring(delimiterTwo + 1, delimiterThree) : line.substring(delimiterTwo + 1);
+    
+    if (transpose) {
+      long tmp = userID;
+      userID = itemID;
+      itemID = tmp;
+    }
+    
+    if (preferenceValueString.length() == 0) {
+      builder.remove(userID, itemID);
+    } else {
+      builder.add(userID, itemID, Float.parseFloat(preferenceValueString));
+    }
+  }
+  
   /**
    * <p>
    * Reads one line from the input file and adds the data to a {@link FastByIDMap} data structure which maps user IDs
@@ -531,7 +655,15 @@ public class FileDataModel extends AbstractDataModel {
   
   private void checkLoaded() {
     if (!loaded) {
-      reload();
+      reloadLock.lock();
+      try {
+        // Another thread may have loaded the data while this one waited
+        if (!loaded) {
+          reload();
+        }
+      } finally {
+        reloadLock.unlock();
+      }
     }
   }
   
@@ -628,12 +760,24 @@ public class FileDataModel extends AbstractDataModel {
   
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
-    if ((dataFile.lastModified() > lastModified + MIN_RELOAD_INTERVAL_MS)
-        || (readLastUpdateFileModified() > lastUpdateFileModified + MIN_RELOAD_INTERVAL_MS)) {
-      log.debug("File has changed; reloading...");
-      reload();
+    if (filesChanged()) {
+      reloadLock.lock();
+      try {
+        // A reload that was running while this one waited may already have seen the changes
+        if (filesChanged()) {
+          log.debug("File has changed; reloading...");
+          reload();
+        }
+      } finally {
+        reloadLock.unlock();
+      }
     }
   }
+  
+  private boolean filesChanged() {
+    return (dataFile.lastModified() > lastModified + MIN_RELOAD_INTERVAL_MS)
+        || (readLastUpdateFileModified() > lastUpdateFileModified + MIN_RELOAD_INTERVAL_MS);
+  }
 
   @Override
   public boolean hasPreferenceValues() {
@@ -0,0 +1,439 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.AbstractLongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.AbstractDataModel;
+import org.apache.mahout.cf.taste.impl.model.BooleanItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.BooleanUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A read-only {@link DataModel} backed by a binary snapshot file, as written by
+ * {@link MemoryMappedDataModelWriter}. The file is memory-mapped rather than parsed, so opening even a very
+ * large model is nearly instant and the preference data itself lives outside the Java heap, in the
+ * operating system's page cache.
+ * </p>
+ *
+ * <p>
+ * The snapshot is columnar. It holds the sorted user IDs and item IDs, and then the preferences twice: once
+ * grouped by user (as indexes into the item IDs, plus values) and once grouped by item (as indexes into the
+ * user IDs, plus values). Each group is located through an array of offsets. Values are omitted entirely for
+ * boolean data. See {@link MemoryMappedDataModelWriter} for the exact layout.
+ * </p>
+ *
+ * <p>
+ * {@link PreferenceArray}s returned from this class are on-heap copies of the mapped data, and may be
+ * modified freely. {@link #setPreference(long, long, float)} and {@link #removePreference(long, long)} are not
+ * supported; regenerate the snapshot instead. {@link #refresh(Collection)} re-maps the file if it has been
+ * replaced since it was last opened.
+ * </p>
+ */
+public final class MemoryMappedDataModel extends AbstractDataModel {
+
+  private static final Logger log = LoggerFactory.getLogger(MemoryMappedDataModel.class);
+
+  private final File snapshotFile;
+  private long lastModified;
+  private volatile Snapshot snapshot;
+
+  /**
+   * @param snapshotFile
+   *          snapshot file written by {@link MemoryMappedDataModelWriter}
+   * @throws FileNotFoundException
+   *           if snapshotFile does not exist
+   * @throws IOException
+   *           if the file can't be read or is not a valid snapshot
+   */
+  public MemoryMappedDataModel(File snapshotFile) throws IOException {
+    if (snapshotFile == null) {
+      throw new IllegalArgumentException("snapshotFile is null");
+    }
+    if (!snapshotFile.exists() || snapshotFile.isDirectory()) {
+      throw new FileNotFoundException(snapshotFile.toString());
+    }
+    log.info("Creating MemoryMappedDataModel for file {}", snapshotFile);
+    this.snapshotFile = snapshotFile.getAbsoluteFile();
+    this.lastModified = snapshotFile.lastModified();
+    this.snapshot = new Snapshot(this.snapshotFile);
+    setMinPreference(snapshot.minPreference);
+    setMaxPreference(snapshot.maxPreference);
+  }
+
+  public File getSnapshotFile() {
+    return snapshotFile;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    return new LongBufferIterator(snapshot.userIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws NoSuchUserException {
+    Snapshot current = snapshot;
+    int userIndex = indexOf(current.userIDs, userID);
+    if (userIndex < 0) {
+      throw new NoSuchUserException();
+    }
+    int start = current.userOffsets.get(userIndex);
+    int length = current.userOffsets.get(userIndex + 1) - start;
+    PreferenceArray prefs = current.hasPrefValues
+        ? new GenericUserPreferenceArray(length) : new BooleanUserPreferenceArray(length);
+    prefs.setUserID(0, userID);
+    for (int i = 0; i < length; i++) {
+      prefs.setItemID(i, current.itemIDs.get(current.userPrefItemIndexes.get(start + i)));
+      if (current.hasPrefValues) {
+        prefs.setValue(i, current.userPrefValues.get(start + i));
+      }
+    }
+    return prefs;
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws NoSuchUserException {
+    Snapshot current = snapshot;
+    int userIndex = indexOf(current.userIDs, userID);
+    if (userIndex < 0) {
+      throw new NoSuchUserException();
+    }
+    int start = current.userOffsets.get(userIndex);
+    int end = current.userOffsets.get(userIndex + 1);
+    FastIDSet result = new FastIDSet(end - start);
+    for (int i = start; i < end; i++) {
+      result.add(current.itemIDs.get(current.userPrefItemIndexes.get(i)));
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    return new LongBufferIterator(snapshot.itemIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws NoSuchItemException {
+    Snapshot current = snapshot;
+    int itemIndex = indexOf(current.itemIDs, itemID);
+    if (itemIndex < 0) {
+      throw new NoSuchItemException();
+    }
+    int start = current.itemOffsets.get(itemIndex);
+    int length = current.itemOffsets.get(itemIndex + 1) - start;
+    PreferenceArray prefs = current.hasPrefValues
+        ? new GenericItemPreferenceArray(length) : new BooleanItemPreferenceArray(length);
+    prefs.setItemID(0, itemID);
+    for (int i = 0; i < length; i++) {
+      prefs.setUserID(i, current.userIDs.get(current.itemPrefUserIndexes.get(start + i)));
+      if (current.hasPrefValues) {
+        prefs.setValue(i, current.itemPrefValues.get(start + i));
+      }
+    }
+    return prefs;
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws NoSuchUserException {
+    Snapshot current = snapshot;
+    int userIndex = indexOf(current.userIDs, userID);
+    if (userIndex < 0) {
+      throw new NoSuchUserException();
+    }
+    int itemIndex = indexOf(current.itemIDs, itemID);
+    if (itemIndex < 0) {
+      return null;
+    }
+    // Item indexes within one user's range are sorted, since item IDs are sorted
+    int low = current.userOffsets.get(userIndex);
+    int high = current.userOffsets.get(userIndex + 1) - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int midItemIndex = current.userPrefItemIndexes.get(mid);
+      if (midItemIndex < itemIndex) {
+        low = mid + 1;
+      } else if (midItemIndex > itemIndex) {
+        high = mid - 1;
+      } else {
+        return current.hasPrefValues ? current.userPrefValues.get(mid) : 1.0f;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public int getNumItems() {
+    return snapshot.itemIDs.limit();
+  }
+
+  @Override
+  public int getNumUsers() {
+    return snapshot.userIDs.limit();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long... itemIDs) {
+    if (itemIDs == null) {
+      throw new IllegalArgumentException("itemIDs is null");
+    }
+    int length = itemIDs.length;
+    if ((length == 0) || (length > 2)) {
+      throw new IllegalArgumentException("Illegal number of item IDs: " + length);
+    }
+    Snapshot current = snapshot;
+    int itemIndex1 = indexOf(current.itemIDs, itemIDs[0]);
+    if (itemIndex1 < 0) {
+      return 0;
+    }
+    int start1 = current.itemOffsets.get(itemIndex1);
+    int end1 = current.itemOffsets.get(itemIndex1 + 1);
+    if (length == 1) {
+      return end1 - start1;
+    }
+    int itemIndex2 = indexOf(current.itemIDs, itemIDs[1]);
+    if (itemIndex2 < 0) {
+      return 0;
+    }
+    int start2 = current.itemOffsets.get(itemIndex2);
+    int end2 = current.itemOffsets.get(itemIndex2 + 1);
+    // Both ranges are sorted by user index, so intersect them with a merge
+    int count = 0;
+    int i = start1;
+    int j = start2;
+    while ((i < end1) && (j < end2)) {
+      int userIndex1 = current.itemPrefUserIndexes.get(i);
+      int userIndex2 = current.itemPrefUserIndexes.get(j);
+      if (userIndex1 < userIndex2) {
+        i++;
+      } else if (userIndex1 > userIndex2) {
+        j++;
+      } else {
+        count++;
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    long newLastModified = snapshotFile.lastModified();
+    if (newLastModified > lastModified) {
+      log.debug("Snapshot file has changed; re-mapping...");
+      try {
+        Snapshot newSnapshot = new Snapshot(snapshotFile);
+        setMinPreference(newSnapshot.minPreference);
+        setMaxPreference(newSnapshot.maxPreference);
+        snapshot = newSnapshot;
+        lastModified = newLastModified;
+      } catch (IOException ioe) {
+        log.warn("Exception while re-mapping", ioe);
+      }
+    }
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return snapshot.hasPrefValues;
+  }
+
+  @Override
+  public String toString() {
+    return "MemoryMappedDataModel[snapshotFile:" + snapshotFile + ']';
+  }
+
+  /**
+   * @return index of the given ID in the sorted IDs, or a negative value if it is not present
+   */
+  private static int indexOf(LongBuffer ids, long id) {
+    int low = 0;
+    int high = ids.limit() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midID = ids.get(mid);
+      if (midID < id) {
+        low = mid + 1;
+      } else if (midID > id) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * The mapped regions of one snapshot file. Instances are immutable, so that a refresh can swap in a new
+   * snapshot while readers continue to use the old one.
+   */
+  private static final class Snapshot {
+
+    private final boolean hasPrefValues;
+    private final float minPreference;
+    private final float maxPreference;
+    private final LongBuffer userIDs;
+    private final LongBuffer itemIDs;
+    private final IntBuffer userOffsets;
+    private final IntBuffer userPrefItemIndexes;
+    private final FloatBuffer userPrefValues;
+    private final IntBuffer itemOffsets;
+    private final IntBuffer itemPrefUserIndexes;
+    private final FloatBuffer itemPrefValues;
+
+    private Snapshot(File file) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        FileChannel channel = raf.getChannel();
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, MemoryMappedDataModelWriter.HEADER_SIZE);
+        if (header.getInt() != MemoryMappedDataModelWriter.MAGIC) {
+          throw new IOException("Not a snapshot file: " + file);
+        }
+        int version = header.getInt();
+        if (version != MemoryMappedDataModelWriter.VERSION) {
+          throw new IOException("Unsupported snapshot version " + version + " in " + file);
+        }
+        hasPrefValues = header.getInt() != 0;
+        int numUsers = header.getInt();
+        int numItems = header.getInt();
+        int numPrefs = header.getInt();
+        minPreference = header.getFloat();
+        maxPreference = header.getFloat();
+
+        long position = MemoryMappedDataModelWriter.HEADER_SIZE;
+        userIDs = map(channel, position, 8L * numUsers).asLongBuffer();
+        position += 8L * numUsers;
+        itemIDs = map(channel, position, 8L * numItems).asLongBuffer();
+        position += 8L * numItems;
+        userOffsets = map(channel, position, 4L * (numUsers + 1)).asIntBuffer();
+        position += 4L * (numUsers + 1);
+        userPrefItemIndexes = map(channel, position, 4L * numPrefs).asIntBuffer();
+        position += 4L * numPrefs;
+        if (hasPrefValues) {
+          userPrefValues = map(channel, position, 4L * numPrefs).asFloatBuffer();
+          position += 4L * numPrefs;
+        } else {
+          userPrefValues = null;
+        }
+        itemOffsets = map(channel, position, 4L * (numItems + 1)).asIntBuffer();
+        position += 4L * (numItems + 1);
+        itemPrefUserIndexes = map(channel, position, 4L * numPrefs).asIntBuffer();
+        position += 4L * numPrefs;
+        if (hasPrefValues) {
+          itemPrefValues = map(channel, position, 4L * numPrefs).asFloatBuffer();
+          position += 4L * numPrefs;
+        } else {
+          itemPrefValues = null;
+        }
+        if (position != channel.size()) {
+          throw new IOException("Truncated or corrupt snapshot file: " + file);
+        }
+        log.info("Mapped {} users, {} items, {} preferences", new Object[] {numUsers, numItems, numPrefs});
+      } finally {
+        // Mapped buffers remain valid after the channel is closed
+        raf.close();
+      }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+      if (position + size > channel.size()) {
+        throw new IOException("Truncated snapshot file");
+      }
+      return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+  }
+
+  private static final class LongBufferIterator extends AbstractLongPrimitiveIterator {
+
+    private final LongBuffer buffer;
+    private int position;
+
+    private LongBufferIterator(LongBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return position < buffer.limit();
+    }
+
+    @Override
+    public long nextLong() {
+      if (position >= buffer.limit()) {
+        throw new NoSuchElementException();
+      }
+      return buffer.get(position++);
+    }
+
+    @Override
+    public long peek() {
+      if (position >= buffer.limit()) {
+        throw new NoSuchElementException();
+      }
+      return buffer.get(position);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void skip(int n) {
+      if (n > 0) {
+        position += n;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,223 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Writes the contents of a {@link DataModel} as a binary snapshot that can be opened with
+ * {@link MemoryMappedDataModel}. The usual source is a {@link FileDataModel}, which reads the main data file
+ * (plain or compressed) together with any update "delta" files next to it; {@link #main(String[])} does
+ * exactly this, so a large text file can be converted once, offline, and then opened instantly.
+ * </p>
+ *
+ * <p>
+ * All values are big-endian. The file consists of:
+ * </p>
+ *
+ * <ul>
+ * <li>a header of {@link #HEADER_SIZE} bytes: magic number, format version, 1 if the model has preference
+ * values else 0, number of users, number of items, number of preferences (all <code>int</code>s), then the
+ * minimum and maximum preference value (<code>float</code>s)</li>
+ * <li>user IDs, ascending (<code>long</code>s)</li>
+ * <li>item IDs, ascending (<code>long</code>s)</li>
+ * <li>for each user, the offset of its first preference, plus one final offset equal to the number of
+ * preferences (<code>int</code>s)</li>
+ * <li>preferences by user: the index of each item in the item IDs, ascending within a user
+ * (<code>int</code>s)</li>
+ * <li>preferences by user: values, only if the model has preference values (<code>float</code>s)</li>
+ * <li>for each item, the offset of its first preference, plus one final offset (<code>int</code>s)</li>
+ * <li>preferences by item: the index of each user in the user IDs, ascending within an item
+ * (<code>int</code>s)</li>
+ * <li>preferences by item: values, only if the model has preference values (<code>float</code>s)</li>
+ * </ul>
+ *
+ * <p>
+ * Since each column is mapped as one buffer, a snapshot can hold at most 2<sup>29</sup> - 1 preferences.
+ * </p>
+ */
+public final class MemoryMappedDataModelWriter {
+
+  private static final Logger log = LoggerFactory.getLogger(MemoryMappedDataModelWriter.class);
+
+  static final int MAGIC = 0x54535331; // "TSS1"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 32;
+  private static final int MAX_PREFERENCES = (1 << 29) - 1;
+
+  private MemoryMappedDataModelWriter() {
+  }
+
+  /**
+   * @param dataModel
+   *          model to write
+   * @param snapshotFile
+   *          file to write the snapshot to; it is replaced if it exists
+   * @throws IOException
+   *           if the file can't be written
+   * @throws TasteException
+   *           if an error occurs while reading the {@link DataModel}
+   */
+  public static void write(DataModel dataModel, File snapshotFile) throws IOException, TasteException {
+    long[] userIDs = toSortedArray(dataModel.getUserIDs(), dataModel.getNumUsers());
+    long[] itemIDs = toSortedArray(dataModel.getItemIDs(), dataModel.getNumItems());
+    boolean hasPrefValues = dataModel.hasPreferenceValues();
+
+    long numPrefs = 0;
+    for (long userID : userIDs) {
+      numPrefs += dataModel.getPreferencesFromUser(userID).length();
+    }
+    if (numPrefs > MAX_PREFERENCES) {
+      throw new IllegalArgumentException("Too many preferences for one snapshot: " + numPrefs);
+    }
+
+    log.info("Writing {} users, {} items, {} preferences to {}",
+             new Object[] {userIDs.length, itemIDs.length, numPrefs, snapshotFile});
+
+    // Write to a temporary file first, so that a model mapping the old snapshot never sees a partial one
+    File tempFile = new File(snapshotFile.getAbsolutePath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(hasPrefValues ? 1 : 0);
+      out.writeInt(userIDs.length);
+      out.writeInt(itemIDs.length);
+      out.writeInt((int) numPrefs);
+      out.writeFloat(dataModel.getMinPreference());
+      out.writeFloat(dataModel.getMaxPreference());
+
+      for (long userID : userIDs) {
+        out.writeLong(userID);
+      }
+      for (long itemID : itemIDs) {
+        out.writeLong(itemID);
+      }
+
+      writeByUser(dataModel, userIDs, itemIDs, hasPrefValues, out);
+      writeByItem(dataModel, userIDs, itemIDs, hasPrefValues, out);
+    } finally {
+      out.close();
+    }
+
+    if (snapshotFile.exists() && !snapshotFile.delete()) {
+      throw new IOException("Could not replace " + snapshotFile);
+    }
+    if (!tempFile.renameTo(snapshotFile)) {
+      throw new IOException("Could not rename " + tempFile + " to " + snapshotFile);
+    }
+  }
+
+  private static void writeByUser(DataModel dataModel,
+                                  long[] userIDs,
+                                  long[] itemIDs,
+                                  boolean hasPrefValues,
+                                  DataOutputStream out) throws IOException, TasteException {
+    int offset = 0;
+    for (long userID : userIDs) {
+      out.writeInt(offset);
+      offset += dataModel.getPreferencesFromUser(userID).length();
+    }
+    out.writeInt(offset);
+    for (long userID : userIDs) {
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID).clone();
+      prefs.sortByItem();
+      int length = prefs.length();
+      for (int i = 0; i < length; i++) {
+        out.writeInt(Arrays.binarySearch(itemIDs, prefs.getItemID(i)));
+      }
+    }
+    if (hasPrefValues) {
+      for (long userID : userIDs) {
+        PreferenceArray prefs = dataModel.getPreferencesFromUser(userID).clone();
+        prefs.sortByItem();
+        int length = prefs.length();
+        for (int i = 0; i < length; i++) {
+          out.writeFloat(prefs.getValue(i));
+        }
+      }
+    }
+  }
+
+  private static void writeByItem(DataModel dataModel,
+                                  long[] userIDs,
+                                  long[] itemIDs,
+                                  boolean hasPrefValues,
+                                  DataOutputStream out) throws IOException, TasteException {
+    int offset = 0;
+    for (long itemID : itemIDs) {
+      out.writeInt(offset);
+      offset += dataModel.getPreferencesForItem(itemID).length();
+    }
+    out.writeInt(offset);
+    for (long itemID : itemIDs) {
+      PreferenceArray prefs = dataModel.getPreferencesForItem(itemID).clone();
+      prefs.sortByUser();
+      int length = prefs.length();
+      for (int i = 0; i < length; i++) {
+        out.writeInt(Arrays.binarySearch(userIDs, prefs.getUserID(i)));
+      }
+    }
+    if (hasPrefValues) {
+      for (long itemID : itemIDs) {
+        PreferenceArray prefs = dataModel.getPreferencesForItem(itemID).clone();
+        prefs.sortByUser();
+        int length = prefs.length();
+        for (int i = 0; i < length; i++) {
+          out.writeFloat(prefs.getValue(i));
+        }
+      }
+    }
+  }
+
+  private static long[] toSortedArray(LongPrimitiveIterator it, int size) {
+    long[] result = new long[size];
+    int i = 0;
+    while (it.hasNext()) {
+      result[i++] = it.nextLong();
+    }
+    Arrays.sort(result);
+    return result;
+  }
+
+  /**
+   * Converts a data file readable by {@link FileDataModel}, along with its update files, to a snapshot.
+   * Arguments are the data file and the snapshot file to write.
+   */
+  public static void main(String[] args) throws IOException, TasteException {
+    if (args.length != 2) {
+      System.err.println("Usage: MemoryMappedDataModelWriter [data file] [snapshot file]");
+      return;
+    }
+    write(new FileDataModel(new File(args[0])), new File(args[1]));
+  }
+
+}
@@ -94,6 +94,7 @@ public abstract class AbstractBooleanPrefJDBCDataModel extends AbstractJDBCDataM
     } finally {
       IOUtils.quietClose(null, stmt, conn);
     }
+    uncacheUser(userID);
   }
 
   @Override
@@ -33,6 +33,7 @@ import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.Cache;
+import org.apache.mahout.cf.taste.impl.common.ConcurrentCache;
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
@@ -66,6 +67,13 @@ import org.slf4j.LoggerFactory;
  * container, you can use packages like Jakarta's <a href="http://jakarta.apache.org/commons/dbcp/">DBCP</a>
  * to create a {@link DataSource} on top of your database whose {@link Connection}s are pooled.
  * </p>
+ *
+ * <p>
+ * Each user's preferences are otherwise read with one query per request. {@link #setMaxCachedUsers(int)}
+ * keeps a bounded number of users' preferences in memory, read through from the database on first use.
+ * Cached users are dropped when they are changed through this class and on {@link #refresh(Collection)},
+ * but changes made to the table by others are only seen after a refresh.
+ * </p>
  */
 public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implements JDBCDataModel {
   
@@ -98,6 +106,7 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
   private int cachedNumUsers;
   private int cachedNumItems;
   private final Cache<Long,Integer> itemPrefCounts;
+  private volatile ConcurrentCache<Long,PreferenceArray> userPrefsCache;
   private float maxPreference;
   private float minPreference;
   
@@ -223,6 +232,20 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
   public String getPreferenceColumn() {
     return preferenceColumn;
   }
+
+  /**
+   * @param maxCachedUsers
+   *          maximum number of users whose preferences are kept in memory, or 0 to read them from the
+   *          database on every request, which is the default
+   */
+  public void setMaxCachedUsers(int maxCachedUsers) {
+    if (maxCachedUsers < 0) {
+      throw new IllegalArgumentException("maxCachedUsers is negative: " + maxCachedUsers);
+    }
+    userPrefsCache = maxCachedUsers == 0
+        ? null
+        : new ConcurrentCache<Long,PreferenceArray>(new UserPrefsRetriever(), maxCachedUsers);
+  }
   
   @Override
   public LongPrimitiveIterator getUserIDs() throws TasteException {
@@ -236,6 +259,14 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
    */
   @Override
   public PreferenceArray getPreferencesFromUser(long id) throws TasteException {
+    ConcurrentCache<Long,PreferenceArray> cache = userPrefsCache;
+    if (cache != null) {
+      return cache.get(id);
+    }
+    return doGetPreferencesFromUser(id);
+  }
+
+  private PreferenceArray doGetPreferencesFromUser(long id) throws TasteException {
     
     log.debug("Retrieving user ID '{}'", id);
     
@@ -377,6 +408,16 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
    */
   @Override
   public FastIDSet getItemIDsFromUser(long id) throws TasteException {
+    ConcurrentCache<Long,PreferenceArray> cache = userPrefsCache;
+    if (cache != null) {
+      PreferenceArray prefs = cache.get(id);
+      int size = prefs.length();
+      FastIDSet result = new FastIDSet(size);
+      for (int i = 0; i < size; i++) {
+        result.add(prefs.getItemID(i));
+      }
+      return result;
+    }
     
     log.debug("Retrieving items for user ID '{}'", id);
     
@@ -567,6 +608,7 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
     } finally {
       IOUtils.quietClose(null, stmt, conn);
     }
+    uncacheUser(userID);
   }
   
   @Override
@@ -592,6 +634,7 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
     } finally {
       IOUtils.quietClose(null, stmt, conn);
     }
+    uncacheUser(userID);
   }
   
   @Override
@@ -601,6 +644,20 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
     minPreference = Float.NaN;
     maxPreference = Float.NaN;
     itemPrefCounts.clear();
+    ConcurrentCache<Long,PreferenceArray> cache = userPrefsCache;
+    if (cache != null) {
+      cache.clear();
+    }
+  }
+
+  /**
+   * Drops a user's cached preferences, if any, after they have been changed in the database.
+   */
+  protected void uncacheUser(long userID) {
+    ConcurrentCache<Long,PreferenceArray> cache = userPrefsCache;
+    if (cache != null) {
+      cache.remove(userID);
+    }
   }
 
   @Override
@@ -814,6 +871,13 @@ public abstract class AbstractJDBCDataModel extends AbstractJDBCComponent implem
     
   }
   
+  private final class UserPrefsRetriever implements Retriever<Long,PreferenceArray> {
+    @Override
+    public PreferenceArray get(Long key) throws TasteException {
+      return doGetPreferencesFromUser(key);
+    }
+  }
+  
   private final class ItemPrefCountRetriever implements Retriever<Long,Integer> {
     private final String getNumPreferenceForItemSQL;
     
@@ -0,0 +1,408 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.jdbc.AbstractJDBCComponent;
+import org.apache.mahout.cf.taste.impl.model.GenericBooleanPrefDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A {@link DataModel} that reads the whole preference table of an {@link AbstractJDBCDataModel} into memory
+ * once, with a single streaming query, and then answers all requests from memory like a
+ * {@link GenericDataModel}. Rows are fetched in batches of {@link #getFetchSize()} and collected directly
+ * into per-user arrays of item IDs and values, without creating a {@link org.apache.mahout.cf.taste.model.Preference}
+ * per row. This avoids the query per request of the {@link AbstractJDBCDataModel} itself, which dominates
+ * recommendation time against a remote database. Rows are requested ordered by user and item, so that the
+ * arrays need no sorting.
+ * </p>
+ *
+ * <p>
+ * If the table has a column recording when each row was last changed, give its name as
+ * <code>timestampColumn</code>: {@link #refresh(Collection)} then only reads the rows changed since the last
+ * load, and merges them into copies of the affected users' data. Rows deleted from the table can't be seen
+ * this way, so a refresh after {@link #removePreference(long, long)} reads the whole table again; rows
+ * deleted by others are only dropped by calling {@link #reload()}. The whole table is also read again while
+ * no row has had a timestamp yet. Without a timestamp column, every refresh reads the whole table again.
+ * Either way, requests are answered from the previous data until the new data is complete.
+ * </p>
+ *
+ * <p>
+ * {@link #setPreference(long, long, float)} and {@link #removePreference(long, long)} write through to the
+ * underlying {@link AbstractJDBCDataModel}, and are seen here after the next refresh.
+ * </p>
+ */
+public final class BulkLoadingJDBCDataModel extends AbstractJDBCComponent implements DataModel {
+
+  private static final Logger log = LoggerFactory.getLogger(BulkLoadingJDBCDataModel.class);
+
+  private final AbstractJDBCDataModel source;
+  private final String timestampColumn;
+  private final String getAllPrefsSQL;
+  private final String getChangedPrefsSQL;
+  private final ReentrantLock reloadLock;
+  private FastByIDMap<PreferenceArray> userData;
+  private Timestamp lastChange;
+  private volatile boolean removed;
+  private volatile DataModel delegate;
+
+  /**
+   * Loads all data, and reloads all of it on each refresh.
+   */
+  public BulkLoadingJDBCDataModel(AbstractJDBCDataModel source) throws TasteException {
+    this(source, null);
+  }
+
+  /**
+   * @param source
+   *          model whose table is loaded, and which takes writes
+   * @param timestampColumn
+   *          column of the same table holding the time each row was last changed, or <code>null</code> if
+   *          there is none
+   * @throws TasteException
+   *           if the table can't be read
+   */
+  public BulkLoadingJDBCDataModel(AbstractJDBCDataModel source, String timestampColumn) throws TasteException {
+    checkNotNullAndLog("source", source);
+    this.source = source;
+    this.timestampColumn = timestampColumn;
+    StringBuilder select = new StringBuilder();
+    select.append("SELECT ").append(source.getUserIDColumn()).append(", ").append(source.getItemIDColumn());
+    if (source.hasPreferenceValues()) {
+      select.append(", ").append(source.getPreferenceColumn());
+    }
+    if (timestampColumn != null) {
+      select.append(", ").append(timestampColumn);
+    }
+    select.append(" FROM ").append(source.getPreferenceTable());
+    String selectAll = select.toString();
+    String orderBy = " ORDER BY " + source.getUserIDColumn() + ", " + source.getItemIDColumn();
+    getAllPrefsSQL = selectAll + orderBy;
+    // >= rather than >, as rows may be changed in the same instant after the last load; reading them again
+    // is harmless
+    getChangedPrefsSQL =
+        timestampColumn == null ? null : selectAll + " WHERE " + timestampColumn + " >= ?" + orderBy;
+    reloadLock = new ReentrantLock();
+    reload();
+  }
+
+  /**
+   * Reads the whole table again, and swaps the result in.
+   */
+  public void reload() throws TasteException {
+    reloadLock.lock();
+    try {
+      // Removals made while this reads may or may not be seen, so leave them to the next refresh
+      removed = false;
+      FastByIDMap<PreferenceArray> newUserData = new FastByIDMap<PreferenceArray>();
+      lastChange = readPrefs(getAllPrefsSQL, null, newUserData);
+      userData = newUserData;
+      delegate = buildDelegate(newUserData);
+    } finally {
+      reloadLock.unlock();
+    }
+  }
+
+  /**
+   * Reads the rows changed since the last load, and swaps in the data with those merged in.
+   */
+  private void reloadChanges() throws TasteException {
+    reloadLock.lock();
+    try {
+      if (lastChange == null) {
+        // No row had a timestamp, so there is nothing to compare against
+        reload();
+        return;
+      }
+      FastByIDMap<PreferenceArray> changes = new FastByIDMap<PreferenceArray>();
+      Timestamp newLastChange = readPrefs(getChangedPrefsSQL, lastChange, changes);
+      if (changes.isEmpty()) {
+        return;
+      }
+      // The current data is in use by the delegate, so merge into a copy
+      FastByIDMap<PreferenceArray> newUserData = userData.clone();
+      for (Map.Entry<Long,PreferenceArray> entry : changes.entrySet()) {
+        long userID = entry.getKey();
+        newUserData.put(userID, merge(userID, newUserData.get(userID), entry.getValue()));
+      }
+      log.info("Merged changes to {} users", changes.size());
+      lastChange = newLastChange;
+      userData = newUserData;
+      delegate = buildDelegate(newUserData);
+    } finally {
+      reloadLock.unlock();
+    }
+  }
+
+  /**
+   * Streams the rows returned by a query into per-user arrays.
+   *
+   * @return latest timestamp seen, or <code>since</code> if none is later
+   */
+  private Timestamp readPrefs(String sql,
+                              Timestamp since,
+                              FastByIDMap<PreferenceArray> result) throws TasteException {
+    boolean hasPrefValues = source.hasPreferenceValues();
+    int timestampColumnIndex = hasPrefValues ? 4 : 3;
+    Timestamp latest = since;
+    FastByIDMap<PrefsBuffer> buffers = new FastByIDMap<PrefsBuffer>();
+    int numRows = 0;
+
+    Connection conn = null;
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+
+    try {
+      conn = source.getDataSource().getConnection();
+      stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      stmt.setFetchDirection(ResultSet.FETCH_FORWARD);
+      stmt.setFetchSize(getFetchSize());
+      if (since != null) {
+        stmt.setTimestamp(1, since);
+      }
+
+      log.debug("Executing SQL query: {}", sql);
+      rs = stmt.executeQuery();
+
+      while (rs.next()) {
+        long userID = source.getLongColumn(rs, 1);
+        PrefsBuffer buffer = buffers.get(userID);
+        if (buffer == null) {
+          buffer = new PrefsBuffer();
+          buffers.put(userID, buffer);
+        }
+        buffer.add(source.getLongColumn(rs, 2), hasPrefValues ? rs.getFloat(3) : 1.0f);
+        if (timestampColumn != null) {
+          Timestamp changed = rs.getTimestamp(timestampColumnIndex);
+          if ((changed != null) && ((latest == null) || changed.after(latest))) {
+            latest = changed;
+          }
+        }
+        numRows++;
+      }
+
+    } catch (SQLException sqle) {
+      log.warn("Exception while loading preferences", sqle);
+      throw new TasteException(sqle);
+    } finally {
+      IOUtils.quietClose(rs, stmt, conn);
+    }
+
+    for (Map.Entry<Long,PrefsBuffer> entry : buffers.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().toPreferenceArray(entry.getKey()));
+    }
+    log.info("Read {} preferences of {} users", numRows, result.size());
+    return latest;
+  }
+
+  /**
+   * Merges a user's changed preferences into its current ones, both sorted by item, in a single pass. A changed
+   * value replaces the current one for the same item.
+   */
+  private static PreferenceArray merge(long userID, PreferenceArray current, PreferenceArray changes) {
+    if (current == null) {
+      return changes;
+    }
+    int currentLength = current.length();
+    int changesLength = changes.length();
+    PrefsBuffer merged = new PrefsBuffer(currentLength + changesLength);
+    int i = 0;
+    int j = 0;
+    while ((i < currentLength) && (j < changesLength)) {
+      long currentItemID = current.getItemID(i);
+      long changedItemID = changes.getItemID(j);
+      if (currentItemID < changedItemID) {
+        merged.add(currentItemID, current.getValue(i++));
+      } else {
+        if (currentItemID == changedItemID) {
+          i++;
+        }
+        merged.add(changedItemID, changes.getValue(j++));
+      }
+    }
+    for (; i < currentLength; i++) {
+      merged.add(current.getItemID(i), current.getValue(i));
+    }
+    for (; j < changesLength; j++) {
+      merged.add(changes.getItemID(j), changes.getValue(j));
+    }
+    return merged.toPreferenceArray(userID);
+  }
+
+  private DataModel buildDelegate(FastByIDMap<PreferenceArray> data) {
+    if (source.hasPreferenceValues()) {
+      return new GenericDataModel(data);
+    }
+    return new GenericBooleanPrefDataModel(GenericBooleanPrefDataModel.toDataMap(data));
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() throws TasteException {
+    return delegate.getUserIDs();
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    return delegate.getPreferencesFromUser(userID);
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    return delegate.getItemIDsFromUser(userID);
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() throws TasteException {
+    return delegate.getItemIDs();
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    return delegate.getPreferencesForItem(itemID);
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    return delegate.getPreferenceValue(userID, itemID);
+  }
+
+  @Override
+  public int getNumItems() throws TasteException {
+    return delegate.getNumItems();
+  }
+
+  @Override
+  public int getNumUsers() throws TasteException {
+    return delegate.getNumUsers();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long... itemIDs) throws TasteException {
+    return delegate.getNumUsersWithPreferenceFor(itemIDs);
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    source.setPreference(userID, itemID, value);
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    source.removePreference(userID, itemID);
+    removed = true;
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return source.hasPreferenceValues();
+  }
+
+  @Override
+  public float getMaxPreference() {
+    return delegate.getMaxPreference();
+  }
+
+  @Override
+  public float getMinPreference() {
+    return delegate.getMinPreference();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    try {
+      if ((timestampColumn == null) || removed) {
+        reload();
+      } else {
+        reloadChanges();
+      }
+    } catch (TasteException te) {
+      log.warn("Unexpected exception while refreshing", te);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "BulkLoadingJDBCDataModel[source:" + source + ']';
+  }
+
+  /** Growable parallel arrays of one user's item IDs and values. */
+  private static final class PrefsBuffer {
+
+    private long[] itemIDs;
+    private float[] values;
+    private int size;
+
+    private PrefsBuffer() {
+      this(4);
+    }
+
+    private PrefsBuffer(int capacity) {
+      itemIDs = new long[capacity];
+      values = new float[capacity];
+    }
+
+    void add(long itemID, float value) {
+      if (size == itemIDs.length) {
+        int newCapacity = size << 1;
+        long[] newItemIDs = new long[newCapacity];
+        System.arraycopy(itemIDs, 0, newItemIDs, 0, size);
+        itemIDs = newItemIDs;
+        float[] newValues = new float[newCapacity];
+        System.arraycopy(values, 0, newValues, 0, size);
+        values = newValues;
+      }
+      itemIDs[size] = itemID;
+      values[size] = value;
+      size++;
+    }
+
+    /** @return preferences sorted by item; already so, unless the database orders IDs differently */
+    PreferenceArray toPreferenceArray(long userID) {
+      PreferenceArray prefs = new GenericUserPreferenceArray(size);
+      prefs.setUserID(0, userID);
+      for (int i = 0; i < size; i++) {
+        prefs.setItemID(i, itemIDs[i]);
+        prefs.setValue(i, values[i]);
+      }
+      prefs.sortByItem();
+      return prefs;
+    }
+
+  }
+
+}
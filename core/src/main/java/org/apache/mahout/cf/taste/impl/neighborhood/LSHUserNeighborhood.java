@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.common.RandomUtils;
+
+/**
+ * <p>
+ * Like {@link NearestNUserNeighborhood}, but only computes the similarity to users who are likely to be near,
+ * rather than to all users. Those candidates are found with locality-sensitive hashing: each user's set of
+ * items is summarized by a MinHash signature of <code>numBands * rowsPerBand</code> values, and the
+ * signature is cut into <code>numBands</code> bands. Users who agree on all values of at least one band
+ * are candidates for each other's neighborhood.
+ * </p>
+ *
+ * <p>
+ * Two users whose item sets have Jaccard similarity s become candidates with probability
+ * 1 - (1 - s<sup>rowsPerBand</sup>)<sup>numBands</sup>. More rows per band make the buckets smaller and
+ * requests faster, at the cost of missing less similar neighbors; more bands recover those at the cost of
+ * more candidates.
+ * </p>
+ *
+ * <p>
+ * The buckets are built from the {@link DataModel} when this is constructed, and rebuilt on
+ * {@link #refresh(Collection)}. Requests are served from the previous buckets while they are rebuilt.
+ * </p>
+ */
+public final class LSHUserNeighborhood implements UserNeighborhood {
+
+  private final int n;
+  private final double minSimilarity;
+  private final UserSimilarity userSimilarity;
+  private final DataModel dataModel;
+  private final int numBands;
+  private final int rowsPerBand;
+  private final long[] hashSeeds;
+  private volatile List<FastByIDMap<FastIDSet>> buckets;
+  private final RefreshHelper refreshHelper;
+
+  /**
+   * @param n
+   *          neighborhood size
+   * @param minSimilarity
+   *          minimal similarity required for neighbors
+   * @param userSimilarity
+   *          nearness metric
+   * @param dataModel
+   *          data model
+   * @param numBands
+   *          number of bands to cut signatures into
+   * @param rowsPerBand
+   *          number of MinHash values per band
+   * @throws IllegalArgumentException
+   *           if n, numBands or rowsPerBand are &lt; 1, or userSimilarity or dataModel are <code>null</code>
+   * @throws TasteException
+   *           if an error occurs while reading users from the {@link DataModel}
+   */
+  public LSHUserNeighborhood(int n,
+                             double minSimilarity,
+                             UserSimilarity userSimilarity,
+                             DataModel dataModel,
+                             int numBands,
+                             int rowsPerBand) throws TasteException {
+    if ((userSimilarity == null) || (dataModel == null)) {
+      throw new IllegalArgumentException("userSimilarity or dataModel is null");
+    }
+    if (n < 1) {
+      throw new IllegalArgumentException("n must be at least 1");
+    }
+    if ((numBands < 1) || (rowsPerBand < 1)) {
+      throw new IllegalArgumentException("numBands and rowsPerBand must be at least 1");
+    }
+    this.n = n;
+    this.minSimilarity = minSimilarity;
+    this.userSimilarity = userSimilarity;
+    this.dataModel = dataModel;
+    this.numBands = numBands;
+    this.rowsPerBand = rowsPerBand;
+    Random random = RandomUtils.getRandom();
+    hashSeeds = new long[numBands * rowsPerBand];
+    for (int i = 0; i < hashSeeds.length; i++) {
+      hashSeeds[i] = random.nextLong();
+    }
+    buckets = buildBuckets();
+    refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() throws TasteException {
+        buckets = buildBuckets();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(dataModel);
+    refreshHelper.addDependency(userSimilarity);
+  }
+
+  @Override
+  public long[] getUserNeighborhood(long userID) throws TasteException {
+    List<FastByIDMap<FastIDSet>> currentBuckets = buckets;
+    long[] bandKeys = bandKeys(dataModel.getItemIDsFromUser(userID));
+    FastIDSet candidates = new FastIDSet();
+    for (int band = 0; band < numBands; band++) {
+      FastIDSet bucket = currentBuckets.get(band).get(bandKeys[band]);
+      if (bucket != null) {
+        candidates.addAll(bucket);
+      }
+    }
+    candidates.remove(userID);
+    TopItems.IDEstimator estimator = new NearestNUserNeighborhood.Estimator(userSimilarity, userID, minSimilarity);
+    return TopItems.getTopUsers(n, candidates.iterator(), null, estimator);
+  }
+
+  private List<FastByIDMap<FastIDSet>> buildBuckets() throws TasteException {
+    List<FastByIDMap<FastIDSet>> newBuckets = new ArrayList<FastByIDMap<FastIDSet>>(numBands);
+    for (int band = 0; band < numBands; band++) {
+      newBuckets.add(new FastByIDMap<FastIDSet>());
+    }
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      long[] bandKeys = bandKeys(dataModel.getItemIDsFromUser(userID));
+      for (int band = 0; band < numBands; band++) {
+        FastByIDMap<FastIDSet> bandBuckets = newBuckets.get(band);
+        FastIDSet bucket = bandBuckets.get(bandKeys[band]);
+        if (bucket == null) {
+          bucket = new FastIDSet(2);
+          bandBuckets.put(bandKeys[band], bucket);
+        }
+        bucket.add(userID);
+      }
+    }
+    return newBuckets;
+  }
+
+  /**
+   * Computes the MinHash signature of a set of items, and hashes each band of it into one key.
+   */
+  private long[] bandKeys(FastIDSet itemIDs) {
+    long[] signature = new long[hashSeeds.length];
+    Arrays.fill(signature, Long.MAX_VALUE);
+    LongPrimitiveIterator it = itemIDs.iterator();
+    while (it.hasNext()) {
+      long itemID = it.nextLong();
+      for (int i = 0; i < signature.length; i++) {
+        long hash = mix(itemID ^ hashSeeds[i]);
+        if (hash < signature[i]) {
+          signature[i] = hash;
+        }
+      }
+    }
+    long[] bandKeys = new long[numBands];
+    for (int band = 0; band < numBands; band++) {
+      long key = band;
+      int offset = band * rowsPerBand;
+      for (int row = 0; row < rowsPerBand; row++) {
+        key = mix(key * 31L + signature[offset + row]);
+      }
+      // FastByIDMap reserves Long.MIN_VALUE and Long.MAX_VALUE
+      bandKeys[band] = (key == Long.MIN_VALUE) || (key == Long.MAX_VALUE) ? 0L : key;
+    }
+    return bandKeys;
+  }
+
+  /** The 64-bit finalizer of MurmurHash3, which spreads every input bit over the whole result. */
+  private static long mix(long value) {
+    long h = value;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public String toString() {
+    return "LSHUserNeighborhood[bands:" + numBands + ", rowsPerBand:" + rowsPerBand + ']';
+  }
+
+}
@@ -17,13 +17,23 @@
 
 package org.apache.mahout.cf.taste.impl.recommender;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.RecommendationCallback;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 import org.slf4j.Logger;
@@ -33,6 +43,9 @@ public abstract class AbstractRecommender implements Recommender {
   
   private static final Logger log = LoggerFactory.getLogger(AbstractRecommender.class);
   
+  /** Number of users each task of a batch recommends to. */
+  private static final int USERS_PER_GROUP = 64;
+  
   private final DataModel dataModel;
   
   protected AbstractRecommender(DataModel dataModel) {
@@ -114,4 +127,135 @@ public abstract class AbstractRecommender implements Recommender {
     return possibleItemsIDs;
   }
   
+  /**
+   * <p>
+   * Recommends to many users on a pool of threads, one per processor. Users are split into groups of
+   * consecutive users, each recommended to by one task using the given {@link BatchScorer}, which is shared by
+   * all tasks and so may hold data computed once for the whole batch. Results are passed to the callback as
+   * soon as each user is done, one call at a time. Users that the {@link DataModel} does not know get an empty
+   * list.
+   * </p>
+   *
+   * <p>
+   * This is a helper for implementations of
+   * {@link org.apache.mahout.cf.taste.recommender.BatchRecommender}.
+   * </p>
+   */
+  protected final void recommendBatch(long[] userIDs,
+                                      RecommendationCallback callback,
+                                      BatchScorer scorer) throws TasteException {
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      recommendBatch(userIDs, callback, scorer, executor, numThreads);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+  
+  /**
+   * Like {@link #recommendBatch(long[], RecommendationCallback, BatchScorer)}, but on the given executor, which
+   * is not shut down, in no more than <code>parallelism</code> tasks at once. Each task takes the next group of
+   * users until none are left. If the executor is <code>null</code>, or only one task would run, users are
+   * recommended to in the calling thread.
+   */
+  protected final void recommendBatch(final long[] userIDs,
+                                      final RecommendationCallback callback,
+                                      final BatchScorer scorer,
+                                      ExecutorService executor,
+                                      int parallelism) throws TasteException {
+    if (userIDs == null) {
+      throw new IllegalArgumentException("userIDs is null");
+    }
+    if (callback == null) {
+      throw new IllegalArgumentException("callback is null");
+    }
+    final int numGroups = (userIDs.length + USERS_PER_GROUP - 1) / USERS_PER_GROUP;
+    if (numGroups == 0) {
+      return;
+    }
+    final AtomicInteger nextGroup = new AtomicInteger();
+    Callable<Void> worker = new Callable<Void>() {
+      @Override
+      public Void call() throws TasteException {
+        int group;
+        while (((group = nextGroup.getAndIncrement()) < numGroups) && !Thread.currentThread().isInterrupted()) {
+          int groupTo = Math.min(userIDs.length, (group + 1) * USERS_PER_GROUP);
+          for (int i = group * USERS_PER_GROUP; (i < groupTo) && !Thread.currentThread().isInterrupted(); i++) {
+            long userID = userIDs[i];
+            List<RecommendedItem> recommendations;
+            try {
+              recommendations = scorer.recommend(userID);
+            } catch (NoSuchUserException nsue) {
+              recommendations = Collections.emptyList();
+            }
+            synchronized (callback) {
+              callback.recommended(userID, recommendations);
+            }
+          }
+        }
+        return null;
+      }
+    };
+    int numWorkers = Math.min(numGroups, parallelism);
+    if ((executor == null) || (numWorkers <= 1)) {
+      log.info("Recommending to {} users", userIDs.length);
+      try {
+        worker.call();
+      } catch (TasteException te) {
+        throw te;
+      } catch (Exception e) {
+        throw new TasteException(e);
+      }
+      return;
+    }
+    log.info("Recommending to {} users in {} threads", userIDs.length, numWorkers);
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(numWorkers);
+    try {
+      for (int i = 0; i < numWorkers; i++) {
+        futures.add(executor.submit(worker));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof TasteException) {
+        throw (TasteException) cause;
+      }
+      throw new TasteException(cause);
+    } finally {
+      // Stops any remaining tasks if one failed
+      nextGroup.set(numGroups);
+      for (Future<Void> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+  
+  /**
+   * @return true if a subclass of <code>base</code>, from the given class up, declares the method; used to
+   *  tell whether a subclass still overrides an older hook
+   */
+  static boolean isDeclaredBelow(Class<?> clazz, Class<?> base, String name, Class<?>... parameterTypes) {
+    for (Class<?> c = clazz; !base.equals(c); c = c.getSuperclass()) {
+      try {
+        c.getDeclaredMethod(name, parameterTypes);
+        return true;
+      } catch (NoSuchMethodException nsme) {
+        // not declared here; look at the superclass
+      }
+    }
+    return false;
+  }
+  
+  /** Recommends to one user of a batch; called concurrently from several threads. */
+  protected interface BatchScorer {
+    
+    List<RecommendedItem> recommend(long userID) throws TasteException;
+    
+  }
+  
 }
@@ -42,12 +42,14 @@ public final class GenericBooleanPrefUserBasedRecommender extends GenericUserBas
    * sum of similarities to any other user in the neighborhood who has also rated the item.
    */
   @Override
-  protected float doEstimatePreference(long theUserID, long[] theNeighborhood, long itemID) throws TasteException {
+  protected float doEstimatePreference(long theUserID,
+                                       long[] theNeighborhood,
+                                       long itemID,
+                                       UserSimilarity similarity) throws TasteException {
     if (theNeighborhood.length == 0) {
       return Float.NaN;
     }
     DataModel dataModel = getDataModel();
-    UserSimilarity similarity = getSimilarity();
     float totalSimilarity = 0.0f;
     boolean foundAPref = false;
     for (long userID : theNeighborhood) {
@@ -20,6 +20,7 @@ package org.apache.mahout.cf.taste.impl.recommender;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
@@ -27,10 +28,13 @@ import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.impl.similarity.CachingItemSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.BatchRecommender;
 import org.apache.mahout.cf.taste.recommender.IDRescorer;
 import org.apache.mahout.cf.taste.recommender.ItemBasedRecommender;
+import org.apache.mahout.cf.taste.recommender.RecommendationCallback;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Rescorer;
 import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
@@ -60,21 +64,72 @@ import org.slf4j.LoggerFactory;
  * {@link org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity} too, which computes
  * similarities in real-time, but will probably find this painfully slow for large amounts of data.
  * </p>
+ *
+ * <p>
+ * For users with long histories, scoring all candidate items in {@link #recommend(long, int, IDRescorer)} can
+ * itself be slow. If constructed with an {@link ExecutorService}, this class splits large candidate sets into
+ * partitions that are scored concurrently; see
+ * {@link TopItems#getTopItems(int, long[], IDRescorer, TopItems.IDEstimator, ExecutorService, int)}.
+ * </p>
+ *
+ * <p>
+ * {@link #recommend(long[], int, RecommendationCallback)} recommends to many users at once, on the same
+ * {@link ExecutorService}, sharing one cache of item-item similarities across all of them and all later
+ * batches until the next {@link #refresh(Collection)}.
+ * </p>
+ *
+ * <p>
+ * Subclasses which override {@link #doEstimatePreference(long, long)}, but not
+ * {@link #doEstimatePreference(long, PreferenceArray, long, ItemSimilarity)}, have their estimates used in
+ * recommendations too, though these then go without the batch's cache.
+ * </p>
  */
-public class GenericItemBasedRecommender extends AbstractRecommender implements ItemBasedRecommender {
+public class GenericItemBasedRecommender extends AbstractRecommender
+    implements ItemBasedRecommender, BatchRecommender {
   
   private static final Logger log = LoggerFactory.getLogger(GenericItemBasedRecommender.class);
   
+  /** Below this many candidates per partition, scoring in parallel is not worth the overhead. */
+  private static final int MIN_CANDIDATES_PER_PARTITION = 1000;
+  
   private final ItemSimilarity similarity;
   private final RefreshHelper refreshHelper;
   private EstimatedPreferenceCapper capper;
+  private final ExecutorService executor;
+  private final int parallelism;
+  private final boolean legacyEstimate;
+  private volatile ItemSimilarity batchSimilarity;
 
   public GenericItemBasedRecommender(DataModel dataModel, ItemSimilarity similarity) {
+    this(dataModel, similarity, null, 1);
+  }
+  
+  /**
+   * @param executor
+   *          executor on which to score partitions of the candidate items concurrently, or <code>null</code>
+   *          to score them all in the calling thread. It is not shut down by this class.
+   * @param parallelism
+   *          maximum number of partitions to split the candidate items of one request into; typically the
+   *          number of threads of the executor
+   */
+  public GenericItemBasedRecommender(DataModel dataModel,
+                                     ItemSimilarity similarity,
+                                     ExecutorService executor,
+                                     int parallelism) {
     super(dataModel);
     if (similarity == null) {
       throw new IllegalArgumentException("similarity is null");
     }
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be at least 1");
+    }
     this.similarity = similarity;
+    this.executor = executor;
+    this.parallelism = parallelism;
+    this.legacyEstimate =
+        isDeclaredBelow(getClass(), GenericItemBasedRecommender.class, "doEstimatePreference", long.class, long.class)
+        && !isDeclaredBelow(getClass(), GenericItemBasedRecommender.class, "doEstimatePreference",
+                            long.class, PreferenceArray.class, long.class, ItemSimilarity.class);
     this.refreshHelper = new RefreshHelper(null);
     refreshHelper.addDependency(dataModel);
     refreshHelper.addDependency(similarity);
@@ -93,21 +148,69 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     
     log.debug("Recommending items for user ID '{}'", userID);
     
-    if (getNumPreferences(userID) == 0) {
+    PreferenceArray prefs = getDataModel().getPreferencesFromUser(userID);
+    if (prefs.length() == 0) {
       return Collections.emptyList();
     }
     
     FastIDSet possibleItemIDs = getAllOtherItems(userID);
     
-    TopItems.Estimator<Long> estimator = new Estimator(userID);
+    TopItems.IDEstimator estimator = new Estimator(userID, prefs, similarity);
     
-    List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
-      estimator);
+    int numPartitions = Math.min(parallelism, possibleItemIDs.size() / MIN_CANDIDATES_PER_PARTITION);
+    List<RecommendedItem> topItems;
+    if ((executor == null) || (numPartitions <= 1)) {
+      topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer, estimator);
+    } else {
+      topItems = TopItems.getTopItems(howMany, possibleItemIDs.toArray(), rescorer, estimator,
+        executor, numPartitions);
+    }
     
     log.debug("Recommendations are: {}", topItems);
     return topItems;
   }
   
+  /**
+   * Recommends to each user as {@link #recommend(long, int)} would, but computes each item-item similarity at
+   * most once until the next refresh, as long as the cache, which holds as many similarities as there are
+   * items, can keep it. Users are recommended to on this recommender's executor, if any, in up to its
+   * parallelism tasks at once.
+   */
+  @Override
+  public void recommend(long[] userIDs, final int howMany, RecommendationCallback callback)
+    throws TasteException {
+    if (howMany < 1) {
+      throw new IllegalArgumentException("howMany must be at least 1");
+    }
+    final ItemSimilarity batchSimilarity = getBatchSimilarity();
+    recommendBatch(userIDs, callback, new BatchScorer() {
+      @Override
+      public List<RecommendedItem> recommend(long userID) throws TasteException {
+        PreferenceArray prefs = getDataModel().getPreferencesFromUser(userID);
+        if (prefs.length() == 0) {
+          return Collections.emptyList();
+        }
+        FastIDSet possibleItemIDs = getAllOtherItems(userID);
+        TopItems.IDEstimator estimator = new Estimator(userID, prefs, batchSimilarity);
+        return TopItems.getTopItems(howMany, possibleItemIDs.iterator(), null, estimator);
+      }
+    }, executor, parallelism);
+  }
+  
+  private ItemSimilarity getBatchSimilarity() throws TasteException {
+    ItemSimilarity theBatchSimilarity = batchSimilarity;
+    if (theBatchSimilarity == null) {
+      synchronized (this) {
+        theBatchSimilarity = batchSimilarity;
+        if (theBatchSimilarity == null) {
+          theBatchSimilarity = new CachingItemSimilarity(similarity, getDataModel());
+          batchSimilarity = theBatchSimilarity;
+        }
+      }
+    }
+    return theBatchSimilarity;
+  }
+  
   @Override
   public float estimatePreference(long userID, long itemID) throws TasteException {
     DataModel model = getDataModel();
@@ -126,7 +229,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   @Override
   public List<RecommendedItem> mostSimilarItems(long itemID, int howMany,
                                                 Rescorer<LongPair> rescorer) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MostSimilarEstimator(itemID, similarity, rescorer);
+    TopItems.IDEstimator estimator = new MostSimilarEstimator(itemID, similarity, rescorer);
     return doMostSimilarItems(new long[] {itemID}, howMany, estimator);
   }
   
@@ -138,7 +241,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   @Override
   public List<RecommendedItem> mostSimilarItems(long[] itemIDs, int howMany,
                                                 Rescorer<LongPair> rescorer) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MultiMostSimilarEstimator(itemIDs, similarity, rescorer);
+    TopItems.IDEstimator estimator = new MultiMostSimilarEstimator(itemIDs, similarity, rescorer);
     return doMostSimilarItems(itemIDs, howMany, estimator);
   }
   
@@ -149,7 +252,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
     
     DataModel model = getDataModel();
-    TopItems.Estimator<Long> estimator = new RecommendedBecauseEstimator(userID, itemID, similarity);
+    TopItems.IDEstimator estimator = new RecommendedBecauseEstimator(userID, itemID, similarity);
     
     PreferenceArray prefs = model.getPreferencesFromUser(userID);
     int size = prefs.length();
@@ -164,7 +267,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   
   private List<RecommendedItem> doMostSimilarItems(long[] itemIDs,
                                                    int howMany,
-                                                   TopItems.Estimator<Long> estimator) throws TasteException {
+                                                   TopItems.IDEstimator estimator) throws TasteException {
     DataModel model = getDataModel();
     FastIDSet possibleItemsIDs = new FastIDSet();
     for (long itemID : itemIDs) {
@@ -180,10 +283,23 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   }
   
   protected float doEstimatePreference(long userID, long itemID) throws TasteException {
+    return doEstimatePreference(userID, getDataModel().getPreferencesFromUser(userID), itemID, similarity);
+  }
+  
+  /**
+   * @param prefs
+   *          the user's preferences
+   * @param similarity
+   *          the {@link ItemSimilarity} to use, which may be a cache shared by a batch of users rather than
+   *          {@link #getSimilarity()} itself
+   */
+  protected float doEstimatePreference(long userID,
+                                       PreferenceArray prefs,
+                                       long itemID,
+                                       ItemSimilarity similarity) throws TasteException {
     double preference = 0.0;
     double totalSimilarity = 0.0;
     int count = 0;
-    PreferenceArray prefs = getDataModel().getPreferencesFromUser(userID);
     double[] similarities = similarity.itemSimilarities(itemID, prefs.getIDs());
     for (int i = 0; i < similarities.length; i++) {
       double theSimilarity = similarities[i];
@@ -202,21 +318,22 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     if (count <= 1) {
       return Float.NaN;
     }
-    float estimate = (float) (preference / totalSimilarity);
-    if (capper != null) {
-      estimate = capper.capEstimate(estimate);
-    }
-    return estimate;
+    return capEstimate((float) (preference / totalSimilarity));
   }
   
-  private int getNumPreferences(long userID) throws TasteException {
-    return getDataModel().getPreferencesFromUser(userID).length();
+  /**
+   * @return the estimate, restricted to the range of preference values in the {@link DataModel} if it has one
+   */
+  protected final float capEstimate(float estimate) {
+    EstimatedPreferenceCapper capper = this.capper;
+    return capper == null ? estimate : capper.capEstimate(estimate);
   }
   
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
     refreshHelper.refresh(alreadyRefreshed);
     capper = buildCapper();
+    batchSimilarity = null;
   }
   
   @Override
@@ -233,7 +350,11 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  public static class MostSimilarEstimator implements TopItems.Estimator<Long> {
+  /**
+   * Estimates an item's similarity to a given item. It is also still a {@link TopItems.Estimator} of boxed
+   * IDs, for existing callers.
+   */
+  public static class MostSimilarEstimator implements TopItems.IDEstimator, TopItems.Estimator<Long> {
     
     private final long toItemID;
     private final ItemSimilarity similarity;
@@ -246,7 +367,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       LongPair pair = new LongPair(toItemID, itemID);
       if ((rescorer != null) && rescorer.isFiltered(pair)) {
         return Double.NaN;
@@ -254,23 +375,35 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
       double originalEstimate = similarity.itemSimilarity(toItemID, itemID);
       return rescorer == null ? originalEstimate : rescorer.rescore(pair, originalEstimate);
     }
+    
+    @Override
+    public double estimate(Long itemID) throws TasteException {
+      return estimate(itemID.longValue());
+    }
   }
   
-  private final class Estimator implements TopItems.Estimator<Long> {
+  private final class Estimator implements TopItems.IDEstimator {
     
     private final long userID;
+    private final PreferenceArray prefs;
+    private final ItemSimilarity similarity;
     
-    private Estimator(long userID) {
+    private Estimator(long userID, PreferenceArray prefs, ItemSimilarity similarity) {
       this.userID = userID;
+      this.prefs = prefs;
+      this.similarity = similarity;
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
-      return doEstimatePreference(userID, itemID);
+    public double estimate(long itemID) throws TasteException {
+      if (legacyEstimate) {
+        return doEstimatePreference(userID, itemID);
+      }
+      return doEstimatePreference(userID, prefs, itemID, similarity);
     }
   }
   
-  private static final class MultiMostSimilarEstimator implements TopItems.Estimator<Long> {
+  private static final class MultiMostSimilarEstimator implements TopItems.IDEstimator {
     
     private final long[] toItemIDs;
     private final ItemSimilarity similarity;
@@ -283,7 +416,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       RunningAverage average = new FullRunningAverage();
       double[] similarities = similarity.itemSimilarities(itemID, toItemIDs);
       for (int i = 0; i < toItemIDs.length; i++) {
@@ -302,7 +435,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  private final class RecommendedBecauseEstimator implements TopItems.Estimator<Long> {
+  private final class RecommendedBecauseEstimator implements TopItems.IDEstimator {
     
     private final long userID;
     private final long recommendedItemID;
@@ -315,7 +448,7 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       Float pref = getDataModel().getPreferenceValue(userID, itemID);
       if (pref == null) {
         return Float.NaN;
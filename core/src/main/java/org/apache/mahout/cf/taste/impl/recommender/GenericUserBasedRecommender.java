@@ -25,9 +25,12 @@ import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.similarity.CachingUserSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.recommender.BatchRecommender;
 import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendationCallback;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Rescorer;
 import org.apache.mahout.cf.taste.recommender.UserBasedRecommender;
@@ -41,8 +44,21 @@ import org.slf4j.LoggerFactory;
  * A simple {@link org.apache.mahout.cf.taste.recommender.Recommender}
  * which uses a given {@link DataModel} and {@link UserNeighborhood} to produce recommendations.
  * </p>
+ *
+ * <p>
+ * {@link #recommend(long[], int, RecommendationCallback)} recommends to many users at once, sharing one cache
+ * of user-user similarities across all of them and all later batches until the next
+ * {@link #refresh(Collection)}.
+ * </p>
+ *
+ * <p>
+ * Subclasses which override {@link #doEstimatePreference(long, long[], long)}, but not
+ * {@link #doEstimatePreference(long, long[], long, UserSimilarity)}, have their estimates used in
+ * recommendations too, though these then go without the batch's cache.
+ * </p>
  */
-public class GenericUserBasedRecommender extends AbstractRecommender implements UserBasedRecommender {
+public class GenericUserBasedRecommender extends AbstractRecommender
+    implements UserBasedRecommender, BatchRecommender {
   
   private static final Logger log = LoggerFactory.getLogger(GenericUserBasedRecommender.class);
   
@@ -50,6 +66,8 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
   private final UserSimilarity similarity;
   private final RefreshHelper refreshHelper;
   private EstimatedPreferenceCapper capper;
+  private final boolean legacyEstimate;
+  private volatile UserSimilarity batchSimilarity;
   
   public GenericUserBasedRecommender(DataModel dataModel,
                                      UserNeighborhood neighborhood,
@@ -65,6 +83,11 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     refreshHelper.addDependency(similarity);
     refreshHelper.addDependency(neighborhood);
     capper = buildCapper();
+    legacyEstimate =
+        isDeclaredBelow(getClass(), GenericUserBasedRecommender.class, "doEstimatePreference",
+                        long.class, long[].class, long.class)
+        && !isDeclaredBelow(getClass(), GenericUserBasedRecommender.class, "doEstimatePreference",
+                            long.class, long[].class, long.class, UserSimilarity.class);
   }
   
   public UserSimilarity getSimilarity() {
@@ -87,7 +110,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     
     FastIDSet allItemIDs = getAllOtherItems(theNeighborhood, userID);
     
-    TopItems.Estimator<Long> estimator = new Estimator(userID, theNeighborhood);
+    TopItems.IDEstimator estimator = new Estimator(userID, theNeighborhood, similarity);
     
     List<RecommendedItem> topItems = TopItems
         .getTopItems(howMany, allItemIDs.iterator(), rescorer, estimator);
@@ -96,6 +119,50 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     return topItems;
   }
   
+  /**
+   * Recommends to each user as {@link #recommend(long, int)} would, but computes the similarity between a
+   * user and each neighbor at most once for the whole batch, rather than once per candidate item, as long as
+   * the cache, which holds as many similarities as there are users, can keep it. The cache is kept for later
+   * batches until the next refresh.
+   */
+  @Override
+  public void recommend(long[] userIDs, final int howMany, RecommendationCallback callback)
+    throws TasteException {
+    if (howMany < 1) {
+      throw new IllegalArgumentException("howMany must be at least 1");
+    }
+    final UserSimilarity batchSimilarity = getBatchSimilarity();
+    recommendBatch(userIDs, callback, new BatchScorer() {
+      @Override
+      public List<RecommendedItem> recommend(long userID) throws TasteException {
+        long[] theNeighborhood = neighborhood.getUserNeighborhood(userID);
+        if (theNeighborhood.length == 0) {
+          return Collections.emptyList();
+        }
+        FastIDSet allItemIDs = getAllOtherItems(theNeighborhood, userID);
+        TopItems.IDEstimator estimator = new Estimator(userID, theNeighborhood, batchSimilarity);
+        return TopItems.getTopItems(howMany, allItemIDs.iterator(), null, estimator);
+      }
+    });
+  }
+  
+  private UserSimilarity getBatchSimilarity() throws TasteException {
+    if (similarity == null) {
+      return null;
+    }
+    UserSimilarity theBatchSimilarity = batchSimilarity;
+    if (theBatchSimilarity == null) {
+      synchronized (this) {
+        theBatchSimilarity = batchSimilarity;
+        if (theBatchSimilarity == null) {
+          theBatchSimilarity = new CachingUserSimilarity(similarity, getDataModel());
+          batchSimilarity = theBatchSimilarity;
+        }
+      }
+    }
+    return theBatchSimilarity;
+  }
+  
   @Override
   public float estimatePreference(long userID, long itemID) throws TasteException {
     DataModel model = getDataModel();
@@ -114,16 +181,28 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
   
   @Override
   public long[] mostSimilarUserIDs(long userID, int howMany, Rescorer<LongPair> rescorer) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MostSimilarEstimator(userID, similarity, rescorer);
+    TopItems.IDEstimator estimator = new MostSimilarEstimator(userID, similarity, rescorer);
     return doMostSimilarUsers(howMany, estimator);
   }
   
-  private long[] doMostSimilarUsers(int howMany, TopItems.Estimator<Long> estimator) throws TasteException {
+  private long[] doMostSimilarUsers(int howMany, TopItems.IDEstimator estimator) throws TasteException {
     DataModel model = getDataModel();
     return TopItems.getTopUsers(howMany, model.getUserIDs(), null, estimator);
   }
   
   protected float doEstimatePreference(long theUserID, long[] theNeighborhood, long itemID) throws TasteException {
+    return doEstimatePreference(theUserID, theNeighborhood, itemID, similarity);
+  }
+  
+  /**
+   * @param similarity
+   *          the {@link UserSimilarity} to use, which may be a cache shared by a batch of users rather than
+   *          {@link #getSimilarity()} itself
+   */
+  protected float doEstimatePreference(long theUserID,
+                                       long[] theNeighborhood,
+                                       long itemID,
+                                       UserSimilarity similarity) throws TasteException {
     if (theNeighborhood.length == 0) {
       return Float.NaN;
     }
@@ -174,6 +253,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
     refreshHelper.refresh(alreadyRefreshed);
     capper = buildCapper();
+    batchSimilarity = null;
   }
   
   @Override
@@ -190,7 +270,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  private static final class MostSimilarEstimator implements TopItems.Estimator<Long> {
+  private static final class MostSimilarEstimator implements TopItems.IDEstimator {
     
     private final long toUserID;
     private final UserSimilarity similarity;
@@ -203,7 +283,7 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     }
     
     @Override
-    public double estimate(Long userID) throws TasteException {
+    public double estimate(long userID) throws TasteException {
       // Don't consider the user itself as a possible most similar user
       if (userID == toUserID) {
         return Double.NaN;
@@ -221,19 +301,24 @@ public class GenericUserBasedRecommender extends AbstractRecommender implements
     }
   }
   
-  private final class Estimator implements TopItems.Estimator<Long> {
+  private final class Estimator implements TopItems.IDEstimator {
     
     private final long theUserID;
     private final long[] theNeighborhood;
+    private final UserSimilarity similarity;
     
-    Estimator(long theUserID, long[] theNeighborhood) {
+    Estimator(long theUserID, long[] theNeighborhood, UserSimilarity similarity) {
       this.theUserID = theUserID;
       this.theNeighborhood = theNeighborhood;
+      this.similarity = similarity;
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
-      return doEstimatePreference(theUserID, theNeighborhood, itemID);
+    public double estimate(long itemID) throws TasteException {
+      if (legacyEstimate) {
+        return doEstimatePreference(theUserID, theNeighborhood, itemID);
+      }
+      return doEstimatePreference(theUserID, theNeighborhood, itemID, similarity);
     }
   }
 }
@@ -0,0 +1,272 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendationCallback;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.common.RandomUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * An item-based recommender which estimates preferences from each item's nearest neighbors only, as held in
+ * an {@link ItemNeighborhoodIndex}.
+ * </p>
+ *
+ * <p>
+ * {@link GenericItemBasedRecommender} computes, for every candidate item, its similarity to every item in the
+ * user's history. This class instead walks the user's history through the index, adding each item's
+ * preference, weighted by similarity, to the scores of that item's neighbors. The cost of a recommendation
+ * is then proportional to the length of the user's history times the number of neighbors per item, however
+ * many items there are in all.
+ * </p>
+ *
+ * <p>
+ * Estimates are computed as in {@link GenericItemBasedRecommender}, but only over the pairs of items in which
+ * the candidate is one of the neighbors of the item from the user's history. The {@link ItemSimilarity} is
+ * still used for {@link #mostSimilarItems(long, int)} and {@link #recommendedBecause(long, long, int)};
+ * normally it is the one the index was built from.
+ * </p>
+ */
+public final class IndexedItemBasedRecommender extends GenericItemBasedRecommender {
+
+  private static final Logger log = LoggerFactory.getLogger(IndexedItemBasedRecommender.class);
+
+  private final ItemNeighborhoodIndex index;
+
+  public IndexedItemBasedRecommender(DataModel dataModel,
+                                     ItemSimilarity similarity,
+                                     ItemNeighborhoodIndex index) {
+    super(dataModel, similarity);
+    if (index == null) {
+      throw new IllegalArgumentException("index is null");
+    }
+    this.index = index;
+  }
+
+  public ItemNeighborhoodIndex getIndex() {
+    return index;
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
+    if (howMany < 1) {
+      throw new IllegalArgumentException("howMany must be at least 1");
+    }
+
+    log.debug("Recommending items for user ID '{}'", userID);
+
+    PreferenceArray prefs = getDataModel().getPreferencesFromUser(userID);
+    int size = prefs.length();
+    if (size == 0) {
+      return Collections.emptyList();
+    }
+
+    int expectedCandidates =
+        (int) Math.min((long) size * index.getMaxNeighbors(), getDataModel().getNumItems());
+    final ScoreAccumulator scores = new ScoreAccumulator(expectedCandidates);
+    for (int i = 0; i < size; i++) {
+      ItemNeighborhoodIndex.Neighbors neighbors = index.getNeighbors(prefs.getItemID(i));
+      if (neighbors != null) {
+        float value = prefs.getValue(i);
+        long[] neighborIDs = neighbors.ids;
+        float[] similarities = neighbors.similarities;
+        for (int j = 0; j < neighborIDs.length; j++) {
+          scores.add(neighborIDs[j], similarities[j], value);
+        }
+      }
+    }
+    // Items the user already has are not candidates
+    for (int i = 0; i < size; i++) {
+      scores.exclude(prefs.getItemID(i));
+    }
+
+    TopItems.IDEstimator estimator = new TopItems.IDEstimator() {
+      @Override
+      public double estimate(long itemID) {
+        return scores.estimate(itemID);
+      }
+    };
+    List<RecommendedItem> topItems =
+        TopItems.getTopItems(howMany, new LongPrimitiveArrayIterator(scores.keys()), rescorer, estimator);
+
+    log.debug("Recommendations are: {}", topItems);
+    return topItems;
+  }
+
+  /**
+   * Recommends to each user as {@link #recommend(long, int)} would. The index is already shared by all users,
+   * so unlike in the superclass, no similarity cache is needed.
+   */
+  @Override
+  public void recommend(long[] userIDs, final int howMany, RecommendationCallback callback)
+    throws TasteException {
+    if (howMany < 1) {
+      throw new IllegalArgumentException("howMany must be at least 1");
+    }
+    recommendBatch(userIDs, callback, new BatchScorer() {
+      @Override
+      public List<RecommendedItem> recommend(long userID) throws TasteException {
+        return IndexedItemBasedRecommender.this.recommend(userID, howMany, null);
+      }
+    });
+  }
+
+  /** Uses the index, rather than the given similarity. */
+  @Override
+  protected float doEstimatePreference(long userID,
+                                       PreferenceArray prefs,
+                                       long itemID,
+                                       ItemSimilarity similarity) throws TasteException {
+    int size = prefs.length();
+    ScoreAccumulator scores = new ScoreAccumulator(1);
+    for (int i = 0; i < size; i++) {
+      float theSimilarity = index.getNeighborSimilarity(prefs.getItemID(i), itemID);
+      if (!Float.isNaN(theSimilarity)) {
+        scores.add(itemID, theSimilarity, prefs.getValue(i));
+      }
+    }
+    return scores.estimate(itemID);
+  }
+
+  @Override
+  public String toString() {
+    return "IndexedItemBasedRecommender[similarity:" + getSimilarity() + ", index:" + index + ']';
+  }
+
+  /**
+   * An open-addressed hash table from item ID to the running sums of an estimate, in parallel primitive
+   * arrays, probed like {@link org.apache.mahout.cf.taste.impl.common.FastByIDMap}. Entries can only be added
+   * or excluded, never removed.
+   */
+  private final class ScoreAccumulator {
+
+    private static final double ALLOWED_LOAD_FACTOR = 1.5;
+    private static final long NULL = Long.MIN_VALUE;
+
+    private long[] keys;
+    private double[] weightedPrefs;
+    private double[] totalSimilarities;
+    private int[] counts;
+    private int numEntries;
+
+    private ScoreAccumulator(int size) {
+      allocate(RandomUtils.nextTwinPrime((int) (ALLOWED_LOAD_FACTOR * Math.max(size, 2))));
+    }
+
+    private void allocate(int hashSize) {
+      keys = new long[hashSize];
+      Arrays.fill(keys, NULL);
+      weightedPrefs = new double[hashSize];
+      totalSimilarities = new double[hashSize];
+      counts = new int[hashSize];
+    }
+
+    private int find(long key) {
+      int theHashCode = (int) key & 0x7FFFFFFF; // make sure it's positive
+      long[] keys = this.keys;
+      int hashSize = keys.length;
+      int jump = 1 + theHashCode % (hashSize - 2);
+      int index = theHashCode % hashSize;
+      long currentKey = keys[index];
+      while ((currentKey != NULL) && (key != currentKey)) {
+        if (index < jump) {
+          index += hashSize - jump;
+        } else {
+          index -= jump;
+        }
+        currentKey = keys[index];
+      }
+      return index;
+    }
+
+    void add(long itemID, float similarity, float pref) {
+      int index = find(itemID);
+      if (keys[index] == NULL) {
+        if (numEntries * ALLOWED_LOAD_FACTOR >= keys.length) {
+          growAndRehash();
+          index = find(itemID);
+        }
+        keys[index] = itemID;
+        numEntries++;
+      }
+      // Weights can be negative!
+      weightedPrefs[index] += similarity * pref;
+      totalSimilarities[index] += similarity;
+      counts[index]++;
+    }
+
+    void exclude(long itemID) {
+      int index = find(itemID);
+      if (keys[index] != NULL) {
+        counts[index] = 0;
+      }
+    }
+
+    /** @return the estimated preference for the item, or {@link Double#NaN} if it has too little data */
+    float estimate(long itemID) {
+      int index = find(itemID);
+      // As in GenericItemBasedRecommender, an estimate based on a single item is thrown out
+      if ((keys[index] == NULL) || (counts[index] <= 1)) {
+        return Float.NaN;
+      }
+      return capEstimate((float) (weightedPrefs[index] / totalSimilarities[index]));
+    }
+
+    long[] keys() {
+      long[] result = new long[numEntries];
+      int i = 0;
+      for (long key : keys) {
+        if (key != NULL) {
+          result[i++] = key;
+        }
+      }
+      return result;
+    }
+
+    private void growAndRehash() {
+      long[] oldKeys = keys;
+      double[] oldWeightedPrefs = weightedPrefs;
+      double[] oldTotalSimilarities = totalSimilarities;
+      int[] oldCounts = counts;
+      allocate(RandomUtils.nextTwinPrime((int) (ALLOWED_LOAD_FACTOR * ALLOWED_LOAD_FACTOR * numEntries)));
+      for (int i = 0; i < oldKeys.length; i++) {
+        long key = oldKeys[i];
+        if (key != NULL) {
+          int index = find(key);
+          keys[index] = key;
+          weightedPrefs[index] = oldWeightedPrefs[i];
+          totalSimilarities[index] = oldTotalSimilarities[i];
+          counts[index] = oldCounts[i];
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,205 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity.ItemItemSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.common.iterator.IteratorUtils;
+
+/**
+ * <p>
+ * Holds, for each item, its most similar items and their similarities, in primitive arrays ordered from most
+ * to least similar. Item-based recommendation then only needs to visit the neighbors of the items a user
+ * has expressed a preference for; see {@link IndexedItemBasedRecommender}.
+ * </p>
+ *
+ * <p>
+ * The index is a snapshot: it does not change when the underlying data or similarity does, and must be
+ * rebuilt to reflect changes.
+ * </p>
+ */
+public final class ItemNeighborhoodIndex {
+
+  private static final long[] NO_IDS = new long[0];
+  private static final float[] NO_SIMILARITIES = new float[0];
+
+  private final FastByIDMap<Neighbors> neighborsByItem;
+  private final int maxNeighbors;
+
+  /**
+   * <p>
+   * Builds the index from precomputed item-item similarities, for example those that would be given to
+   * {@link GenericItemSimilarity#GenericItemSimilarity(Iterable)}. Similarities are symmetric, so each one
+   * is a candidate neighbor for both of its items. This takes time proportional to the number of
+   * similarities.
+   * </p>
+   *
+   * @param similarities
+   *          item-item similarities
+   * @param maxNeighbors
+   *          maximum number of neighbors to keep per item
+   */
+  public ItemNeighborhoodIndex(Iterable<ItemItemSimilarity> similarities, int maxNeighbors) {
+    if (similarities == null) {
+      throw new IllegalArgumentException("similarities is null");
+    }
+    if (maxNeighbors < 1) {
+      throw new IllegalArgumentException("maxNeighbors must be at least 1");
+    }
+    this.maxNeighbors = maxNeighbors;
+    FastByIDMap<TopItems.TopIDs> topByItem = new FastByIDMap<TopItems.TopIDs>();
+    for (ItemItemSimilarity similarity : similarities) {
+      long itemID1 = similarity.getItemID1();
+      long itemID2 = similarity.getItemID2();
+      double value = similarity.getValue();
+      if ((itemID1 != itemID2) && !Double.isNaN(value)) {
+        offer(topByItem, itemID1, itemID2, value);
+        offer(topByItem, itemID2, itemID1, value);
+      }
+    }
+    neighborsByItem = new FastByIDMap<Neighbors>(topByItem.size());
+    LongPrimitiveIterator it = topByItem.keySetIterator();
+    while (it.hasNext()) {
+      long itemID = it.nextLong();
+      neighborsByItem.put(itemID, new Neighbors(topByItem.get(itemID)));
+    }
+  }
+
+  /**
+   * <p>
+   * Builds the index by computing the similarity of every pair of items in the {@link DataModel}. This takes
+   * time proportional to the square of the number of items, but only once, rather than on every request.
+   * </p>
+   *
+   * @param dataModel
+   *          data model to get items from
+   * @param similarity
+   *          similarity to compute neighbors with
+   * @param maxNeighbors
+   *          maximum number of neighbors to keep per item
+   * @throws TasteException
+   *           if an error occurs while accessing the {@link DataModel} or computing similarities
+   */
+  public ItemNeighborhoodIndex(DataModel dataModel, ItemSimilarity similarity, int maxNeighbors)
+    throws TasteException {
+    if ((dataModel == null) || (similarity == null)) {
+      throw new IllegalArgumentException("argument is null");
+    }
+    if (maxNeighbors < 1) {
+      throw new IllegalArgumentException("maxNeighbors must be at least 1");
+    }
+    this.maxNeighbors = maxNeighbors;
+    long[] itemIDs = IteratorUtils.longIteratorToList(dataModel.getItemIDs());
+    neighborsByItem = new FastByIDMap<Neighbors>(itemIDs.length);
+    for (long itemID : itemIDs) {
+      double[] similarities = similarity.itemSimilarities(itemID, itemIDs);
+      TopItems.TopIDs top = new TopItems.TopIDs(maxNeighbors);
+      for (int i = 0; i < itemIDs.length; i++) {
+        if ((itemIDs[i] != itemID) && !Double.isNaN(similarities[i])) {
+          top.offer(itemIDs[i], similarities[i]);
+        }
+      }
+      if (top.size() > 0) {
+        neighborsByItem.put(itemID, new Neighbors(top));
+      }
+    }
+  }
+
+  private void offer(FastByIDMap<TopItems.TopIDs> topByItem, long itemID, long neighborID, double value) {
+    TopItems.TopIDs top = topByItem.get(itemID);
+    if (top == null) {
+      top = new TopItems.TopIDs(maxNeighbors);
+      topByItem.put(itemID, top);
+    }
+    top.offer(neighborID, value);
+  }
+
+  /**
+   * @return maximum number of neighbors kept per item
+   */
+  public int getMaxNeighbors() {
+    return maxNeighbors;
+  }
+
+  /**
+   * @return IDs of the item's neighbors, from most to least similar; empty if it has none. The array must not
+   *         be modified.
+   */
+  public long[] getNeighborIDs(long itemID) {
+    Neighbors neighbors = neighborsByItem.get(itemID);
+    return neighbors == null ? NO_IDS : neighbors.ids;
+  }
+
+  /**
+   * @return similarities of the item's neighbors, in the order of {@link #getNeighborIDs(long)}. The array
+   *         must not be modified.
+   */
+  public float[] getNeighborSimilarities(long itemID) {
+    Neighbors neighbors = neighborsByItem.get(itemID);
+    return neighbors == null ? NO_SIMILARITIES : neighbors.similarities;
+  }
+
+  /**
+   * @return the similarity of the given neighbor in the item's neighborhood, or {@link Float#NaN} if it is
+   *         not one of the item's neighbors
+   */
+  public float getNeighborSimilarity(long itemID, long neighborID) {
+    Neighbors neighbors = neighborsByItem.get(itemID);
+    if (neighbors != null) {
+      long[] ids = neighbors.ids;
+      for (int i = 0; i < ids.length; i++) {
+        if (ids[i] == neighborID) {
+          return neighbors.similarities[i];
+        }
+      }
+    }
+    return Float.NaN;
+  }
+
+  Neighbors getNeighbors(long itemID) {
+    return neighborsByItem.get(itemID);
+  }
+
+  @Override
+  public String toString() {
+    return "ItemNeighborhoodIndex[items:" + neighborsByItem.size() + ", maxNeighbors:" + maxNeighbors + ']';
+  }
+
+  static final class Neighbors {
+
+    final long[] ids;
+    final float[] similarities;
+
+    private Neighbors(TopItems.TopIDs top) {
+      top.sortDescending();
+      int size = top.size();
+      ids = new long[size];
+      similarities = new float[size];
+      for (int i = 0; i < size; i++) {
+        ids[i] = top.getID(i);
+        similarities[i] = (float) top.getValue(i);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,396 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A {@link Recommender} which serves recommendations computed ahead of time, as written by
+ * {@link PrecomputedRecommenderWriter}, and falls back to another {@link Recommender} only where those are
+ * missing or out of date. The store file is memory-mapped, so a lookup is a binary search over user IDs and a
+ * copy of a few entries, and the store survives restarts, unlike the results held by
+ * {@link CachingRecommender}.
+ * </p>
+ *
+ * <p>
+ * The other {@link Recommender} computes recommendations for users who aren't in the store, users who ask
+ * for more recommendations than were stored, and requests with an {@link IDRescorer}. It also recomputes
+ * users whose preferences were changed through {@link #setPreference(long, long, float)} or
+ * {@link #removePreference(long, long)}, on their next request. These results are kept in memory until the
+ * store is replaced, for a bounded number of users; beyond that, the least recently used are dropped and
+ * computed again when next requested. Which users were changed is always remembered.
+ * </p>
+ *
+ * <p>
+ * {@link #refresh(Collection)} re-maps the store if it has been replaced since it was last opened. Results
+ * recomputed in memory are then dropped, except for users changed after the data of the new store was read,
+ * as recorded in its header; a store computed by a long job does not reflect changes made while it ran.
+ * Other users' recommendations are thus at most as stale as the store.
+ * </p>
+ */
+public final class PrecomputedRecommender implements Recommender {
+
+  private static final Logger log = LoggerFactory.getLogger(PrecomputedRecommender.class);
+
+  /** Default maximum number of users whose recomputed recommendations are kept in memory. */
+  public static final int DEFAULT_MAX_RECOMPUTED = 10000;
+
+  private final Recommender recommender;
+  private final File storeFile;
+  private long lastModified;
+  private volatile Store store;
+  /** Recomputed recommendations, bounded; also guards changed. */
+  private final FastByIDMap<Recomputed> recomputed;
+  /** When each user changed, for users changed since the store's data was read. */
+  private final FastByIDMap<Long> changed;
+  private final RefreshHelper refreshHelper;
+
+  /**
+   * @param recommender
+   *          computes recommendations that the store doesn't have, and takes changes to preferences
+   * @param storeFile
+   *          store file written by {@link PrecomputedRecommenderWriter}
+   * @throws FileNotFoundException
+   *           if storeFile does not exist
+   * @throws IOException
+   *           if the file can't be read or is not a valid store
+   */
+  public PrecomputedRecommender(Recommender recommender, File storeFile) throws IOException {
+    this(recommender, storeFile, DEFAULT_MAX_RECOMPUTED);
+  }
+
+  /**
+   * @param recommender
+   *          computes recommendations that the store doesn't have, and takes changes to preferences
+   * @param storeFile
+   *          store file written by {@link PrecomputedRecommenderWriter}
+   * @param maxRecomputed
+   *          maximum number of users whose recomputed recommendations are kept in memory
+   * @throws FileNotFoundException
+   *           if storeFile does not exist
+   * @throws IOException
+   *           if the file can't be read or is not a valid store
+   */
+  public PrecomputedRecommender(Recommender recommender, File storeFile, int maxRecomputed) throws IOException {
+    if ((recommender == null) || (storeFile == null)) {
+      throw new IllegalArgumentException("recommender or storeFile is null");
+    }
+    if (maxRecomputed < 1) {
+      throw new IllegalArgumentException("maxRecomputed must be at least 1");
+    }
+    if (!storeFile.exists() || storeFile.isDirectory()) {
+      throw new FileNotFoundException(storeFile.toString());
+    }
+    this.recommender = recommender;
+    this.storeFile = storeFile.getAbsoluteFile();
+    this.lastModified = storeFile.lastModified();
+    this.store = new Store(this.storeFile);
+    this.recomputed = new FastByIDMap<Recomputed>(11, maxRecomputed);
+    this.changed = new FastByIDMap<Long>();
+    this.refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() {
+        reloadStore();
+        return null;
+      }
+    });
+    this.refreshHelper.addDependency(recommender);
+  }
+
+  public File getStoreFile() {
+    return storeFile;
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany) throws TasteException {
+    return recommend(userID, howMany, null);
+  }
+
+  @Override
+  public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
+    if (howMany < 1) {
+      throw new IllegalArgumentException("howMany must be at least 1");
+    }
+    if (rescorer != null) {
+      // Stored results weren't rescored, and can't be rescored afterwards
+      return recommender.recommend(userID, howMany, rescorer);
+    }
+
+    Recomputed current;
+    long changedAt;
+    synchronized (recomputed) {
+      current = recomputed.get(userID);
+      changedAt = changedAt(userID);
+    }
+    Store currentStore = store;
+    if (current != null) {
+      if (current.canServe(howMany)) {
+        return current.get(howMany);
+      }
+    } else if (changedAt == Long.MIN_VALUE) {
+      List<RecommendedItem> stored = currentStore.get(userID, howMany);
+      if (stored != null) {
+        return stored;
+      }
+    }
+
+    // Not stored, changed, or more asked for than was stored: compute as many as the store holds, so that
+    // later requests of the usual size are served from memory
+    int howManyToCompute = Math.max(howMany, currentStore.howMany);
+    List<RecommendedItem> items =
+        Collections.unmodifiableList(recommender.recommend(userID, howManyToCompute));
+    synchronized (recomputed) {
+      // Unless a change came in meanwhile, which leaves the user to be recomputed again
+      if (changedAt(userID) == changedAt) {
+        recomputed.put(userID, new Recomputed(items, items.size() < howManyToCompute, changedAt));
+      }
+    }
+    return items.size() > howMany ? items.subList(0, howMany) : items;
+  }
+
+  @Override
+  public float estimatePreference(long userID, long itemID) throws TasteException {
+    return recommender.estimatePreference(userID, itemID);
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    recommender.setPreference(userID, itemID, value);
+    markChanged(userID);
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    recommender.removePreference(userID, itemID);
+    markChanged(userID);
+  }
+
+  /**
+   * Stops serving the user's stored recommendations; they are recomputed on the next request.
+   */
+  public void markChanged(long userID) {
+    log.debug("Marking recommendations for user ID '{}' as changed", userID);
+    synchronized (recomputed) {
+      recomputed.remove(userID);
+      changed.put(userID, System.currentTimeMillis());
+    }
+  }
+
+  /** @return when the user last changed, or {@link Long#MIN_VALUE} if not since the store's data was read */
+  private long changedAt(long userID) {
+    Long changedAt = changed.get(userID);
+    return changedAt == null ? Long.MIN_VALUE : changedAt;
+  }
+
+  @Override
+  public DataModel getDataModel() {
+    return recommender.getDataModel();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  private void reloadStore() {
+    long newLastModified = storeFile.lastModified();
+    if (newLastModified <= lastModified) {
+      return;
+    }
+    log.debug("Store file has changed; re-mapping...");
+    Store newStore;
+    try {
+      newStore = new Store(storeFile);
+    } catch (IOException ioe) {
+      log.warn("Exception while re-mapping", ioe);
+      return;
+    }
+    synchronized (recomputed) {
+      store = newStore;
+      lastModified = newLastModified;
+      // Changes made since the new store's data was read are not in it
+      long snapshotTime = newStore.snapshotTime;
+      Iterator<Map.Entry<Long,Recomputed>> it = recomputed.entrySet().iterator();
+      while (it.hasNext()) {
+        if (it.next().getValue().changed < snapshotTime) {
+          it.remove();
+        }
+      }
+      Iterator<Map.Entry<Long,Long>> changedIt = changed.entrySet().iterator();
+      while (changedIt.hasNext()) {
+        if (changedIt.next().getValue() < snapshotTime) {
+          changedIt.remove();
+        }
+      }
+      log.info("{} users changed since the store's data was read", changed.size());
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "PrecomputedRecommender[recommender:" + recommender + ", store:" + storeFile + ']';
+  }
+
+  /**
+   * Recommendations computed since the store's data was read, and when the user had last changed before they were.
+   */
+  private static final class Recomputed {
+
+    private final List<RecommendedItem> items;
+    private final boolean noMoreRecommendableItems;
+    private final long changed;
+
+    private Recomputed(List<RecommendedItem> items, boolean noMoreRecommendableItems, long changed) {
+      this.items = items;
+      this.noMoreRecommendableItems = noMoreRecommendableItems;
+      this.changed = changed;
+    }
+
+    boolean canServe(int howMany) {
+      return noMoreRecommendableItems || (items.size() >= howMany);
+    }
+
+    List<RecommendedItem> get(int howMany) {
+      return items.size() > howMany ? items.subList(0, howMany) : items;
+    }
+  }
+
+  /**
+   * The mapped regions of one store file. Instances are immutable, so that a refresh can swap in a new store
+   * while readers continue to use the old one.
+   */
+  private static final class Store {
+
+    private final int howMany;
+    private final long snapshotTime;
+    private final LongBuffer userIDs;
+    private final IntBuffer userOffsets;
+    private final LongBuffer itemIDs;
+    private final FloatBuffer values;
+
+    private Store(File file) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        FileChannel channel = raf.getChannel();
+        ByteBuffer header = map(channel, 0, PrecomputedRecommenderWriter.HEADER_SIZE);
+        if (header.getInt() != PrecomputedRecommenderWriter.MAGIC) {
+          throw new IOException("Not a recommendation store: " + file);
+        }
+        int version = header.getInt();
+        if (version != PrecomputedRecommenderWriter.VERSION) {
+          throw new IOException("Unsupported store version " + version + " in " + file);
+        }
+        howMany = header.getInt();
+        int numUsers = header.getInt();
+        int numRecommendations = header.getInt();
+        snapshotTime = header.getLong();
+
+        long position = PrecomputedRecommenderWriter.HEADER_SIZE;
+        userIDs = map(channel, position, 8L * numUsers).asLongBuffer();
+        position += 8L * numUsers;
+        userOffsets = map(channel, position, 4L * (numUsers + 1)).asIntBuffer();
+        position += 4L * (numUsers + 1);
+        itemIDs = map(channel, position, 8L * numRecommendations).asLongBuffer();
+        position += 8L * numRecommendations;
+        values = map(channel, position, 4L * numRecommendations).asFloatBuffer();
+        position += 4L * numRecommendations;
+        if (position != channel.size()) {
+          throw new IOException("Truncated or corrupt store file: " + file);
+        }
+        log.info("Mapped {} recommendations for {} users", numRecommendations, numUsers);
+      } finally {
+        // Mapped buffers remain valid after the channel is closed
+        raf.close();
+      }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+      if (position + size > channel.size()) {
+        throw new IOException("Truncated store file");
+      }
+      return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * @return the user's first howMany stored recommendations, or null if the user isn't stored, or has fewer
+     *  stored than asked for although more may be recommendable
+     */
+    List<RecommendedItem> get(long userID, int howMany) {
+      int userIndex = indexOf(userID);
+      if (userIndex < 0) {
+        return null;
+      }
+      int start = userOffsets.get(userIndex);
+      int length = userOffsets.get(userIndex + 1) - start;
+      if ((length < howMany) && (length >= this.howMany)) {
+        return null;
+      }
+      int size = Math.min(length, howMany);
+      List<RecommendedItem> result = new ArrayList<RecommendedItem>(size);
+      for (int i = start; i < start + size; i++) {
+        result.add(new GenericRecommendedItem(itemIDs.get(i), values.get(i)));
+      }
+      return result;
+    }
+
+    private int indexOf(long userID) {
+      int low = 0;
+      int high = userIDs.limit() - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        long midID = userIDs.get(mid);
+        if (midID < userID) {
+          low = mid + 1;
+        } else if (midID > userID) {
+          high = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -1;
+    }
+  }
+
+}
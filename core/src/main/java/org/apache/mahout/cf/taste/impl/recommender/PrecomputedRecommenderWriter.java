@@ -0,0 +1,231 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Collects the top recommendations of many users, and writes them as a store file that can be opened with
+ * {@link PrecomputedRecommender}. Users may be added in any order. Recommendations usually come from the
+ * output of {@link org.apache.mahout.cf.taste.hadoop.item.RecommenderJob}, which can write a store itself,
+ * or from an offline run of any {@link Recommender} through {@link #write(Recommender, int, File)}.
+ * </p>
+ *
+ * <p>
+ * All values are big-endian. The file consists of:
+ * </p>
+ *
+ * <ul>
+ * <li>a header of {@link #HEADER_SIZE} bytes: magic number, format version, the number of recommendations
+ * that was asked for per user, number of users, total number of recommendations (all <code>int</code>s), and
+ * the time in milliseconds at which the data the recommendations were computed from was read
+ * (a <code>long</code>)</li>
+ * <li>user IDs, ascending (<code>long</code>s)</li>
+ * <li>for each user, the offset of its first recommendation, plus one final offset equal to the total number
+ * of recommendations (<code>int</code>s)</li>
+ * <li>recommended item IDs, best first within a user (<code>long</code>s)</li>
+ * <li>recommendation values, in the same order (<code>float</code>s)</li>
+ * </ul>
+ *
+ * <p>
+ * Since each column is mapped as one buffer, a store can hold at most 2<sup>28</sup> - 1 recommendations.
+ * </p>
+ */
+public final class PrecomputedRecommenderWriter {
+
+  private static final Logger log = LoggerFactory.getLogger(PrecomputedRecommenderWriter.class);
+
+  static final int MAGIC = 0x54505231; // "TPR1"
+  static final int VERSION = 2;
+  static final int HEADER_SIZE = 28;
+  private static final int MAX_RECOMMENDATIONS = (1 << 28) - 1;
+
+  private final int howMany;
+  private final long snapshotTime;
+  private final FastByIDMap<Integer> userIndexes;
+  private long[] userIDs;
+  private int[] userOffsets;
+  private long[] itemIDs;
+  private float[] values;
+  private int numUsers;
+  private int numRecommendations;
+
+  /**
+   * @param howMany
+   *          number of recommendations that was asked for per user. Users given fewer than this are taken to
+   *          have no more recommendable items.
+   */
+  public PrecomputedRecommenderWriter(int howMany) {
+    this(howMany, System.currentTimeMillis());
+  }
+
+  /**
+   * @param howMany
+   *          number of recommendations that was asked for per user. Users given fewer than this are taken to
+   *          have no more recommendable items.
+   * @param snapshotTime
+   *          time at which the data the recommendations are computed from was read, in milliseconds; users
+   *          changed since are recomputed by {@link PrecomputedRecommender}. Defaults to when this writer is
+   *          created, which suits recommendations computed after that.
+   */
+  public PrecomputedRecommenderWriter(int howMany, long snapshotTime) {
+    if (howMany < 1) {
+      throw new IllegalArgumentException("howMany must be at least 1");
+    }
+    this.howMany = howMany;
+    this.snapshotTime = snapshotTime;
+    userIndexes = new FastByIDMap<Integer>();
+    userIDs = new long[16];
+    userOffsets = new int[16];
+    itemIDs = new long[16];
+    values = new float[16];
+  }
+
+  /**
+   * @param recommendations
+   *          the user's recommendations, best first; only the first <code>howMany</code> are kept
+   * @throws IllegalArgumentException
+   *           if the user was added already
+   */
+  public void add(long userID, List<RecommendedItem> recommendations) {
+    if (userIndexes.containsKey(userID)) {
+      throw new IllegalArgumentException("Duplicate user ID " + userID);
+    }
+    int length = Math.min(howMany, recommendations.size());
+    if ((long) numRecommendations + length > MAX_RECOMMENDATIONS) {
+      throw new IllegalArgumentException("Too many recommendations for one store");
+    }
+    if (numUsers == userIDs.length) {
+      userIDs = Arrays.copyOf(userIDs, numUsers << 1);
+      userOffsets = Arrays.copyOf(userOffsets, numUsers << 1);
+    }
+    userIndexes.put(userID, numUsers);
+    userIDs[numUsers] = userID;
+    userOffsets[numUsers] = numRecommendations;
+    numUsers++;
+    if (numRecommendations + length > itemIDs.length) {
+      int newCapacity = Math.max(numRecommendations + length, itemIDs.length << 1);
+      itemIDs = Arrays.copyOf(itemIDs, newCapacity);
+      values = Arrays.copyOf(values, newCapacity);
+    }
+    for (int i = 0; i < length; i++) {
+      RecommendedItem item = recommendations.get(i);
+      itemIDs[numRecommendations] = item.getItemID();
+      values[numRecommendations] = item.getValue();
+      numRecommendations++;
+    }
+  }
+
+  /**
+   * @param storeFile
+   *          file to write the store to; it is replaced if it exists, by renaming a new file over it, where the
+   *          platform can do so atomically
+   * @throws IOException
+   *           if the file can't be written, or can't replace the existing one
+   */
+  public void write(File storeFile) throws IOException {
+    long[] sortedUserIDs = Arrays.copyOf(userIDs, numUsers);
+    Arrays.sort(sortedUserIDs);
+
+    log.info("Writing recommendations for {} users to {}", numUsers, storeFile);
+
+    // Write to a temporary file first, so that a recommender mapping the old store never sees a partial one
+    File tempFile = new File(storeFile.getAbsolutePath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(howMany);
+      out.writeInt(numUsers);
+      out.writeInt(numRecommendations);
+      out.writeLong(snapshotTime);
+      for (long userID : sortedUserIDs) {
+        out.writeLong(userID);
+      }
+      int offset = 0;
+      for (long userID : sortedUserIDs) {
+        out.writeInt(offset);
+        offset += length(userIndexes.get(userID));
+      }
+      out.writeInt(offset);
+      for (long userID : sortedUserIDs) {
+        int index = userIndexes.get(userID);
+        int start = userOffsets[index];
+        int end = start + length(index);
+        for (int i = start; i < end; i++) {
+          out.writeLong(itemIDs[i]);
+        }
+      }
+      for (long userID : sortedUserIDs) {
+        int index = userIndexes.get(userID);
+        int start = userOffsets[index];
+        int end = start + length(index);
+        for (int i = start; i < end; i++) {
+          out.writeFloat(values[i]);
+        }
+      }
+    } finally {
+      out.close();
+    }
+
+    // Never delete the old store first, which would leave no store at all for a moment
+    if (!tempFile.renameTo(storeFile)) {
+      throw new IOException("Could not rename " + tempFile + " to " + storeFile);
+    }
+  }
+
+  private int length(int userIndex) {
+    int end = userIndex + 1 < numUsers ? userOffsets[userIndex + 1] : numRecommendations;
+    return end - userOffsets[userIndex];
+  }
+
+  /**
+   * Computes the recommendations of every user of the recommender's {@link org.apache.mahout.cf.taste.model.DataModel}
+   * and writes them as a store.
+   *
+   * @throws IOException
+   *           if the file can't be written
+   * @throws TasteException
+   *           if an error occurs while recommending
+   */
+  public static void write(Recommender recommender, int howMany, File storeFile) throws IOException, TasteException {
+    PrecomputedRecommenderWriter writer = new PrecomputedRecommenderWriter(howMany);
+    LongPrimitiveIterator userIDs = recommender.getDataModel().getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      writer.add(userID, recommender.recommend(userID, howMany));
+    }
+    writer.write(storeFile);
+  }
+
+}
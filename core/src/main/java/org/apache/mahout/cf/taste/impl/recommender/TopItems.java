@@ -18,14 +18,21 @@
 package org.apache.mahout.cf.taste.impl.recommender;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.mahout.cf.taste.common.NoSuchItemException;
 import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
 import org.apache.mahout.cf.taste.impl.similarity.GenericUserSimilarity;
@@ -41,21 +48,53 @@ public final class TopItems {
   
   private static final long[] NO_IDS = new long[0];
   
+  /** Orders as {@link TopIDs} ranks items: by descending value, then ascending ID. */
+  private static final Comparator<RecommendedItem> BY_VALUE_THEN_ID = new Comparator<RecommendedItem>() {
+    @Override
+    public int compare(RecommendedItem o1, RecommendedItem o2) {
+      int byValue = ByValueRecommendedItemComparator.getInstance().compare(o1, o2);
+      if (byValue != 0) {
+        return byValue;
+      }
+      long id1 = o1.getItemID();
+      long id2 = o2.getItemID();
+      return id1 < id2 ? -1 : id1 > id2 ? 1 : 0;
+    }
+  };
+  
   private TopItems() { }
   
+  /**
+   * Like {@link #getTopItems(int, LongPrimitiveIterator, IDRescorer, IDEstimator)}, for callers which still
+   * supply an {@link Estimator}. Each candidate ID is boxed to call it; prefer an {@link IDEstimator}.
+   */
   public static List<RecommendedItem> getTopItems(int howMany,
                                                   LongPrimitiveIterator possibleItemIDs,
                                                   IDRescorer rescorer,
                                                   Estimator<Long> estimator) throws TasteException {
+    if (estimator == null) {
+      throw new IllegalArgumentException("argument is null");
+    }
+    return getTopItems(howMany, possibleItemIDs, rescorer, new BoxingIDEstimator(estimator));
+  }
+  
+  /**
+   * <p>
+   * Finds the items with the highest estimated, rescored values. Candidates are tracked in a bounded heap of
+   * primitive IDs and values, so no objects are allocated per candidate; {@link RecommendedItem}s are created
+   * only for the final results. Among equal values, lower item IDs rank first.
+   * </p>
+   */
+  public static List<RecommendedItem> getTopItems(int howMany,
+                                                  LongPrimitiveIterator possibleItemIDs,
+                                                  IDRescorer rescorer,
+                                                  IDEstimator estimator) throws TasteException {
     if ((possibleItemIDs == null) || (estimator == null)) {
       throw new IllegalArgumentException("argument is null");
     }
-    Queue<RecommendedItem> topItems = new PriorityQueue<RecommendedItem>(howMany + 1,
-        Collections.reverseOrder(ByValueRecommendedItemComparator.getInstance()));
-    boolean full = false;
-    double lowestTopValue = Double.NEGATIVE_INFINITY;
+    TopIDs topItems = new TopIDs(howMany, true);
     while (possibleItemIDs.hasNext()) {
-      long itemID = possibleItemIDs.next();
+      long itemID = possibleItemIDs.nextLong();
       if ((rescorer == null) || !rescorer.isFiltered(itemID)) {
         double preference;
         try {
@@ -64,37 +103,103 @@ public final class TopItems {
           continue;
         }
         double rescoredPref = rescorer == null ? preference : rescorer.rescore(itemID, preference);
-        if (!Double.isNaN(rescoredPref) && (!full || (rescoredPref > lowestTopValue))) {
-          topItems.add(new GenericRecommendedItem(itemID, (float) rescoredPref));
-          if (full) {
-            topItems.poll();
-          } else if (topItems.size() > howMany) {
-            full = true;
-            topItems.poll();
-          }
-          lowestTopValue = topItems.peek().getValue();
+        if (!Double.isNaN(rescoredPref)) {
+          // Rank by the value that will be reported, which is a float
+          topItems.offer(itemID, (float) rescoredPref);
         }
       }
     }
-    int size = topItems.size();
-    if (size == 0) {
+    return topItems.toRecommendedItems();
+  }
+  
+  /**
+   * <p>
+   * Like {@link #getTopItems(int, LongPrimitiveIterator, IDRescorer, IDEstimator)}, but splits the candidate
+   * item IDs into contiguous partitions which are scored concurrently on the given {@link ExecutorService}.
+   * Each partition keeps its own bounded top-N heap, and these are merged at the end, breaking ties by item ID
+   * as the sequential method does, so the result is the same as that of the sequential method.
+   * </p>
+   *
+   * <p>
+   * The {@link IDRescorer} and {@link IDEstimator} are called from several threads at once and must allow
+   * this.
+   * </p>
+   */
+  public static List<RecommendedItem> getTopItems(final int howMany,
+                                                  long[] possibleItemIDs,
+                                                  final IDRescorer rescorer,
+                                                  final IDEstimator estimator,
+                                                  ExecutorService executor,
+                                                  int numPartitions) throws TasteException {
+    if ((possibleItemIDs == null) || (estimator == null) || (executor == null)) {
+      throw new IllegalArgumentException("argument is null");
+    }
+    if (numPartitions < 1) {
+      throw new IllegalArgumentException("numPartitions must be at least 1");
+    }
+    int numItems = possibleItemIDs.length;
+    numPartitions = Math.max(1, Math.min(numPartitions, numItems));
+    List<Future<List<RecommendedItem>>> futures = new ArrayList<Future<List<RecommendedItem>>>(numPartitions);
+    for (int i = 0; i < numPartitions; i++) {
+      final long[] partition = Arrays.copyOfRange(possibleItemIDs,
+                                                  (int) ((long) numItems * i / numPartitions),
+                                                  (int) ((long) numItems * (i + 1) / numPartitions));
+      futures.add(executor.submit(new Callable<List<RecommendedItem>>() {
+        @Override
+        public List<RecommendedItem> call() throws TasteException {
+          return getTopItems(howMany, new LongPrimitiveArrayIterator(partition), rescorer, estimator);
+        }
+      }));
+    }
+    List<RecommendedItem> merged = new ArrayList<RecommendedItem>(numPartitions * howMany);
+    try {
+      for (Future<List<RecommendedItem>> future : futures) {
+        merged.addAll(future.get());
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof TasteException) {
+        throw (TasteException) cause;
+      }
+      throw new TasteException(cause);
+    } finally {
+      for (Future<List<RecommendedItem>> future : futures) {
+        future.cancel(true);
+      }
+    }
+    if (merged.isEmpty()) {
       return Collections.emptyList();
     }
-    List<RecommendedItem> result = new ArrayList<RecommendedItem>(size);
-    result.addAll(topItems);
-    Collections.sort(result, ByValueRecommendedItemComparator.getInstance());
-    return result;
+    Collections.sort(merged, BY_VALUE_THEN_ID);
+    return merged.size() > howMany ? new ArrayList<RecommendedItem>(merged.subList(0, howMany)) : merged;
   }
   
+  /**
+   * Like {@link #getTopUsers(int, LongPrimitiveIterator, IDRescorer, IDEstimator)}, for callers which still
+   * supply an {@link Estimator}. Each candidate ID is boxed to call it; prefer an {@link IDEstimator}.
+   */
   public static long[] getTopUsers(int howMany,
                                    LongPrimitiveIterator allUserIDs,
                                    IDRescorer rescorer,
                                    Estimator<Long> estimator) throws TasteException {
-    Queue<SimilarUser> topUsers = new PriorityQueue<SimilarUser>(howMany + 1, Collections.reverseOrder());
-    boolean full = false;
-    double lowestTopValue = Double.NEGATIVE_INFINITY;
+    if (estimator == null) {
+      throw new IllegalArgumentException("argument is null");
+    }
+    return getTopUsers(howMany, allUserIDs, rescorer, new BoxingIDEstimator(estimator));
+  }
+  
+  /**
+   * @return IDs of the users with the highest estimated, rescored similarity, most similar first
+   */
+  public static long[] getTopUsers(int howMany,
+                                   LongPrimitiveIterator allUserIDs,
+                                   IDRescorer rescorer,
+                                   IDEstimator estimator) throws TasteException {
+    TopIDs topUsers = new TopIDs(howMany);
     while (allUserIDs.hasNext()) {
-      long userID = allUserIDs.next();
+      long userID = allUserIDs.nextLong();
       if ((rescorer != null) && rescorer.isFiltered(userID)) {
         continue;
       }
@@ -105,30 +210,14 @@ public final class TopItems {
         continue;
       }
       double rescoredSimilarity = rescorer == null ? similarity : rescorer.rescore(userID, similarity);
-      if (!Double.isNaN(rescoredSimilarity) && (!full || (rescoredSimilarity > lowestTopValue))) {
-        topUsers.add(new SimilarUser(userID, similarity));
-        if (full) {
-          topUsers.poll();
-        } else if (topUsers.size() > howMany) {
-          full = true;
-          topUsers.poll();
-        }
-        lowestTopValue = topUsers.peek().getSimilarity();
+      if (!Double.isNaN(rescoredSimilarity)) {
+        topUsers.offer(userID, rescoredSimilarity);
       }
     }
-    int size = topUsers.size();
-    if (size == 0) {
+    if (topUsers.size() == 0) {
       return NO_IDS;
     }
-    List<SimilarUser> sorted = new ArrayList<SimilarUser>(size);
-    sorted.addAll(topUsers);
-    Collections.sort(sorted);
-    long[] result = new long[size];
-    int i = 0;
-    for (SimilarUser similarUser : sorted) {
-      result[i++] = similarUser.getUserID();
-    }
-    return result;
+    return topUsers.toSortedIDs();
   }
   
   /**
@@ -206,4 +295,136 @@ public final class TopItems {
     double estimate(T thing) throws TasteException;
   }
   
+  /**
+   * A specialization of {@link Estimator} for <code>long</code> IDs, which avoids boxing each one.
+   */
+  public interface IDEstimator {
+    double estimate(long id) throws TasteException;
+  }
+  
+  private static final class BoxingIDEstimator implements IDEstimator {
+    
+    private final Estimator<Long> delegate;
+    
+    private BoxingIDEstimator(Estimator<Long> delegate) {
+      this.delegate = delegate;
+    }
+    
+    @Override
+    public double estimate(long id) throws TasteException {
+      return delegate.estimate(id);
+    }
+  }
+  
+  /**
+   * A bounded min-heap of IDs and their values, held in parallel primitive arrays. It retains the entries with
+   * the greatest values offered so far; the least of those sits at the root. If ties are broken by ID,
+   * the lower of two IDs with equal values ranks higher, so the result doesn't depend on the order of offers.
+   * Otherwise, once full, an entry tied with the root doesn't replace it, so that among equal values the
+   * earlier ones are kept, as they were by the {@link PriorityQueue} this replaces.
+   */
+  static final class TopIDs {
+    
+    private final long[] ids;
+    private final double[] values;
+    private final boolean breakTiesByID;
+    private int size;
+    
+    TopIDs(int capacity) {
+      this(capacity, false);
+    }
+    
+    TopIDs(int capacity, boolean breakTiesByID) {
+      int length = Math.max(0, capacity);
+      ids = new long[length];
+      values = new double[length];
+      this.breakTiesByID = breakTiesByID;
+    }
+    
+    int size() {
+      return size;
+    }
+    
+    void offer(long id, double value) {
+      if (size < ids.length) {
+        int i = size++;
+        // Sift up
+        while (i > 0) {
+          int parent = (i - 1) >>> 1;
+          if (!ranksBelow(value, id, values[parent], ids[parent])) {
+            break;
+          }
+          ids[i] = ids[parent];
+          values[i] = values[parent];
+          i = parent;
+        }
+        ids[i] = id;
+        values[i] = value;
+      } else if ((size > 0) && ranksBelow(values[0], ids[0], value, id)) {
+        siftDown(id, value, size);
+      }
+    }
+    
+    private boolean ranksBelow(double value1, long id1, double value2, long id2) {
+      return (value1 < value2) || (breakTiesByID && (value1 == value2) && (id1 > id2));
+    }
+    
+    /** Places the given entry at the root and restores the heap property among the first n entries. */
+    private void siftDown(long id, double value, int n) {
+      int i = 0;
+      int half = n >>> 1;
+      while (i < half) {
+        int child = (i << 1) + 1;
+        int right = child + 1;
+        if ((right < n) && ranksBelow(values[right], ids[right], values[child], ids[child])) {
+          child = right;
+        }
+        if (!ranksBelow(values[child], ids[child], value, id)) {
+          break;
+        }
+        ids[i] = ids[child];
+        values[i] = values[child];
+        i = child;
+      }
+      ids[i] = id;
+      values[i] = value;
+    }
+    
+    /** Sorts the entries in place from greatest to least value; the heap can't be used afterwards. */
+    void sortDescending() {
+      for (int last = size - 1; last > 0; last--) {
+        long rootID = ids[0];
+        double rootValue = values[0];
+        siftDown(ids[last], values[last], last);
+        ids[last] = rootID;
+        values[last] = rootValue;
+      }
+    }
+    
+    long getID(int i) {
+      return ids[i];
+    }
+    
+    double getValue(int i) {
+      return values[i];
+    }
+    
+    long[] toSortedIDs() {
+      sortDescending();
+      return Arrays.copyOf(ids, size);
+    }
+    
+    List<RecommendedItem> toRecommendedItems() {
+      if (size == 0) {
+        return Collections.emptyList();
+      }
+      sortDescending();
+      List<RecommendedItem> result = new ArrayList<RecommendedItem>(size);
+      for (int i = 0; i < size; i++) {
+        result.add(new GenericRecommendedItem(ids[i], (float) values[i]));
+      }
+      return result;
+    }
+  }
+  
 }
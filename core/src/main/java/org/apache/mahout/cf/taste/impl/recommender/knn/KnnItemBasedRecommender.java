@@ -51,11 +51,12 @@ public final class KnnItemBasedRecommender extends GenericItemBasedRecommender {
     this.neighborhoodSize = neighborhoodSize;
   }
   
-  private List<RecommendedItem> mostSimilarItems(long itemID,
-                                                 LongPrimitiveIterator possibleItemIDs,
-                                                 int howMany,
-                                                 Rescorer<LongPair> rescorer) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MostSimilarEstimator(itemID, getSimilarity(), rescorer);
+  private static List<RecommendedItem> mostSimilarItems(long itemID,
+                                                        LongPrimitiveIterator possibleItemIDs,
+                                                        int howMany,
+                                                        ItemSimilarity similarity,
+                                                        Rescorer<LongPair> rescorer) throws TasteException {
+    TopItems.IDEstimator estimator = new MostSimilarEstimator(itemID, similarity, rescorer);
     return TopItems.getTopItems(howMany, possibleItemIDs, null, estimator);
   }
   
@@ -114,10 +115,12 @@ public final class KnnItemBasedRecommender extends GenericItemBasedRecommender {
   }
   
   @Override
-  protected float doEstimatePreference(long theUserID, long itemID) throws TasteException {
+  protected float doEstimatePreference(long theUserID,
+                                       PreferenceArray prefs,
+                                       long itemID,
+                                       ItemSimilarity similarity) throws TasteException {
     
     DataModel dataModel = getDataModel();
-    PreferenceArray prefs = dataModel.getPreferencesFromUser(theUserID);
     int size = prefs.length();
     FastIDSet possibleItemIDs = new FastIDSet(size);
     for (int i = 0; i < size; i++) {
@@ -126,7 +129,7 @@ public final class KnnItemBasedRecommender extends GenericItemBasedRecommender {
     possibleItemIDs.remove(itemID);
     
     List<RecommendedItem> mostSimilar = mostSimilarItems(itemID, possibleItemIDs.iterator(),
-      neighborhoodSize, null);
+      neighborhoodSize, similarity, null);
     long[] theNeighborhood = new long[mostSimilar.size()];
     int nOffset = 0;
     for (RecommendedItem rec : mostSimilar) {
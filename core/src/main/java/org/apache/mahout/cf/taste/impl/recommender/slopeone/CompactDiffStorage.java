@@ -0,0 +1,789 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.slopeone;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.FixedRunningAverage;
+import org.apache.mahout.cf.taste.impl.common.FixedRunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.slopeone.DiffStorage;
+import org.apache.mahout.common.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * An implementation of {@link DiffStorage} which, unlike {@link MemoryDiffStorage}, keeps no object per item
+ * pair. Items are numbered in order of ID, and the diffs for each pair of items, by first item, then second
+ * item, are packed into primitive columns: the index of the second item, the count, the average diff and,
+ * if weighting by standard deviation, the sum of squared diffs. This takes 12 or 20 bytes per pair.
+ * </p>
+ *
+ * <p>
+ * The columns are either held on the heap, or, if a storage directory is given, in a memory-mapped file in
+ * that directory, in which case they take no heap at all and the operating system pages them in as needed.
+ * The file is private to this object, rewritten on each rebuild and deleted when no longer used. While the
+ * diffs are built, each thread then writes the rows it computes to a temporary file of its own, from which
+ * they are copied into the mapped file, so that they never all sit on the heap either. Each column is mapped
+ * whole, so a mapped file holds at most {@link #MAX_MAPPED_PAIRS} pairs, or {@link #MAX_MAPPED_WEIGHTED_PAIRS}
+ * if weighting by standard deviation.
+ * </p>
+ *
+ * <p>
+ * The diffs are computed on several threads, each of which owns a disjoint subset of first items. For each
+ * first item, a thread visits the users who rated it and accumulates diffs to their other, later items in
+ * dense primitive arrays, then packs the result. No thread ever writes another's data, so nothing has to be
+ * merged or locked. As in {@link MemoryDiffStorage}, diffs based on just one user are dropped. Unlike there,
+ * each item's average preference is over all of its preferences, as in the JDBC diff storages;
+ * {@link MemoryDiffStorage} leaves out each user's last item.
+ * </p>
+ *
+ * <p>
+ * {@link #updateItemPref(long, float, boolean)} changes the diffs in place, and so holds a lock, which
+ * rebuilding the diffs also holds, so that updates are neither interleaved nor made to diffs being replaced.
+ * Reads take no lock.
+ * </p>
+ */
+public final class CompactDiffStorage implements DiffStorage {
+
+  private static final Logger log = LoggerFactory.getLogger(CompactDiffStorage.class);
+
+  private static final int[] NO_INDEXES = new int[0];
+  private static final float[] NO_VALUES = new float[0];
+  private static final double[] NO_SUMS = new double[0];
+  /** Pairs whose largest mapped column, of <code>int</code>s or <code>float</code>s, fits in one mapping. */
+  public static final int MAX_MAPPED_PAIRS = Integer.MAX_VALUE / 4;
+  /** Pairs whose column of <code>double</code> sums of squares fits in one mapping. */
+  public static final int MAX_MAPPED_WEIGHTED_PAIRS = Integer.MAX_VALUE / 8;
+
+  private final DataModel dataModel;
+  private final boolean stdDevWeighted;
+  private final int numThreads;
+  private final File storageDirectory;
+  private volatile Diffs diffs;
+  private final ReentrantLock updateLock = new ReentrantLock();
+  private final RefreshHelper refreshHelper;
+
+  /**
+   * Creates a storage which holds diffs on the heap and builds them with one thread per processor.
+   *
+   * @param stdDevWeighted
+   *          see {@link SlopeOneRecommender}
+   */
+  public CompactDiffStorage(DataModel dataModel, Weighting stdDevWeighted) throws TasteException {
+    this(dataModel, stdDevWeighted, Runtime.getRuntime().availableProcessors(), null);
+  }
+
+  /**
+   * @param stdDevWeighted
+   *          see {@link SlopeOneRecommender}
+   * @param numThreads
+   *          number of threads to compute diffs with
+   * @param storageDirectory
+   *          directory in which to create the memory-mapped file holding the diffs, or <code>null</code> to
+   *          hold them on the heap
+   * @throws IllegalArgumentException
+   *           if <code>dataModel</code> is null, has no items, or <code>numThreads</code> is not positive
+   */
+  public CompactDiffStorage(DataModel dataModel,
+                            Weighting stdDevWeighted,
+                            int numThreads,
+                            File storageDirectory) throws TasteException {
+    if (dataModel == null) {
+      throw new IllegalArgumentException("dataModel is null");
+    }
+    if (dataModel.getNumItems() < 1) {
+      throw new IllegalArgumentException("dataModel has no items");
+    }
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("numThreads must be at least 1");
+    }
+    if ((storageDirectory != null) && !storageDirectory.isDirectory()) {
+      throw new IllegalArgumentException("Not a directory: " + storageDirectory);
+    }
+    this.dataModel = dataModel;
+    this.stdDevWeighted = stdDevWeighted == Weighting.WEIGHTED;
+    this.numThreads = numThreads;
+    this.storageDirectory = storageDirectory;
+    this.refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() throws TasteException {
+        buildAverageDiffs();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(dataModel);
+    buildAverageDiffs();
+  }
+
+  @Override
+  public RunningAverage getDiff(long itemID1, long itemID2) {
+    Diffs diffs = this.diffs;
+    int index1 = Arrays.binarySearch(diffs.itemIDs, itemID1);
+    int index2 = Arrays.binarySearch(diffs.itemIDs, itemID2);
+    if ((index1 < 0) || (index2 < 0) || (index1 == index2)) {
+      return null;
+    }
+    boolean inverted = false;
+    if (index1 > index2) {
+      inverted = true;
+      int temp = index1;
+      index1 = index2;
+      index2 = temp;
+    }
+    int pair = diffs.findPair(index1, index2);
+    if (pair < 0) {
+      return null;
+    }
+    int count = diffs.counts.get(pair);
+    double average = diffs.averages.get(pair);
+    if (inverted) {
+      average = -average;
+    }
+    if (stdDevWeighted) {
+      return new FixedRunningAverageAndStdDev(average, diffs.getStandardDeviation(pair), count);
+    }
+    return new FixedRunningAverage(average, count);
+  }
+
+  @Override
+  public RunningAverage[] getDiffs(long userID, long itemID, PreferenceArray prefs) {
+    int size = prefs.length();
+    RunningAverage[] result = new RunningAverage[size];
+    for (int i = 0; i < size; i++) {
+      result[i] = getDiff(prefs.getItemID(i), itemID);
+    }
+    return result;
+  }
+
+  @Override
+  public RunningAverage getAverageItemPref(long itemID) {
+    Diffs diffs = this.diffs;
+    int index = Arrays.binarySearch(diffs.itemIDs, itemID);
+    if ((index < 0) || (diffs.itemCounts[index] == 0)) {
+      return null;
+    }
+    return new FixedRunningAverage(diffs.itemAverages[index], diffs.itemCounts[index]);
+  }
+
+  /**
+   * Adjusts the stored diffs in place, in the same way as {@link MemoryDiffStorage#updateItemPref(long, float,
+   * boolean)} does.
+   */
+  @Override
+  public void updateItemPref(long itemID, float prefDelta, boolean remove) {
+    if (!remove && stdDevWeighted) {
+      throw new UnsupportedOperationException("Can't update only when stdDevWeighted is set");
+    }
+    updateLock.lock();
+    try {
+      doUpdateItemPref(itemID, prefDelta, remove);
+    } finally {
+      updateLock.unlock();
+    }
+  }
+
+  private void doUpdateItemPref(long itemID, float prefDelta, boolean remove) {
+    Diffs diffs = this.diffs;
+    int index = Arrays.binarySearch(diffs.itemIDs, itemID);
+    if (index < 0) {
+      return;
+    }
+    // Pairs in which the item comes first
+    int end = diffs.rowOffsets.get(index + 1);
+    for (int pair = diffs.rowOffsets.get(index); pair < end; pair++) {
+      if (remove) {
+        diffs.removeDatum(pair, prefDelta);
+      } else {
+        diffs.changeDatum(pair, -prefDelta);
+      }
+    }
+    // Pairs in which the item comes second
+    for (int first = 0; first < index; first++) {
+      int pair = diffs.findPair(first, index);
+      if (pair >= 0) {
+        if (remove) {
+          diffs.removeDatum(pair, -prefDelta);
+        } else {
+          diffs.changeDatum(pair, prefDelta);
+        }
+      }
+    }
+    if (diffs.itemCounts[index] > 0) {
+      diffs.itemAverages[index] += prefDelta / diffs.itemCounts[index];
+    }
+  }
+
+  @Override
+  public FastIDSet getRecommendableItemIDs(long userID) throws TasteException {
+    FastIDSet result = diffs.recommendableItemIDs.clone();
+    LongPrimitiveIterator it = result.iterator();
+    while (it.hasNext()) {
+      if (dataModel.getPreferenceValue(userID, it.nextLong()) != null) {
+        it.remove();
+      }
+    }
+    return result;
+  }
+
+  private void buildAverageDiffs() throws TasteException {
+    updateLock.lock();
+    try {
+      doBuildAverageDiffs();
+    } finally {
+      updateLock.unlock();
+    }
+  }
+
+  private void doBuildAverageDiffs() throws TasteException {
+    log.info("Building average diffs...");
+    long start = System.currentTimeMillis();
+
+    long[] itemIDs = toSortedArray(dataModel.getItemIDs(), dataModel.getNumItems());
+    int numItems = itemIDs.length;
+    long[] userIDs = toSortedArray(dataModel.getUserIDs(), dataModel.getNumUsers());
+    int numUsers = userIDs.length;
+
+    // Each user's item indexes, ascending, and values; and the users who rated each item
+    int[][] userItemIndexes = new int[numUsers][];
+    float[][] userValues = new float[numUsers][];
+    int[] itemNumUsers = new int[numItems];
+    double[] itemSums = new double[numItems];
+    for (int u = 0; u < numUsers; u++) {
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userIDs[u]).clone();
+      prefs.sortByItem();
+      int length = prefs.length();
+      int[] itemIndexes = new int[length];
+      float[] values = new float[length];
+      for (int i = 0; i < length; i++) {
+        int itemIndex = Arrays.binarySearch(itemIDs, prefs.getItemID(i));
+        itemIndexes[i] = itemIndex;
+        values[i] = prefs.getValue(i);
+        itemNumUsers[itemIndex]++;
+        itemSums[itemIndex] += values[i];
+      }
+      userItemIndexes[u] = itemIndexes;
+      userValues[u] = values;
+    }
+    int[][] itemUserIndexes = new int[numItems][];
+    float[] itemAverages = new float[numItems];
+    for (int a = 0; a < numItems; a++) {
+      itemUserIndexes[a] = new int[itemNumUsers[a]];
+      itemAverages[a] = itemNumUsers[a] == 0 ? Float.NaN : (float) (itemSums[a] / itemNumUsers[a]);
+    }
+    int[] filled = new int[numItems];
+    for (int u = 0; u < numUsers; u++) {
+      for (int itemIndex : userItemIndexes[u]) {
+        itemUserIndexes[itemIndex][filled[itemIndex]++] = u;
+      }
+    }
+
+    int numTasks = Math.min(numThreads, numItems);
+    RowStore rows;
+    try {
+      rows = storageDirectory == null ? new HeapRowStore(numItems) : new SpillingRowStore(numItems, numTasks);
+    } catch (IOException ioe) {
+      throw new TasteException(ioe);
+    }
+    Diffs newDiffs;
+    try {
+      computeRows(numItems, numTasks, userItemIndexes, userValues, itemUserIndexes, rows);
+      rows.finishPutting();
+
+      long numPairs = 0L;
+      for (int a = 0; a < numItems; a++) {
+        numPairs += rows.length(a);
+      }
+      long maxPairs;
+      if (storageDirectory == null) {
+        maxPairs = Integer.MAX_VALUE;
+      } else {
+        maxPairs = stdDevWeighted ? MAX_MAPPED_WEIGHTED_PAIRS : MAX_MAPPED_PAIRS;
+      }
+      if (numPairs > maxPairs) {
+        throw new IllegalStateException("Too many item-item diffs: " + numPairs + " > " + maxPairs);
+      }
+      newDiffs = new Diffs(itemIDs, (int) numPairs, itemAverages, itemNumUsers);
+      FastIDSet recommendableItemIDs = newDiffs.recommendableItemIDs;
+      int pair = 0;
+      for (int a = 0; a < numItems; a++) {
+        Row row = rows.take(a);
+        newDiffs.rowOffsets.put(a, pair);
+        if (row.secondIndexes.length > 0) {
+          recommendableItemIDs.add(itemIDs[a]);
+        }
+        for (int i = 0; i < row.secondIndexes.length; i++) {
+          newDiffs.secondIndexes.put(pair, row.secondIndexes[i]);
+          newDiffs.counts.put(pair, row.counts[i]);
+          newDiffs.averages.put(pair, row.averages[i]);
+          if (stdDevWeighted) {
+            newDiffs.sumSquares.put(pair, row.sumSquares[i]);
+          }
+          recommendableItemIDs.add(itemIDs[row.secondIndexes[i]]);
+          pair++;
+        }
+      }
+      newDiffs.rowOffsets.put(numItems, pair);
+      recommendableItemIDs.rehash();
+    } catch (IOException ioe) {
+      throw new TasteException(ioe);
+    } finally {
+      rows.close();
+    }
+
+    Diffs oldDiffs = diffs;
+    diffs = newDiffs;
+    if (oldDiffs != null) {
+      oldDiffs.release();
+    }
+    log.info("Built {} average diffs for {} items in {}ms",
+             new Object[] {newDiffs.rowOffsets.get(numItems), numItems, System.currentTimeMillis() - start});
+  }
+
+  private void computeRows(final int numItems,
+                           int numTasks,
+                           final int[][] userItemIndexes,
+                           final float[][] userValues,
+                           final int[][] itemUserIndexes,
+                           final RowStore rows) throws TasteException {
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numTasks);
+    for (int t = 0; t < numTasks; t++) {
+      final int firstRow = t;
+      final int rowStep = numTasks;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          RowAccumulator accumulator = new RowAccumulator(numItems);
+          // Interleave rows across threads, since early items have more later items to pair with
+          for (int a = firstRow; a < numItems; a += rowStep) {
+            for (int u : itemUserIndexes[a]) {
+              int[] itemIndexes = userItemIndexes[u];
+              float[] values = userValues[u];
+              int position = Arrays.binarySearch(itemIndexes, a);
+              float valueA = values[position];
+              for (int j = position + 1; j < itemIndexes.length; j++) {
+                accumulator.add(itemIndexes[j], values[j] - valueA);
+              }
+            }
+            rows.put(firstRow, a, accumulator.toRow());
+          }
+          return null;
+        }
+      });
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(numTasks);
+    try {
+      for (Future<Void> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      throw new TasteException(ee.getCause());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static long[] toSortedArray(LongPrimitiveIterator it, int size) {
+    long[] result = new long[size];
+    int i = 0;
+    while (it.hasNext()) {
+      result[i++] = it.nextLong();
+    }
+    Arrays.sort(result);
+    return result;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public String toString() {
+    return "CompactDiffStorage[storageDirectory:" + storageDirectory + ']';
+  }
+
+  /** Diffs from one item to the later items it was co-rated with, while being built. */
+  private static final class Row {
+
+    private final int[] secondIndexes;
+    private final int[] counts;
+    private final float[] averages;
+    private final double[] sumSquares;
+
+    private Row(int[] secondIndexes, int[] counts, float[] averages, double[] sumSquares) {
+      this.secondIndexes = secondIndexes;
+      this.counts = counts;
+      this.averages = averages;
+      this.sumSquares = sumSquares;
+    }
+  }
+
+  /**
+   * Holds the rows computed while building until they are packed in order. Thread <code>t</code> puts rows
+   * <code>t</code>, <code>t + numTasks</code>, ... in that order; once all are put, they are taken in order.
+   */
+  private interface RowStore {
+
+    void put(int thread, int firstIndex, Row row) throws IOException;
+
+    void finishPutting() throws IOException;
+
+    int length(int firstIndex);
+
+    Row take(int firstIndex) throws IOException;
+
+    void close();
+  }
+
+  /** Keeps rows on the heap, for diffs which are held there anyway. */
+  private static final class HeapRowStore implements RowStore {
+
+    private final Row[] rows;
+
+    private HeapRowStore(int numItems) {
+      rows = new Row[numItems];
+    }
+
+    @Override
+    public void put(int thread, int firstIndex, Row row) {
+      rows[firstIndex] = row;
+    }
+
+    @Override
+    public void finishPutting() {
+      // Nothing to do
+    }
+
+    @Override
+    public int length(int firstIndex) {
+      return rows[firstIndex].secondIndexes.length;
+    }
+
+    @Override
+    public Row take(int firstIndex) {
+      Row row = rows[firstIndex];
+      rows[firstIndex] = null;
+      return row;
+    }
+
+    @Override
+    public void close() {
+      Arrays.fill(rows, null);
+    }
+  }
+
+  /** Writes each thread's rows to a temporary file of its own in the storage directory, and reads them back. */
+  private final class SpillingRowStore implements RowStore {
+
+    private final int[] lengths;
+    private final File[] files;
+    private final DataOutputStream[] outs;
+    private final DataInputStream[] ins;
+
+    private SpillingRowStore(int numItems, int numTasks) throws IOException {
+      lengths = new int[numItems];
+      files = new File[numTasks];
+      outs = new DataOutputStream[numTasks];
+      ins = new DataInputStream[numTasks];
+      try {
+        for (int t = 0; t < numTasks; t++) {
+          files[t] = File.createTempFile("rows", ".bin", storageDirectory);
+          outs[t] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files[t])));
+        }
+      } catch (IOException ioe) {
+        close();
+        throw ioe;
+      }
+    }
+
+    @Override
+    public void put(int thread, int firstIndex, Row row) throws IOException {
+      DataOutputStream out = outs[thread];
+      int length = row.secondIndexes.length;
+      for (int i = 0; i < length; i++) {
+        out.writeInt(row.secondIndexes[i]);
+        out.writeInt(row.counts[i]);
+        out.writeFloat(row.averages[i]);
+        if (stdDevWeighted) {
+          out.writeDouble(row.sumSquares[i]);
+        }
+      }
+      lengths[firstIndex] = length;
+    }
+
+    @Override
+    public void finishPutting() throws IOException {
+      for (int t = 0; t < outs.length; t++) {
+        outs[t].close();
+        outs[t] = null;
+        ins[t] = new DataInputStream(new BufferedInputStream(new FileInputStream(files[t])));
+      }
+    }
+
+    @Override
+    public int length(int firstIndex) {
+      return lengths[firstIndex];
+    }
+
+    @Override
+    public Row take(int firstIndex) throws IOException {
+      DataInputStream in = ins[firstIndex % ins.length];
+      int length = lengths[firstIndex];
+      if (length == 0) {
+        return new Row(NO_INDEXES, NO_INDEXES, NO_VALUES, NO_SUMS);
+      }
+      int[] secondIndexes = new int[length];
+      int[] counts = new int[length];
+      float[] averages = new float[length];
+      double[] sumSquares = stdDevWeighted ? new double[length] : NO_SUMS;
+      for (int i = 0; i < length; i++) {
+        secondIndexes[i] = in.readInt();
+        counts[i] = in.readInt();
+        averages[i] = in.readFloat();
+        if (stdDevWeighted) {
+          sumSquares[i] = in.readDouble();
+        }
+      }
+      return new Row(secondIndexes, counts, averages, sumSquares);
+    }
+
+    @Override
+    public void close() {
+      for (int t = 0; t < files.length; t++) {
+        IOUtils.quietClose(outs[t]);
+        IOUtils.quietClose(ins[t]);
+        if ((files[t] != null) && !files[t].delete()) {
+          log.warn("Could not delete {}", files[t]);
+        }
+      }
+    }
+  }
+
+  /** Accumulates the diffs of one row into dense arrays indexed by second item, and packs them. */
+  private final class RowAccumulator {
+
+    private final int[] counts;
+    private final double[] sums;
+    private final double[] sumSquares;
+    private final int[] touched;
+    private int numTouched;
+
+    private RowAccumulator(int numItems) {
+      counts = new int[numItems];
+      sums = new double[numItems];
+      sumSquares = new double[numItems];
+      touched = new int[numItems];
+    }
+
+    void add(int secondIndex, double diff) {
+      if (counts[secondIndex]++ == 0) {
+        touched[numTouched++] = secondIndex;
+      }
+      sums[secondIndex] += diff;
+      sumSquares[secondIndex] += diff * diff;
+    }
+
+    Row toRow() {
+      Arrays.sort(touched, 0, numTouched);
+      int numKept = 0;
+      for (int i = 0; i < numTouched; i++) {
+        // Diffs from only one data point are possibly unreliable
+        if (counts[touched[i]] > 1) {
+          numKept++;
+        }
+      }
+      int[] rowIndexes = numKept == 0 ? NO_INDEXES : new int[numKept];
+      int[] rowCounts = numKept == 0 ? NO_INDEXES : new int[numKept];
+      float[] rowAverages = numKept == 0 ? NO_VALUES : new float[numKept];
+      double[] rowSumSquares = (numKept == 0) || !stdDevWeighted ? NO_SUMS : new double[numKept];
+      int j = 0;
+      for (int i = 0; i < numTouched; i++) {
+        int b = touched[i];
+        int count = counts[b];
+        if (count > 1) {
+          rowIndexes[j] = b;
+          rowCounts[j] = count;
+          rowAverages[j] = (float) (sums[b] / count);
+          if (stdDevWeighted) {
+            rowSumSquares[j] = sumSquares[b];
+          }
+          j++;
+        }
+        counts[b] = 0;
+        sums[b] = 0.0;
+        sumSquares[b] = 0.0;
+      }
+      numTouched = 0;
+      return new Row(rowIndexes, rowCounts, rowAverages, rowSumSquares);
+    }
+  }
+
+  /** One complete, packed set of diffs; replaced as a whole on rebuild. */
+  private final class Diffs {
+
+    private final long[] itemIDs;
+    private final IntBuffer rowOffsets;
+    private final IntBuffer secondIndexes;
+    private final IntBuffer counts;
+    private final FloatBuffer averages;
+    private final DoubleBuffer sumSquares;
+    private final float[] itemAverages;
+    private final int[] itemCounts;
+    private final FastIDSet recommendableItemIDs;
+    private final File file;
+
+    private Diffs(long[] itemIDs, int numPairs, float[] itemAverages, int[] itemCounts) throws IOException {
+      this.itemIDs = itemIDs;
+      this.itemAverages = itemAverages;
+      this.itemCounts = itemCounts;
+      this.recommendableItemIDs = new FastIDSet(itemIDs.length);
+      int numSumSquares = stdDevWeighted ? numPairs : 0;
+      if (storageDirectory == null) {
+        file = null;
+        rowOffsets = IntBuffer.allocate(itemIDs.length + 1);
+        secondIndexes = IntBuffer.allocate(numPairs);
+        counts = IntBuffer.allocate(numPairs);
+        averages = FloatBuffer.allocate(numPairs);
+        sumSquares = DoubleBuffer.allocate(numSumSquares);
+      } else {
+        file = File.createTempFile("diffs", ".bin", storageDirectory);
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+          FileChannel channel = raf.getChannel();
+          long position = 0L;
+          rowOffsets = mapInts(channel, position, itemIDs.length + 1);
+          position += 4L * (itemIDs.length + 1);
+          secondIndexes = mapInts(channel, position, numPairs);
+          position += 4L * numPairs;
+          counts = mapInts(channel, position, numPairs);
+          position += 4L * numPairs;
+          averages = mapFloats(channel, position, numPairs);
+          position += 4L * numPairs;
+          sumSquares = channel.map(FileChannel.MapMode.READ_WRITE, position, 8L * numSumSquares)
+              .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        } finally {
+          // The mappings stay valid after the file is closed
+          raf.close();
+        }
+      }
+    }
+
+    private IntBuffer mapInts(FileChannel channel, long position, int size) throws IOException {
+      return channel.map(FileChannel.MapMode.READ_WRITE, position, 4L * size)
+          .order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    private FloatBuffer mapFloats(FileChannel channel, long position, int size) throws IOException {
+      return channel.map(FileChannel.MapMode.READ_WRITE, position, 4L * size)
+          .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /** @return index of the pair of the given items, first < second, or -1 if there is none */
+    int findPair(int first, int second) {
+      int low = rowOffsets.get(first);
+      int high = rowOffsets.get(first + 1) - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int midIndex = secondIndexes.get(mid);
+        if (midIndex < second) {
+          low = mid + 1;
+        } else if (midIndex > second) {
+          high = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -1;
+    }
+
+    /** As in {@link org.apache.mahout.cf.taste.impl.common.FullRunningAverageAndStdDev}. */
+    double getStandardDeviation(int pair) {
+      int count = counts.get(pair);
+      if (count <= 1) {
+        return Double.NaN;
+      }
+      double average = averages.get(pair);
+      // Clamp, since with a float average, rounding can make a variance near 0 slightly negative
+      return Math.sqrt(Math.max(0.0, (sumSquares.get(pair) - average * average * count) / (count - 1)));
+    }
+
+    /** As in {@link org.apache.mahout.cf.taste.impl.common.FullRunningAverage#changeDatum(double)}. */
+    void changeDatum(int pair, double delta) {
+      averages.put(pair, (float) (averages.get(pair) + delta / counts.get(pair)));
+    }
+
+    /** As in {@link org.apache.mahout.cf.taste.impl.common.FullRunningAverage#removeDatum(double)}. */
+    void removeDatum(int pair, double datum) {
+      int count = counts.get(pair);
+      if (count > 1) {
+        averages.put(pair, (float) ((averages.get(pair) * count - datum) / (count - 1)));
+      } else {
+        averages.put(pair, Float.NaN);
+      }
+      counts.put(pair, count - 1);
+      if (stdDevWeighted) {
+        sumSquares.put(pair, sumSquares.get(pair) - datum * datum);
+      }
+    }
+
+    void release() {
+      // The mapping itself is released when garbage collected; on Unix-like systems, the file can be
+      // deleted while still mapped by readers of this snapshot
+      if ((file != null) && !file.delete()) {
+        log.warn("Could not delete {}", file);
+      }
+    }
+  }
+
+}
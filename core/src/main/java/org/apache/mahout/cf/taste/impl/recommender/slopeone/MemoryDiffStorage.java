@@ -21,8 +21,6 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
@@ -50,6 +48,11 @@ import org.slf4j.LoggerFactory;
  * An implementation of {@link DiffStorage} that merely stores item-item diffs in memory. It is fast, but can
  * consume a great deal of memory.
  * </p>
+ *
+ * <p>
+ * On refresh, the diffs are rebuilt into new structures while the current ones keep answering requests, and
+ * then swapped in all at once. Memory use peaks at twice the usual while that happens.
+ * </p>
  */
 public final class MemoryDiffStorage implements DiffStorage {
   
@@ -59,10 +62,7 @@ public final class MemoryDiffStorage implements DiffStorage {
   private final boolean stdDevWeighted;
   private final boolean compactAverages;
   private final long maxEntries;
-  private final FastByIDMap<FastByIDMap<RunningAverage>> averageDiffs;
-  private final FastByIDMap<RunningAverage> averageItemPref;
-  private final FastIDSet allRecommendableItemIDs;
-  private final ReadWriteLock buildAverageDiffsLock;
+  private volatile Diffs diffs;
   private final RefreshHelper refreshHelper;
   
   /**
@@ -112,10 +112,6 @@ public final class MemoryDiffStorage implements DiffStorage {
     this.stdDevWeighted = stdDevWeighted == Weighting.WEIGHTED;
     this.compactAverages = compactAverages;
     this.maxEntries = maxEntries;
-    this.averageDiffs = new FastByIDMap<FastByIDMap<RunningAverage>>();
-    this.averageItemPref = new FastByIDMap<RunningAverage>();
-    this.buildAverageDiffsLock = new ReentrantReadWriteLock();
-    this.allRecommendableItemIDs = new FastIDSet(dataModel.getNumItems());
     this.refreshHelper = new RefreshHelper(new Callable<Object>() {
       @Override
       public Object call() throws TasteException {
@@ -129,6 +125,10 @@ public final class MemoryDiffStorage implements DiffStorage {
   
   @Override
   public RunningAverage getDiff(long itemID1, long itemID2) {
+    return getDiff(diffs, itemID1, itemID2);
+  }
+  
+  private RunningAverage getDiff(Diffs currentDiffs, long itemID1, long itemID2) {
     
     boolean inverted = false;
     if (itemID1 > itemID2) {
@@ -138,13 +138,7 @@ public final class MemoryDiffStorage implements DiffStorage {
       itemID2 = temp;
     }
     
-    FastByIDMap<RunningAverage> level2Map;
-    try {
-      buildAverageDiffsLock.readLock().lock();
-      level2Map = averageDiffs.get(itemID1);
-    } finally {
-      buildAverageDiffsLock.readLock().unlock();
-    }
+    FastByIDMap<RunningAverage> level2Map = currentDiffs.averageDiffs.get(itemID1);
     RunningAverage average = null;
     if (level2Map != null) {
       average = level2Map.get(itemID2);
@@ -162,22 +156,19 @@ public final class MemoryDiffStorage implements DiffStorage {
   
   @Override
   public RunningAverage[] getDiffs(long userID, long itemID, PreferenceArray prefs) {
-    try {
-      buildAverageDiffsLock.readLock().lock();
-      int size = prefs.length();
-      RunningAverage[] result = new RunningAverage[size];
-      for (int i = 0; i < size; i++) {
-        result[i] = getDiff(prefs.getItemID(i), itemID);
-      }
-      return result;
-    } finally {
-      buildAverageDiffsLock.readLock().unlock();
+    // All diffs for one estimate come from the same generation
+    Diffs currentDiffs = diffs;
+    int size = prefs.length();
+    RunningAverage[] result = new RunningAverage[size];
+    for (int i = 0; i < size; i++) {
+      result[i] = getDiff(currentDiffs, prefs.getItemID(i), itemID);
     }
+    return result;
   }
   
   @Override
   public RunningAverage getAverageItemPref(long itemID) {
-    return averageItemPref.get(itemID);
+    return diffs.averageItemPref.get(itemID);
   }
   
   @Override
@@ -185,45 +176,35 @@ public final class MemoryDiffStorage implements DiffStorage {
     if (!remove && stdDevWeighted) {
       throw new UnsupportedOperationException("Can't update only when stdDevWeighted is set");
     }
-    try {
-      buildAverageDiffsLock.readLock().lock();
-      for (Map.Entry<Long,FastByIDMap<RunningAverage>> entry : averageDiffs.entrySet()) {
-        boolean matchesItemID1 = itemID == entry.getKey();
-        for (Map.Entry<Long,RunningAverage> entry2 : entry.getValue().entrySet()) {
-          RunningAverage average = entry2.getValue();
-          if (matchesItemID1) {
-            if (remove) {
-              average.removeDatum(prefDelta);
-            } else {
-              average.changeDatum(-prefDelta);
-            }
-          } else if (itemID == entry2.getKey()) {
-            if (remove) {
-              average.removeDatum(-prefDelta);
-            } else {
-              average.changeDatum(prefDelta);
-            }
+    Diffs currentDiffs = diffs;
+    for (Map.Entry<Long,FastByIDMap<RunningAverage>> entry : currentDiffs.averageDiffs.entrySet()) {
+      boolean matchesItemID1 = itemID == entry.getKey();
+      for (Map.Entry<Long,RunningAverage> entry2 : entry.getValue().entrySet()) {
+        RunningAverage average = entry2.getValue();
+        if (matchesItemID1) {
+          if (remove) {
+            average.removeDatum(prefDelta);
+          } else {
+            average.changeDatum(-prefDelta);
+          }
+        } else if (itemID == entry2.getKey()) {
+          if (remove) {
+            average.removeDatum(-prefDelta);
+          } else {
+            average.changeDatum(prefDelta);
           }
         }
       }
-      RunningAverage itemAverage = averageItemPref.get(itemID);
-      if (itemAverage != null) {
-        itemAverage.changeDatum(prefDelta);
-      }
-    } finally {
-      buildAverageDiffsLock.readLock().unlock();
+    }
+    RunningAverage itemAverage = currentDiffs.averageItemPref.get(itemID);
+    if (itemAverage != null) {
+      itemAverage.changeDatum(prefDelta);
     }
   }
   
   @Override
   public FastIDSet getRecommendableItemIDs(long userID) throws TasteException {
-    FastIDSet result;
-    try {
-      buildAverageDiffsLock.readLock().lock();
-      result = allRecommendableItemIDs.clone();
-    } finally {
-      buildAverageDiffsLock.readLock().unlock();
-    }
+    FastIDSet result = diffs.allRecommendableItemIDs.clone();
     Iterator<Long> it = result.iterator();
     while (it.hasNext()) {
       if (dataModel.getPreferenceValue(userID, it.next()) != null) {
@@ -235,24 +216,20 @@ public final class MemoryDiffStorage implements DiffStorage {
   
   private void buildAverageDiffs() throws TasteException {
     log.info("Building average diffs...");
-    try {
-      buildAverageDiffsLock.writeLock().lock();
-      averageDiffs.clear();
-      long averageCount = 0L;
-      LongPrimitiveIterator it = dataModel.getUserIDs();
-      while (it.hasNext()) {
-        averageCount = processOneUser(averageCount, it.nextLong());
-      }
-      
-      pruneInconsequentialDiffs();
-      updateAllRecommendableItems();
-      
-    } finally {
-      buildAverageDiffsLock.writeLock().unlock();
+    Diffs newDiffs = new Diffs();
+    long averageCount = 0L;
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      averageCount = processOneUser(newDiffs, averageCount, it.nextLong());
     }
+    
+    pruneInconsequentialDiffs(newDiffs.averageDiffs);
+    updateAllRecommendableItems(newDiffs);
+    
+    diffs = newDiffs;
   }
   
-  private void pruneInconsequentialDiffs() {
+  private static void pruneInconsequentialDiffs(FastByIDMap<FastByIDMap<RunningAverage>> averageDiffs) {
     // Go back and prune inconsequential diffs. "Inconsequential" means, here, only represented by one
     // data point, so possibly unreliable
     Iterator<Map.Entry<Long,FastByIDMap<RunningAverage>>> it1 = averageDiffs.entrySet().iterator();
@@ -274,21 +251,20 @@ public final class MemoryDiffStorage implements DiffStorage {
     averageDiffs.rehash();
   }
   
-  private void updateAllRecommendableItems() throws TasteException {
+  private void updateAllRecommendableItems(Diffs newDiffs) throws TasteException {
     FastIDSet ids = new FastIDSet(dataModel.getNumItems());
-    for (Map.Entry<Long,FastByIDMap<RunningAverage>> entry : averageDiffs.entrySet()) {
+    for (Map.Entry<Long,FastByIDMap<RunningAverage>> entry : newDiffs.averageDiffs.entrySet()) {
       ids.add(entry.getKey());
       LongPrimitiveIterator it = entry.getValue().keySetIterator();
       while (it.hasNext()) {
         ids.add(it.next());
       }
     }
-    allRecommendableItemIDs.clear();
-    allRecommendableItemIDs.addAll(ids);
-    allRecommendableItemIDs.rehash();
+    ids.rehash();
+    newDiffs.allRecommendableItemIDs = ids;
   }
   
-  private long processOneUser(long averageCount, long userID) throws TasteException {
+  private long processOneUser(Diffs newDiffs, long averageCount, long userID) throws TasteException {
     log.debug("Processing prefs for user {}", userID);
     // Save off prefs for the life of this loop iteration
     PreferenceArray userPreferences = dataModel.getPreferencesFromUser(userID);
@@ -296,10 +272,10 @@ public final class MemoryDiffStorage implements DiffStorage {
     for (int i = 0; i < length - 1; i++) {
       float prefAValue = userPreferences.getValue(i);
       long itemIDA = userPreferences.getItemID(i);
-      FastByIDMap<RunningAverage> aMap = averageDiffs.get(itemIDA);
+      FastByIDMap<RunningAverage> aMap = newDiffs.averageDiffs.get(itemIDA);
       if (aMap == null) {
         aMap = new FastByIDMap<RunningAverage>();
-        averageDiffs.put(itemIDA, aMap);
+        newDiffs.averageDiffs.put(itemIDA, aMap);
       }
       for (int j = i + 1; j < length; j++) {
         // This is a performance-critical block
@@ -315,10 +291,10 @@ public final class MemoryDiffStorage implements DiffStorage {
         }
         
       }
-      RunningAverage itemAverage = averageItemPref.get(itemIDA);
+      RunningAverage itemAverage = newDiffs.averageItemPref.get(itemIDA);
       if (itemAverage == null) {
         itemAverage = buildRunningAverage();
-        averageItemPref.put(itemIDA, itemAverage);
+        newDiffs.averageItemPref.put(itemIDA, itemAverage);
       }
       itemAverage.addDatum(prefAValue);
     }
@@ -343,4 +319,14 @@ public final class MemoryDiffStorage implements DiffStorage {
     return "MemoryDiffStorage";
   }
   
+  /** One generation of diffs, built completely before it replaces the previous one. */
+  private static final class Diffs {
+    
+    private final FastByIDMap<FastByIDMap<RunningAverage>> averageDiffs =
+        new FastByIDMap<FastByIDMap<RunningAverage>>();
+    private final FastByIDMap<RunningAverage> averageItemPref = new FastByIDMap<RunningAverage>();
+    private FastIDSet allRecommendableItemIDs;
+    
+  }
+  
 }
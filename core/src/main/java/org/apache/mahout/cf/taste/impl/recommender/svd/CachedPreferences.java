@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Random;
+
+/**
+ * The preferences an {@link SVDRecommender} trains on, as the row and column indexes of the user and item in
+ * the factorization and the preference value, in parallel primitive arrays.
+ */
+final class CachedPreferences {
+
+  private final int[] userIndexes;
+  private final int[] itemIndexes;
+  private final float[] values;
+
+  CachedPreferences(int[] userIndexes, int[] itemIndexes, float[] values) {
+    if ((userIndexes.length != itemIndexes.length) || (userIndexes.length != values.length)) {
+      throw new IllegalArgumentException("Arrays differ in length");
+    }
+    this.userIndexes = userIndexes;
+    this.itemIndexes = itemIndexes;
+    this.values = values;
+  }
+
+  int size() {
+    return values.length;
+  }
+
+  int getUserIndex(int i) {
+    return userIndexes[i];
+  }
+
+  int getItemIndex(int i) {
+    return itemIndexes[i];
+  }
+
+  float getValue(int i) {
+    return values[i];
+  }
+
+  /** Shuffles the preferences in place, keeping each user index, item index and value together. */
+  void shuffle(Random random) {
+    for (int i = values.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int userIndex = userIndexes[i];
+      userIndexes[i] = userIndexes[j];
+      userIndexes[j] = userIndex;
+      int itemIndex = itemIndexes[i];
+      itemIndexes[i] = itemIndexes[j];
+      itemIndexes[j] = itemIndex;
+      float value = values[i];
+      values[i] = values[j];
+      values[j] = value;
+    }
+  }
+
+}
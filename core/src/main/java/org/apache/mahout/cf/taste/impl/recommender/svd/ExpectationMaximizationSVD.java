@@ -17,6 +17,7 @@
 
 package org.apache.mahout.cf.taste.impl.recommender.svd;
 
+import java.util.Arrays;
 import java.util.Random;
 
 import org.apache.mahout.common.RandomUtils;
@@ -28,19 +29,19 @@ public final class ExpectationMaximizationSVD {
   
   private static final double LEARNING_RATE = 0.005;
   /** Parameter used to prevent overfitting. 0.02 is a good value. */
-  private static final double K = 0.02;
+  static final double K = 0.02;
   /** Random noise applied to starting values. */
   private static final double R = 0.005;
   
-  private final int m;
-  private final int n;
+  private int m;
+  private int n;
   private final int k;
   
-  /** User singular vector. */
-  private final double[][] leftVector;
+  /** User singular vector. Rows past m are spare capacity for vectors added later. */
+  private double[][] leftVector;
   
-  /** Item singular vector. */
-  private final double[][] rightVector;
+  /** Item singular vector. Rows past n are spare capacity for vectors added later. */
+  private double[][] rightVector;
   
   /**
    * @param m
@@ -93,6 +94,70 @@ public final class ExpectationMaximizationSVD {
     rightVectorJ[k] += LEARNING_RATE
                        * (err * leftVectorI[k] - K * rightVectorJ[k]);
   }
+
+  /**
+   * Trains all features at once on one preference, with the given learning rate. Several threads may call
+   * this concurrently without locking, as in "Hogwild!" stochastic gradient descent; since each preference
+   * touches only one user vector and one item vector, conflicting updates are rare and merely add noise.
+   *
+   * @return the error of the prediction before the update
+   */
+  double train(int i, int j, double value, double learningRate) {
+    double err = value - getDotProduct(i, j);
+    double[] leftVectorI = leftVector[i];
+    double[] rightVectorJ = rightVector[j];
+    for (int f = 0; f < k; f++) {
+      double left = leftVectorI[f];
+      double right = rightVectorJ[f];
+      leftVectorI[f] = left + learningRate * (err * right - K * left);
+      rightVectorJ[f] = right + learningRate * (err * left - K * right);
+    }
+    return err;
+  }
+
+  double[] getLeftVector(int i) {
+    return leftVector[i];
+  }
+  
+  double[] getRightVector(int j) {
+    return rightVector[j];
+  }
+  
+  void setLeftVector(int i, double[] vector) {
+    leftVector[i] = vector;
+  }
+  
+  void setRightVector(int j, double[] vector) {
+    rightVector[j] = vector;
+  }
+  
+  /**
+   * Adds a row, for a new user, to the left vectors. Callers must ensure no other thread trains, or adds or
+   * replaces vectors, meanwhile; {@link SVDRecommender} holds its write lock.
+   *
+   * @return index of the new row
+   */
+  int addLeftVector(double[] vector) {
+    if (m == leftVector.length) {
+      leftVector = Arrays.copyOf(leftVector, Math.max(1, 2 * m));
+    }
+    leftVector[m] = vector;
+    return m++;
+  }
+  
+  /**
+   * Adds a row, for a new item, to the right vectors. Callers must ensure no other thread trains, or adds or
+   * replaces vectors, meanwhile; {@link SVDRecommender} holds its write lock.
+   *
+   * @return index of the new row
+   */
+  int addRightVector(double[] vector) {
+    if (n == rightVector.length) {
+      rightVector = Arrays.copyOf(rightVector, Math.max(1, 2 * n));
+    }
+    rightVector[n] = vector;
+    return n++;
+  }
   
   int getM() {
     return m;
@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+/**
+ * <p>
+ * Computes the feature vector of one user (or item) against fixed vectors of the items (or users) it has
+ * preferences for: the vector x minimizing
+ * </p>
+ *
+ * <p>
+ * sum<sub>j</sub> (target<sub>j</sub> - x &middot; v<sub>j</sub>)<sup>2</sup> + lambda * count * |x|<sup>2</sup>
+ * </p>
+ *
+ * <p>
+ * This is a small regularized least-squares problem, solved through its normal equations, which have
+ * dimension equal to the number of features, by Cholesky decomposition.
+ * </p>
+ */
+final class FoldInSolver {
+
+  private FoldInSolver() {
+  }
+
+  /**
+   * @param vectors
+   *          fixed vectors; only the first count are used
+   * @param targets
+   *          values that the dot product with each vector should approximate
+   * @param count
+   *          number of vectors and targets to use
+   * @param k
+   *          number of features
+   * @param lambda
+   *          regularization parameter, per vector
+   * @return the solution vector
+   */
+  static double[] solve(double[][] vectors, double[] targets, int count, int k, double lambda) {
+    // Normal equations: (V'V + lambda * count * I) x = V't
+    double[][] a = new double[k][k];
+    double[] b = new double[k];
+    for (int j = 0; j < count; j++) {
+      double[] vector = vectors[j];
+      double target = targets[j];
+      for (int r = 0; r < k; r++) {
+        double vr = vector[r];
+        b[r] += vr * target;
+        double[] aRow = a[r];
+        for (int c = 0; c <= r; c++) {
+          aRow[c] += vr * vector[c];
+        }
+      }
+    }
+    double ridge = lambda * Math.max(1, count);
+    for (int r = 0; r < k; r++) {
+      a[r][r] += ridge;
+    }
+
+    // Cholesky decomposition in place: lower triangle of a becomes L, with A = LL'
+    for (int r = 0; r < k; r++) {
+      double[] aRow = a[r];
+      for (int c = 0; c <= r; c++) {
+        double[] aCol = a[c];
+        double sum = aRow[c];
+        for (int i = 0; i < c; i++) {
+          sum -= aRow[i] * aCol[i];
+        }
+        if (r == c) {
+          // A is positive definite thanks to the ridge term, but guard against rounding
+          aRow[r] = Math.sqrt(Math.max(sum, Double.MIN_NORMAL));
+        } else {
+          aRow[c] = sum / aCol[c];
+        }
+      }
+    }
+
+    // Solve Ly = b, then L'x = y
+    double[] x = new double[k];
+    for (int r = 0; r < k; r++) {
+      double sum = b[r];
+      for (int i = 0; i < r; i++) {
+        sum -= a[r][i] * x[i];
+      }
+      x[r] = sum / a[r][r];
+    }
+    for (int r = k - 1; r >= 0; r--) {
+      double sum = x[r];
+      for (int i = r + 1; i < k; i++) {
+        sum -= a[i][r] * x[i];
+      }
+      x[r] = sum / a[r][r];
+    }
+    return x;
+  }
+
+}
@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.common.RandomUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Trains the factorization of an {@link SVDRecommender} by stochastic gradient descent on several threads.
+ * </p>
+ *
+ * <p>
+ * Each epoch shuffles the preferences and splits them into one contiguous range per thread. Every thread
+ * then updates all features of the user and item vectors for each preference in its range, without locking
+ * ("Hogwild!" style). The learning rate starts at the given value and is multiplied by the decay factor after
+ * each epoch. Training stops after the given number of epochs, or earlier once the training RMSE improves by
+ * less than the convergence threshold from one epoch to the next. The RMSE of each epoch is logged.
+ * </p>
+ */
+public final class ParallelSGDTrainer {
+
+  private static final Logger log = LoggerFactory.getLogger(ParallelSGDTrainer.class);
+
+  private static final double DEFAULT_LEARNING_RATE = 0.005;
+  private static final double DEFAULT_LEARNING_RATE_DECAY = 0.95;
+  private static final double DEFAULT_CONVERGENCE_THRESHOLD = 0.0001;
+
+  private final int numThreads;
+  private final int numEpochs;
+  private final double learningRate;
+  private final double learningRateDecay;
+  private final double convergenceThreshold;
+  private final Random random;
+
+  /**
+   * Creates a trainer using all processors, with default learning rate, decay and convergence threshold.
+   *
+   * @param numEpochs
+   *          maximum number of passes over the preferences
+   */
+  public ParallelSGDTrainer(int numEpochs) {
+    this(Runtime.getRuntime().availableProcessors(), numEpochs, DEFAULT_LEARNING_RATE,
+         DEFAULT_LEARNING_RATE_DECAY, DEFAULT_CONVERGENCE_THRESHOLD);
+  }
+
+  /**
+   * @param numThreads
+   *          number of threads to train on
+   * @param numEpochs
+   *          maximum number of passes over the preferences
+   * @param learningRate
+   *          learning rate for the first epoch
+   * @param learningRateDecay
+   *          factor, in (0,1], by which the learning rate is multiplied after each epoch
+   * @param convergenceThreshold
+   *          training stops once the RMSE improves by less than this between epochs; 0 to always run all
+   *          epochs
+   */
+  public ParallelSGDTrainer(int numThreads,
+                            int numEpochs,
+                            double learningRate,
+                            double learningRateDecay,
+                            double convergenceThreshold) {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("numThreads must be at least 1");
+    }
+    if (numEpochs < 0) {
+      throw new IllegalArgumentException("numEpochs must be at least 0");
+    }
+    if (learningRate <= 0.0) {
+      throw new IllegalArgumentException("learningRate must be positive");
+    }
+    if ((learningRateDecay <= 0.0) || (learningRateDecay > 1.0)) {
+      throw new IllegalArgumentException("learningRateDecay must be in (0,1]");
+    }
+    if (convergenceThreshold < 0.0) {
+      throw new IllegalArgumentException("convergenceThreshold must be at least 0");
+    }
+    this.numThreads = numThreads;
+    this.numEpochs = numEpochs;
+    this.learningRate = learningRate;
+    this.learningRateDecay = learningRateDecay;
+    this.convergenceThreshold = convergenceThreshold;
+    this.random = RandomUtils.getRandom();
+  }
+
+  /**
+   * @param epochLock
+   *          held during each epoch, so that vectors are not added or replaced while threads train them
+   * @return training RMSE of the last epoch run, or {@link Double#NaN} if none was
+   */
+  double train(final ExpectationMaximizationSVD emSvd, final CachedPreferences preferences, Lock epochLock)
+    throws TasteException {
+    int size = preferences.size();
+    if (size == 0) {
+      return Double.NaN;
+    }
+    int numRanges = Math.max(1, Math.min(numThreads, size));
+    ExecutorService executor = Executors.newFixedThreadPool(numRanges);
+    double rate = learningRate;
+    double previousRMSE = Double.NaN;
+    try {
+      for (int epoch = 0; epoch < numEpochs; epoch++) {
+        long start = System.currentTimeMillis();
+        preferences.shuffle(random);
+        List<Callable<Double>> ranges = new ArrayList<Callable<Double>>(numRanges);
+        for (int t = 0; t < numRanges; t++) {
+          final int from = (int) ((long) size * t / numRanges);
+          final int to = (int) ((long) size * (t + 1) / numRanges);
+          final double theRate = rate;
+          ranges.add(new Callable<Double>() {
+            @Override
+            public Double call() {
+              double squaredError = 0.0;
+              for (int i = from; i < to; i++) {
+                double err = emSvd.train(preferences.getUserIndex(i), preferences.getItemIndex(i),
+                                         preferences.getValue(i), theRate);
+                squaredError += err * err;
+              }
+              return squaredError;
+            }
+          });
+        }
+        double squaredError = 0.0;
+        epochLock.lock();
+        try {
+          for (Future<Double> future : executor.invokeAll(ranges)) {
+            squaredError += future.get();
+          }
+        } finally {
+          epochLock.unlock();
+        }
+        double rmse = Math.sqrt(squaredError / size);
+        log.info("Epoch {}: training RMSE {}, learning rate {}, {}ms",
+                 new Object[] {epoch, rmse, rate, System.currentTimeMillis() - start});
+        if ((convergenceThreshold > 0.0) && (previousRMSE - rmse < convergenceThreshold)) {
+          log.info("Converged after {} epochs", epoch + 1);
+          return rmse;
+        }
+        previousRMSE = rmse;
+        rate *= learningRateDecay;
+      }
+      return previousRMSE;
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      throw new TasteException(ee.getCause());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ParallelSGDTrainer[numThreads:" + numThreads + ", numEpochs:" + numEpochs + ", learningRate:"
+        + learningRate + ", learningRateDecay:" + learningRateDecay + ']';
+  }
+
+}
@@ -17,12 +17,13 @@
 
 package org.apache.mahout.cf.taste.impl.recommender.svd;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.mahout.cf.taste.common.NoSuchItemException;
 import org.apache.mahout.cf.taste.common.NoSuchUserException;
@@ -38,7 +39,10 @@ import org.apache.mahout.cf.taste.impl.recommender.AbstractRecommender;
 import org.apache.mahout.cf.taste.impl.recommender.TopItems;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.BatchRecommender;
 import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendationCallback;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.common.RandomUtils;
 import org.slf4j.Logger;
@@ -48,8 +52,28 @@ import org.slf4j.LoggerFactory;
  * <p>
  * A {@link org.apache.mahout.cf.taste.recommender.Recommender} which uses Single Value Decomposition
  * to find the main features of the data set. Thanks to Simon Funk for the hints in the implementation.
+ * </p>
+ *
+ * <p>
+ * {@link #train(int)} trains one feature at a time, on one thread, as described by Simon Funk. For large data
+ * sets, {@link #train(ParallelSGDTrainer)} trains all features at once on several threads instead.
+ * </p>
+ *
+ * <p>
+ * Users and items which are new, or whose preferences change, are "folded in" without retraining: the
+ * vector of the user (or item) alone is recomputed by least squares against the fixed vectors of the items
+ * (or users) it has preferences for. {@link #setPreference(long, long, float)} and
+ * {@link #removePreference(long, long)} do this for the user and, if new, the item concerned, and
+ * {@link #refresh(Collection)} does it for any users and items that appeared in the {@link DataModel} since
+ * the last refresh. Folded-in vectors are refined along with all others by later training.
+ * </p>
+ *
+ * <p>
+ * {@link #recommend(long[], int, RecommendationCallback)} recommends to many users at once, on several threads
+ * reading the same factor vectors.
+ * </p>
  */
-public final class SVDRecommender extends AbstractRecommender {
+public final class SVDRecommender extends AbstractRecommender implements BatchRecommender {
   
   private static final Logger log = LoggerFactory.getLogger(SVDRecommender.class);
   private static final Random random = RandomUtils.getRandom();
@@ -62,7 +86,13 @@ public final class SVDRecommender extends AbstractRecommender {
   private final FastByIDMap<Integer> userMap;
   private final FastByIDMap<Integer> itemMap;
   private final ExpectationMaximizationSVD emSvd;
-  private final List<Preference> cachedPreferences;
+  private volatile CachedPreferences cachedPreferences;
+  /**
+   * Guards userMap, itemMap and the vectors of emSvd. Fold-ins, which add and replace vectors, hold the write
+   * lock; training holds the read lock for each step or epoch, so it never runs during a fold-in, but reads
+   * go on meanwhile.
+   */
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
   
   /**
    * @param numFeatures
@@ -71,6 +101,22 @@ public final class SVDRecommender extends AbstractRecommender {
    *          number of initial training steps
    */
   public SVDRecommender(DataModel dataModel, int numFeatures, int initialSteps) throws TasteException {
+    this(dataModel, numFeatures);
+    train(initialSteps);
+  }
+  
+  /**
+   * @param numFeatures
+   *          the number of features
+   * @param trainer
+   *          trainer to do the initial training with
+   */
+  public SVDRecommender(DataModel dataModel, int numFeatures, ParallelSGDTrainer trainer) throws TasteException {
+    this(dataModel, numFeatures);
+    train(trainer);
+  }
+  
+  private SVDRecommender(DataModel dataModel, int numFeatures) throws TasteException {
     super(dataModel);
     
     this.numFeatures = numFeatures;
@@ -97,31 +143,62 @@ public final class SVDRecommender extends AbstractRecommender {
     double defaultValue = Math.sqrt((average - 1.0) / numFeatures);
     
     emSvd = new ExpectationMaximizationSVD(numUsers, numItems, numFeatures, defaultValue);
-    cachedPreferences = new ArrayList<Preference>(numUsers);
     recachePreferences();
     
     refreshHelper = new RefreshHelper(new Callable<Object>() {
       @Override
       public Object call() throws TasteException {
+        foldInNewUsersAndItems();
         recachePreferences();
         // TODO: train again
         return null;
       }
     });
     refreshHelper.addDependency(dataModel);
-    
-    train(initialSteps);
   }
   
   private void recachePreferences() throws TasteException {
-    cachedPreferences.clear();
     DataModel dataModel = getDataModel();
+    lock.readLock().lock();
+    try {
+      doRecachePreferences(dataModel);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+  
+  private void doRecachePreferences(DataModel dataModel) throws TasteException {
+    int numPrefs = 0;
     LongPrimitiveIterator it = dataModel.getUserIDs();
     while (it.hasNext()) {
-      for (Preference pref : dataModel.getPreferencesFromUser(it.nextLong())) {
-        cachedPreferences.add(pref);
+      numPrefs += dataModel.getPreferencesFromUser(it.nextLong()).length();
+    }
+    int[] userIndexes = new int[numPrefs];
+    int[] itemIndexes = new int[numPrefs];
+    float[] values = new float[numPrefs];
+    int i = 0;
+    it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(it.nextLong());
+      int size = prefs.length();
+      for (int j = 0; j < size; j++) {
+        Integer userIndex = userMap.get(prefs.getUserID(j));
+        Integer itemIndex = itemMap.get(prefs.getItemID(j));
+        // Users and items added since the factorization was set up have no vectors to train
+        if ((userIndex != null) && (itemIndex != null)) {
+          userIndexes[i] = userIndex;
+          itemIndexes[i] = itemIndex;
+          values[i] = prefs.getValue(j);
+          i++;
+        }
       }
     }
+    if (i < numPrefs) {
+      userIndexes = Arrays.copyOf(userIndexes, i);
+      itemIndexes = Arrays.copyOf(itemIndexes, i);
+      values = Arrays.copyOf(values, i);
+    }
+    cachedPreferences = new CachedPreferences(userIndexes, itemIndexes, values);
   }
   
   private double getAveragePreference() throws TasteException {
@@ -138,17 +215,37 @@ public final class SVDRecommender extends AbstractRecommender {
   
   public void train(int steps) {
     for (int i = 0; i < steps; i++) {
-      nextTrainStep();
+      lock.readLock().lock();
+      try {
+        nextTrainStep();
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+  }
+  
+  /**
+   * Trains all features at once, with the given trainer. Fold-ins wait for the epoch under way to finish.
+   *
+   * @return training RMSE after the last epoch
+   * @throws TasteException
+   *           if training is interrupted or fails
+   */
+  public double train(ParallelSGDTrainer trainer) throws TasteException {
+    if (trainer == null) {
+      throw new IllegalArgumentException("trainer is null");
     }
+    return trainer.train(emSvd, cachedPreferences, lock.readLock());
   }
   
   private void nextTrainStep() {
-    Collections.shuffle(cachedPreferences, random);
+    CachedPreferences cachedPreferences = this.cachedPreferences;
+    cachedPreferences.shuffle(random);
+    int size = cachedPreferences.size();
     for (int i = 0; i < numFeatures; i++) {
-      for (Preference pref : cachedPreferences) {
-        int useridx = userMap.get(pref.getUserID());
-        int itemidx = itemMap.get(pref.getItemID());
-        emSvd.train(useridx, itemidx, i, pref.getValue());
+      for (int j = 0; j < size; j++) {
+        emSvd.train(cachedPreferences.getUserIndex(j), cachedPreferences.getItemIndex(j), i,
+          cachedPreferences.getValue(j));
       }
     }
   }
@@ -159,17 +256,187 @@ public final class SVDRecommender extends AbstractRecommender {
   
   @Override
   public float estimatePreference(long userID, long itemID) throws TasteException {
-    Integer useridx = userMap.get(userID);
+    Integer useridx;
+    Integer itemidx;
+    lock.readLock().lock();
+    try {
+      useridx = userMap.get(userID);
+      itemidx = itemMap.get(itemID);
+    } finally {
+      lock.readLock().unlock();
+    }
     if (useridx == null) {
       throw new NoSuchUserException();
     }
-    Integer itemidx = itemMap.get(itemID);
     if (itemidx == null) {
       throw new NoSuchItemException();
     }
     return predictRating(useridx, itemidx);
   }
   
+  /**
+   * Stores the preference in the {@link DataModel}, then folds in the item if it is new, and the user.
+   */
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    super.setPreference(userID, itemID, value);
+    if (!isKnownItem(itemID)) {
+      foldInItem(itemID);
+    }
+    foldInUser(userID);
+  }
+  
+  /**
+   * Removes the preference from the {@link DataModel}, then folds in the user again.
+   */
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    super.removePreference(userID, itemID);
+    try {
+      foldInUser(userID);
+    } catch (NoSuchUserException nsue) {
+      // The user's last preference was removed; leave its vector as it was
+    }
+  }
+  
+  /**
+   * Recomputes the user's vector from its current preferences in the {@link DataModel}, keeping all item
+   * vectors fixed, and adds the user if new. Preferences for items without a vector are ignored; if there
+   * are none left, nothing changes.
+   *
+   * @throws TasteException
+   *           if the user's preferences can't be read
+   */
+  public void foldInUser(long userID) throws TasteException {
+    PreferenceArray prefs = getDataModel().getPreferencesFromUser(userID);
+    double[] vector;
+    lock.readLock().lock();
+    try {
+      vector = foldIn(prefs, itemMap, false);
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (vector != null) {
+      lock.writeLock().lock();
+      try {
+        Integer useridx = userMap.get(userID);
+        if (useridx == null) {
+          userMap.put(userID, emSvd.addLeftVector(vector));
+        } else {
+          emSvd.setLeftVector(useridx, vector);
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+  
+  /**
+   * Recomputes the item's vector from its current preferences in the {@link DataModel}, keeping all user
+   * vectors fixed, and adds the item if new. Preferences from users without a vector are ignored; if there
+   * are none left, nothing changes.
+   *
+   * @throws TasteException
+   *           if the item's preferences can't be read
+   */
+  public void foldInItem(long itemID) throws TasteException {
+    PreferenceArray prefs = getDataModel().getPreferencesForItem(itemID);
+    double[] vector;
+    lock.readLock().lock();
+    try {
+      vector = foldIn(prefs, userMap, true);
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (vector != null) {
+      lock.writeLock().lock();
+      try {
+        Integer itemidx = itemMap.get(itemID);
+        if (itemidx == null) {
+          itemMap.put(itemID, emSvd.addRightVector(vector));
+        } else {
+          emSvd.setRightVector(itemidx, vector);
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+  
+  /**
+   * @param prefs
+   *          preferences of the user or item to fold in
+   * @param otherMap
+   *          indexes of the items, or users, whose vectors are fixed
+   * @param byUser
+   *          whether the fixed vectors are those of the users
+   * @return the new vector, or <code>null</code> if no preference involves a fixed vector
+   */
+  private double[] foldIn(PreferenceArray prefs, FastByIDMap<Integer> otherMap, boolean byUser) {
+    int size = prefs.length();
+    double[][] vectors = new double[size][];
+    double[] targets = new double[size];
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      Integer otherIndex = otherMap.get(byUser ? prefs.getUserID(i) : prefs.getItemID(i));
+      if (otherIndex != null) {
+        vectors[count] = byUser ? emSvd.getLeftVector(otherIndex) : emSvd.getRightVector(otherIndex);
+        // Predictions are 1.0 plus the dot product
+        targets[count] = prefs.getValue(i) - 1.0;
+        count++;
+      }
+    }
+    if (count == 0) {
+      return null;
+    }
+    return FoldInSolver.solve(vectors, targets, count, numFeatures, ExpectationMaximizationSVD.K);
+  }
+  
+  private boolean isKnownItem(long itemID) {
+    lock.readLock().lock();
+    try {
+      return itemMap.containsKey(itemID);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+  
+  private void foldInNewUsersAndItems() throws TasteException {
+    DataModel dataModel = getDataModel();
+    FastIDSet newItemIDs = new FastIDSet();
+    FastIDSet newUserIDs = new FastIDSet();
+    lock.readLock().lock();
+    try {
+      LongPrimitiveIterator it = dataModel.getItemIDs();
+      while (it.hasNext()) {
+        long itemID = it.nextLong();
+        if (!itemMap.containsKey(itemID)) {
+          newItemIDs.add(itemID);
+        }
+      }
+      it = dataModel.getUserIDs();
+      while (it.hasNext()) {
+        long userID = it.nextLong();
+        if (!userMap.containsKey(userID)) {
+          newUserIDs.add(userID);
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (!newItemIDs.isEmpty() || !newUserIDs.isEmpty()) {
+      log.info("Folding in {} new users and {} new items", newUserIDs.size(), newItemIDs.size());
+    }
+    LongPrimitiveIterator it = newItemIDs.iterator();
+    while (it.hasNext()) {
+      foldInItem(it.nextLong());
+    }
+    it = newUserIDs.iterator();
+    while (it.hasNext()) {
+      foldInUser(it.nextLong());
+    }
+  }
+  
   @Override
   public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
     if (howMany < 1) {
@@ -180,7 +447,7 @@ public final class SVDRecommender extends AbstractRecommender {
     
     FastIDSet possibleItemIDs = getAllOtherItems(userID);
     
-    TopItems.Estimator<Long> estimator = new Estimator(userID);
+    TopItems.IDEstimator estimator = new Estimator(userID);
     
     List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
       estimator);
@@ -189,6 +456,42 @@ public final class SVDRecommender extends AbstractRecommender {
     return topItems;
   }
   
+  /**
+   * Recommends to each user as {@link #recommend(long, int)} would, but looks up the user's vector once and
+   * scores all candidate items under one read lock, rather than locking and looking up the user for each
+   * item.
+   */
+  @Override
+  public void recommend(long[] userIDs, final int howMany, RecommendationCallback callback)
+    throws TasteException {
+    if (howMany < 1) {
+      throw new IllegalArgumentException("howMany must be at least 1");
+    }
+    recommendBatch(userIDs, callback, new BatchScorer() {
+      @Override
+      public List<RecommendedItem> recommend(long userID) throws TasteException {
+        FastIDSet possibleItemIDs = getAllOtherItems(userID);
+        lock.readLock().lock();
+        try {
+          Integer userIndex = userMap.get(userID);
+          if (userIndex == null) {
+            throw new NoSuchUserException();
+          }
+          final int theUserIndex = userIndex;
+          return TopItems.getTopItems(howMany, possibleItemIDs.iterator(), null, new TopItems.IDEstimator() {
+            @Override
+            public double estimate(long itemID) {
+              Integer itemIndex = itemMap.get(itemID);
+              return itemIndex == null ? Double.NaN : predictRating(theUserIndex, itemIndex);
+            }
+          });
+        } finally {
+          lock.readLock().unlock();
+        }
+      }
+    });
+  }
+  
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
     refreshHelper.refresh(alreadyRefreshed);
@@ -199,7 +502,7 @@ public final class SVDRecommender extends AbstractRecommender {
     return "SVDRecommender[numFeatures:" + numFeatures + ']';
   }
   
-  private final class Estimator implements TopItems.Estimator<Long> {
+  private final class Estimator implements TopItems.IDEstimator {
     
     private final long theUserID;
     
@@ -208,7 +511,7 @@ public final class SVDRecommender extends AbstractRecommender {
     }
     
     @Override
-    public double estimate(Long itemID) throws TasteException {
+    public double estimate(long itemID) throws TasteException {
       return estimatePreference(theUserID, itemID);
     }
   }
@@ -21,7 +21,7 @@ import java.util.Collection;
 
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
-import org.apache.mahout.cf.taste.impl.common.Cache;
+import org.apache.mahout.cf.taste.impl.common.ConcurrentCache;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.impl.common.Retriever;
 import org.apache.mahout.cf.taste.model.DataModel;
@@ -32,7 +32,7 @@ import org.apache.mahout.common.LongPair;
 public final class CachingItemSimilarity implements ItemSimilarity {
   
   private final ItemSimilarity similarity;
-  private final Cache<LongPair,Double> similarityCache;
+  private final ConcurrentCache<LongPair,Double> similarityCache;
   
   public CachingItemSimilarity(ItemSimilarity similarity, DataModel dataModel) throws TasteException {
     if (similarity == null) {
@@ -40,7 +40,8 @@ public final class CachingItemSimilarity implements ItemSimilarity {
     }
     this.similarity = similarity;
     int maxCacheSize = dataModel.getNumItems(); // just a dumb heuristic for sizing
-    this.similarityCache = new Cache<LongPair,Double>(new SimilarityRetriever(similarity), maxCacheSize);
+    this.similarityCache =
+        new ConcurrentCache<LongPair,Double>(new SimilarityRetriever(similarity), maxCacheSize);
   }
   
   @Override
@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.recommender;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+
+/**
+ * <p>
+ * A {@link Recommender} which can also produce recommendations for many users at once, more efficiently than
+ * by calling {@link #recommend(long, int)} for each. Implementations reuse intermediate data, like
+ * similarities or factor vectors, across the users of a batch, and work on several threads.
+ * </p>
+ *
+ * <p>
+ * Results are not collected in memory but handed to a {@link RecommendationCallback} as soon as they are
+ * computed, so that batches may cover millions of users.
+ * </p>
+ */
+public interface BatchRecommender extends Recommender {
+
+  /**
+   * @param userIDs
+   *          users to recommend to. Users unknown to the {@link org.apache.mahout.cf.taste.model.DataModel}
+   *          get an empty list of recommendations.
+   * @param howMany
+   *          desired number of recommendations per user
+   * @param callback
+   *          receives the recommendations for each user, in no particular order of users
+   * @throws TasteException
+   *           if an error occurs while recommending, or is thrown by the callback; recommendation then stops
+   */
+  void recommend(long[] userIDs, int howMany, RecommendationCallback callback) throws TasteException;
+
+}
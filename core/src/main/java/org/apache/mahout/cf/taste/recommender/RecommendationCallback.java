@@ -0,0 +1,40 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.recommender;
+
+import java.util.List;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+
+/**
+ * Receives the results of {@link BatchRecommender#recommend(long[], int, RecommendationCallback)}. Calls may
+ * come from different threads, but never overlap, so implementations need not be thread-safe.
+ */
+public interface RecommendationCallback {
+
+  /**
+   * @param userID
+   *          user recommended to
+   * @param recommendations
+   *          recommended items, most recommended first
+   * @throws TasteException
+   *           to abort the batch
+   */
+  void recommended(long userID, List<RecommendedItem> recommendations) throws TasteException;
+
+}
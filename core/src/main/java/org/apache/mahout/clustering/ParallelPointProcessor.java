@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.clustering;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.mahout.math.Vector;
+
+/**
+ * Hands the points seen by a map task to several threads, so that a task can use more than one core. Each
+ * thread has its own {@link PointProcessor}, which is only ever used by one thread at a time, so that
+ * processors can accumulate results without locking. Points are collected into batches, and
+ * {@link #add(Vector)} returns only once a full batch has been processed; after {@link #flush()}, all points
+ * added so far have been processed and the processors' results may be read.
+ * <p/>
+ * With one processor, points are processed directly on the calling thread.
+ *
+ * @param <T>
+ *          the type of the processors
+ */
+public final class ParallelPointProcessor<T extends ParallelPointProcessor.PointProcessor> {
+
+  /** The work done for each point, with whatever state it accumulates. */
+  public interface PointProcessor {
+    void process(Vector point);
+  }
+
+  /** Points per processor in a batch. */
+  private static final int POINTS_PER_PROCESSOR = 256;
+
+  private final List<T> processors;
+  private final ExecutorService executor;
+  private final List<Vector> batch;
+  private final int batchSize;
+
+  /**
+   * @param processors
+   *          one processor per thread to use
+   */
+  public ParallelPointProcessor(List<T> processors) {
+    if (processors.isEmpty()) {
+      throw new IllegalArgumentException("No processors");
+    }
+    this.processors = processors;
+    int numThreads = processors.size();
+    executor = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+    batchSize = numThreads * POINTS_PER_PROCESSOR;
+    batch = new ArrayList<Vector>(batchSize);
+  }
+
+  public List<T> getProcessors() {
+    return processors;
+  }
+
+  /**
+   * Processes the point, or adds it to the current batch. The point must not be changed afterwards.
+   */
+  public void add(Vector point) {
+    if (executor == null) {
+      processors.get(0).process(point);
+      return;
+    }
+    batch.add(point);
+    if (batch.size() >= batchSize) {
+      flush();
+    }
+  }
+
+  /**
+   * Processes the points of the current batch, splitting them evenly among the processors.
+   */
+  public void flush() {
+    if (batch.isEmpty()) {
+      return;
+    }
+    int numProcessors = processors.size();
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numProcessors);
+    for (int i = 0; i < numProcessors; i++) {
+      final PointProcessor processor = processors.get(i);
+      final List<Vector> points =
+          batch.subList(i * batch.size() / numProcessors, (i + 1) * batch.size() / numProcessors);
+      tasks.add(new Callable<Object>() {
+        @Override
+        public Object call() {
+          for (Vector point : points) {
+            processor.process(point);
+          }
+          return null;
+        }
+      });
+    }
+    try {
+      for (Future<Object> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      throw new IllegalStateException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+    batch.clear();
+  }
+
+  /**
+   * Processes any remaining points and stops the threads.
+   */
+  public void close() {
+    if (executor != null) {
+      flush();
+      executor.shutdown();
+    }
+  }
+
+}
@@ -31,4 +31,6 @@ public interface FuzzyKMeansConfigKeys {
 
   String THRESHOLD_KEY = "org.apache.mahout.clustering.fuzzykmeans.threshold";
 
+  String MAPPER_THREADS_KEY = "org.apache.mahout.clustering.fuzzykmeans.mapperThreads";
+
 }
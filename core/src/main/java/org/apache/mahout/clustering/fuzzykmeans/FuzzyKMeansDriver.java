@@ -44,6 +44,7 @@ import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.SequenceFileOutputFormat;
 import org.apache.mahout.clustering.Cluster;
 import org.apache.mahout.clustering.WeightedVectorWritable;
+import org.apache.mahout.clustering.kmeans.KMeansParallelSeedGenerator;
 import org.apache.mahout.clustering.kmeans.RandomSeedGenerator;
 import org.apache.mahout.common.CommandLineUtil;
 import org.apache.mahout.common.HadoopUtil;
@@ -69,8 +70,8 @@ public final class FuzzyKMeansDriver {
             + " and written out to this path first")
         .create();
     Option kOpt = DefaultOptionCreator.kOption().withDescription(
-        "The k in k-Means.  If specified, then a random selection of k Vectors will be chosen"
-            + " as the Centroid and written to the clusters input path.").create();
+        "The k in k-Means.  If specified, then k Vectors will be chosen as the Centroid, at random"
+            + " or as seeding says, and written to the clusters input path.").create();
     Option convergenceDeltaOpt = DefaultOptionCreator.convergenceOption().create();
     Option maxIterationsOpt = DefaultOptionCreator.maxIterationsOption().create();
     Option helpOpt = DefaultOptionCreator.helpOption();
@@ -81,12 +82,15 @@ public final class FuzzyKMeansDriver {
     Option clusteringOpt = DefaultOptionCreator.clusteringOption().create();
     Option emitMostLikelyOpt = DefaultOptionCreator.emitMostLikelyOption().create();
     Option thresholdOpt = DefaultOptionCreator.thresholdOption().create();
+    Option mapperThreadsOpt = DefaultOptionCreator.mapperThreadsOption().create();
+    Option seedingOpt = DefaultOptionCreator.seedingOption().create();
 
     Group group = new GroupBuilder().withName("Options").withOption(inputOpt).withOption(clustersOpt)
         .withOption(outputOpt).withOption(measureClassOpt).withOption(convergenceDeltaOpt)
         .withOption(maxIterationsOpt).withOption(kOpt).withOption(mOpt)
         .withOption(overwriteOutput).withOption(helpOpt).withOption(numMapTasksOpt)
-        .withOption(numReduceTasksOpt).withOption(emitMostLikelyOpt).withOption(thresholdOpt).create();
+        .withOption(numReduceTasksOpt).withOption(emitMostLikelyOpt).withOption(thresholdOpt)
+        .withOption(mapperThreadsOpt).withOption(seedingOpt).create();
 
     try {
       Parser parser = new Parser();
@@ -115,9 +119,17 @@ public final class FuzzyKMeansDriver {
       }
       boolean emitMostLikely = Boolean.parseBoolean(cmdLine.getValue(emitMostLikelyOpt).toString());
       double threshold = Double.parseDouble(cmdLine.getValue(thresholdOpt).toString());
+      int numMapperThreads = Integer.parseInt(cmdLine.getValue(mapperThreadsOpt).toString());
       if (cmdLine.hasOption(kOpt)) {
-        clusters = RandomSeedGenerator.buildRandom(input, clusters,
-                                                   Integer.parseInt(cmdLine.getValue(kOpt).toString()));
+        int k = Integer.parseInt(cmdLine.getValue(kOpt).toString());
+        String seeding = cmdLine.getValue(seedingOpt).toString();
+        if (DefaultOptionCreator.PARALLEL_SEEDING.equals(seeding)) {
+          clusters = KMeansParallelSeedGenerator.buildSeeds(input, clusters, k, measureClass);
+        } else if (DefaultOptionCreator.RANDOM_SEEDING.equals(seeding)) {
+          clusters = RandomSeedGenerator.buildRandom(input, clusters, k);
+        } else {
+          throw new IllegalArgumentException("Unknown seeding: " + seeding);
+        }
       }
       runJob(input,
              clusters,
@@ -130,7 +142,8 @@ public final class FuzzyKMeansDriver {
              m,
              cmdLine.hasOption(clusteringOpt),
              emitMostLikely,
-             threshold);
+             threshold,
+             numMapperThreads);
 
     } catch (OptionException e) {
       log.error("Exception", e);
@@ -180,6 +193,54 @@ public final class FuzzyKMeansDriver {
                             boolean runClustering,
                             boolean emitMostLikely,
                             double threshold) {
+    runJob(input, clustersIn, output, measureClass, convergenceDelta, maxIterations, numMapTasks, numReduceTasks,
+           m, runClustering, emitMostLikely, threshold, 1);
+  }
+
+  /**
+   * Run the job using supplied arguments
+   * 
+   * @param input
+   *          the directory pathname for input points
+   * @param clustersIn
+   *          the directory pathname for initial & computed clusters
+   * @param output
+   *          the directory pathname for output points
+   * @param measureClass
+   *          the classname of the DistanceMeasure
+   * @param convergenceDelta
+   *          the convergence delta value
+   * @param maxIterations
+   *          the maximum number of iterations
+   * @param numMapTasks
+   *          the number of mapper tasks
+   * @param numReduceTasks
+   *          the number of reduce tasks
+   * @param m
+   *          the fuzzification factor, see
+   *          http://en.wikipedia.org/wiki/Data_clustering#Fuzzy_c-means_clustering
+   * @param runClustering 
+   *          true if points are to be clustered after iterations complete
+   * @param emitMostLikely
+   *          a boolean if true emit only most likely cluster for each point
+   * @param threshold 
+   *          a double threshold value emits all clusters having greater pdf (emitMostLikely = false)
+   * @param numMapperThreads
+   *          the number of threads each map task computes probabilities on
+   */
+  public static void runJob(Path input,
+                            Path clustersIn,
+                            Path output,
+                            String measureClass,
+                            double convergenceDelta,
+                            int maxIterations,
+                            int numMapTasks,
+                            int numReduceTasks,
+                            float m,
+                            boolean runClustering,
+                            boolean emitMostLikely,
+                            double threshold,
+                            int numMapperThreads) {
 
     boolean converged = false;
     int iteration = 1;
@@ -198,7 +259,8 @@ public final class FuzzyKMeansDriver {
                                numMapTasks,
                                numReduceTasks,
                                iteration,
-                               m);
+                               m,
+                               numMapperThreads);
 
       // now point the input to the old output directory
       clustersIn = clustersOut;
@@ -238,6 +300,8 @@ public final class FuzzyKMeansDriver {
    * @param m
    *          the fuzzification factor - see
    *          http://en.wikipedia.org/wiki/Data_clustering#Fuzzy_c-means_clustering
+   * @param numMapperThreads
+   *          the number of threads each map task computes probabilities on
    * @return true if the iteration successfully runs
    */
   private static boolean runIteration(Path input,
@@ -248,7 +312,8 @@ public final class FuzzyKMeansDriver {
                                       int numMapTasks,
                                       int numReduceTasks,
                                       int iterationNumber,
-                                      float m) {
+                                      float m,
+                                      int numMapperThreads) {
 
     JobConf conf = new JobConf(FuzzyKMeansDriver.class);
     conf.setJobName("Fuzzy K Means{" + iterationNumber + '}');
@@ -277,6 +342,7 @@ public final class FuzzyKMeansDriver {
     // these values don't matter during iterations as only used for clustering if requested
     conf.set(FuzzyKMeansConfigKeys.EMIT_MOST_LIKELY_KEY, Boolean.toString(true));
     conf.set(FuzzyKMeansConfigKeys.THRESHOLD_KEY, Double.toString(0));
+    conf.setInt(FuzzyKMeansConfigKeys.MAPPER_THREADS_KEY, numMapperThreads);
 
     // uncomment it to run locally
     // conf.set("mapred.job.tracker", "local");
@@ -29,10 +29,19 @@ import org.apache.hadoop.mapred.MapReduceBase;
 import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reporter;
+import org.apache.mahout.clustering.ParallelPointProcessor;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.VectorWritable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Computes each point's probability of belonging to each cluster, and sums the points weighted by these in
+ * memory, so that the task emits one {@link FuzzyKMeansInfo} per cluster, in {@link #close()}, rather than
+ * one per point and cluster. Points may be processed on several threads; see
+ * {@link FuzzyKMeansConfigKeys#MAPPER_THREADS_KEY}.
+ */
 public class FuzzyKMeansMapper extends MapReduceBase implements
     Mapper<WritableComparable<?>,VectorWritable,Text,FuzzyKMeansInfo> {
   
@@ -40,13 +49,99 @@ public class FuzzyKMeansMapper extends MapReduceBase implements
   
   private final List<SoftCluster> clusters = new ArrayList<SoftCluster>();
   private FuzzyKMeansClusterer clusterer;
+  private int numThreads = 1;
+  private ParallelPointProcessor<Accumulator> accumulators;
+  private OutputCollector<Text,FuzzyKMeansInfo> output;
   
   @Override
   public void map(WritableComparable<?> key,
                   VectorWritable point,
                   OutputCollector<Text,FuzzyKMeansInfo> output,
                   Reporter reporter) throws IOException {
-    clusterer.emitPointProbToCluster(point.get(), clusters, output);
+    this.output = output;
+    accumulators.add(point.get());
+  }
+  
+  /**
+   * Emits the weighted sums of the points for each cluster. These are marked as already combined, so that
+   * the combiner and reducer don't weight them again.
+   */
+  @Override
+  public void close() throws IOException {
+    if (accumulators != null) {
+      accumulators.close();
+      if (output != null) {
+        List<Accumulator> all = accumulators.getProcessors();
+        for (int i = 0; i < clusters.size(); i++) {
+          double probabilitySum = 0.0;
+          Vector weightedTotal = null;
+          for (Accumulator accumulator : all) {
+            if (accumulator.weightedTotals[i] != null) {
+              probabilitySum += accumulator.probabilitySums[i];
+              if (weightedTotal == null) {
+                weightedTotal = accumulator.weightedTotals[i];
+              } else {
+                accumulator.weightedTotals[i].addTo(weightedTotal);
+              }
+            }
+          }
+          if (weightedTotal != null) {
+            output.collect(new Text(clusters.get(i).getIdentifier()),
+                           new FuzzyKMeansInfo(probabilitySum, weightedTotal, 1));
+          }
+        }
+      }
+      accumulators = null;
+      output = null;
+    }
+    super.close();
+  }
+  
+  private void prepareAccumulators() {
+    if (accumulators != null) {
+      accumulators.close();
+    }
+    List<Accumulator> list = new ArrayList<Accumulator>(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      list.add(new Accumulator());
+    }
+    accumulators = new ParallelPointProcessor<Accumulator>(list);
+    output = null;
+  }
+  
+  /**
+   * Computes the probabilities of points on one thread, and keeps for each cluster the sum of the weights,
+   * probabilities raised to the power m, and the sum of the points times their weights, as the combiner
+   * would.
+   */
+  private final class Accumulator implements ParallelPointProcessor.PointProcessor {
+    
+    private final double[] probabilitySums;
+    private final Vector[] weightedTotals;
+    
+    private Accumulator() {
+      probabilitySums = new double[clusters.size()];
+      weightedTotals = new Vector[clusters.size()];
+    }
+    
+    @Override
+    public void process(Vector point) {
+      List<Double> clusterDistanceList = new ArrayList<Double>(clusters.size());
+      for (SoftCluster cluster : clusters) {
+        clusterDistanceList.add(clusterer.getMeasure().distance(cluster.getCenter(), point));
+      }
+      for (int i = 0; i < clusters.size(); i++) {
+        double probWeight = clusterer.computeProbWeight(clusterDistanceList.get(i), clusterDistanceList);
+        double weight = Math.pow(probWeight, clusterer.getM());
+        probabilitySums[i] += weight;
+        Vector weighted = point.times(weight);
+        if (weightedTotals[i] == null) {
+          weightedTotals[i] = weighted.isDense() ? weighted : new RandomAccessSparseVector(weighted);
+        } else {
+          weighted.addTo(weightedTotals[i]);
+        }
+      }
+    }
   }
   
   /**
@@ -58,6 +153,9 @@ public class FuzzyKMeansMapper extends MapReduceBase implements
   void config(List<SoftCluster> clusters) {
     this.clusters.clear();
     this.clusters.addAll(clusters);
+    if (clusterer != null) {
+      prepareAccumulators();
+    }
   }
   
   @Override
@@ -76,6 +174,12 @@ public class FuzzyKMeansMapper extends MapReduceBase implements
     if (clusters.isEmpty()) {
       throw new IllegalStateException("Cluster is empty!!!");
     }
+    
+    numThreads = job.getInt(FuzzyKMeansConfigKeys.MAPPER_THREADS_KEY, 1);
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("Number of mapper threads must be at least 1: " + numThreads);
+    }
+    prepareAccumulators();
   }
   
 }
@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.clustering.kmeans;
+
+import org.apache.mahout.math.Vector;
+
+/**
+ * For each of a fixed sequence of points, the cluster it was last assigned to, an upper bound on its distance
+ * to that cluster's center and a lower bound on its distance to every other center, as of the centers last
+ * used. Points whose bounds show that they can't have changed cluster are not compared to any center; see
+ * {@link CenterDistances}.
+ * <p/>
+ * Instances are not thread-safe, but threads may each keep bounds for their own share of the points.
+ */
+final class AssignmentBounds {
+
+  private final int[] assignments;
+  private final double[] upper;
+  private final double[] lower;
+  private final double[] pointBounds = new double[2];
+  private Vector[] centers;
+  private boolean bounded;
+
+  AssignmentBounds(int numPoints) {
+    assignments = new int[numPoints];
+    upper = new double[numPoints];
+    lower = new double[numPoints];
+  }
+
+  /**
+   * Starts using new centers. Unless these are the first, the bounds are loosened by as much as the centers
+   * have moved since they were last used: a point's own center may have moved away from it, and any other
+   * center towards it.
+   *
+   * @param newCenters
+   *          the same number of centers as last used, in the same order
+   */
+  void moveCenters(CenterDistances newCenters) {
+    bounded = centers != null;
+    if (bounded) {
+      int k = centers.length;
+      if (newCenters.size() != k) {
+        throw new IllegalArgumentException("Expected " + k + " centers, not " + newCenters.size());
+      }
+      double[] moved = new double[k];
+      int farthestMoved = 0;
+      double maxMoved = 0.0;
+      double secondMaxMoved = 0.0;
+      for (int c = 0; c < k; c++) {
+        moved[c] = newCenters.distance(centers[c], newCenters.getCenter(c));
+        if (moved[c] > maxMoved) {
+          secondMaxMoved = maxMoved;
+          maxMoved = moved[c];
+          farthestMoved = c;
+        } else if (moved[c] > secondMaxMoved) {
+          secondMaxMoved = moved[c];
+        }
+      }
+      for (int i = 0; i < assignments.length; i++) {
+        int assignment = assignments[i];
+        upper[i] += moved[assignment];
+        lower[i] -= assignment == farthestMoved ? secondMaxMoved : maxMoved;
+      }
+    }
+    centers = new Vector[newCenters.size()];
+    for (int c = 0; c < centers.length; c++) {
+      centers[c] = newCenters.getCenter(c);
+    }
+  }
+
+  /**
+   * Forgets the bounds, so that the next centers may be any number, and every point is compared to them.
+   */
+  void reset() {
+    centers = null;
+    bounded = false;
+  }
+
+  /**
+   * @param index
+   *          the point's index in the sequence of points
+   * @param centers
+   *          the centers last passed to {@link #moveCenters(CenterDistances)}, or an instance shared from them
+   * @return index of the center nearest to the point
+   */
+  int assign(int index, Vector point, CenterDistances centers) {
+    int assignment = assignments[index];
+    if (bounded) {
+      // Other centers are strictly farther than the assigned one if its distance is below either bound
+      double limit = Math.max(lower[index], centers.getHalfNearestCenterDistance(assignment));
+      if (CenterDistances.isSurelyLess(upper[index], limit)) {
+        return assignment;
+      }
+      upper[index] = centers.distance(assignment, point);
+      if (CenterDistances.isSurelyLess(upper[index], limit)) {
+        return assignment;
+      }
+    }
+    assignment = centers.nearest(point, pointBounds);
+    assignments[index] = assignment;
+    upper[index] = pointBounds[0];
+    lower[index] = pointBounds[1];
+    return assignment;
+  }
+
+}
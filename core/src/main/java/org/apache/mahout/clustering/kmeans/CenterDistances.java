@@ -0,0 +1,266 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.clustering.kmeans;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
+import org.apache.mahout.common.distance.SquaredEuclideanDistanceMeasure;
+import org.apache.mahout.common.distance.WeightedEuclideanDistanceMeasure;
+import org.apache.mahout.math.Vector;
+
+/**
+ * The centers of a list of clusters together with the distances between them, used to find the center nearest
+ * to a point without computing its distance to every center. By the triangle inequality, if a point is at
+ * distance u from center b, no center c with d(b,c) &gt;= 2u can be nearer than b, and no center at all can
+ * be nearer once u is at most half the distance from b to its own nearest center. See Elkan, "Using the
+ * Triangle Inequality to Accelerate k-Means" (ICML 2003) and Hamerly, "Making k-means even faster" (SDM 2010).
+ * <p/>
+ * This only holds for measures which are metrics: see {@link #isSupported(DistanceMeasure)}. Squared
+ * Euclidean distance is not a metric, but its square root is, and orders centers the same way, so all
+ * distances here are true Euclidean distances. Ties go to the first of the nearest centers, as without this.
+ * <p/>
+ * Instances count the distances they compute, and are not thread-safe; see {@link #share()}.
+ */
+final class CenterDistances {
+
+  /** Beyond this many centers, only each center's distance to its nearest other center is kept. */
+  static final int MAX_CENTERS_FOR_MATRIX = 2048;
+
+  /** Relative margin by which a bound must be passed, so that rounding never decides a tie. */
+  private static final double SLACK = 1.0e-9;
+
+  private final List<Cluster> clusters;
+  private final DistanceMeasure measure;
+  private final boolean euclidean;
+  private final Vector[] centers;
+  private final double[][] centerDistances;
+  private final double[] halfNearestCenterDistances;
+  private long distanceEvaluations;
+
+  /**
+   * @param clusters
+   *          the clusters, whose centers must not change while this is used
+   * @param measure
+   *          a measure for which {@link #isSupported(DistanceMeasure)}
+   */
+  CenterDistances(List<Cluster> clusters, DistanceMeasure measure) {
+    if (!isSupported(measure)) {
+      throw new IllegalArgumentException("Not a supported metric: " + measure.getClass().getName());
+    }
+    this.clusters = clusters;
+    this.measure = measure;
+    this.euclidean = measure.getClass() != WeightedEuclideanDistanceMeasure.class;
+    int k = clusters.size();
+    centers = new Vector[k];
+    for (int i = 0; i < k; i++) {
+      centers[i] = clusters.get(i).getCenter();
+    }
+
+    centerDistances = k <= MAX_CENTERS_FOR_MATRIX ? new double[k][k] : null;
+    halfNearestCenterDistances = new double[k];
+    Arrays.fill(halfNearestCenterDistances, Double.POSITIVE_INFINITY);
+    for (int i = 0; i < k; i++) {
+      for (int j = i + 1; j < k; j++) {
+        double half = distance(centers[i], centers[j]) / 2.0;
+        if (centerDistances != null) {
+          centerDistances[i][j] = 2.0 * half;
+          centerDistances[j][i] = 2.0 * half;
+        }
+        halfNearestCenterDistances[i] = Math.min(halfNearestCenterDistances[i], half);
+        halfNearestCenterDistances[j] = Math.min(halfNearestCenterDistances[j], half);
+      }
+    }
+  }
+
+  /**
+   * Shares the other instance's centers and distances, but counts distances separately, so that it can be
+   * used by another thread.
+   */
+  private CenterDistances(CenterDistances other) {
+    clusters = other.clusters;
+    measure = other.measure;
+    euclidean = other.euclidean;
+    centers = other.centers;
+    centerDistances = other.centerDistances;
+    halfNearestCenterDistances = other.halfNearestCenterDistances;
+  }
+
+  /**
+   * @return an instance with the same centers, for use by another thread, which starts counting from zero
+   */
+  CenterDistances share() {
+    return new CenterDistances(this);
+  }
+
+  /**
+   * @return true if the measure is Euclidean, squared Euclidean or weighted Euclidean distance, with
+   *  non-negative weights; subclasses are not assumed to be metrics
+   */
+  static boolean isSupported(DistanceMeasure measure) {
+    Class<?> measureClass = measure.getClass();
+    if (measureClass == WeightedEuclideanDistanceMeasure.class) {
+      return hasNonNegativeWeights((WeightedEuclideanDistanceMeasure) measure);
+    }
+    return (measureClass == EuclideanDistanceMeasure.class)
+        || (measureClass == SquaredEuclideanDistanceMeasure.class);
+  }
+
+  /**
+   * @return true if the measure has no weights, which weighs all dimensions alike, or none of its weights is
+   *  negative; a negative weight can make a squared distance negative, and the triangle inequality fail
+   */
+  private static boolean hasNonNegativeWeights(WeightedEuclideanDistanceMeasure measure) {
+    Vector weights = measure.getWeights();
+    if (weights == null) {
+      return true;
+    }
+    Iterator<Vector.Element> iterator = weights.iterateNonZero();
+    while (iterator.hasNext()) {
+      if (iterator.next().get() < 0.0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  int size() {
+    return centers.length;
+  }
+
+  Cluster getCluster(int index) {
+    return clusters.get(index);
+  }
+
+  Vector getCenter(int index) {
+    return centers[index];
+  }
+
+  /**
+   * @return half the distance from the center to the nearest other center, within which a point can be
+   *  nearer to no other center
+   */
+  double getHalfNearestCenterDistance(int index) {
+    return halfNearestCenterDistances[index];
+  }
+
+  /**
+   * @return number of distances computed so far, including those between the centers
+   */
+  long getDistanceEvaluations() {
+    return distanceEvaluations;
+  }
+
+  /**
+   * @return the Euclidean distance from the center to the point
+   */
+  double distance(int index, Vector point) {
+    distanceEvaluations++;
+    return euclidean ? Math.sqrt(distanceSquared(point, centers[index])) : measure.distance(centers[index], point);
+  }
+
+  /**
+   * @return the Euclidean distance between any two vectors
+   */
+  double distance(Vector v1, Vector v2) {
+    distanceEvaluations++;
+    return euclidean ? Math.sqrt(distanceSquared(v1, v2)) : measure.distance(v1, v2);
+  }
+
+  /**
+   * Sums the squared differences themselves. Expanding |a|^2 - 2 a.b + |b|^2, as
+   * {@link Vector#getDistanceSquared(Vector)} may, loses precision far from the origin, by more than
+   * {@link #SLACK} allows; the differences are only as inexact as the distance itself.
+   */
+  static double distanceSquared(Vector a, Vector b) {
+    double result = 0.0;
+    Iterator<Vector.Element> it = a.iterateNonZero();
+    while (it.hasNext()) {
+      Vector.Element e = it.next();
+      double difference = e.get() - b.getQuick(e.index());
+      result += difference * difference;
+    }
+    it = b.iterateNonZero();
+    while (it.hasNext()) {
+      Vector.Element e = it.next();
+      if (a.getQuick(e.index()) == 0.0) {
+        double value = e.get();
+        result += value * value;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return true if a is less than b by more than rounding errors could account for, where a is a distance
+   */
+  static boolean isSurelyLess(double a, double b) {
+    return a * (1.0 + SLACK) < b;
+  }
+
+  /**
+   * @return index of the center nearest to the point
+   */
+  int nearest(Vector point) {
+    return nearest(point, null);
+  }
+
+  /**
+   * @param bounds
+   *          if not null, receives the distance to the nearest center, and a lower bound on the distance to
+   *          every other center
+   * @return index of the center nearest to the point
+   */
+  int nearest(Vector point, double[] bounds) {
+    int nearest = 0;
+    double nearestDistance = distance(0, point);
+    double lowerBound = Double.POSITIVE_INFINITY;
+    for (int c = 1; c < centers.length; c++) {
+      double halfNearestCenterDistance = halfNearestCenterDistances[nearest];
+      if (isSurelyLess(nearestDistance, halfNearestCenterDistance)) {
+        // No center, in particular none of those left, can be nearer
+        lowerBound = Math.min(lowerBound, 2.0 * halfNearestCenterDistance - nearestDistance);
+        break;
+      }
+      if (centerDistances != null) {
+        double centerDistance = centerDistances[nearest][c];
+        if (isSurelyLess(2.0 * nearestDistance, centerDistance)) {
+          lowerBound = Math.min(lowerBound, centerDistance - nearestDistance);
+          continue;
+        }
+      }
+      double distance = distance(c, point);
+      if (distance < nearestDistance) {
+        lowerBound = Math.min(lowerBound, nearestDistance);
+        nearest = c;
+        nearestDistance = distance;
+      } else {
+        lowerBound = Math.min(lowerBound, distance);
+      }
+    }
+    if (bounds != null) {
+      bounds[0] = nearestDistance;
+      bounds[1] = lowerBound;
+    }
+    return nearest;
+  }
+
+}
@@ -38,13 +38,23 @@ public class KMeansClusterMapper extends MapReduceBase implements
   
   private final List<Cluster> clusters = new ArrayList<Cluster>();
   private KMeansClusterer clusterer;
+  private CenterDistances centers;
+  private long reportedDistanceEvaluations;
   
   @Override
   public void map(WritableComparable<?> key,
                   VectorWritable point,
                   OutputCollector<IntWritable,WeightedVectorWritable> output,
                   Reporter reporter) throws IOException {
-    clusterer.outputPointWithClusterInfo(point.get(), clusters, output);
+    if (centers == null) {
+      clusterer.outputPointWithClusterInfo(point.get(), clusters, output);
+      reporter.incrCounter("Clustering", "Distance Evaluations", clusters.size());
+    } else {
+      clusterer.outputPointWithClusterInfo(point.get(), centers, output);
+      long distanceEvaluations = centers.getDistanceEvaluations();
+      reporter.incrCounter("Clustering", "Distance Evaluations", distanceEvaluations - reportedDistanceEvaluations);
+      reportedDistanceEvaluations = distanceEvaluations;
+    }
   }
   
   @Override
@@ -66,6 +76,9 @@ public class KMeansClusterMapper extends MapReduceBase implements
       }
       
       this.clusterer = new KMeansClusterer(measure);
+      if (job.getBoolean(KMeansConfigKeys.ACCELERATE_KEY, true)) {
+        centers = clusterer.prepareCenters(clusters);
+      }
     } catch (ClassNotFoundException e) {
       throw new IllegalStateException(e);
     } catch (IllegalAccessException e) {
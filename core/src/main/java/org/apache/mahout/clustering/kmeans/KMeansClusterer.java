@@ -81,6 +81,24 @@ public class KMeansClusterer {
     output.collect(new Text(nearestCluster.getIdentifier()), new KMeansInfo(1, point));
   }
 
+  /**
+   * Like {@link #emitPointToNearestCluster(Vector, Iterable, OutputCollector)}, but returns the index of the
+   * nearest cluster instead of emitting the point.
+   */
+  int nearestCluster(Vector point, List<Cluster> clusters) {
+    int nearest = -1;
+    double nearestDistance = Double.MAX_VALUE;
+    for (int i = 0; i < clusters.size(); i++) {
+      Vector clusterCenter = clusters.get(i).getCenter();
+      double distance = this.measure.distance(clusterCenter.getLengthSquared(), clusterCenter, point);
+      if ((distance < nearestDistance) || (nearest < 0)) {
+        nearest = i;
+        nearestDistance = distance;
+      }
+    }
+    return nearest;
+  }
+
   public void outputPointWithClusterInfo(Vector vector, Iterable<Cluster> clusters,
       OutputCollector<IntWritable, WeightedVectorWritable> output) throws IOException {
     Cluster nearestCluster = null;
@@ -97,9 +115,37 @@ public class KMeansClusterer {
     output.collect(new IntWritable(nearestCluster.getId()), new WeightedVectorWritable(1, new VectorWritable(vector)));
   }
 
+  /**
+   * Like {@link #outputPointWithClusterInfo(Vector, Iterable, OutputCollector)}, but skips the distances to
+   * centers which can't be the nearest, as far as the distances between the centers show.
+   * 
+   * @param centers
+   *          the clusters to test, from {@link #prepareCenters(List)}
+   */
+  void outputPointWithClusterInfo(Vector vector, CenterDistances centers,
+      OutputCollector<IntWritable, WeightedVectorWritable> output) throws IOException {
+    Cluster nearestCluster = centers.getCluster(centers.nearest(vector));
+    output.collect(new IntWritable(nearestCluster.getId()), new WeightedVectorWritable(1, new VectorWritable(vector)));
+  }
+
+  /**
+   * Computes the distances between the clusters' centers, for the methods which use them to skip distance
+   * computations.
+   * 
+   * @return the prepared centers, or null if the distance measure isn't a metric that allows this
+   */
+  CenterDistances prepareCenters(List<Cluster> clusters) {
+    return CenterDistances.isSupported(measure) ? new CenterDistances(clusters, measure) : null;
+  }
+
   /**
    * This is the reference k-means implementation. Given its inputs it iterates over the points and clusters
    * until their centers converge or until the maximum number of iterations is exceeded.
+   * <p/>
+   * For Euclidean distance measures, it keeps for each point an upper bound on the distance to its cluster's
+   * center and a lower bound on the distance to every other center, and moves them by as much as the centers
+   * move. Points whose bounds show that they can't have changed cluster are not compared to any center; see
+   * {@link CenterDistances}.
    * 
    * @param points
    *          the input List<Vector> of points
@@ -115,6 +161,7 @@ public class KMeansClusterer {
     List<List<Cluster>> clustersList = new ArrayList<List<Cluster>>();
     clustersList.add(clusters);
 
+    AssignmentBounds bounds = CenterDistances.isSupported(measure) ? new AssignmentBounds(points.size()) : null;
     boolean converged = false;
     int iteration = 0;
     while (!converged && iteration < maxIter) {
@@ -125,7 +172,11 @@ public class KMeansClusterer {
         next.add(new Cluster(c.getCenter()));
       }
       clustersList.add(next);
-      converged = runKMeansIteration(points, next, measure, distanceThreshold);
+      if (bounds == null) {
+        converged = runKMeansIteration(points, next, measure, distanceThreshold);
+      } else {
+        converged = runKMeansIteration(points, next, measure, distanceThreshold, bounds);
+      }
     }
     return clustersList;
   }
@@ -144,6 +195,15 @@ public class KMeansClusterer {
    */
   public static boolean runKMeansIteration(List<Vector> points, List<Cluster> clusters, DistanceMeasure measure,
       double distanceThreshold) {
+    if (CenterDistances.isSupported(measure)) {
+      CenterDistances centers = new CenterDistances(clusters, measure);
+      for (Vector point : points) {
+        centers.getCluster(centers.nearest(point)).addPoint(point);
+      }
+      log.info("{} distance evaluations for {} points and {} clusters",
+               new Object[] {centers.getDistanceEvaluations(), points.size(), clusters.size()});
+      return updateClusters(clusters, measure, distanceThreshold);
+    }
     // iterate through all points, assigning each to the nearest cluster
     for (Vector point : points) {
       Cluster closestCluster = null;
@@ -157,6 +217,32 @@ public class KMeansClusterer {
       }
       closestCluster.addPoint(point);
     }
+    return updateClusters(clusters, measure, distanceThreshold);
+  }
+
+  /**
+   * Like {@link #runKMeansIteration(List, List, DistanceMeasure, double)}, but only compares a point to the
+   * centers if its bounds, carried over from the previous iteration, don't show that its cluster is unchanged.
+   */
+  private static boolean runKMeansIteration(List<Vector> points, List<Cluster> clusters, DistanceMeasure measure,
+      double distanceThreshold, AssignmentBounds bounds) {
+    CenterDistances centers = new CenterDistances(clusters, measure);
+    bounds.moveCenters(centers);
+    for (int i = 0; i < points.size(); i++) {
+      Vector point = points.get(i);
+      clusters.get(bounds.assign(i, point, centers)).addPoint(point);
+    }
+    log.info("{} distance evaluations for {} points and {} clusters",
+             new Object[] {centers.getDistanceEvaluations(), points.size(), clusters.size()});
+    return updateClusters(clusters, measure, distanceThreshold);
+  }
+
+  /**
+   * Tests the clusters for convergence and, unless all have converged, moves their centers to their centroids.
+   * 
+   * @return true if all clusters have converged
+   */
+  private static boolean updateClusters(List<Cluster> clusters, DistanceMeasure measure, double distanceThreshold) {
     // test for convergence
     boolean converged = true;
     for (Cluster cluster : clusters) {
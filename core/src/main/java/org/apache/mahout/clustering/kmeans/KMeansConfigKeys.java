@@ -27,5 +27,17 @@ public interface KMeansConfigKeys {
   String CLUSTER_CONVERGENCE_KEY = "org.apache.mahout.clustering.kmeans.convergence";
   /** Configuration key for iteration cluster path */
   String CLUSTER_PATH_KEY = "org.apache.mahout.clustering.kmeans.path";
+  /**
+   * Configuration key for whether mappers may skip distance computations which the triangle inequality
+   * shows to be unnecessary, for the distance measures which allow it. Defaults to true.
+   */
+  String ACCELERATE_KEY = "org.apache.mahout.clustering.kmeans.accelerate";
+  /** Configuration key for the number of threads each mapper assigns points on. Defaults to 1. */
+  String MAPPER_THREADS_KEY = "org.apache.mahout.clustering.kmeans.mapperThreads";
+  /**
+   * Configuration key for the number of points each {@link KMeansParallelSeedMapper} samples, or 0 for it to
+   * count the points nearest each candidate instead.
+   */
+  String SEED_SAMPLE_SIZE_KEY = "org.apache.mahout.clustering.kmeans.seedSampleSize";
   
 }
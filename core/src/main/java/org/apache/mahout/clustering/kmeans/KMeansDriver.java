@@ -60,8 +60,8 @@ public final class KMeansDriver {
             + " and written out to this path first")
         .create();
     Option kOpt = DefaultOptionCreator.kOption().withDescription(
-        "The k in k-Means.  If specified, then a random selection of k Vectors will be chosen"
-            + " as the Centroid and written to the clusters input path.").create();
+        "The k in k-Means.  If specified, then k Vectors will be chosen as the Centroid, at random"
+            + " or as seeding says, and written to the clusters input path.").create();
     Option outputOpt = DefaultOptionCreator.outputOption().create();
     Option overwriteOutput = DefaultOptionCreator.overwriteOption().create();
     Option measureClassOpt = DefaultOptionCreator.distanceMeasureOption().create();
@@ -69,12 +69,16 @@ public final class KMeansDriver {
     Option maxIterationsOpt = DefaultOptionCreator.maxIterationsOption().create();
     Option numReduceTasksOpt = DefaultOptionCreator.numReducersOption().create();
     Option clusteringOpt = DefaultOptionCreator.clusteringOption().create();
+    Option mapperThreadsOpt = DefaultOptionCreator.mapperThreadsOption().create();
+    Option seedingOpt = DefaultOptionCreator.seedingOption().create();
+    Option localOpt = DefaultOptionCreator.localOption().create();
     Option helpOpt = DefaultOptionCreator.helpOption();
 
     Group group = new GroupBuilder().withName("Options").withOption(inputOpt).withOption(clustersOpt)
         .withOption(outputOpt).withOption(measureClassOpt).withOption(convergenceDeltaOpt)
         .withOption(maxIterationsOpt).withOption(numReduceTasksOpt)
-        .withOption(kOpt).withOption(overwriteOutput).withOption(helpOpt).withOption(clusteringOpt).create();
+        .withOption(kOpt).withOption(overwriteOutput).withOption(helpOpt).withOption(clusteringOpt)
+        .withOption(mapperThreadsOpt).withOption(seedingOpt).withOption(localOpt).create();
     try {
       Parser parser = new Parser();
       parser.setGroup(group);
@@ -92,15 +96,30 @@ public final class KMeansDriver {
       double convergenceDelta = Double.parseDouble(cmdLine.getValue(convergenceDeltaOpt).toString());
       int maxIterations = Integer.parseInt(cmdLine.getValue(maxIterationsOpt).toString());
       int numReduceTasks = Integer.parseInt(cmdLine.getValue(numReduceTasksOpt).toString());
+      int numMapperThreads = Integer.parseInt(cmdLine.getValue(mapperThreadsOpt).toString());
       if (cmdLine.hasOption(overwriteOutput)) {
         HadoopUtil.overwriteOutput(output);
       }
       if (cmdLine.hasOption(kOpt)) {
-        clusters = RandomSeedGenerator.buildRandom(input, clusters,
-                                                   Integer.parseInt(cmdLine.getValue(kOpt).toString()));
+        int k = Integer.parseInt(cmdLine.getValue(kOpt).toString());
+        String seeding = cmdLine.getValue(seedingOpt).toString();
+        if (DefaultOptionCreator.PARALLEL_SEEDING.equals(seeding)) {
+          clusters = KMeansParallelSeedGenerator.buildSeeds(input, clusters, k, measureClass);
+        } else if (DefaultOptionCreator.RANDOM_SEEDING.equals(seeding)) {
+          clusters = RandomSeedGenerator.buildRandom(input, clusters, k);
+        } else {
+          throw new IllegalArgumentException("Unknown seeding: " + seeding);
+        }
+      }
+      if (cmdLine.hasOption(localOpt)) {
+        int numThreads = cmdLine.hasOption(mapperThreadsOpt)
+            ? numMapperThreads : Runtime.getRuntime().availableProcessors();
+        LocalKMeansDriver.runJob(input, clusters, output, measureClass, convergenceDelta, maxIterations, cmdLine
+            .hasOption(clusteringOpt), numThreads);
+      } else {
+        runJob(input, clusters, output, measureClass, convergenceDelta, maxIterations, numReduceTasks, cmdLine
+            .hasOption(clusteringOpt), numMapperThreads);
       }
-      runJob(input, clusters, output, measureClass, convergenceDelta, maxIterations, numReduceTasks, cmdLine
-          .hasOption(clusteringOpt));
     } catch (OptionException e) {
       log.error("Exception", e);
       CommandLineUtil.printHelp(group);
@@ -129,6 +148,33 @@ public final class KMeansDriver {
    */
   public static void runJob(Path input, Path clustersIn, Path output, String measureClass, double convergenceDelta,
       int maxIterations, int numReduceTasks, boolean runClustering) throws IOException {
+    runJob(input, clustersIn, output, measureClass, convergenceDelta, maxIterations, numReduceTasks, runClustering, 1);
+  }
+
+  /**
+   * Run the job using supplied arguments
+   * 
+   * @param input
+   *          the directory pathname for input points
+   * @param clustersIn
+   *          the directory pathname for initial & computed clusters
+   * @param output
+   *          the directory pathname for output points
+   * @param measureClass
+   *          the classname of the DistanceMeasure
+   * @param convergenceDelta
+   *          the convergence delta value
+   * @param maxIterations
+   *          the maximum number of iterations
+   * @param numReduceTasks
+   *          the number of reducers
+   * @param runClustering 
+   *          true if points are to be clustered after iterations are completed
+   * @param numMapperThreads
+   *          the number of threads each map task assigns points on
+   */
+  public static void runJob(Path input, Path clustersIn, Path output, String measureClass, double convergenceDelta,
+      int maxIterations, int numReduceTasks, boolean runClustering, int numMapperThreads) throws IOException {
     // iterate until the clusters converge
     String delta = Double.toString(convergenceDelta);
     if (log.isInfoEnabled()) {
@@ -143,7 +189,7 @@ public final class KMeansDriver {
       log.info("Iteration {}", iteration);
       // point the output to a new directory per iteration
       Path clustersOut = new Path(output, Cluster.CLUSTERS_DIR + iteration);
-      converged = runIteration(input, clustersIn, clustersOut, measureClass, delta, numReduceTasks);
+      converged = runIteration(input, clustersIn, clustersOut, measureClass, delta, numReduceTasks, numMapperThreads);
       // now point the input to the old output directory
       clustersIn = clustersOut;
       iteration++;
@@ -170,6 +216,8 @@ public final class KMeansDriver {
    *          the convergence delta value
    * @param numReduceTasks
    *          the number of reducer tasks
+   * @param numMapperThreads
+   *          the number of threads each map task assigns points on
    * @return true if the iteration successfully runs
    */
   private static boolean runIteration(Path input,
@@ -177,7 +225,8 @@ public final class KMeansDriver {
                                       Path clustersOut,
                                       String measureClass,
                                       String convergenceDelta,
-                                      int numReduceTasks) throws IOException {
+                                      int numReduceTasks,
+                                      int numMapperThreads) throws IOException {
     JobConf conf = new JobConf(KMeansDriver.class);
     conf.setMapOutputKeyClass(Text.class);
     conf.setMapOutputValueClass(KMeansInfo.class);
@@ -196,6 +245,7 @@ public final class KMeansDriver {
     conf.set(KMeansConfigKeys.CLUSTER_PATH_KEY, clustersIn.toString());
     conf.set(KMeansConfigKeys.DISTANCE_MEASURE_KEY, measureClass);
     conf.set(KMeansConfigKeys.CLUSTER_CONVERGENCE_KEY, convergenceDelta);
+    conf.setInt(KMeansConfigKeys.MAPPER_THREADS_KEY, numMapperThreads);
 
     try {
       JobClient.runJob(conf);
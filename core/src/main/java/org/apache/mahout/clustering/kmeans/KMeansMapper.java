@@ -28,21 +28,141 @@ import org.apache.hadoop.mapred.MapReduceBase;
 import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reporter;
+import org.apache.mahout.clustering.ParallelPointProcessor;
 import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.VectorWritable;
 
+/**
+ * Assigns each point to the nearest cluster, and sums the points of each cluster in memory, so that the
+ * task emits one {@link KMeansInfo} per cluster, in {@link #close()}, rather than one per point. Points may be
+ * assigned on several threads; see {@link KMeansConfigKeys#MAPPER_THREADS_KEY}.
+ */
 public class KMeansMapper extends MapReduceBase implements
     Mapper<WritableComparable<?>,VectorWritable,Text,KMeansInfo> {
   
   private KMeansClusterer clusterer;
   private final List<Cluster> clusters = new ArrayList<Cluster>();
+  private boolean accelerate;
+  private int numThreads = 1;
+  private ParallelPointProcessor<Assigner> assigners;
+  private OutputCollector<Text,KMeansInfo> output;
+  private long reportedDistanceEvaluations;
   
   @Override
   public void map(WritableComparable<?> key,
                   VectorWritable point,
                   OutputCollector<Text,KMeansInfo> output,
                   Reporter reporter) throws IOException {
-    this.clusterer.emitPointToNearestCluster(point.get(), this.clusters, output);
+    this.output = output;
+    assigners.add(point.get());
+    // Includes the distances between the centers, the first time
+    long distanceEvaluations = getDistanceEvaluations();
+    if (distanceEvaluations > reportedDistanceEvaluations) {
+      reporter.incrCounter("Clustering", "Distance Evaluations", distanceEvaluations - reportedDistanceEvaluations);
+      reportedDistanceEvaluations = distanceEvaluations;
+    }
+  }
+  
+  /**
+   * Emits the sums of the points assigned to each cluster.
+   */
+  @Override
+  public void close() throws IOException {
+    if (assigners != null) {
+      assigners.close();
+      if (output != null) {
+        List<Assigner> all = assigners.getProcessors();
+        for (int i = 0; i < clusters.size(); i++) {
+          int count = 0;
+          Vector total = null;
+          for (Assigner assigner : all) {
+            if (assigner.counts[i] > 0) {
+              count += assigner.counts[i];
+              if (total == null) {
+                total = assigner.totals[i];
+              } else {
+                assigner.totals[i].addTo(total);
+              }
+            }
+          }
+          if (count > 0) {
+            output.collect(new Text(clusters.get(i).getIdentifier()), new KMeansInfo(count, total));
+          }
+        }
+      }
+      assigners = null;
+      output = null;
+    }
+    super.close();
+  }
+  
+  private long getDistanceEvaluations() {
+    long distanceEvaluations = 0L;
+    for (Assigner assigner : assigners.getProcessors()) {
+      distanceEvaluations += assigner.getDistanceEvaluations();
+    }
+    return distanceEvaluations;
+  }
+  
+  private void prepareAssigners() {
+    if (assigners != null) {
+      assigners.close();
+    }
+    CenterDistances centers = accelerate ? clusterer.prepareCenters(clusters) : null;
+    if (centers == null) {
+      // Cache the lengths now, rather than in several threads at once
+      for (Cluster cluster : clusters) {
+        cluster.getCenter().getLengthSquared();
+      }
+    }
+    List<Assigner> list = new ArrayList<Assigner>(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      list.add(new Assigner(centers == null ? null : i == 0 ? centers : centers.share()));
+    }
+    assigners = new ParallelPointProcessor<Assigner>(list);
+    output = null;
+    reportedDistanceEvaluations = 0L;
+  }
+  
+  /**
+   * Assigns points to clusters on one thread, and keeps the count and sum of the points of each cluster.
+   */
+  private final class Assigner implements ParallelPointProcessor.PointProcessor {
+    
+    private final CenterDistances centers;
+    private final int[] counts;
+    private final Vector[] totals;
+    private long distanceEvaluations;
+    
+    private Assigner(CenterDistances centers) {
+      this.centers = centers;
+      counts = new int[clusters.size()];
+      totals = new Vector[clusters.size()];
+    }
+    
+    @Override
+    public void process(Vector point) {
+      int nearest;
+      if (centers == null) {
+        nearest = clusterer.nearestCluster(point, clusters);
+        distanceEvaluations += clusters.size();
+      } else {
+        nearest = centers.nearest(point);
+      }
+      if (counts[nearest] == 0) {
+        // Sparse points are summed into a random access copy, where adding is cheap
+        totals[nearest] = point.isDense() ? point.clone() : new RandomAccessSparseVector(point);
+      } else {
+        point.addTo(totals[nearest]);
+      }
+      counts[nearest]++;
+    }
+    
+    long getDistanceEvaluations() {
+      return centers == null ? distanceEvaluations : centers.getDistanceEvaluations();
+    }
   }
   
   /**
@@ -54,6 +174,9 @@ public class KMeansMapper extends MapReduceBase implements
   void config(List<Cluster> clusters) {
     this.clusters.clear();
     this.clusters.addAll(clusters);
+    if (clusterer != null) {
+      prepareAssigners();
+    }
   }
   
   @Override
@@ -66,6 +189,11 @@ public class KMeansMapper extends MapReduceBase implements
       measure.configure(job);
       
       this.clusterer = new KMeansClusterer(measure);
+      this.accelerate = job.getBoolean(KMeansConfigKeys.ACCELERATE_KEY, true);
+      this.numThreads = job.getInt(KMeansConfigKeys.MAPPER_THREADS_KEY, 1);
+      if (numThreads < 1) {
+        throw new IllegalArgumentException("Number of mapper threads must be at least 1: " + numThreads);
+      }
       
       String clusterPath = job.get(KMeansConfigKeys.CLUSTER_PATH_KEY);
       if ((clusterPath != null) && (clusterPath.length() > 0)) {
@@ -73,6 +201,7 @@ public class KMeansMapper extends MapReduceBase implements
         if (clusters.isEmpty()) {
           throw new IllegalStateException("Cluster is empty!");
         }
+        prepareAssigners();
       }
       
     } catch (ClassNotFoundException e) {
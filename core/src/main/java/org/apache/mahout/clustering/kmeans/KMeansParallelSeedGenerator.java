@@ -0,0 +1,421 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.clustering.kmeans;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.mahout.clustering.WeightedVectorWritable;
+import org.apache.mahout.common.HadoopUtil;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.common.distance.SquaredEuclideanDistanceMeasure;
+import org.apache.mahout.math.Vector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses k initial clusters by k-means|| (Bahmani et al., "Scalable K-Means++", VLDB 2012), as an
+ * alternative to {@link RandomSeedGenerator}. Like k-means++, it favors points far from the centers chosen
+ * so far, which spreads the initial clusters over the data, so that k-means needs fewer iterations, each a
+ * pass over the data, than from a random choice. Unlike k-means++, which takes a pass per center, it samples
+ * many candidates per pass.
+ * <p/>
+ * After a pass choosing one point at random, each of a few rounds samples about oversampling * k points,
+ * with probability proportional to their squared distance to the nearest candidate so far. A last pass
+ * counts and sums the points nearest each candidate. The candidates, a few times k, are then reduced to k
+ * centers in memory, by k-means++ weighted by these counts followed by a few weighted k-means iterations.
+ * Each pass is a map-only job of {@link KMeansParallelSeedMapper}s; see there for how a pass samples.
+ * <p/>
+ * The clusters are written to the output path in the same form as by {@link RandomSeedGenerator}, so that
+ * either kind of k-means may start from them.
+ */
+public final class KMeansParallelSeedGenerator {
+
+  private static final Logger log = LoggerFactory.getLogger(KMeansParallelSeedGenerator.class);
+
+  /** Default number of sampling rounds after the first point. */
+  public static final int DEFAULT_ROUNDS = 5;
+
+  /** Default number of points sampled per round, as a multiple of k. */
+  public static final double DEFAULT_OVERSAMPLING = 2.0;
+
+  /** Maximum number of weighted k-means iterations over the candidates. */
+  private static final int MAX_LOCAL_ITERATIONS = 20;
+
+  private KMeansParallelSeedGenerator() {
+  }
+
+  /**
+   * Chooses k initial clusters with {@link #DEFAULT_ROUNDS} rounds of {@link #DEFAULT_OVERSAMPLING} * k points.
+   *
+   * @see #buildSeeds(Path, Path, int, String, int, double)
+   */
+  public static Path buildSeeds(Path input, Path output, int k, String measureClass) throws IOException {
+    return buildSeeds(input, output, k, measureClass, DEFAULT_ROUNDS, DEFAULT_OVERSAMPLING);
+  }
+
+  /**
+   * @param input
+   *          the directory pathname for input points
+   * @param output
+   *          the directory pathname for the initial clusters, which is replaced
+   * @param k
+   *          the number of clusters to choose; fewer are chosen if there are fewer distinct points
+   * @param measureClass
+   *          the classname of the DistanceMeasure
+   * @param rounds
+   *          the number of sampling rounds, each a pass over the input
+   * @param oversampling
+   *          the number of points sampled per round, as a multiple of k
+   * @return the file the clusters were written to
+   */
+  public static Path buildSeeds(Path input,
+                                Path output,
+                                int k,
+                                String measureClass,
+                                int rounds,
+                                double oversampling) throws IOException {
+    if ((k < 1) || (rounds < 0) || (oversampling <= 0.0)) {
+      throw new IllegalArgumentException("Invalid k, rounds or oversampling: " + k + ' ' + rounds + ' '
+          + oversampling);
+    }
+    JobConf conf = new JobConf(KMeansParallelSeedGenerator.class);
+    DistanceMeasure measure = createMeasure(measureClass, conf);
+    FileSystem fs = FileSystem.get(output.toUri(), conf);
+    HadoopUtil.overwriteOutput(output);
+    // the candidates and passes, where readers of the clusters, which read only part files, won't see them
+    Path workPath = new Path(output, "seeding");
+    try {
+      List<Vector> candidates = new ArrayList<Vector>();
+      candidates.addAll(runSamplingPass(input, null, new Path(workPath, "sample-0"), measureClass, 1, conf));
+      int sampleSize = (int) Math.ceil(oversampling * k);
+      for (int round = 1; round <= rounds; round++) {
+        Path candidatesPath = writeCandidates(candidates, new Path(workPath, "candidates-" + round), conf);
+        List<Vector> sampled = runSamplingPass(input, candidatesPath, new Path(workPath, "sample-" + round),
+                                               measureClass, sampleSize, conf);
+        log.info("Round {} sampled {} candidates", round, sampled.size());
+        if (sampled.isEmpty()) {
+          // every point is a candidate
+          break;
+        }
+        candidates.addAll(sampled);
+      }
+
+      Path candidatesPath = writeCandidates(candidates, new Path(workPath, "candidates"), conf);
+      int[] counts = new int[candidates.size()];
+      Vector[] totals = new Vector[candidates.size()];
+      runCountingPass(input, candidatesPath, new Path(workPath, "counts"), measureClass, counts, totals, conf);
+
+      List<Vector> seeds = reduceCandidates(counts, totals, k, measure, RandomUtils.getRandom());
+      if (seeds.size() < k) {
+        log.warn("Only {} distinct points for {} clusters", seeds.size(), k);
+      }
+      return writeSeeds(seeds, new Path(output, "part-parallelSeed"), conf);
+    } finally {
+      fs.delete(workPath, true);
+    }
+  }
+
+  private static DistanceMeasure createMeasure(String measureClass, JobConf conf) {
+    try {
+      ClassLoader ccl = Thread.currentThread().getContextClassLoader();
+      Class<?> cl = ccl.loadClass(measureClass);
+      DistanceMeasure measure = (DistanceMeasure) cl.newInstance();
+      measure.configure(conf);
+      return measure;
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException(e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch (InstantiationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static Path writeCandidates(List<Vector> candidates, Path path, JobConf conf) throws IOException {
+    FileSystem fs = FileSystem.get(path.toUri(), conf);
+    SequenceFile.Writer writer =
+        new SequenceFile.Writer(fs, conf, new Path(path, "part-00000"), Text.class, Cluster.class);
+    try {
+      for (int i = 0; i < candidates.size(); i++) {
+        Cluster cluster = new Cluster(candidates.get(i), i);
+        writer.append(new Text(cluster.getIdentifier()), cluster);
+      }
+    } finally {
+      writer.close();
+    }
+    return path;
+  }
+
+  private static void runPass(Path input,
+                              Path candidatesPath,
+                              Path passOutput,
+                              String measureClass,
+                              int sampleSize) throws IOException {
+    JobConf conf = new JobConf(KMeansParallelSeedGenerator.class);
+    conf.setOutputKeyClass(IntWritable.class);
+    conf.setOutputValueClass(WeightedVectorWritable.class);
+
+    FileInputFormat.setInputPaths(conf, input);
+    FileOutputFormat.setOutputPath(conf, passOutput);
+    conf.setInputFormat(SequenceFileInputFormat.class);
+    conf.setOutputFormat(SequenceFileOutputFormat.class);
+    conf.setMapperClass(KMeansParallelSeedMapper.class);
+    conf.setNumReduceTasks(0);
+    if (candidatesPath != null) {
+      conf.set(KMeansConfigKeys.CLUSTER_PATH_KEY, candidatesPath.toString());
+    }
+    conf.set(KMeansConfigKeys.DISTANCE_MEASURE_KEY, measureClass);
+    conf.setInt(KMeansConfigKeys.SEED_SAMPLE_SIZE_KEY, sampleSize);
+
+    JobClient.runJob(conf);
+  }
+
+  /**
+   * @return the points with the largest sampling keys of all map tasks
+   */
+  private static List<Vector> runSamplingPass(Path input,
+                                              Path candidatesPath,
+                                              Path passOutput,
+                                              String measureClass,
+                                              int sampleSize,
+                                              JobConf conf) throws IOException {
+    runPass(input, candidatesPath, passOutput, measureClass, sampleSize);
+    List<WeightedVectorWritable> samples = readPass(passOutput, null, conf);
+    Collections.sort(samples, new Comparator<WeightedVectorWritable>() {
+      @Override
+      public int compare(WeightedVectorWritable a, WeightedVectorWritable b) {
+        return Double.compare(b.getWeight(), a.getWeight());
+      }
+    });
+    List<Vector> sampled = new ArrayList<Vector>(Math.min(sampleSize, samples.size()));
+    for (WeightedVectorWritable sample : samples.subList(0, Math.min(sampleSize, samples.size()))) {
+      sampled.add(sample.getVector().get());
+    }
+    return sampled;
+  }
+
+  /**
+   * Adds up the number and sum of the points nearest each candidate, over all map tasks.
+   */
+  private static void runCountingPass(Path input,
+                                      Path candidatesPath,
+                                      Path passOutput,
+                                      String measureClass,
+                                      int[] counts,
+                                      Vector[] totals,
+                                      JobConf conf) throws IOException {
+    runPass(input, candidatesPath, passOutput, measureClass, 0);
+    List<Integer> indexes = new ArrayList<Integer>();
+    List<WeightedVectorWritable> values = readPass(passOutput, indexes, conf);
+    for (int i = 0; i < values.size(); i++) {
+      int index = indexes.get(i);
+      Vector total = values.get(i).getVector().get();
+      counts[index] += (int) values.get(i).getWeight();
+      totals[index] = totals[index] == null ? total : totals[index].plus(total);
+    }
+  }
+
+  private static List<WeightedVectorWritable> readPass(Path passOutput, List<Integer> keys, JobConf conf)
+    throws IOException {
+    FileSystem fs = FileSystem.get(passOutput.toUri(), conf);
+    List<WeightedVectorWritable> values = new ArrayList<WeightedVectorWritable>();
+    for (FileStatus part : fs.listStatus(passOutput)) {
+      if (!part.getPath().getName().startsWith("part")) {
+        continue;
+      }
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, part.getPath(), conf);
+      try {
+        IntWritable key = new IntWritable();
+        WeightedVectorWritable value = new WeightedVectorWritable();
+        while (reader.next(key, value)) {
+          if (keys != null) {
+            keys.add(key.get());
+          }
+          values.add(value);
+          value = new WeightedVectorWritable();
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Chooses k of the candidates by k-means++, with each candidate standing for the points nearest it, and
+   * moves them by weighted k-means iterations over the candidates.
+   *
+   * @param counts
+   *          the number of points nearest each candidate
+   * @param totals
+   *          the sum of the points nearest each candidate, or null if there are none
+   * @return the centers, or all candidates with points if there are no more than k
+   */
+  static List<Vector> reduceCandidates(int[] counts,
+                                       Vector[] totals,
+                                       int k,
+                                       DistanceMeasure measure,
+                                       Random random) {
+    // each candidate is replaced by the mean of its points
+    List<Vector> points = new ArrayList<Vector>();
+    List<Integer> weights = new ArrayList<Integer>();
+    List<Vector> pointTotals = new ArrayList<Vector>();
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] > 0) {
+        points.add(totals[i].divide(counts[i]));
+        weights.add(counts[i]);
+        pointTotals.add(totals[i]);
+      }
+    }
+    if (points.size() <= k) {
+      return points;
+    }
+
+    // k-means++: each next center is a point chosen with probability proportional to its weight times its
+    // squared distance to the nearest center so far
+    List<Vector> centers = new ArrayList<Vector>(k);
+    double[] costs = null;
+    while (centers.size() < k) {
+      int chosen = choose(weights, costs, random);
+      if (chosen < 0) {
+        // the remaining points coincide with centers
+        break;
+      }
+      Vector center = points.get(chosen);
+      centers.add(center);
+      if (costs == null) {
+        costs = new double[points.size()];
+        Arrays.fill(costs, Double.POSITIVE_INFINITY);
+      }
+      for (int i = 0; i < costs.length; i++) {
+        costs[i] = Math.min(costs[i], cost(measure, center, points.get(i)));
+      }
+    }
+
+    // weighted k-means over the candidates, each of which moves its center by the sum of its points
+    int[] assignments = new int[points.size()];
+    Arrays.fill(assignments, -1);
+    KMeansClusterer clusterer = new KMeansClusterer(measure);
+    List<Cluster> clusters = new ArrayList<Cluster>(centers.size());
+    for (int iteration = 0; iteration < MAX_LOCAL_ITERATIONS; iteration++) {
+      clusters.clear();
+      for (int c = 0; c < centers.size(); c++) {
+        clusters.add(new Cluster(centers.get(c), c));
+      }
+      boolean changed = false;
+      for (int i = 0; i < points.size(); i++) {
+        int nearest = clusterer.nearestCluster(points.get(i), clusters);
+        if (nearest != assignments[i]) {
+          assignments[i] = nearest;
+          changed = true;
+        }
+      }
+      if (!changed) {
+        break;
+      }
+      int[] centerCounts = new int[centers.size()];
+      Vector[] centerTotals = new Vector[centers.size()];
+      for (int i = 0; i < points.size(); i++) {
+        int c = assignments[i];
+        centerCounts[c] += weights.get(i);
+        centerTotals[c] = centerTotals[c] == null ? pointTotals.get(i) : centerTotals[c].plus(pointTotals.get(i));
+      }
+      for (int c = 0; c < centers.size(); c++) {
+        if (centerCounts[c] > 0) {
+          centers.set(c, centerTotals[c].divide(centerCounts[c]));
+        }
+      }
+    }
+    return centers;
+  }
+
+  /**
+   * @param costs
+   *          the squared distance of each point to the nearest center, or null to choose by weight alone
+   * @return index of a point chosen with probability proportional to its weight times its cost, or -1 if all
+   *  costs are 0
+   */
+  private static int choose(List<Integer> weights, double[] costs, Random random) {
+    double sum = 0.0;
+    for (int i = 0; i < weights.size(); i++) {
+      sum += weights.get(i) * (costs == null ? 1.0 : costs[i]);
+    }
+    if (sum <= 0.0) {
+      return -1;
+    }
+    double threshold = random.nextDouble() * sum;
+    double cumulative = 0.0;
+    int last = -1;
+    for (int i = 0; i < weights.size(); i++) {
+      double share = weights.get(i) * (costs == null ? 1.0 : costs[i]);
+      if (share > 0.0) {
+        cumulative += share;
+        last = i;
+        if (cumulative > threshold) {
+          return i;
+        }
+      }
+    }
+    // rounding left the threshold beyond the sum
+    return last;
+  }
+
+  /**
+   * @return the squared distance, which for squared Euclidean distance is the distance itself
+   */
+  private static double cost(DistanceMeasure measure, Vector center, Vector point) {
+    double distance = measure.distance(center, point);
+    return measure.getClass() == SquaredEuclideanDistanceMeasure.class ? distance : distance * distance;
+  }
+
+  private static Path writeSeeds(List<Vector> seeds, Path path, JobConf conf) throws IOException {
+    FileSystem fs = FileSystem.get(path.toUri(), conf);
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, path, Text.class, Cluster.class);
+    try {
+      for (int i = 0; i < seeds.size(); i++) {
+        Cluster cluster = new Cluster(seeds.get(i), i);
+        cluster.addPoint(cluster.getCenter());
+        writer.append(new Text(cluster.getIdentifier()), cluster);
+      }
+    } finally {
+      writer.close();
+    }
+    log.info("Wrote {} vectors to {}", seeds.size(), path);
+    return path;
+  }
+
+}
@@ -0,0 +1,202 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.clustering.kmeans;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.mahout.clustering.WeightedVectorWritable;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+
+/**
+ * One pass of {@link KMeansParallelSeedGenerator} over the input. Each point is weighted by its squared
+ * distance to the nearest of the candidate centers chosen so far, or by 1 if there are none yet.
+ * <p/>
+ * When sampling, the task keeps the points with the largest keys log(u)/w, for u uniform in (0,1) and w the
+ * point's weight, which is a sample drawn with probability proportional to weight, without replacement
+ * (Efraimidis and Spirakis, "Weighted random sampling with a reservoir", 2006). The top keys of all tasks are
+ * then the top keys of the whole input, so that a sample of the whole input takes one pass, without first
+ * summing the weights. Each sampled point is emitted in {@link #close()} with key 0 and its sampling key as
+ * weight.
+ * <p/>
+ * When counting, the task emits for each candidate its index, and the number and sum of the points nearest
+ * to it as weight and vector.
+ */
+public class KMeansParallelSeedMapper extends MapReduceBase implements
+    Mapper<WritableComparable<?>,VectorWritable,IntWritable,WeightedVectorWritable> {
+
+  private final List<Cluster> candidates = new ArrayList<Cluster>();
+  private DistanceMeasure measure;
+  private KMeansClusterer clusterer;
+  private CenterDistances centers;
+  private final double[] bounds = new double[2];
+  private int sampleSize;
+  private PriorityQueue<Sample> samples;
+  private Random random;
+  private int[] counts;
+  private Vector[] totals;
+  private OutputCollector<IntWritable,WeightedVectorWritable> output;
+
+  @Override
+  public void map(WritableComparable<?> key,
+                  VectorWritable value,
+                  OutputCollector<IntWritable,WeightedVectorWritable> output,
+                  Reporter reporter) throws IOException {
+    this.output = output;
+    Vector point = value.get();
+    if (candidates.isEmpty()) {
+      sample(point, 1.0);
+      return;
+    }
+    int nearest = centers == null ? clusterer.nearestCluster(point, candidates) : centers.nearest(point, bounds);
+    if (sampleSize > 0) {
+      double distance;
+      if (centers == null) {
+        Vector center = candidates.get(nearest).getCenter();
+        distance = measure.distance(center.getLengthSquared(), center, point);
+      } else {
+        // Euclidean distance, even for squared Euclidean distance, as the weight is its square
+        distance = bounds[0];
+      }
+      sample(point, distance * distance);
+    } else {
+      if (counts[nearest] == 0) {
+        totals[nearest] = point.isDense() ? point.clone() : new RandomAccessSparseVector(point);
+      } else {
+        point.addTo(totals[nearest]);
+      }
+      counts[nearest]++;
+    }
+  }
+
+  private void sample(Vector point, double weight) {
+    if (weight <= 0.0) {
+      // Points which are candidates already
+      return;
+    }
+    // log(u)/w orders points as u^(1/w) does, without underflowing for large weights
+    double sampleKey = Math.log(1.0 - random.nextDouble()) / weight;
+    if (samples.size() < sampleSize) {
+      samples.add(new Sample(sampleKey, point));
+    } else if (sampleKey > samples.peek().key) {
+      samples.poll();
+      samples.add(new Sample(sampleKey, point));
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (output != null) {
+      if (sampleSize > 0) {
+        for (Sample sample : samples) {
+          output.collect(new IntWritable(0),
+                         new WeightedVectorWritable(sample.key, new VectorWritable(sample.point)));
+        }
+      } else {
+        for (int i = 0; i < counts.length; i++) {
+          if (counts[i] > 0) {
+            output.collect(new IntWritable(i),
+                           new WeightedVectorWritable(counts[i], new VectorWritable(totals[i])));
+          }
+        }
+      }
+      output = null;
+    }
+    super.close();
+  }
+
+  /**
+   * Configure the mapper by providing the candidates chosen so far. Used by unit tests.
+   */
+  void config(List<Cluster> candidates) {
+    this.candidates.clear();
+    this.candidates.addAll(candidates);
+    prepare();
+  }
+
+  private void prepare() {
+    centers = candidates.isEmpty() ? null : clusterer.prepareCenters(candidates);
+    samples = new PriorityQueue<Sample>(Math.max(1, sampleSize), new Comparator<Sample>() {
+      @Override
+      public int compare(Sample a, Sample b) {
+        return Double.compare(a.key, b.key);
+      }
+    });
+    counts = new int[candidates.size()];
+    totals = new Vector[candidates.size()];
+    output = null;
+  }
+
+  @Override
+  public void configure(JobConf job) {
+    super.configure(job);
+    try {
+      ClassLoader ccl = Thread.currentThread().getContextClassLoader();
+      Class<?> cl = ccl.loadClass(job.get(KMeansConfigKeys.DISTANCE_MEASURE_KEY));
+      measure = (DistanceMeasure) cl.newInstance();
+      measure.configure(job);
+
+      clusterer = new KMeansClusterer(measure);
+      sampleSize = job.getInt(KMeansConfigKeys.SEED_SAMPLE_SIZE_KEY, 0);
+      random = RandomUtils.getRandom();
+
+      String candidatePath = job.get(KMeansConfigKeys.CLUSTER_PATH_KEY);
+      if ((candidatePath != null) && (candidatePath.length() > 0)) {
+        KMeansUtil.configureWithClusterInfo(new Path(candidatePath), candidates);
+      }
+      if ((sampleSize == 0) && candidates.isEmpty()) {
+        throw new IllegalStateException("No candidates to count points for");
+      }
+      prepare();
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException(e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch (InstantiationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static final class Sample {
+
+    private final double key;
+    private final Vector point;
+
+    private Sample(double key, Vector point) {
+      this.key = key;
+      this.point = point;
+    }
+  }
+
+}
@@ -0,0 +1,382 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.clustering.kmeans;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.mahout.clustering.WeightedVectorWritable;
+import org.apache.mahout.common.HadoopUtil;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs k-means on one machine, for input which fits in memory. Unlike {@link KMeansDriver}, which runs a job
+ * per iteration that reads the input and the clusters again each time, this reads the input once and runs all
+ * iterations on a pool of threads, each of which assigns its own share of the points and sums them per
+ * cluster. It writes the same clusters-N and clusteredPoints output as {@link KMeansDriver}, so either can be
+ * used depending on the size of the input.
+ * <p/>
+ * All points are held on the heap at once, as the {@link Vector}s read from the input. Each has the overhead
+ * of its objects as well as its values: a dense point takes 8 bytes per dimension plus about 60, and a sparse
+ * one about 30 bytes per non-zero value, so for points of few dimensions the heap needed is several
+ * times the size of the input on disk. A warning is logged if the input is larger than half the maximum heap
+ * size; input that doesn't fit should be clustered with {@link KMeansDriver} instead.
+ * <p/>
+ * For Euclidean distance measures, each thread also keeps its points' distance bounds from one iteration to
+ * the next, as {@link KMeansClusterer#clusterPoints(List, List, DistanceMeasure, int, double)} does, so that
+ * most points are compared to no center at all once the clusters settle.
+ */
+public final class LocalKMeansDriver {
+
+  private static final Logger log = LoggerFactory.getLogger(LocalKMeansDriver.class);
+
+  private LocalKMeansDriver() {
+  }
+
+  /**
+   * Run the job using supplied arguments
+   *
+   * @param input
+   *          the directory pathname for input points
+   * @param clustersIn
+   *          the directory pathname for initial clusters
+   * @param output
+   *          the directory pathname for computed clusters and output points
+   * @param measureClass
+   *          the classname of the DistanceMeasure
+   * @param convergenceDelta
+   *          the convergence delta value
+   * @param maxIterations
+   *          the maximum number of iterations
+   * @param runClustering
+   *          true if points are to be clustered after iterations are completed
+   * @param numThreads
+   *          the number of threads to assign points on
+   */
+  public static void runJob(Path input, Path clustersIn, Path output, String measureClass, double convergenceDelta,
+      int maxIterations, boolean runClustering, int numThreads) throws IOException {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("Number of threads must be at least 1: " + numThreads);
+    }
+    if (log.isInfoEnabled()) {
+      log.info("Input: {} Clusters In: {} Out: {} Distance: {}",
+               new Object[] {input, clustersIn, output, measureClass});
+      log.info("convergence: {} max Iterations: {} num Threads: {}",
+               new Object[] {convergenceDelta, maxIterations, numThreads});
+    }
+    JobConf conf = new JobConf(LocalKMeansDriver.class);
+    DistanceMeasure measure = createMeasure(measureClass, conf);
+    KMeansClusterer clusterer = new KMeansClusterer(measure);
+
+    List<Vector> points = readPoints(input, conf);
+    List<Cluster> clusters = new ArrayList<Cluster>();
+    KMeansUtil.configureWithClusterInfo(clustersIn, clusters);
+    if (clusters.isEmpty()) {
+      throw new IllegalStateException("Cluster is empty!");
+    }
+
+    boolean accelerate = CenterDistances.isSupported(measure);
+    List<Assigner> assigners = new ArrayList<Assigner>(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      List<Vector> share = points.subList(i * points.size() / numThreads, (i + 1) * points.size() / numThreads);
+      assigners.add(new Assigner(clusterer, share, accelerate));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      boolean converged = false;
+      int iteration = 1;
+      while (!converged && (iteration <= maxIterations)) {
+        log.info("Iteration {}", iteration);
+        assign(clusters, assigners, executor, clusterer, true);
+        // as KMeansReducer does: clusters which got no points are dropped
+        List<Cluster> updated = new ArrayList<Cluster>(clusters.size());
+        converged = true;
+        for (int c = 0; c < clusters.size(); c++) {
+          int count = 0;
+          Vector total = null;
+          for (Assigner assigner : assigners) {
+            if (assigner.counts[c] > 0) {
+              count += assigner.counts[c];
+              if (total == null) {
+                total = assigner.totals[c];
+              } else {
+                assigner.totals[c].addTo(total);
+              }
+            }
+          }
+          if (count > 0) {
+            Cluster cluster = clusters.get(c);
+            cluster.addPoints(count, total);
+            if (!cluster.computeConvergence(measure, convergenceDelta)) {
+              converged = false;
+            }
+            updated.add(cluster);
+          }
+        }
+        writeClusters(updated, new Path(output, Cluster.CLUSTERS_DIR + iteration), conf);
+
+        // the next iteration starts from the centroids, as if it had read back the clusters just written
+        List<Cluster> next = new ArrayList<Cluster>(updated.size());
+        for (Cluster cluster : updated) {
+          next.add(new Cluster(cluster.computeCentroid(), cluster.getId()));
+        }
+        if (next.size() < clusters.size()) {
+          // the points' bounds refer to clusters by index
+          for (Assigner assigner : assigners) {
+            assigner.resetBounds();
+          }
+        }
+        clusters = next;
+        iteration++;
+      }
+      if (runClustering) {
+        log.info("Clustering ");
+        assign(clusters, assigners, executor, clusterer, false);
+        writeClusteredPoints(clusters, assigners, new Path(output, Cluster.CLUSTERED_POINTS_DIR), conf);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  static DistanceMeasure createMeasure(String measureClass, JobConf conf) {
+    try {
+      ClassLoader ccl = Thread.currentThread().getContextClassLoader();
+      Class<?> cl = ccl.loadClass(measureClass);
+      DistanceMeasure measure = (DistanceMeasure) cl.newInstance();
+      measure.configure(conf);
+      return measure;
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException(e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch (InstantiationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Reads the vectors of all the files that a job with this input would read, warning first if they look too
+   * big to hold in memory.
+   */
+  private static List<Vector> readPoints(Path input, JobConf conf) throws IOException {
+    FileSystem fs = FileSystem.get(input.toUri(), conf);
+    FileStatus[] inputFiles = fs.getFileStatus(input).isDir()
+        ? fs.globStatus(new Path(input, "*"))
+        : new FileStatus[] {fs.getFileStatus(input)};
+    List<FileStatus> pointFiles = new ArrayList<FileStatus>(inputFiles.length);
+    long inputSize = 0L;
+    for (FileStatus fileStatus : inputFiles) {
+      String name = fileStatus.getPath().getName();
+      if (!fileStatus.isDir() && !name.startsWith("_") && !name.startsWith(".")) {
+        pointFiles.add(fileStatus);
+        inputSize += fileStatus.getLen();
+      }
+    }
+    long maxMemory = Runtime.getRuntime().maxMemory();
+    if (inputSize > maxMemory / 2) {
+      log.warn("Input of {} bytes may not fit in a heap of at most {} bytes; consider clustering without --local",
+               inputSize, maxMemory);
+    }
+    List<Vector> points = new ArrayList<Vector>();
+    for (FileStatus fileStatus : pointFiles) {
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, fileStatus.getPath(), conf);
+      try {
+        Writable key = (Writable) reader.getKeyClass().newInstance();
+        VectorWritable value = new VectorWritable();
+        // each value read is a new vector, so the writable can be reused
+        while (reader.next(key, value)) {
+          points.add(value.get());
+        }
+      } catch (InstantiationException e) {
+        throw new IllegalStateException(e);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      } finally {
+        reader.close();
+      }
+    }
+    log.info("Read {} points", points.size());
+    return points;
+  }
+
+  /**
+   * Assigns every point to its nearest cluster, each thread assigning its own share.
+   */
+  private static void assign(List<Cluster> clusters,
+                             List<Assigner> assigners,
+                             ExecutorService executor,
+                             KMeansClusterer clusterer,
+                             boolean sum) {
+    CenterDistances centers = clusterer.prepareCenters(clusters);
+    if (centers == null) {
+      // Cache the lengths now, rather than in several threads at once
+      for (Cluster cluster : clusters) {
+        cluster.getCenter().getLengthSquared();
+      }
+    }
+    for (int i = 0; i < assigners.size(); i++) {
+      assigners.get(i).prepare(clusters, centers == null ? null : i == 0 ? centers : centers.share(), sum);
+    }
+    try {
+      for (Future<Object> future : executor.invokeAll(assigners)) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      throw new IllegalStateException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+    long distanceEvaluations = 0L;
+    for (Assigner assigner : assigners) {
+      distanceEvaluations += assigner.getDistanceEvaluations();
+    }
+    log.info("{} distance evaluations for {} clusters", distanceEvaluations, clusters.size());
+  }
+
+  static void writeClusters(List<Cluster> clusters, Path clustersOut, JobConf conf) throws IOException {
+    HadoopUtil.overwriteOutput(clustersOut);
+    FileSystem fs = FileSystem.get(clustersOut.toUri(), conf);
+    SequenceFile.Writer writer =
+        new SequenceFile.Writer(fs, conf, new Path(clustersOut, "part-00000"), Text.class, Cluster.class);
+    try {
+      for (Cluster cluster : clusters) {
+        writer.append(new Text(cluster.getIdentifier()), cluster);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static void writeClusteredPoints(List<Cluster> clusters,
+                                           List<Assigner> assigners,
+                                           Path output,
+                                           JobConf conf) throws IOException {
+    HadoopUtil.overwriteOutput(output);
+    FileSystem fs = FileSystem.get(output.toUri(), conf);
+    SequenceFile.Writer writer = new SequenceFile.Writer(fs, conf, new Path(output, "part-00000"),
+        IntWritable.class, WeightedVectorWritable.class);
+    try {
+      for (Assigner assigner : assigners) {
+        for (int i = 0; i < assigner.points.size(); i++) {
+          Cluster cluster = clusters.get(assigner.assignments[i]);
+          writer.append(new IntWritable(cluster.getId()),
+                        new WeightedVectorWritable(1, new VectorWritable(assigner.points.get(i))));
+        }
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Assigns one share of the points on one thread, and keeps the count and sum of the points of each cluster,
+   * and the distance bounds of each point.
+   */
+  private static final class Assigner implements Callable<Object> {
+
+    private final KMeansClusterer clusterer;
+    private final List<Vector> points;
+    private final int[] assignments;
+    private final AssignmentBounds bounds;
+    private List<Cluster> clusters;
+    private CenterDistances centers;
+    private boolean sum;
+    private int[] counts;
+    private Vector[] totals;
+    private long distanceEvaluations;
+
+    private Assigner(KMeansClusterer clusterer, List<Vector> points, boolean accelerate) {
+      this.clusterer = clusterer;
+      this.points = points;
+      assignments = new int[points.size()];
+      bounds = accelerate ? new AssignmentBounds(points.size()) : null;
+    }
+
+    private void prepare(List<Cluster> clusters, CenterDistances centers, boolean sum) {
+      this.clusters = clusters;
+      this.centers = centers;
+      this.sum = sum;
+      counts = new int[clusters.size()];
+      totals = new Vector[clusters.size()];
+      distanceEvaluations = 0L;
+    }
+
+    private void resetBounds() {
+      if (bounds != null) {
+        bounds.reset();
+      }
+    }
+
+    @Override
+    public Object call() {
+      if (centers != null) {
+        bounds.moveCenters(centers);
+      }
+      for (int i = 0; i < points.size(); i++) {
+        Vector point = points.get(i);
+        int nearest;
+        if (centers == null) {
+          nearest = clusterer.nearestCluster(point, clusters);
+          distanceEvaluations += clusters.size();
+        } else {
+          nearest = bounds.assign(i, point, centers);
+        }
+        assignments[i] = nearest;
+        if (sum) {
+          if (counts[nearest] == 0) {
+            // Sparse points are summed into a random access copy, where adding is cheap
+            totals[nearest] = point.isDense() ? point.clone() : new RandomAccessSparseVector(point);
+          } else {
+            point.addTo(totals[nearest]);
+          }
+          counts[nearest]++;
+        }
+      }
+      return null;
+    }
+
+    private long getDistanceEvaluations() {
+      return centers == null ? distanceEvaluations : centers.getDistanceEvaluations();
+    }
+  }
+
+}
@@ -0,0 +1,271 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.clustering.kmeans;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.function.Functions;
+
+/**
+ * Mini-batch k-means over a stream of points (Sculley, "Web-scale k-means clustering", 2010). Points are
+ * assigned a small batch at a time to the nearest of the current centers, and then each center is moved
+ * towards each of its points in turn by a learning rate of its own: one over the number of points it has been
+ * given so far, so that a center is the mean of all of its points, as in k-means, but each point is looked at
+ * only once. The centers settle long before a full pass over a large input, and the stream need not end.
+ * <p/>
+ * A minimum learning rate keeps the centers following data which drifts, by weighting recent points more than
+ * a true mean would, once the centers have seen more than its reciprocal number of points.
+ * <p/>
+ * Batches should be random samples of the stream, but streams are often in some order, by time or by source.
+ * Points are therefore first held in a buffer of several batches; each new point takes the place of a random
+ * one in the buffer, which goes into the batch instead.
+ * <p/>
+ * Instances are not thread-safe.
+ */
+public class MiniBatchKMeansClusterer {
+
+  private final List<Cluster> clusters;
+  private final long[] counts;
+  private final Vector[] checkpointCenters;
+  private final KMeansClusterer clusterer;
+  private final DistanceMeasure measure;
+  private final int batchSize;
+  private final int bufferSize;
+  private final double minLearningRate;
+  private final Random random;
+  private final List<Vector> buffer;
+  private final List<Vector> batch;
+  private long numPoints;
+  private long numBatches;
+
+  /**
+   * @param initialClusters
+   *          the initial clusters, whose centers are copied
+   * @param measure
+   *          the DistanceMeasure to use
+   * @param batchSize
+   *          the number of points assigned to the same centers before these are moved
+   * @param bufferSize
+   *          the number of points to shuffle the stream in, or 0 if it is in random order already
+   * @param minLearningRate
+   *          the least weight of a point in its center's move towards it, or 0 for the mean of all points
+   * @param random
+   *          the source of randomness to shuffle the stream with
+   */
+  public MiniBatchKMeansClusterer(List<Cluster> initialClusters,
+                                  DistanceMeasure measure,
+                                  int batchSize,
+                                  int bufferSize,
+                                  double minLearningRate,
+                                  Random random) {
+    if (initialClusters.isEmpty()) {
+      throw new IllegalArgumentException("No initial clusters");
+    }
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1: " + batchSize);
+    }
+    if (bufferSize < 0) {
+      throw new IllegalArgumentException("Buffer size must not be negative: " + bufferSize);
+    }
+    if ((minLearningRate < 0.0) || (minLearningRate > 1.0)) {
+      throw new IllegalArgumentException("Minimum learning rate must be in [0,1]: " + minLearningRate);
+    }
+    int k = initialClusters.size();
+    clusters = new ArrayList<Cluster>(k);
+    checkpointCenters = new Vector[k];
+    for (Cluster initial : initialClusters) {
+      Cluster cluster = new Cluster(initial.getCenter(), initial.getId());
+      checkpointCenters[clusters.size()] = cluster.getCenter().clone();
+      clusters.add(cluster);
+    }
+    counts = new long[k];
+    this.clusterer = new KMeansClusterer(measure);
+    this.measure = measure;
+    this.batchSize = batchSize;
+    this.bufferSize = bufferSize;
+    this.minLearningRate = minLearningRate;
+    this.random = random;
+    buffer = new ArrayList<Vector>(bufferSize);
+    batch = new ArrayList<Vector>(batchSize);
+  }
+
+  /**
+   * Adds a point of the stream. The centers move each time a batch is full.
+   *
+   * @param point
+   *          a point, which must not be changed afterwards, as it may be kept until a later batch
+   */
+  public void add(Vector point) {
+    numPoints++;
+    if (buffer.size() < bufferSize) {
+      buffer.add(point);
+      return;
+    }
+    Vector next = point;
+    if (bufferSize > 0) {
+      int slot = random.nextInt(bufferSize);
+      next = buffer.get(slot);
+      buffer.set(slot, point);
+    }
+    batch.add(next);
+    if (batch.size() == batchSize) {
+      updateCenters();
+    }
+  }
+
+  /**
+   * Moves the centers towards all points added so far, also those buffered or in a batch which is not full yet,
+   * as at the end of a stream.
+   */
+  public void flush() {
+    Collections.shuffle(buffer, random);
+    for (Vector point : buffer) {
+      batch.add(point);
+      if (batch.size() == batchSize) {
+        updateCenters();
+      }
+    }
+    buffer.clear();
+    if (!batch.isEmpty()) {
+      updateCenters();
+    }
+  }
+
+  /**
+   * Assigns all points of the batch to the centers as they were before the batch, then moves each center
+   * towards its points, in the order in which they were assigned.
+   */
+  private void updateCenters() {
+    int k = clusters.size();
+    List<List<Vector>> assigned = new ArrayList<List<Vector>>(k);
+    for (int c = 0; c < k; c++) {
+      assigned.add(new ArrayList<Vector>());
+    }
+    CenterDistances centers = clusterer.prepareCenters(clusters);
+    for (Vector point : batch) {
+      int nearest = centers == null ? clusterer.nearestCluster(point, clusters) : centers.nearest(point);
+      assigned.get(nearest).add(point);
+    }
+    batch.clear();
+
+    for (int c = 0; c < k; c++) {
+      List<Vector> points = assigned.get(c);
+      int m = points.size();
+      if (m == 0) {
+        continue;
+      }
+      // Each step c <- (1 - rate) c + rate x leaves c scaled by the product of all later (1 - rate), and x
+      // weighted by its rate and the same product, so the center is scaled once and only points' non-zero
+      // elements are added, rather than scaling the whole center once per point
+      double[] weights = new double[m];
+      double scale = 1.0;
+      for (int i = 0; i < m; i++) {
+        counts[c]++;
+        weights[i] = Math.max(1.0 / counts[c], minLearningRate);
+      }
+      for (int i = m - 1; i >= 0; i--) {
+        double rate = weights[i];
+        weights[i] = rate * scale;
+        scale *= 1.0 - rate;
+      }
+      Cluster cluster = clusters.get(c);
+      Vector center = cluster.getCenter();
+      if (!center.isDense() && points.get(0).isDense()) {
+        // the mean of dense points is dense, and adding to a dense center is cheaper
+        center = new DenseVector(center);
+        cluster.setCenter(center);
+      }
+      if (scale == 0.0) {
+        // a first point replaces the initial center altogether
+        center = center.like();
+        cluster.setCenter(center);
+      } else {
+        center.assign(Functions.mult, scale);
+      }
+      for (int i = 0; i < m; i++) {
+        Iterator<Vector.Element> it = points.get(i).iterateNonZero();
+        while (it.hasNext()) {
+          Vector.Element e = it.next();
+          int index = e.index();
+          center.setQuick(index, center.getQuick(index) + weights[i] * e.get());
+        }
+      }
+    }
+    numBatches++;
+  }
+
+  /**
+   * Returns the clusters as of now, which {@link KMeansDriver} would write, and makes this the checkpoint
+   * which the next one is compared to. Each is converged if its center has moved no more than the
+   * convergence delta since the last checkpoint, or since the initial clusters for the first one.
+   *
+   * @param convergenceDelta
+   *          the convergence delta value
+   * @return new clusters, whose centers are copies of the current centers
+   */
+  public List<Cluster> checkpoint(double convergenceDelta) {
+    List<Cluster> result = new ArrayList<Cluster>(clusters.size());
+    for (int c = 0; c < clusters.size(); c++) {
+      Cluster current = clusters.get(c);
+      // written out, the cluster's center is its centroid, which is the current center
+      Cluster cluster = new Cluster(checkpointCenters[c], current.getId());
+      cluster.addPoint(current.getCenter());
+      cluster.computeConvergence(measure, convergenceDelta);
+      result.add(cluster);
+      checkpointCenters[c] = new RandomAccessSparseVector(current.getCenter());
+    }
+    return result;
+  }
+
+  /**
+   * @return the current clusters, whose centers change as points are added
+   */
+  public List<Cluster> getClusters() {
+    return clusters;
+  }
+
+  /**
+   * @return the number of points each center has moved towards so far
+   */
+  public long[] getCounts() {
+    return counts;
+  }
+
+  /**
+   * @return the number of points added so far
+   */
+  public long getNumPoints() {
+    return numPoints;
+  }
+
+  /**
+   * @return the number of batches the centers have moved by so far
+   */
+  public long getNumBatches() {
+    return numBatches;
+  }
+
+}
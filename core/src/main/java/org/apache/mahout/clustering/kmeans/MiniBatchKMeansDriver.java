@@ -0,0 +1,362 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.clustering.kmeans;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.cli2.CommandLine;
+import org.apache.commons.cli2.Group;
+import org.apache.commons.cli2.Option;
+import org.apache.commons.cli2.OptionException;
+import org.apache.commons.cli2.builder.ArgumentBuilder;
+import org.apache.commons.cli2.builder.DefaultOptionBuilder;
+import org.apache.commons.cli2.builder.GroupBuilder;
+import org.apache.commons.cli2.commandline.Parser;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.mahout.common.CommandLineUtil;
+import org.apache.mahout.common.HadoopUtil;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.common.commandline.DefaultOptionCreator;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.math.VectorWritable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs {@link MiniBatchKMeansClusterer} on one machine over the points of the input files, read one at a time
+ * rather than all into memory. Every so many batches the clusters are written to clusters-N, as
+ * {@link KMeansDriver} writes them after iteration N, so that the latest clusters can be used to cluster
+ * points, or to seed a later run, while this runs.
+ * <p/>
+ * If the input is read to the end before the clusters have converged, it is read again, until they do or
+ * until the maximum number of checkpoints has been written.
+ * <p/>
+ * When following the input, files are read once each, and the input directory is polled for new files when
+ * all have been read, until the maximum number of checkpoints has been written, if any, or until the thread is
+ * interrupted. Files must be moved into the input directory complete; names starting with _ or . are ignored.
+ */
+public final class MiniBatchKMeansDriver {
+
+  private static final Logger log = LoggerFactory.getLogger(MiniBatchKMeansDriver.class);
+
+  /** The number of batches of points which are shuffled together. */
+  private static final int BUFFER_BATCHES = 10;
+
+  /** How long to wait, when following the input, before looking for new files again. */
+  private static final long POLL_MILLIS = 10000L;
+
+  private MiniBatchKMeansDriver() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    DefaultOptionBuilder obuilder = new DefaultOptionBuilder();
+    ArgumentBuilder abuilder = new ArgumentBuilder();
+
+    Option inputOpt = DefaultOptionCreator.inputOption().create();
+    Option clustersOpt = DefaultOptionCreator.clustersInOption().withDescription(
+        "The input centroids, as Vectors.  Must be a SequenceFile of Writable, Cluster/Canopy.  "
+            + "If k is also specified, then a random set of vectors will be selected"
+            + " and written out to this path first")
+        .create();
+    Option kOpt = DefaultOptionCreator.kOption().withDescription(
+        "The k in k-Means.  If specified, then k Vectors will be chosen as the Centroid, at random"
+            + " or as seeding says, and written to the clusters input path.").create();
+    Option seedingOpt = DefaultOptionCreator.seedingOption().create();
+    Option outputOpt = DefaultOptionCreator.outputOption().create();
+    Option overwriteOutput = DefaultOptionCreator.overwriteOption().create();
+    Option measureClassOpt = DefaultOptionCreator.distanceMeasureOption().create();
+    Option convergenceDeltaOpt = DefaultOptionCreator.convergenceOption().create();
+    Option maxIterationsOpt = DefaultOptionCreator.maxIterationsOption().withRequired(false).withDescription(
+        "The maximum number of checkpoints to write, or no maximum if not positive. Defaults to -1").create();
+    Option batchSizeOpt = obuilder.withLongName("batchSize").withArgument(
+        abuilder.withName("batchSize").withDefault("1000").withMinimum(1).withMaximum(1).create()).withDescription(
+        "(Optional) The number of points assigned before the centers move. Default Value: 1000")
+        .withShortName("bs").create();
+    Option checkpointBatchesOpt = obuilder.withLongName("checkpointBatches").withArgument(
+        abuilder.withName("checkpointBatches").withDefault("100").withMinimum(1).withMaximum(1).create())
+        .withDescription("(Optional) The number of batches between writing the clusters. Default Value: 100")
+        .withShortName("cb").create();
+    Option minLearningRateOpt = obuilder.withLongName("minLearningRate").withArgument(
+        abuilder.withName("minLearningRate").withDefault("0").withMinimum(1).withMaximum(1).create())
+        .withDescription("(Optional) The least weight of a point in moving its center, so that the centers keep "
+            + "following input which changes. Default Value: 0, for the mean of all points").withShortName("lr")
+        .create();
+    Option followOpt = obuilder.withLongName("follow").withDescription(
+        "If present, keep polling the input directory for new files rather than reading it again")
+        .withShortName("f").create();
+    Option helpOpt = DefaultOptionCreator.helpOption();
+
+    Group group = new GroupBuilder().withName("Options").withOption(inputOpt).withOption(clustersOpt)
+        .withOption(outputOpt).withOption(measureClassOpt).withOption(convergenceDeltaOpt)
+        .withOption(maxIterationsOpt).withOption(kOpt).withOption(seedingOpt).withOption(overwriteOutput)
+        .withOption(batchSizeOpt).withOption(checkpointBatchesOpt).withOption(minLearningRateOpt)
+        .withOption(followOpt).withOption(helpOpt).create();
+    try {
+      Parser parser = new Parser();
+      parser.setGroup(group);
+      parser.setHelpOption(helpOpt);
+      CommandLine cmdLine = parser.parse(args);
+
+      if (cmdLine.hasOption(helpOpt)) {
+        CommandLineUtil.printHelp(group);
+        return;
+      }
+      Path input = new Path(cmdLine.getValue(inputOpt).toString());
+      Path clusters = new Path(cmdLine.getValue(clustersOpt).toString());
+      Path output = new Path(cmdLine.getValue(outputOpt).toString());
+      String measureClass = cmdLine.getValue(measureClassOpt).toString();
+      double convergenceDelta = Double.parseDouble(cmdLine.getValue(convergenceDeltaOpt).toString());
+      int maxIterations = Integer.parseInt(cmdLine.getValue(maxIterationsOpt).toString());
+      int batchSize = Integer.parseInt(cmdLine.getValue(batchSizeOpt).toString());
+      int checkpointBatches = Integer.parseInt(cmdLine.getValue(checkpointBatchesOpt).toString());
+      double minLearningRate = Double.parseDouble(cmdLine.getValue(minLearningRateOpt).toString());
+      if (cmdLine.hasOption(overwriteOutput)) {
+        HadoopUtil.overwriteOutput(output);
+      }
+      if (cmdLine.hasOption(kOpt)) {
+        int k = Integer.parseInt(cmdLine.getValue(kOpt).toString());
+        String seeding = cmdLine.getValue(seedingOpt).toString();
+        if (DefaultOptionCreator.PARALLEL_SEEDING.equals(seeding)) {
+          clusters = KMeansParallelSeedGenerator.buildSeeds(input, clusters, k, measureClass);
+        } else if (DefaultOptionCreator.RANDOM_SEEDING.equals(seeding)) {
+          clusters = RandomSeedGenerator.buildRandom(input, clusters, k);
+        } else {
+          throw new IllegalArgumentException("Unknown seeding: " + seeding);
+        }
+      }
+      runJob(input, clusters, output, measureClass, convergenceDelta, maxIterations, batchSize, checkpointBatches,
+          minLearningRate, cmdLine.hasOption(followOpt));
+    } catch (OptionException e) {
+      log.error("Exception", e);
+      CommandLineUtil.printHelp(group);
+    }
+  }
+
+  /**
+   * Run the job using supplied arguments
+   *
+   * @param input
+   *          the directory pathname for input points
+   * @param clustersIn
+   *          the directory pathname for initial clusters
+   * @param output
+   *          the directory pathname for computed clusters
+   * @param measureClass
+   *          the classname of the DistanceMeasure
+   * @param convergenceDelta
+   *          the most a center may move between checkpoints and still be converged
+   * @param maxIterations
+   *          the maximum number of checkpoints to write, or no maximum if not positive
+   * @param batchSize
+   *          the number of points assigned before the centers move
+   * @param checkpointBatches
+   *          the number of batches between writing the clusters
+   * @param minLearningRate
+   *          the least weight of a point in moving its center, or 0 for the mean of all points
+   * @param follow
+   *          true to poll the input directory for new files, rather than reading it again
+   * @return the number of checkpoints written
+   */
+  public static int runJob(Path input, Path clustersIn, Path output, String measureClass, double convergenceDelta,
+      int maxIterations, int batchSize, int checkpointBatches, double minLearningRate, boolean follow)
+    throws IOException {
+    if (checkpointBatches < 1) {
+      throw new IllegalArgumentException("Batches between checkpoints must be at least 1: " + checkpointBatches);
+    }
+    if (log.isInfoEnabled()) {
+      log.info("Input: {} Clusters In: {} Out: {} Distance: {}",
+               new Object[] {input, clustersIn, output, measureClass});
+      log.info("convergence: {} max Checkpoints: {} batch Size: {} checkpoint Batches: {} min Learning Rate: {}",
+               new Object[] {convergenceDelta, maxIterations, batchSize, checkpointBatches, minLearningRate});
+    }
+    JobConf conf = new JobConf(MiniBatchKMeansDriver.class);
+    DistanceMeasure measure = LocalKMeansDriver.createMeasure(measureClass, conf);
+    List<Cluster> clusters = new ArrayList<Cluster>();
+    KMeansUtil.configureWithClusterInfo(clustersIn, clusters);
+    if (clusters.isEmpty()) {
+      throw new IllegalStateException("Cluster is empty!");
+    }
+    MiniBatchKMeansClusterer clusterer = new MiniBatchKMeansClusterer(clusters, measure, batchSize,
+        BUFFER_BATCHES * batchSize, minLearningRate, RandomUtils.getRandom());
+    Checkpoints checkpoints =
+        new Checkpoints(clusterer, output, conf, convergenceDelta, maxIterations, checkpointBatches, follow);
+
+    FileSystem fs = FileSystem.get(input.toUri(), conf);
+    Set<Path> seen = new HashSet<Path>();
+    try {
+      while (!checkpoints.isDone()) {
+        boolean read = false;
+        for (Path file : listInputFiles(fs, input)) {
+          if (follow && !seen.add(file)) {
+            continue;
+          }
+          read = true;
+          readPoints(fs, file, conf, clusterer, checkpoints);
+          if (checkpoints.isDone()) {
+            break;
+          }
+        }
+        if (!follow) {
+          if (clusterer.getNumPoints() == 0) {
+            log.warn("No input points in {}", input);
+            break;
+          }
+          if (!checkpoints.isDone()) {
+            // the end of a pass: the points left over count as well before reading the input again
+            clusterer.flush();
+            checkpoints.write();
+          }
+        } else if (!read) {
+          Thread.sleep(POLL_MILLIS);
+        }
+      }
+    } catch (InterruptedException ie) {
+      log.info("Interrupted after {} points", clusterer.getNumPoints());
+      clusterer.flush();
+      checkpoints.write();
+      Thread.currentThread().interrupt();
+    }
+    return checkpoints.getNumCheckpoints();
+  }
+
+  /**
+   * Lists the files that a job with this input would read, in order of name.
+   */
+  private static Path[] listInputFiles(FileSystem fs, Path input) throws IOException {
+    FileStatus[] inputFiles = fs.getFileStatus(input).isDir()
+        ? fs.globStatus(new Path(input, "*"))
+        : new FileStatus[] {fs.getFileStatus(input)};
+    List<Path> files = new ArrayList<Path>();
+    for (FileStatus fileStatus : inputFiles) {
+      String name = fileStatus.getPath().getName();
+      if (!fileStatus.isDir() && !name.startsWith("_") && !name.startsWith(".")) {
+        files.add(fileStatus.getPath());
+      }
+    }
+    Path[] result = files.toArray(new Path[files.size()]);
+    Arrays.sort(result);
+    return result;
+  }
+
+  private static void readPoints(FileSystem fs,
+                                 Path file,
+                                 JobConf conf,
+                                 MiniBatchKMeansClusterer clusterer,
+                                 Checkpoints checkpoints) throws IOException {
+    SequenceFile.Reader reader = new SequenceFile.Reader(fs, file, conf);
+    try {
+      Writable key = (Writable) reader.getKeyClass().newInstance();
+      VectorWritable value = new VectorWritable();
+      // each value read is a new vector, so the writable can be reused
+      while (reader.next(key, value)) {
+        clusterer.add(value.get());
+        if (checkpoints.isDue()) {
+          checkpoints.write();
+          if (checkpoints.isDone()) {
+            return;
+          }
+        }
+      }
+    } catch (InstantiationException e) {
+      throw new IllegalStateException(e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Writes the clusters every so many batches, and decides when to stop.
+   */
+  private static final class Checkpoints {
+
+    private final MiniBatchKMeansClusterer clusterer;
+    private final Path output;
+    private final JobConf conf;
+    private final double convergenceDelta;
+    private final int maxCheckpoints;
+    private final int checkpointBatches;
+    private final boolean follow;
+    private long lastBatches;
+    private int numCheckpoints;
+    private boolean done;
+
+    private Checkpoints(MiniBatchKMeansClusterer clusterer,
+                        Path output,
+                        JobConf conf,
+                        double convergenceDelta,
+                        int maxCheckpoints,
+                        int checkpointBatches,
+                        boolean follow) {
+      this.clusterer = clusterer;
+      this.output = output;
+      this.conf = conf;
+      this.convergenceDelta = convergenceDelta;
+      this.maxCheckpoints = maxCheckpoints;
+      this.checkpointBatches = checkpointBatches;
+      this.follow = follow;
+    }
+
+    private boolean isDue() {
+      return clusterer.getNumBatches() - lastBatches >= checkpointBatches;
+    }
+
+    /**
+     * Writes the clusters to the next clusters-N, unless the centers have not moved since the last time.
+     */
+    private void write() throws IOException {
+      if (clusterer.getNumBatches() == lastBatches) {
+        return;
+      }
+      lastBatches = clusterer.getNumBatches();
+      numCheckpoints++;
+      List<Cluster> clusters = clusterer.checkpoint(convergenceDelta);
+      LocalKMeansDriver.writeClusters(clusters, new Path(output, Cluster.CLUSTERS_DIR + numCheckpoints), conf);
+      boolean converged = true;
+      for (Cluster cluster : clusters) {
+        converged &= cluster.isConverged();
+      }
+      if (log.isInfoEnabled()) {
+        log.info("Checkpoint {} after {} points: converged {}",
+                 new Object[] {numCheckpoints, clusterer.getNumPoints(), converged});
+      }
+      // new points may still move converged clusters when following the input
+      done = (converged && !follow) || ((maxCheckpoints > 0) && (numCheckpoints >= maxCheckpoints));
+    }
+
+    private boolean isDone() {
+      return done;
+    }
+
+    private int getNumCheckpoints() {
+      return numCheckpoints;
+    }
+  }
+
+}
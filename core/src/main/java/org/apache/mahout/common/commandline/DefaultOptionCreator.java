@@ -26,6 +26,12 @@ import org.apache.mahout.math.RandomAccessSparseVector;
 
 public final class DefaultOptionCreator {
 
+  /** Value of {@link #seedingOption()} to choose initial clusters at random. */
+  public static final String RANDOM_SEEDING = "random";
+
+  /** Value of {@link #seedingOption()} to choose initial clusters by k-means||. */
+  public static final String PARALLEL_SEEDING = "kmeans-parallel";
+
   private DefaultOptionCreator() {
   }
 
@@ -175,6 +181,40 @@ public final class DefaultOptionCreator {
         .withDescription("The number of map tasks. Defaults to 10").withShortName("u");
   }
 
+  /**
+   * Returns a default command line option for specifying the number of threads each mapper uses.
+   * Used by FuzzyKmeans and Kmeans
+   */
+  public static DefaultOptionBuilder mapperThreadsOption() {
+    return new DefaultOptionBuilder().withLongName("mapperThreads").withRequired(false).withArgument(
+        new ArgumentBuilder().withName("mapperThreads").withDefault("1").withMinimum(1).withMaximum(1).create())
+        .withDescription("The number of threads each map task assigns points on. Defaults to 1").withShortName("mt");
+  }
+
+  /**
+   * Returns a default command line option for how to choose the initial clusters when k is given. Used by
+   * FuzzyKmeans and Kmeans
+   */
+  public static DefaultOptionBuilder seedingOption() {
+    return new DefaultOptionBuilder().withLongName("seeding").withRequired(false).withArgument(
+        new ArgumentBuilder().withName("seeding").withDefault(RANDOM_SEEDING).withMinimum(1).withMaximum(1)
+            .create()).withDescription("How to choose k initial clusters: " + RANDOM_SEEDING
+        + " vectors, or by " + PARALLEL_SEEDING + " (scalable k-means++). Defaults to " + RANDOM_SEEDING)
+        .withShortName("sd");
+  }
+
+  /**
+   * Returns a default command line option for running in memory on the local machine, rather than as
+   * map/reduce jobs. Used by Kmeans
+   */
+  public static DefaultOptionBuilder localOption() {
+    return new DefaultOptionBuilder().withLongName("local").withRequired(false).withDescription(
+        "If present, run all iterations in memory on this machine, on mapperThreads threads, or one per processor "
+            + "if not given, rather than as map/reduce jobs. All input points are held on the heap as vectors, which "
+            + "for dense points of few dimensions takes several times their size on disk, so the input must fit "
+            + "well within the maximum heap size (-Xmx)").withShortName("lo");
+  }
+
   /**
    * Returns a default command line option for specifying the max number of reducers.
    * Used by Dirichlet, FuzzyKmeans, Kmeans and LDA
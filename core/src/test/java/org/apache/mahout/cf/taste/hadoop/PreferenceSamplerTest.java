@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop;
+
+import java.util.Arrays;
+
+import org.apache.mahout.common.MahoutTestCase;
+
+public final class PreferenceSamplerTest extends MahoutTestCase {
+
+  public void testNotSampled() {
+    PreferenceSampler sampler = new PreferenceSampler(5, 1L);
+    assertFalse(sampler.isSampled(5));
+    assertTrue(Arrays.equals(new int[] {0, 1, 2}, sampler.sample(12L, 3)));
+    assertFalse(new PreferenceSampler(-1, 1L).isSampled(Integer.MAX_VALUE));
+  }
+
+  public void testSample() {
+    PreferenceSampler sampler = new PreferenceSampler(10, 1L);
+    assertTrue(sampler.isSampled(11));
+    int[] sample = sampler.sample(12L, 1000);
+    assertEquals(10, sample.length);
+    for (int i = 0; i < sample.length; i++) {
+      assertTrue(sample[i] >= 0 && sample[i] < 1000);
+      if (i > 0) {
+        assertTrue(sample[i] > sample[i - 1]);
+      }
+    }
+  }
+
+  public void testDeterministic() {
+    int[] sample = new PreferenceSampler(10, 1L).sample(12L, 1000);
+    assertTrue(Arrays.equals(sample, new PreferenceSampler(10, 1L).sample(12L, 1000)));
+    assertFalse(Arrays.equals(sample, new PreferenceSampler(10, 1L).sample(13L, 1000)));
+    assertFalse(Arrays.equals(sample, new PreferenceSampler(10, 2L).sample(12L, 1000)));
+  }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.hadoop.item;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.apache.mahout.cf.taste.hadoop.PreferenceSampler;
+import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+
+public final class UserVectorPrunerTest extends MahoutTestCase {
+
+  private static final long SEED = PreferenceSampler.DEFAULT_SAMPLING_SEED;
+
+  private static Set<Integer> indexes(Vector vector) {
+    Set<Integer> indexes = new HashSet<Integer>();
+    Iterator<Vector.Element> it = vector.iterateNonZero();
+    while (it.hasNext()) {
+      Vector.Element e = it.next();
+      if (e.get() != 0.0) {
+        indexes.add(e.index());
+      }
+    }
+    return indexes;
+  }
+
+  private static Vector userVector(int numItems, boolean ascending) {
+    Vector vector = new RandomAccessSparseVector(Integer.MAX_VALUE, numItems);
+    for (int i = 0; i < numItems; i++) {
+      vector.setQuick(ascending ? i : numItems - 1 - i, 1.0);
+    }
+    return vector;
+  }
+
+  public void testSampleUser() {
+    UserVectorPruner pruner = new UserVectorPruner(Integer.MAX_VALUE, 10, -1, SEED);
+    Set<Integer> sampled = indexes(pruner.countAndPrune(12L, userVector(100, true)));
+    assertEquals(10, sampled.size());
+    assertEquals(90, pruner.getNumUserPrefsSampledOut());
+    for (int index : sampled) {
+      assertTrue(index >= 0 && index < 100);
+    }
+
+    // the same items for the same user and seed, whatever order the vector was built in
+    UserVectorPruner other = new UserVectorPruner(Integer.MAX_VALUE, 10, -1, SEED);
+    assertEquals(sampled, indexes(other.countAndPrune(12L, userVector(100, false))));
+    assertFalse(sampled.equals(indexes(other.countAndPrune(13L, userVector(100, true)))));
+  }
+
+  public void testSmallUserNotSampled() {
+    UserVectorPruner pruner = new UserVectorPruner(Integer.MAX_VALUE, 10, -1, SEED);
+    assertEquals(10, indexes(pruner.countAndPrune(12L, userVector(10, true))).size());
+    assertEquals(0, pruner.getNumUserPrefsSampledOut());
+  }
+
+  public void testCapItems() {
+    UserVectorPruner pruner = new UserVectorPruner(Integer.MAX_VALUE, -1, 2, SEED);
+    assertEquals(3, indexes(pruner.countAndPrune(1L, userVector(3, true))).size());
+    assertEquals(2, indexes(pruner.countAndPrune(2L, userVector(2, true))).size());
+    // items 0 and 1 were seen twice already, item 2 once
+    Set<Integer> kept = indexes(pruner.countAndPrune(3L, userVector(3, true)));
+    assertEquals(1, kept.size());
+    assertTrue(kept.contains(2));
+    assertEquals(2, pruner.getNumItemPrefsCappedOut());
+  }
+
+  public void testSkippedCountsOnlyPruning() {
+    UserVectorPruner pruner = new UserVectorPruner(1, -1, 2, SEED);
+    pruner.countAndPrune(1L, userVector(3, true));
+    pruner.countAndPrune(2L, userVector(2, true));
+    assertEquals(0, pruner.getNumUserPrefsSkipped());
+    // items 0 and 1 are capped; of items 2 and 3, the more often seen item 2 is pruned
+    Set<Integer> kept = indexes(pruner.countAndPrune(3L, userVector(4, true)));
+    assertEquals(1, kept.size());
+    assertTrue(kept.contains(3));
+    assertEquals(2, pruner.getNumItemPrefsCappedOut());
+    assertEquals(1, pruner.getNumUserPrefsSkipped());
+  }
+
+}
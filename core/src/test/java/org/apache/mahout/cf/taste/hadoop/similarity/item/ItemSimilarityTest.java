@@ -23,8 +23,10 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -35,6 +37,7 @@ import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.mahout.cf.taste.hadoop.EntityEntityWritable;
@@ -43,6 +46,8 @@ import org.apache.mahout.cf.taste.hadoop.EntityPrefWritableArrayWritable;
 import org.apache.mahout.cf.taste.hadoop.ToUserPrefsMapper;
 import org.apache.mahout.cf.taste.hadoop.similarity.CoRating;
 import org.apache.mahout.cf.taste.hadoop.similarity.DistributedUncenteredZeroAssumingCosineSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity.ItemItemSimilarity;
 import org.apache.mahout.common.MahoutTestCase;
 import org.apache.mahout.math.VarIntWritable;
 import org.apache.mahout.math.VarLongWritable;
@@ -211,6 +216,108 @@ public final class ItemSimilarityTest extends MahoutTestCase {
     EasyMock.verify(context);
   }
 
+  public void testPreferredItemsPerUserMapperSampling() throws Exception {
+    EntityPrefWritable[] userPrefs = new EntityPrefWritable[100];
+    for (int i = 0; i < userPrefs.length; i++) {
+      userPrefs[i] = new EntityPrefWritable(i, 1.0f);
+    }
+    Set<Long> sampledUsers = mapSampled(userPrefs);
+    assertEquals(10, sampledUsers.size());
+    for (long userID : sampledUsers) {
+      assertTrue(userID >= 0L && userID < 100L);
+    }
+    // the same users, whatever order the item vector arrives in
+    Collections.reverse(Arrays.asList(userPrefs));
+    assertEquals(sampledUsers, mapSampled(userPrefs));
+  }
+
+  private static Set<Long> mapSampled(EntityPrefWritable[] userPrefs) throws Exception {
+    Mapper<VarLongWritable,EntityPrefWritableArrayWritable,VarLongWritable,ItemPrefWithItemVectorWeightWritable>.Context context =
+        EasyMock.createMock(Mapper.Context.class);
+    Configuration conf = new Configuration();
+    conf.set(ItemSimilarityJob.DISTRIBUTED_SIMILARITY_CLASSNAME,
+        "org.apache.mahout.cf.taste.hadoop.similarity.DistributedUncenteredZeroAssumingCosineSimilarity");
+    conf.setInt(ItemSimilarityJob.MAX_PREFS_PER_ITEM, 10);
+    EasyMock.expect(context.getConfiguration()).andStubReturn(conf);
+    EasyMock.expect(context.getCounter(EasyMock.<Enum<?>>anyObject())).andStubReturn(newCounter());
+    List<Object> users = new ArrayList<Object>();
+    context.write(recording(users), EasyMock.<ItemPrefWithItemVectorWeightWritable>anyObject());
+    EasyMock.expectLastCall().anyTimes();
+    EasyMock.replay(context);
+
+    PreferredItemsPerUserMapper mapper = new PreferredItemsPerUserMapper();
+    mapper.setup(context);
+    mapper.map(new VarLongWritable(34L), new EntityPrefWritableArrayWritable(userPrefs), context);
+    EasyMock.verify(context);
+
+    Set<Long> userIDs = new HashSet<Long>();
+    for (Object user : users) {
+      userIDs.add(((VarLongWritable) user).get());
+    }
+    return userIDs;
+  }
+
+  public void testPreferredItemsPerUserReducerSampling() throws Exception {
+    List<ItemPrefWithItemVectorWeightWritable> itemPrefs = new ArrayList<ItemPrefWithItemVectorWeightWritable>();
+    for (int i = 0; i < 100; i++) {
+      itemPrefs.add(new ItemPrefWithItemVectorWeightWritable(i, 1.0, 1.0f));
+    }
+    Set<Long> sampledItems = reduceSampled(itemPrefs);
+    assertEquals(10, sampledItems.size());
+    for (long itemID : sampledItems) {
+      assertTrue(itemID >= 0L && itemID < 100L);
+    }
+    // the same items, whatever order the preferences arrive in
+    Collections.reverse(itemPrefs);
+    assertEquals(sampledItems, reduceSampled(itemPrefs));
+  }
+
+  private static Set<Long> reduceSampled(List<ItemPrefWithItemVectorWeightWritable> itemPrefs) throws Exception {
+    Reducer<VarLongWritable,ItemPrefWithItemVectorWeightWritable,VarLongWritable,ItemPrefWithItemVectorWeightArrayWritable>.Context context =
+        EasyMock.createMock(Reducer.Context.class);
+    Configuration conf = new Configuration();
+    conf.setInt(ItemSimilarityJob.MAX_PREFS_PER_USER, 10);
+    EasyMock.expect(context.getConfiguration()).andStubReturn(conf);
+    EasyMock.expect(context.getCounter(EasyMock.<Enum<?>>anyObject())).andStubReturn(newCounter());
+    List<Object> userVectors = new ArrayList<Object>();
+    context.write(EasyMock.eq(new VarLongWritable(12L)), recording(userVectors));
+    EasyMock.replay(context);
+
+    PreferredItemsPerUserReducer reducer = new PreferredItemsPerUserReducer();
+    reducer.setup(context);
+    reducer.reduce(new VarLongWritable(12L), itemPrefs, context);
+    EasyMock.verify(context);
+
+    Set<Long> itemIDs = new HashSet<Long>();
+    for (ItemPrefWithItemVectorWeightWritable itemPref :
+         ((ItemPrefWithItemVectorWeightArrayWritable) userVectors.get(0)).getItemPrefs()) {
+      itemIDs.add(itemPref.getItemID());
+    }
+    return itemIDs;
+  }
+
+  private static Counter newCounter() {
+    Counter counter = EasyMock.createNiceMock(Counter.class);
+    EasyMock.replay(counter);
+    return counter;
+  }
+
+  /** Matches any argument, and adds it to the given list */
+  static <T> T recording(final List<Object> arguments) {
+    EasyMock.reportMatcher(new IArgumentMatcher() {
+      @Override
+      public boolean matches(Object argument) {
+        arguments.add(argument);
+        return true;
+      }
+
+      @Override
+      public void appendTo(StringBuffer buffer) {}
+    });
+
+    return null;
+  }
+
   static ItemPrefWithItemVectorWeightArrayWritable equalToItemPrefs(
       final Collection<ItemPrefWithItemVectorWeightWritable> prefsToCheck) {
     EasyMock.reportMatcher(new IArgumentMatcher() {
@@ -285,6 +392,62 @@ public final class ItemSimilarityTest extends MahoutTestCase {
     EasyMock.verify(context);
   }
 
+  public void testSimilarityReducerThreshold() throws Exception {
+    Reducer<ItemPairWritable,CoRating,EntityEntityWritable,DoubleWritable>.Context context =
+        EasyMock.createMock(Reducer.Context.class);
+    Configuration conf = new Configuration();
+    EasyMock.expect(context.getConfiguration()).andStubReturn(conf);
+
+    conf.set(ItemSimilarityJob.DISTRIBUTED_SIMILARITY_CLASSNAME,
+        "org.apache.mahout.cf.taste.hadoop.similarity.DistributedUncenteredZeroAssumingCosineSimilarity");
+    conf.setInt(ItemSimilarityJob.NUMBER_OF_USERS, 1);
+    conf.set(ItemSimilarityJob.SIMILARITY_THRESHOLD, "0.6");
+
+    EasyMock.replay(context);
+
+    SimilarityReducer reducer = new SimilarityReducer();
+    reducer.setup(context);
+    reducer.reduce(new ItemPairWritable(12L, 34L, 2.0, 10.0),
+                   Arrays.asList(new CoRating(2.5f, 2.0f),new CoRating(2.0f, 2.5f)), context);
+
+    EasyMock.verify(context);
+  }
+
+  public void testTopSimilarItemsMapper() throws Exception {
+    Mapper<EntityEntityWritable,DoubleWritable,VarLongWritable,EntityPrefWritable>.Context context =
+        EasyMock.createMock(Mapper.Context.class);
+
+    context.write(new VarLongWritable(12L), new EntityPrefWritable(34L, 0.5f));
+    context.write(new VarLongWritable(34L), new EntityPrefWritable(12L, 0.5f));
+
+    EasyMock.replay(context);
+
+    new TopSimilarItemsMapper().map(new EntityEntityWritable(12L, 34L), new DoubleWritable(0.5), context);
+
+    EasyMock.verify(context);
+  }
+
+  public void testTopSimilarItemsReducer() throws Exception {
+    Reducer<VarLongWritable,EntityPrefWritable,VarLongWritable,SimilarItemsWritable>.Context context =
+        EasyMock.createMock(Reducer.Context.class);
+    Configuration conf = new Configuration();
+    EasyMock.expect(context.getConfiguration()).andStubReturn(conf);
+    conf.setInt(ItemSimilarityJob.MAX_SIMILARITIES_PER_ITEM, 2);
+
+    context.write(new VarLongWritable(12L),
+                  new SimilarItemsWritable(new long[] { 78L, 34L }, new float[] { 0.9f, 0.5f }));
+
+    EasyMock.replay(context);
+
+    TopSimilarItemsReducer reducer = new TopSimilarItemsReducer();
+    reducer.setup(context);
+    reducer.reduce(new VarLongWritable(12L),
+                   Arrays.asList(new EntityPrefWritable(34L, 0.5f), new EntityPrefWritable(56L, 0.1f),
+                                 new EntityPrefWritable(78L, 0.9f)), context);
+
+    EasyMock.verify(context);
+  }
+
   public void testCompleteJob() throws Exception {
 
     File inputFile = getTestTempFile("prefs.txt");
@@ -367,4 +530,48 @@ public final class ItemSimilarityTest extends MahoutTestCase {
 
   }
 
+  public void testCompleteJobWithTopSimilarities() throws Exception {
+
+    File inputFile = getTestTempFile("prefs.txt");
+    File outputDir = getTestTempDir("output");
+    outputDir.delete();
+    File tmpDir = getTestTempDir("tmp");
+
+    /* same user-item-matrix as in testCompleteJob() */
+
+    BufferedWriter writer = new BufferedWriter(new FileWriter(inputFile));
+    try {
+      writer.write("2,1,1\n" +
+                   "1,2,1\n" +
+                   "3,4,1\n" +
+                   "1,3,2\n" +
+                   "2,3,1\n");
+    } finally {
+      writer.close();
+    }
+
+    ItemSimilarityJob similarityJob = new ItemSimilarityJob();
+
+    Configuration conf = new Configuration();
+    conf.set("mapred.input.dir", inputFile.getAbsolutePath());
+    conf.set("mapred.output.dir", outputDir.getAbsolutePath());
+    conf.setBoolean("mapred.output.compress", false);
+
+    similarityJob.setConf(conf);
+
+    similarityJob.run(new String[] { "--tempDir", tmpDir.getAbsolutePath(), "--similarityClassname",
+        "org.apache.mahout.cf.taste.hadoop.similarity.DistributedUncenteredZeroAssumingCosineSimilarity",
+        "--maxSimilaritiesPerItem", "1" });
+
+    List<ItemItemSimilarity> similarities =
+        ItemSimilarityJob.readTopSimilarities(new Configuration(), new Path(outputDir.getAbsolutePath()));
+
+    /* item 3 keeps only its more similar item 2, items 1 and 2 each keep item 3 */
+    assertEquals(3, similarities.size());
+    GenericItemSimilarity similarity = new GenericItemSimilarity(similarities);
+    assertEquals(0.45, similarity.itemSimilarity(1L, 3L), 0.01);
+    assertEquals(0.89, similarity.itemSimilarity(2L, 3L), 0.01);
+    assertTrue(Double.isNaN(similarity.itemSimilarity(1L, 2L)));
+  }
+
 }
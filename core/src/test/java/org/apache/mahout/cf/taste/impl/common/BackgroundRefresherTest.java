@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+
+/** Tests {@link BackgroundRefresher} */
+public final class BackgroundRefresherTest extends TasteTestCase {
+
+  public void testRefresh() throws Exception {
+    MockRefreshable mock = new MockRefreshable();
+    BackgroundRefresher refresher = new BackgroundRefresher(mock);
+    try {
+      assertEquals(0L, refresher.getGeneration());
+      refresher.refreshInBackground().get();
+      assertEquals(1, mock.getCallCount());
+      assertEquals(1L, refresher.getGeneration());
+      assertTrue(refresher.getLastRefreshTimeMillis() > 0L);
+    } finally {
+      refresher.close();
+    }
+  }
+
+  public void testDependenciesRefreshedOnce() throws Exception {
+    MockRefreshable shared = new MockRefreshable();
+    RefreshHelper left = new RefreshHelper(null);
+    left.addDependency(shared);
+    RefreshHelper right = new RefreshHelper(null);
+    right.addDependency(shared);
+    RefreshHelper root = new RefreshHelper(null);
+    root.addDependency(left);
+    root.addDependency(right);
+    BackgroundRefresher refresher = new BackgroundRefresher(root);
+    try {
+      refresher.refreshInBackground().get();
+      assertEquals(1, shared.getCallCount());
+    } finally {
+      refresher.close();
+    }
+  }
+
+  public void testWaitingRefreshesAreJoined() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final MockRefreshable mock = new MockRefreshable();
+    Refreshable blocking = new Refreshable() {
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed) {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException ie) {
+          throw new IllegalStateException(ie);
+        }
+        mock.refresh(alreadyRefreshed);
+      }
+    };
+    BackgroundRefresher refresher = new BackgroundRefresher(blocking);
+    try {
+      Future<?> running = refresher.refreshInBackground();
+      started.await();
+      assertTrue(refresher.isRefreshing());
+      // Both arrive while the first is running, so share one more refresh
+      Future<?> queued1 = refresher.refreshInBackground();
+      Future<?> queued2 = refresher.refreshInBackground();
+      assertSame(queued1, queued2);
+      assertNotSame(running, queued1);
+      release.countDown();
+      queued1.get();
+      assertEquals(2, mock.getCallCount());
+      assertEquals(2L, refresher.getGeneration());
+    } finally {
+      refresher.close();
+    }
+  }
+
+}
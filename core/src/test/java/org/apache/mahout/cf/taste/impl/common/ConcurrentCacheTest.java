@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.common.RandomUtils;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public final class ConcurrentCacheTest extends TasteTestCase {
+
+  public void testLotsOfGets() throws TasteException {
+    Retriever<Object,Object> retriever = new IdentityRetriever();
+    ConcurrentCache<Object,Object> cache = new ConcurrentCache<Object,Object>(retriever, 1000);
+    for (int i = 0; i < 1000000; i++) {
+      assertEquals(i, cache.get(i));
+    }
+  }
+
+  public void testMixedUsage() throws TasteException {
+    Random random = RandomUtils.getRandom();
+    Retriever<Object,Object> retriever = new IdentityRetriever();
+    ConcurrentCache<Object,Object> cache = new ConcurrentCache<Object,Object>(retriever, 1000);
+    for (int i = 0; i < 1000000; i++) {
+      double r = random.nextDouble();
+      if (r < 0.01) {
+        cache.clear();
+      } else if (r < 0.1) {
+        cache.remove(r - 100);
+      } else {
+        assertEquals(i, cache.get(i));
+      }
+    }
+  }
+
+  public void testNullValue() throws TasteException {
+    ConcurrentCache<Object,Object> cache = new ConcurrentCache<Object,Object>(new Retriever<Object,Object>() {
+      @Override
+      public Object get(Object key) {
+        return null;
+      }
+    }, 10);
+    assertNull(cache.get(1));
+    assertNull(cache.get(1));
+  }
+
+  public void testConcurrentGets() throws Exception {
+    final ConcurrentCache<Object,Object> cache =
+        new ConcurrentCache<Object,Object>(new IdentityRetriever(), 1000, 8);
+    final AtomicBoolean failed = new AtomicBoolean();
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      final int offset = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 100000; i++) {
+              Integer key = (i * 31 + offset) % 5000;
+              if (!key.equals(cache.get(key))) {
+                failed.set(true);
+              }
+            }
+          } catch (TasteException te) {
+            failed.set(true);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertFalse(failed.get());
+  }
+
+  public void testMaxEntries() throws TasteException {
+    for (int maxEntries = 1; maxEntries <= 40; maxEntries++) {
+      final int[] retrievals = new int[1];
+      ConcurrentCache<Object,Object> cache = new ConcurrentCache<Object,Object>(new Retriever<Object,Object>() {
+        @Override
+        public Object get(Object key) {
+          retrievals[0]++;
+          return key;
+        }
+      }, maxEntries, 16);
+      for (int i = 0; i < 1000; i++) {
+        cache.get(i);
+      }
+      // Newest first, so that each segment's newest entries are found before a miss evicts any of them
+      retrievals[0] = 0;
+      for (int i = 999; i >= 0; i--) {
+        cache.get(i);
+      }
+      int cached = 1000 - retrievals[0];
+      assertTrue(cached + " entries cached, more than " + maxEntries, cached <= maxEntries);
+    }
+  }
+
+  private static class IdentityRetriever implements Retriever<Object,Object> {
+    @Override
+    public Object get(Object key) throws TasteException {
+      return key;
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.recommender.ItemAverageRecommender;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+
+public final class KFoldRecommenderEvaluatorTest extends TasteTestCase {
+
+  private static final RecommenderBuilder ITEM_AVERAGE_BUILDER = new RecommenderBuilder() {
+    @Override
+    public Recommender buildRecommender(DataModel dataModel) throws TasteException {
+      return new ItemAverageRecommender(dataModel);
+    }
+  };
+
+  public void testEvaluate() throws Exception {
+    // Every user has the same preference for an item, so item averages are exact
+    int numUsers = 20;
+    int numItems = 10;
+    long[] userIDs = new long[numUsers];
+    Double[][] prefValues = new Double[numUsers][numItems];
+    for (int u = 0; u < numUsers; u++) {
+      userIDs[u] = u;
+      for (int i = 0; i < numItems; i++) {
+        if ((u + i) % 4 != 0) {
+          prefValues[u][i] = (double) i;
+        }
+      }
+    }
+    DataModel model = getDataModel(userIDs, prefValues);
+    KFoldRecommenderEvaluator evaluator = new KFoldRecommenderEvaluator(3, 2);
+    EvaluationStatistics stats = evaluator.evaluate(ITEM_AVERAGE_BUILDER, null, model, 2, 5.0);
+    assertEquals(0.0, stats.getRMSE(), EPSILON);
+    assertEquals(0.0, stats.getMeanAbsoluteError(), EPSILON);
+    assertTrue(stats.getNumEstimates() > 0);
+    assertTrue(stats.getPrecision() >= 0.0 && stats.getPrecision() <= 1.0);
+    assertTrue(stats.getRecall() >= 0.0 && stats.getRecall() <= 1.0);
+    assertTrue(stats.getNumRequests() > 0);
+    assertTrue(stats.getLatencyPercentileMillis(50.0) <= stats.getLatencyPercentileMillis(99.0));
+    assertTrue(stats.getWallTimeMillis() >= 0L);
+  }
+
+  public void testEvaluateSmallModel() throws Exception {
+    DataModel model = getDataModel();
+    EvaluationStatistics stats = new KFoldRecommenderEvaluator(2, 1).evaluate(
+        ITEM_AVERAGE_BUILDER, null, model, 1, KFoldRecommenderEvaluator.CHOOSE_THRESHOLD);
+    assertFalse(Double.isNaN(stats.getRMSE()));
+    assertTrue(stats.getRMSE() >= stats.getMeanAbsoluteError());
+  }
+
+  public void testIllegalArguments() throws Exception {
+    try {
+      new KFoldRecommenderEvaluator(1);
+      fail("Should have thrown IllegalArgumentException");
+    } catch (IllegalArgumentException iae) {
+      // good
+    }
+    try {
+      new KFoldRecommenderEvaluator(2).evaluate(ITEM_AVERAGE_BUILDER, null, getDataModel(), 0, 0.0);
+      fail("Should have thrown IllegalArgumentException");
+    } catch (IllegalArgumentException iae) {
+      // good
+    }
+  }
+
+}
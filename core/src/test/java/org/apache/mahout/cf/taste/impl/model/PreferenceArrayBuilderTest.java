@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
+
+public final class PreferenceArrayBuilderTest extends MahoutTestCase {
+
+  public void testBuild() {
+    PreferenceArrayBuilder builder = new PreferenceArrayBuilder(1);
+    builder.add(2L, 5L, 1.0f);
+    builder.add(1L, 3L, 2.0f);
+    builder.add(1L, 1L, 3.0f);
+    builder.add(2L, 4L, 4.0f);
+    assertEquals(4, builder.size());
+    FastByIDMap<PreferenceArray> userData = builder.buildUserData();
+    assertEquals(0, builder.size());
+    assertEquals(2, userData.size());
+    PreferenceArray prefs = userData.get(1L);
+    assertEquals(2, prefs.length());
+    assertEquals(1L, prefs.getUserID(0));
+    assertEquals(1L, prefs.getItemID(0));
+    assertEquals(3.0f, prefs.getValue(0));
+    assertEquals(3L, prefs.getItemID(1));
+    assertEquals(2.0f, prefs.getValue(1));
+    prefs = userData.get(2L);
+    assertEquals(4L, prefs.getItemID(0));
+    assertEquals(5L, prefs.getItemID(1));
+  }
+
+  public void testLastWins() {
+    PreferenceArrayBuilder builder = new PreferenceArrayBuilder();
+    builder.add(1L, 1L, 1.0f);
+    builder.add(1L, 2L, 2.0f);
+    builder.add(1L, 1L, 3.0f);
+    builder.remove(1L, 2L);
+    builder.remove(2L, 1L);
+    builder.add(3L, 1L, 1.0f);
+    builder.remove(3L, 1L);
+    builder.add(3L, 1L, 5.0f);
+    FastByIDMap<PreferenceArray> userData = builder.buildUserData();
+    assertEquals(2, userData.size());
+    PreferenceArray prefs = userData.get(1L);
+    assertEquals(1, prefs.length());
+    assertEquals(1L, prefs.getItemID(0));
+    assertEquals(3.0f, prefs.getValue(0));
+    assertNull(userData.get(2L));
+    assertEquals(5.0f, userData.get(3L).getValue(0));
+  }
+
+  public void testLargeSort() {
+    Random random = RandomUtils.getRandom();
+    PreferenceArrayBuilder builder = new PreferenceArrayBuilder();
+    int count = 200000;
+    for (int i = 0; i < count; i++) {
+      builder.add(random.nextInt(1000), i, 1.0f);
+    }
+    FastByIDMap<PreferenceArray> userData = builder.buildUserData();
+    int total = 0;
+    for (Map.Entry<Long,PreferenceArray> entry : userData.entrySet()) {
+      PreferenceArray prefs = entry.getValue();
+      for (int i = 1; i < prefs.length(); i++) {
+        assertTrue(prefs.getItemID(i - 1) < prefs.getItemID(i));
+      }
+      total += prefs.length();
+    }
+    assertEquals(count, total);
+  }
+
+  public void testNaN() {
+    try {
+      new PreferenceArrayBuilder().add(1L, 1L, Float.NaN);
+      fail("Should have rejected NaN");
+    } catch (IllegalArgumentException iae) {
+      // good
+    }
+  }
+
+}
@@ -20,6 +20,7 @@ package org.apache.mahout.cf.taste.impl.model.file;
 import org.apache.commons.lang.mutable.MutableBoolean;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
 import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
@@ -33,6 +34,7 @@ import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.nio.charset.Charset;
@@ -170,4 +172,27 @@ public final class FileDataModelTest extends TasteTestCase {
     assertTrue(model.toString().length() > 0);
   }
 
+  public void testOverriddenProcessLine() throws Exception {
+    DataModel skipping = new SkippingFileDataModel(testFile);
+    // Lines of user 456 are skipped by the subclass
+    assertEquals(3, skipping.getNumUsers());
+    assertEquals(3, skipping.getPreferencesFromUser(123).length());
+    assertEquals(1, skipping.getPreferencesForItem(456).length());
+  }
+
+  /** Overrides only the older line hook, which must still read fresh data. */
+  private static final class SkippingFileDataModel extends FileDataModel {
+
+    private SkippingFileDataModel(File dataFile) throws IOException {
+      super(dataFile);
+    }
+
+    @Override
+    protected void processLine(String line, FastByIDMap<?> data, boolean fromPriorData) {
+      if (!line.startsWith("456,")) {
+        super.processLine(line, data, fromPriorData);
+      }
+    }
+  }
+
 }
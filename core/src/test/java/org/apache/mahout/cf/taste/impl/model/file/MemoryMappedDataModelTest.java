@@ -0,0 +1,153 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+
+/** <p>Tests {@link MemoryMappedDataModel} and {@link MemoryMappedDataModelWriter}.</p> */
+public final class MemoryMappedDataModelTest extends TasteTestCase {
+
+  private static final String[] DATA = {
+      "123,456,0.1",
+      "123,789,0.6",
+      "123,654,0.7",
+      "234,123,0.5",
+      "234,234,1.0",
+      "234,999,0.9",
+      "345,789,0.6",
+      "345,654,0.7",
+      "345,123,1.0",
+      "345,234,0.5",
+      "345,999,0.5",
+      "456,456,0.1",
+      "456,789,0.5",
+      "456,654,0.0",
+      "456,999,0.2",};
+
+  private static final String[] UPDATE = {
+      "123,456,",
+      "456,111,0.3",};
+
+  private DataModel fileModel;
+  private DataModel model;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    File testFile = getTestTempFile("test.txt");
+    writeLines(testFile, DATA);
+    writeLines(getTestTempFile("test.1.txt"), UPDATE);
+    fileModel = new FileDataModel(testFile);
+    File snapshotFile = getTestTempFile("snapshot.bin");
+    MemoryMappedDataModelWriter.write(fileModel, snapshotFile);
+    model = new MemoryMappedDataModel(snapshotFile);
+  }
+
+  private static void writeLines(File file, String[] lines) throws Exception {
+    PrintWriter writer =
+        new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8")));
+    try {
+      for (String line : lines) {
+        writer.println(line);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  public void testSameAsFileModel() throws Exception {
+    assertEquals(fileModel.getNumUsers(), model.getNumUsers());
+    assertEquals(fileModel.getNumItems(), model.getNumItems());
+    LongPrimitiveIterator expectedUserIDs = fileModel.getUserIDs();
+    LongPrimitiveIterator userIDs = model.getUserIDs();
+    while (expectedUserIDs.hasNext()) {
+      long userID = expectedUserIDs.nextLong();
+      assertEquals(userID, userIDs.nextLong());
+      assertSamePrefs(fileModel.getPreferencesFromUser(userID), model.getPreferencesFromUser(userID));
+    }
+    assertFalse(userIDs.hasNext());
+    LongPrimitiveIterator expectedItemIDs = fileModel.getItemIDs();
+    LongPrimitiveIterator itemIDs = model.getItemIDs();
+    while (expectedItemIDs.hasNext()) {
+      long itemID = expectedItemIDs.nextLong();
+      assertEquals(itemID, itemIDs.nextLong());
+      assertSamePrefs(fileModel.getPreferencesForItem(itemID), model.getPreferencesForItem(itemID));
+    }
+    assertFalse(itemIDs.hasNext());
+  }
+
+  private static void assertSamePrefs(PreferenceArray expected, PreferenceArray actual) {
+    assertEquals(expected.length(), actual.length());
+    for (int i = 0; i < expected.length(); i++) {
+      assertEquals(expected.getUserID(i), actual.getUserID(i));
+      assertEquals(expected.getItemID(i), actual.getItemID(i));
+      assertEquals(expected.getValue(i), actual.getValue(i), EPSILON);
+    }
+  }
+
+  public void testUpdateFileApplied() throws Exception {
+    assertNull(model.getPreferenceValue(123, 456));
+    assertEquals(0.3f, model.getPreferenceValue(456, 111), EPSILON);
+    assertEquals(0.9f, model.getPreferenceValue(234, 999), EPSILON);
+    assertNull(model.getPreferenceValue(234, 12345));
+  }
+
+  public void testItemIDsFromUser() throws Exception {
+    FastIDSet itemIDs = model.getItemIDsFromUser(345);
+    assertEquals(5, itemIDs.size());
+    assertTrue(itemIDs.contains(123));
+    assertTrue(itemIDs.contains(999));
+    assertFalse(itemIDs.contains(456));
+  }
+
+  public void testNumUsersPreferring() throws Exception {
+    assertEquals(1, model.getNumUsersWithPreferenceFor(456));
+    assertEquals(0, model.getNumUsersWithPreferenceFor(12345));
+    assertEquals(0, model.getNumUsersWithPreferenceFor(12345, 456));
+    assertEquals(2, model.getNumUsersWithPreferenceFor(123, 234));
+    assertEquals(3, model.getNumUsersWithPreferenceFor(654, 789));
+  }
+
+  public void testNoSuchUserOrItem() throws Exception {
+    try {
+      model.getPreferencesFromUser(12345);
+      fail("Should throw NoSuchUserException");
+    } catch (NoSuchUserException nsue) {
+      // good
+    }
+    try {
+      model.getPreferencesForItem(12345);
+      fail("Should throw NoSuchItemException");
+    } catch (NoSuchItemException nsie) {
+      // good
+    }
+  }
+
+}
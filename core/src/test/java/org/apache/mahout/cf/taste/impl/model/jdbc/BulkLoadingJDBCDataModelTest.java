@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.jdbc;
+
+import java.sql.Timestamp;
+
+import javax.sql.DataSource;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+public final class BulkLoadingJDBCDataModelTest extends TasteTestCase {
+
+  private static final Timestamp LOADED = new Timestamp(1000000000000L);
+  private static final Timestamp CHANGED = new Timestamp(1000000060000L);
+
+  private DataSource dataSource;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    dataSource = HSQLDBTestDataModel.createDataSource("bulk" + getName());
+    HSQLDBTestDataModel.insert(dataSource, 1L, 10L, 1.0f, LOADED);
+    HSQLDBTestDataModel.insert(dataSource, 1L, 20L, 2.0f, LOADED);
+    HSQLDBTestDataModel.insert(dataSource, 2L, 10L, 3.0f, LOADED);
+  }
+
+  public void testLoad() throws Exception {
+    DataModel model = new BulkLoadingJDBCDataModel(new HSQLDBTestDataModel(dataSource));
+    assertEquals(2, model.getNumUsers());
+    assertEquals(2, model.getNumItems());
+    assertEquals(2, model.getPreferencesFromUser(1L).length());
+    assertEquals(1.0f, model.getPreferenceValue(1L, 10L));
+    assertEquals(2.0f, model.getPreferenceValue(1L, 20L));
+    assertEquals(3.0f, model.getPreferenceValue(2L, 10L));
+    assertEquals(2, model.getPreferencesForItem(10L).length());
+  }
+
+  public void testRefreshMergesChanges() throws Exception {
+    DataModel model =
+        new BulkLoadingJDBCDataModel(new HSQLDBTestDataModel(dataSource), HSQLDBTestDataModel.TIMESTAMP_COLUMN);
+    HSQLDBTestDataModel.update(dataSource, 1L, 10L, 5.0f, CHANGED);
+    HSQLDBTestDataModel.insert(dataSource, 1L, 30L, 4.0f, CHANGED);
+    HSQLDBTestDataModel.insert(dataSource, 3L, 20L, 2.5f, CHANGED);
+    // Unchanged until refreshed
+    assertEquals(1.0f, model.getPreferenceValue(1L, 10L));
+    assertNull(model.getPreferenceValue(1L, 30L));
+    assertEquals(2, model.getNumUsers());
+
+    model.refresh(null);
+    // A changed value replaces the old one, a new one is added, and the user's others are kept
+    assertEquals(3, model.getPreferencesFromUser(1L).length());
+    assertEquals(5.0f, model.getPreferenceValue(1L, 10L));
+    assertEquals(2.0f, model.getPreferenceValue(1L, 20L));
+    assertEquals(4.0f, model.getPreferenceValue(1L, 30L));
+    // A new user is added, and other users are untouched
+    assertEquals(3, model.getNumUsers());
+    assertEquals(2.5f, model.getPreferenceValue(3L, 20L));
+    assertEquals(3.0f, model.getPreferenceValue(2L, 10L));
+    assertEquals(2, model.getPreferencesForItem(20L).length());
+
+    // Changes already merged are merged again harmlessly
+    model.refresh(null);
+    assertEquals(3, model.getPreferencesFromUser(1L).length());
+    assertEquals(5.0f, model.getPreferenceValue(1L, 10L));
+  }
+
+  public void testMergeKeepsItemOrder() throws Exception {
+    DataModel model =
+        new BulkLoadingJDBCDataModel(new HSQLDBTestDataModel(dataSource), HSQLDBTestDataModel.TIMESTAMP_COLUMN);
+    HSQLDBTestDataModel.insert(dataSource, 1L, 15L, 1.5f, CHANGED);
+    HSQLDBTestDataModel.insert(dataSource, 1L, 5L, 0.5f, CHANGED);
+    HSQLDBTestDataModel.update(dataSource, 1L, 20L, 2.5f, CHANGED);
+    model.refresh(null);
+    PreferenceArray prefs = model.getPreferencesFromUser(1L);
+    assertEquals(4, prefs.length());
+    assertEquals(5L, prefs.getItemID(0));
+    assertEquals(10L, prefs.getItemID(1));
+    assertEquals(15L, prefs.getItemID(2));
+    assertEquals(20L, prefs.getItemID(3));
+    assertEquals(2.5f, prefs.getValue(3));
+  }
+
+  public void testRefreshFromEmptyTable() throws Exception {
+    HSQLDBTestDataModel.delete(dataSource, 1L, 10L);
+    HSQLDBTestDataModel.delete(dataSource, 1L, 20L);
+    HSQLDBTestDataModel.delete(dataSource, 2L, 10L);
+    DataModel model =
+        new BulkLoadingJDBCDataModel(new HSQLDBTestDataModel(dataSource), HSQLDBTestDataModel.TIMESTAMP_COLUMN);
+    assertEquals(0, model.getNumUsers());
+    HSQLDBTestDataModel.insert(dataSource, 3L, 20L, 2.5f, CHANGED);
+    // No timestamp was seen at load, so this reads the whole table
+    model.refresh(null);
+    assertEquals(1, model.getNumUsers());
+    assertEquals(2.5f, model.getPreferenceValue(3L, 20L));
+    // After which changes are merged as usual
+    HSQLDBTestDataModel.insert(dataSource, 3L, 30L, 3.5f, CHANGED);
+    model.refresh(null);
+    assertEquals(3.5f, model.getPreferenceValue(3L, 30L));
+  }
+
+  public void testRefreshSeesOwnRemovals() throws Exception {
+    DataModel model =
+        new BulkLoadingJDBCDataModel(new HSQLDBTestDataModel(dataSource), HSQLDBTestDataModel.TIMESTAMP_COLUMN);
+    model.removePreference(1L, 20L);
+    model.refresh(null);
+    assertNull(model.getPreferenceValue(1L, 20L));
+    assertEquals(1, model.getPreferencesFromUser(1L).length());
+  }
+
+  public void testReloadSeesDeletions() throws Exception {
+    BulkLoadingJDBCDataModel model =
+        new BulkLoadingJDBCDataModel(new HSQLDBTestDataModel(dataSource), HSQLDBTestDataModel.TIMESTAMP_COLUMN);
+    HSQLDBTestDataModel.delete(dataSource, 1L, 20L);
+    model.refresh(null);
+    assertEquals(2.0f, model.getPreferenceValue(1L, 20L));
+    model.reload();
+    assertNull(model.getPreferenceValue(1L, 20L));
+    assertEquals(1, model.getPreferencesFromUser(1L).length());
+  }
+
+  public void testRefreshWithoutTimestamp() throws Exception {
+    DataModel model = new BulkLoadingJDBCDataModel(new HSQLDBTestDataModel(dataSource));
+    HSQLDBTestDataModel.delete(dataSource, 1L, 20L);
+    HSQLDBTestDataModel.update(dataSource, 2L, 10L, 4.0f, LOADED);
+    model.refresh(null);
+    assertNull(model.getPreferenceValue(1L, 20L));
+    assertEquals(4.0f, model.getPreferenceValue(2L, 10L));
+  }
+
+  public void testWritesGoToSource() throws Exception {
+    DataModel model = new BulkLoadingJDBCDataModel(new HSQLDBTestDataModel(dataSource));
+    model.setPreference(2L, 20L, 1.5f);
+    model.removePreference(1L, 10L);
+    // Seen after the next refresh
+    assertNull(model.getPreferenceValue(2L, 20L));
+    model.refresh(null);
+    assertEquals(1.5f, model.getPreferenceValue(2L, 20L));
+    assertNull(model.getPreferenceValue(1L, 10L));
+  }
+
+}
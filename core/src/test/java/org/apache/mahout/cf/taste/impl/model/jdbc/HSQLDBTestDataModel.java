@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import javax.sql.DataSource;
+
+import org.apache.mahout.common.IOUtils;
+import org.hsqldb.jdbc.jdbcDataSource;
+
+/**
+ * An {@link AbstractJDBCDataModel} over a table in an in-process HSQLDB database, for tests. The table has the
+ * default names and a {@link #TIMESTAMP_COLUMN}, and the SQL is standard except where noted.
+ */
+final class HSQLDBTestDataModel extends AbstractJDBCDataModel {
+
+  static final String TIMESTAMP_COLUMN = "last_modified";
+
+  private static final String TABLE = DEFAULT_PREFERENCE_TABLE;
+  private static final String USER = DEFAULT_USER_ID_COLUMN;
+  private static final String ITEM = DEFAULT_ITEM_ID_COLUMN;
+  private static final String PREF = DEFAULT_PREFERENCE_COLUMN;
+
+  HSQLDBTestDataModel(DataSource dataSource) {
+    super(dataSource,
+        "SELECT " + PREF + " FROM " + TABLE + " WHERE " + USER + "=? AND " + ITEM + "=?",
+        "SELECT " + USER + ", " + ITEM + ", " + PREF + " FROM " + TABLE + " WHERE " + USER + "=? ORDER BY " + ITEM,
+        "SELECT " + USER + ", " + ITEM + ", " + PREF + " FROM " + TABLE + " ORDER BY " + USER + ", " + ITEM,
+        "SELECT COUNT(DISTINCT " + ITEM + ") FROM " + TABLE,
+        "SELECT COUNT(DISTINCT " + USER + ") FROM " + TABLE,
+        // setPreference binds the value twice, for MySQL's ON DUPLICATE KEY UPDATE, which HSQLDB lacks; this
+        // only inserts new preferences, which is all the tests need
+        "INSERT INTO " + TABLE + " (" + USER + ", " + ITEM + ", " + PREF + ") VALUES (?, ?, "
+            + "(CAST(? AS REAL) + CAST(? AS REAL)) / 2)",
+        "DELETE FROM " + TABLE + " WHERE " + USER + "=? AND " + ITEM + "=?",
+        "SELECT DISTINCT " + USER + " FROM " + TABLE + " ORDER BY " + USER,
+        "SELECT DISTINCT " + ITEM + " FROM " + TABLE + " ORDER BY " + ITEM,
+        "SELECT " + USER + ", " + ITEM + ", " + PREF + " FROM " + TABLE + " WHERE " + ITEM + "=? ORDER BY " + USER,
+        "SELECT COUNT(1) FROM " + TABLE + " WHERE " + ITEM + "=?",
+        "SELECT COUNT(1) FROM " + TABLE + " tp1 JOIN " + TABLE + " tp2 ON tp1." + USER + "=tp2." + USER
+            + " WHERE tp1." + ITEM + "=? AND tp2." + ITEM + "=?",
+        "SELECT MAX(" + PREF + ") FROM " + TABLE,
+        "SELECT MIN(" + PREF + ") FROM " + TABLE);
+  }
+
+  /**
+   * @return a pooled data source over a new, empty in-memory database of the given name
+   */
+  static DataSource createDataSource(String name) throws SQLException {
+    jdbcDataSource hsqldbDataSource = new jdbcDataSource();
+    hsqldbDataSource.setDatabase("jdbc:hsqldb:mem:" + name);
+    hsqldbDataSource.setUser("sa");
+    hsqldbDataSource.setPassword("");
+    DataSource dataSource = new ConnectionPoolDataSource(hsqldbDataSource);
+    execute(dataSource, "DROP TABLE " + TABLE + " IF EXISTS");
+    execute(dataSource, "CREATE TABLE " + TABLE + " (" + USER + " BIGINT NOT NULL, " + ITEM + " BIGINT NOT NULL, "
+        + PREF + " REAL NOT NULL, " + TIMESTAMP_COLUMN + " TIMESTAMP DEFAULT CURRENT_TIMESTAMP, "
+        + "PRIMARY KEY (" + USER + ", " + ITEM + "))");
+    return dataSource;
+  }
+
+  static void insert(DataSource dataSource, long userID, long itemID, float value, Timestamp changed)
+    throws SQLException {
+    execute(dataSource, "INSERT INTO " + TABLE + " VALUES (?, ?, ?, ?)", userID, itemID, value, changed);
+  }
+
+  static void update(DataSource dataSource, long userID, long itemID, float value, Timestamp changed)
+    throws SQLException {
+    execute(dataSource, "UPDATE " + TABLE + " SET " + PREF + "=?, " + TIMESTAMP_COLUMN + "=? WHERE " + USER
+        + "=? AND " + ITEM + "=?", value, changed, userID, itemID);
+  }
+
+  static void delete(DataSource dataSource, long userID, long itemID) throws SQLException {
+    execute(dataSource, "DELETE FROM " + TABLE + " WHERE " + USER + "=? AND " + ITEM + "=?", userID, itemID);
+  }
+
+  private static void execute(DataSource dataSource, String sql, Object... params) throws SQLException {
+    Connection conn = null;
+    PreparedStatement stmt = null;
+    try {
+      conn = dataSource.getConnection();
+      stmt = conn.prepareStatement(sql);
+      for (int i = 0; i < params.length; i++) {
+        stmt.setObject(i + 1, params[i]);
+      }
+      stmt.executeUpdate();
+    } finally {
+      IOUtils.quietClose(null, stmt, conn);
+    }
+  }
+
+}
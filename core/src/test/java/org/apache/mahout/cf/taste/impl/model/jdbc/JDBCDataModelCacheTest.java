@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.jdbc;
+
+import java.sql.Timestamp;
+
+import javax.sql.DataSource;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+
+/** Tests {@link AbstractJDBCDataModel#setMaxCachedUsers(int)}. */
+public final class JDBCDataModelCacheTest extends TasteTestCase {
+
+  private static final Timestamp CHANGED = new Timestamp(1000000000000L);
+
+  private DataSource dataSource;
+  private AbstractJDBCDataModel model;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    dataSource = HSQLDBTestDataModel.createDataSource("cache" + getName());
+    HSQLDBTestDataModel.insert(dataSource, 1L, 10L, 1.0f, CHANGED);
+    HSQLDBTestDataModel.insert(dataSource, 1L, 20L, 2.0f, CHANGED);
+    HSQLDBTestDataModel.insert(dataSource, 2L, 10L, 3.0f, CHANGED);
+    model = new HSQLDBTestDataModel(dataSource);
+  }
+
+  private static float valueOf(PreferenceArray prefs, long itemID) {
+    for (int i = 0; i < prefs.length(); i++) {
+      if (prefs.getItemID(i) == itemID) {
+        return prefs.getValue(i);
+      }
+    }
+    return Float.NaN;
+  }
+
+  public void testUncached() throws Exception {
+    assertEquals(1.0f, valueOf(model.getPreferencesFromUser(1L), 10L));
+    HSQLDBTestDataModel.update(dataSource, 1L, 10L, 5.0f, CHANGED);
+    assertEquals(5.0f, valueOf(model.getPreferencesFromUser(1L), 10L));
+  }
+
+  public void testCachedUntilRefresh() throws Exception {
+    model.setMaxCachedUsers(10);
+    assertEquals(1.0f, valueOf(model.getPreferencesFromUser(1L), 10L));
+    // Changes made to the table by others are not seen until a refresh
+    HSQLDBTestDataModel.update(dataSource, 1L, 10L, 5.0f, CHANGED);
+    assertEquals(1.0f, valueOf(model.getPreferencesFromUser(1L), 10L));
+    assertEquals(2, model.getItemIDsFromUser(1L).size());
+    model.refresh(null);
+    assertEquals(5.0f, valueOf(model.getPreferencesFromUser(1L), 10L));
+  }
+
+  public void testUncachedOnWrite() throws Exception {
+    model.setMaxCachedUsers(10);
+    assertEquals(2, model.getPreferencesFromUser(1L).length());
+    assertEquals(1, model.getPreferencesFromUser(2L).length());
+
+    model.removePreference(1L, 20L);
+    assertEquals(1, model.getPreferencesFromUser(1L).length());
+    assertFalse(model.getItemIDsFromUser(1L).contains(20L));
+
+    model.setPreference(1L, 30L, 4.0f);
+    assertEquals(4.0f, valueOf(model.getPreferencesFromUser(1L), 30L));
+    assertTrue(model.getItemIDsFromUser(1L).contains(30L));
+
+    // Other users stay cached
+    HSQLDBTestDataModel.update(dataSource, 2L, 10L, 5.0f, CHANGED);
+    assertEquals(3.0f, valueOf(model.getPreferencesFromUser(2L), 10L));
+  }
+
+  public void testEviction() throws Exception {
+    model.setMaxCachedUsers(1);
+    assertEquals(1.0f, valueOf(model.getPreferencesFromUser(1L), 10L));
+    // Caching user 2 evicts user 1, which is read again
+    assertEquals(3.0f, valueOf(model.getPreferencesFromUser(2L), 10L));
+    HSQLDBTestDataModel.update(dataSource, 1L, 10L, 5.0f, CHANGED);
+    HSQLDBTestDataModel.update(dataSource, 2L, 10L, 6.0f, CHANGED);
+    assertEquals(5.0f, valueOf(model.getPreferencesFromUser(1L), 10L));
+  }
+
+  public void testCacheTurnedOff() throws Exception {
+    model.setMaxCachedUsers(10);
+    assertEquals(1.0f, valueOf(model.getPreferencesFromUser(1L), 10L));
+    model.setMaxCachedUsers(0);
+    HSQLDBTestDataModel.update(dataSource, 1L, 10L, 5.0f, CHANGED);
+    assertEquals(5.0f, valueOf(model.getPreferencesFromUser(1L), 10L));
+  }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.model.DataModel;
+
+/** <p>Tests {@link LSHUserNeighborhood}.</p> */
+public final class LSHUserNeighborhoodTest extends TasteTestCase {
+
+  public void testNeighborhood() throws Exception {
+
+    DataModel dataModel = getDataModel();
+
+    // with many one-row bands, users sharing two of three items are nearly certain to collide
+    long[] neighborhood =
+        new LSHUserNeighborhood(1, Double.NEGATIVE_INFINITY, new DummySimilarity(dataModel), dataModel, 30, 1)
+            .getUserNeighborhood(1);
+    assertNotNull(neighborhood);
+    assertEquals(1, neighborhood.length);
+    assertTrue(arrayContains(neighborhood, 2));
+
+    long[] neighborhood2 =
+        new LSHUserNeighborhood(4, Double.NEGATIVE_INFINITY, new DummySimilarity(dataModel), dataModel, 30, 1)
+            .getUserNeighborhood(4);
+    assertNotNull(neighborhood2);
+    assertEquals(3, neighborhood2.length);
+    assertTrue(arrayContains(neighborhood2, 1));
+    assertTrue(arrayContains(neighborhood2, 2));
+    assertTrue(arrayContains(neighborhood2, 3));
+  }
+
+  public void testIdenticalUsersAlwaysCollide() throws Exception {
+
+    DataModel dataModel = getDataModel();
+
+    // users 2, 3 and 4 have the same items, so share every band however long
+    long[] neighborhood =
+        new LSHUserNeighborhood(3, Double.NEGATIVE_INFINITY, new DummySimilarity(dataModel), dataModel, 1, 20)
+            .getUserNeighborhood(2);
+    assertTrue(arrayContains(neighborhood, 3));
+    assertTrue(arrayContains(neighborhood, 4));
+  }
+
+}
@@ -17,17 +17,26 @@
 
 package org.apache.mahout.cf.taste.impl.recommender;
 
+import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.recommender.ItemBasedRecommender;
+import org.apache.mahout.cf.taste.recommender.RecommendationCallback;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.common.RandomUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /** <p>Tests {@link GenericItemBasedRecommender}.</p> */
 public final class GenericItemBasedRecommenderTest extends TasteTestCase {
@@ -111,6 +120,131 @@ public final class GenericItemBasedRecommenderTest extends TasteTestCase {
     assertEquals(originalRecommended.get(1).getItemID(), rescoredRecommended.get(0).getItemID());
   }
 
+  public void testParallelRecommend() throws Exception {
+    int numItems = 5000;
+    Double[][] prefs = new Double[2][numItems];
+    for (int j = 0; j < numItems; j++) {
+      if (j < 10) {
+        prefs[0][j] = 0.1 * (j + 1);
+      }
+      prefs[1][j] = 0.5;
+    }
+    DataModel dataModel = getDataModel(new long[] {1, 2}, prefs);
+    ItemSimilarity similarity = new ItemSimilarity() {
+      @Override
+      public double itemSimilarity(long itemID1, long itemID2) {
+        return 1.0 / (1.0 + Math.abs(itemID1 * 7919L - itemID2 * 104729L) % 100003L);
+      }
+      @Override
+      public double[] itemSimilarities(long itemID1, long[] itemID2s) {
+        double[] result = new double[itemID2s.length];
+        for (int i = 0; i < itemID2s.length; i++) {
+          result[i] = itemSimilarity(itemID1, itemID2s[i]);
+        }
+        return result;
+      }
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Recommender sequential = new GenericItemBasedRecommender(dataModel, similarity);
+      Recommender parallel = new GenericItemBasedRecommender(dataModel, similarity, executor, 4);
+      assertSameRecommendations(sequential.recommend(1, 20), parallel.recommend(1, 20));
+      assertSameRecommendations(sequential.recommend(1, 20, new ReversingRescorer<Long>()),
+                                parallel.recommend(1, 20, new ReversingRescorer<Long>()));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testBatchRecommend() throws Exception {
+    int numUsers = 150;
+    int numItems = 30;
+    long[] userIDs = new long[numUsers + 1];
+    Double[][] prefs = new Double[numUsers][numItems];
+    Random random = RandomUtils.getRandom();
+    for (int u = 0; u < numUsers; u++) {
+      userIDs[u] = u;
+      for (int j = 0; j < numItems; j++) {
+        if ((j == u % numItems) || (random.nextDouble() < 0.3)) {
+          prefs[u][j] = (double) (1 + random.nextInt(5));
+        }
+      }
+    }
+    DataModel dataModel = getDataModel(Arrays.copyOf(userIDs, numUsers), prefs);
+    // Unknown to the model
+    userIDs[numUsers] = 1000;
+    GenericItemBasedRecommender recommender =
+        new GenericItemBasedRecommender(dataModel, new PearsonCorrelationSimilarity(dataModel));
+    final FastByIDMap<List<RecommendedItem>> results = new FastByIDMap<List<RecommendedItem>>();
+    recommender.recommend(userIDs, 5, new RecommendationCallback() {
+      @Override
+      public void recommended(long userID, List<RecommendedItem> recommendations) {
+        assertNull(results.put(userID, recommendations));
+      }
+    });
+    assertEquals(numUsers + 1, results.size());
+    assertTrue(results.get(1000).isEmpty());
+    int numRecommended = 0;
+    for (int u = 0; u < numUsers; u++) {
+      assertSameRecommendations(recommender.recommend(u, 5), results.get(u));
+      numRecommended += results.get(u).size();
+    }
+    assertTrue(numRecommended > 0);
+
+    // The same on an executor of the recommender's own, in several tasks
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      GenericItemBasedRecommender onExecutor =
+          new GenericItemBasedRecommender(dataModel, new PearsonCorrelationSimilarity(dataModel), executor, 3);
+      final FastByIDMap<List<RecommendedItem>> executorResults = new FastByIDMap<List<RecommendedItem>>();
+      onExecutor.recommend(userIDs, 5, new RecommendationCallback() {
+        @Override
+        public void recommended(long userID, List<RecommendedItem> recommendations) {
+          assertNull(executorResults.put(userID, recommendations));
+        }
+      });
+      assertEquals(numUsers + 1, executorResults.size());
+      for (int u = 0; u < numUsers; u++) {
+        assertSameRecommendations(results.get(u), executorResults.get(u));
+      }
+      assertFalse(executor.isShutdown());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testOverriddenEstimate() throws Exception {
+    DataModel dataModel = getDataModel();
+    Collection<GenericItemSimilarity.ItemItemSimilarity> similarities =
+        new ArrayList<GenericItemSimilarity.ItemItemSimilarity>(3);
+    similarities.add(new GenericItemSimilarity.ItemItemSimilarity(0, 1, 1.0));
+    similarities.add(new GenericItemSimilarity.ItemItemSimilarity(0, 2, 0.5));
+    similarities.add(new GenericItemSimilarity.ItemItemSimilarity(1, 2, 0.0));
+    // Overrides only the older hook, which recommend() must use as estimatePreference() does
+    Recommender recommender = new GenericItemBasedRecommender(dataModel, new GenericItemSimilarity(similarities)) {
+      @Override
+      protected float doEstimatePreference(long userID, long itemID) {
+        return 7.0f;
+      }
+    };
+    List<RecommendedItem> recommended = recommender.recommend(1, 1);
+    assertEquals(1, recommended.size());
+    assertEquals(2, recommended.get(0).getItemID());
+    assertEquals(7.0f, recommended.get(0).getValue(), EPSILON);
+    assertEquals(7.0f, recommender.estimatePreference(1, 2), EPSILON);
+  }
+
+  private static void assertSameRecommendations(List<RecommendedItem> expected, List<RecommendedItem> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getItemID(), actual.get(i).getItemID());
+      assertEquals(expected.get(i).getValue(), actual.get(i).getValue(), EPSILON);
+    }
+  }
+
   public void testEstimatePref() throws Exception {
     Recommender recommender = buildRecommender();
     assertEquals(0.1f, recommender.estimatePreference(1, 2), EPSILON);
@@ -145,6 +279,18 @@ public final class GenericItemBasedRecommenderTest extends TasteTestCase {
     assertEquals(0.5f, second.getValue(), EPSILON);
   }
 
+  public void testMostSimilarEstimator() throws Exception {
+    Collection<GenericItemSimilarity.ItemItemSimilarity> similarities =
+        new ArrayList<GenericItemSimilarity.ItemItemSimilarity>(1);
+    similarities.add(new GenericItemSimilarity.ItemItemSimilarity(0, 2, 0.5));
+    GenericItemBasedRecommender.MostSimilarEstimator estimator =
+        new GenericItemBasedRecommender.MostSimilarEstimator(0, new GenericItemSimilarity(similarities), null);
+    // Still usable as an estimator of boxed IDs
+    TopItems.Estimator<Long> boxed = estimator;
+    assertEquals(0.5, boxed.estimate(2L), EPSILON);
+    assertEquals(0.5, estimator.estimate(2L), EPSILON);
+  }
+
   public void testMostSimilarToMultiple() throws Exception {
     ItemBasedRecommender recommender = buildRecommender2();
     List<RecommendedItem> similar = recommender.mostSimilarItems(new long[] {0, 1}, 2);
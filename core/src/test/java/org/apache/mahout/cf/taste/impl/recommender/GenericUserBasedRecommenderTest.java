@@ -19,16 +19,20 @@ package org.apache.mahout.cf.taste.impl.recommender;
 
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
 import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.cf.taste.recommender.RecommendationCallback;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.cf.taste.recommender.Recommender;
 import org.apache.mahout.cf.taste.recommender.UserBasedRecommender;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
+import org.apache.mahout.common.RandomUtils;
 
 import java.util.List;
+import java.util.Random;
 
 /** <p>Tests {@link GenericUserBasedRecommender}.</p> */
 public final class GenericUserBasedRecommenderTest extends TasteTestCase {
@@ -134,6 +138,65 @@ public final class GenericUserBasedRecommenderTest extends TasteTestCase {
     assertEquals(0, mostSimilar.length);
   }
 
+  public void testBatchRecommend() throws Exception {
+    int numUsers = 150;
+    int numItems = 30;
+    long[] userIDs = new long[numUsers];
+    Double[][] prefs = new Double[numUsers][numItems];
+    Random random = RandomUtils.getRandom();
+    for (int u = 0; u < numUsers; u++) {
+      userIDs[u] = u;
+      for (int j = 0; j < numItems; j++) {
+        if ((j == u % numItems) || (random.nextDouble() < 0.3)) {
+          prefs[u][j] = (double) (1 + random.nextInt(5));
+        }
+      }
+    }
+    DataModel dataModel = getDataModel(userIDs, prefs);
+    UserSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+    UserNeighborhood neighborhood = new NearestNUserNeighborhood(5, similarity, dataModel);
+    GenericUserBasedRecommender recommender =
+        new GenericUserBasedRecommender(dataModel, neighborhood, similarity);
+    final FastByIDMap<List<RecommendedItem>> results = new FastByIDMap<List<RecommendedItem>>();
+    recommender.recommend(userIDs, 5, new RecommendationCallback() {
+      @Override
+      public void recommended(long userID, List<RecommendedItem> recommendations) {
+        assertNull(results.put(userID, recommendations));
+      }
+    });
+    assertEquals(numUsers, results.size());
+    int numRecommended = 0;
+    for (long userID : userIDs) {
+      List<RecommendedItem> expected = recommender.recommend(userID, 5);
+      List<RecommendedItem> actual = results.get(userID);
+      numRecommended += actual.size();
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals(expected.get(i).getItemID(), actual.get(i).getItemID());
+        assertEquals(expected.get(i).getValue(), actual.get(i).getValue(), EPSILON);
+      }
+    }
+    assertTrue(numRecommended > 0);
+  }
+
+  public void testOverriddenEstimate() throws Exception {
+    DataModel dataModel = getDataModel();
+    UserSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+    UserNeighborhood neighborhood = new NearestNUserNeighborhood(2, similarity, dataModel);
+    // Overrides only the older hook, which recommend() must use as estimatePreference() does
+    Recommender recommender = new GenericUserBasedRecommender(dataModel, neighborhood, similarity) {
+      @Override
+      protected float doEstimatePreference(long theUserID, long[] theNeighborhood, long itemID) {
+        return 7.0f;
+      }
+    };
+    List<RecommendedItem> recommended = recommender.recommend(1, 1);
+    assertEquals(1, recommended.size());
+    assertEquals(2, recommended.get(0).getItemID());
+    assertEquals(7.0f, recommended.get(0).getValue(), EPSILON);
+    assertEquals(7.0f, recommender.estimatePreference(1, 2), EPSILON);
+  }
+
   private static UserBasedRecommender buildRecommender() throws TasteException {
     DataModel dataModel = getDataModel();
     UserSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
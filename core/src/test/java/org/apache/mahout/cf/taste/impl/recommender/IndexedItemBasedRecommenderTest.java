@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/** <p>Tests {@link IndexedItemBasedRecommender} and {@link ItemNeighborhoodIndex}.</p> */
+public final class IndexedItemBasedRecommenderTest extends TasteTestCase {
+
+  private DataModel dataModel;
+  private Collection<GenericItemSimilarity.ItemItemSimilarity> similarities;
+  private ItemSimilarity similarity;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    dataModel = getDataModel(
+            new long[] {1, 2, 3, 4, 5},
+            new Double[][] {
+                    {0.1, 0.2},
+                    {0.2, 0.3, 0.3, 0.6},
+                    {0.4, 0.4, 0.5, 0.9},
+                    {0.1, 0.4, 0.5, 0.8, 0.9, 1.0},
+                    {0.2, 0.3, 0.6, 0.7, 0.1, 0.2},
+            });
+    similarities = new ArrayList<GenericItemSimilarity.ItemItemSimilarity>();
+    for (int i = 0; i < 6; i++) {
+      for (int j = i + 1; j < 6; j++) {
+        similarities.add(
+            new GenericItemSimilarity.ItemItemSimilarity(i, j, 1.0 / (1.0 + (double) i + (double) j)));
+      }
+    }
+    similarity = new GenericItemSimilarity(similarities);
+  }
+
+  public void testIndex() throws Exception {
+    ItemNeighborhoodIndex index = new ItemNeighborhoodIndex(similarities, 2);
+    assertEquals(2, index.getMaxNeighbors());
+    long[] neighborIDs = index.getNeighborIDs(3);
+    assertEquals(2, neighborIDs.length);
+    assertEquals(0, neighborIDs[0]);
+    assertEquals(1, neighborIDs[1]);
+    float[] neighborSimilarities = index.getNeighborSimilarities(3);
+    assertEquals(0.25f, neighborSimilarities[0], EPSILON);
+    assertEquals(0.2f, neighborSimilarities[1], EPSILON);
+    assertEquals(0.25f, index.getNeighborSimilarity(3, 0), EPSILON);
+    assertTrue(Float.isNaN(index.getNeighborSimilarity(3, 5)));
+    assertEquals(0, index.getNeighborIDs(12345).length);
+  }
+
+  public void testIndexFromDataModel() throws Exception {
+    ItemNeighborhoodIndex fromSimilarities = new ItemNeighborhoodIndex(similarities, 3);
+    ItemNeighborhoodIndex fromDataModel = new ItemNeighborhoodIndex(dataModel, similarity, 3);
+    for (long itemID = 0; itemID < 6; itemID++) {
+      long[] expectedIDs = fromSimilarities.getNeighborIDs(itemID);
+      long[] neighborIDs = fromDataModel.getNeighborIDs(itemID);
+      assertEquals(expectedIDs.length, neighborIDs.length);
+      for (int i = 0; i < expectedIDs.length; i++) {
+        assertEquals(expectedIDs[i], neighborIDs[i]);
+      }
+    }
+  }
+
+  public void testSameAsGenericWithFullIndex() throws Exception {
+    ItemNeighborhoodIndex index = new ItemNeighborhoodIndex(similarities, 5);
+    Recommender expected = new GenericItemBasedRecommender(dataModel, similarity);
+    Recommender recommender = new IndexedItemBasedRecommender(dataModel, similarity, index);
+    for (long userID = 1; userID <= 3; userID++) {
+      List<RecommendedItem> expectedItems = expected.recommend(userID, 3);
+      List<RecommendedItem> recommended = recommender.recommend(userID, 3);
+      assertEquals(expectedItems.size(), recommended.size());
+      for (int i = 0; i < expectedItems.size(); i++) {
+        assertEquals(expectedItems.get(i).getItemID(), recommended.get(i).getItemID());
+        assertEquals(expectedItems.get(i).getValue(), recommended.get(i).getValue(), EPSILON);
+      }
+      for (long itemID = 0; itemID < 6; itemID++) {
+        float expectedEstimate = expected.estimatePreference(userID, itemID);
+        float estimate = recommender.estimatePreference(userID, itemID);
+        if (Float.isNaN(expectedEstimate)) {
+          assertTrue(Float.isNaN(estimate));
+        } else {
+          assertEquals(expectedEstimate, estimate, EPSILON);
+        }
+      }
+    }
+  }
+
+  public void testPrunedIndex() throws Exception {
+    // Items 0 and 1 have only each other and item 2 as neighbors, so user 1 gets only item 2
+    ItemNeighborhoodIndex index = new ItemNeighborhoodIndex(similarities, 2);
+    Recommender recommender = new IndexedItemBasedRecommender(dataModel, similarity, index);
+    List<RecommendedItem> recommended = recommender.recommend(1, 3);
+    assertEquals(1, recommended.size());
+    assertEquals(2, recommended.get(0).getItemID());
+    assertEquals(recommended.get(0).getValue(), recommender.estimatePreference(1, 2), EPSILON);
+    assertTrue(Float.isNaN(recommender.estimatePreference(1, 3)));
+  }
+
+  public void testRescorer() throws Exception {
+    ItemNeighborhoodIndex index = new ItemNeighborhoodIndex(similarities, 5);
+    Recommender recommender = new IndexedItemBasedRecommender(dataModel, similarity, index);
+    List<RecommendedItem> originalRecommended = recommender.recommend(2, 2);
+    List<RecommendedItem> rescoredRecommended = recommender.recommend(2, 2, new ReversingRescorer<Long>());
+    assertEquals(2, originalRecommended.size());
+    assertEquals(2, rescoredRecommended.size());
+    assertEquals(originalRecommended.get(0).getItemID(), rescoredRecommended.get(1).getItemID());
+    assertEquals(originalRecommended.get(1).getItemID(), rescoredRecommended.get(0).getItemID());
+  }
+
+}
@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang.mutable.MutableInt;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+
+/** <p>Tests {@link PrecomputedRecommender} and {@link PrecomputedRecommenderWriter}.</p> */
+public final class PrecomputedRecommenderTest extends TasteTestCase {
+
+  public void testRecommender() throws Exception {
+    MutableInt recommendCount = new MutableInt();
+    Recommender mockRecommender = new MockRecommender(recommendCount);
+    File storeFile = getTestTempFile("store.bin");
+    PrecomputedRecommenderWriter.write(mockRecommender, 1, storeFile);
+    assertEquals(3, recommendCount.intValue());
+
+    PrecomputedRecommender recommender = new PrecomputedRecommender(mockRecommender, storeFile);
+    List<RecommendedItem> recommended = recommender.recommend(1, 1);
+    assertEquals(1, recommended.size());
+    assertEquals(1L, recommended.get(0).getItemID());
+    assertEquals(3, recommendCount.intValue());
+
+    // Users not in the store are computed once
+    recommender.recommend(4, 1);
+    assertEquals(4, recommendCount.intValue());
+    recommender.recommend(4, 1);
+    assertEquals(4, recommendCount.intValue());
+
+    // Changed users are recomputed once
+    recommender.setPreference(1, 2, 1.0f);
+    recommender.recommend(1, 1);
+    assertEquals(5, recommendCount.intValue());
+    recommender.recommend(1, 1);
+    assertEquals(5, recommendCount.intValue());
+    recommender.recommend(2, 1);
+    assertEquals(5, recommendCount.intValue());
+
+    // Rescored requests always go to the other recommender
+    recommender.recommend(2, 1, NullRescorer.getItemInstance());
+    assertEquals(6, recommendCount.intValue());
+
+    // So do requests for more than was stored, until it's known there are no more
+    recommender.recommend(2, 5);
+    assertEquals(7, recommendCount.intValue());
+    recommender.recommend(2, 5);
+    assertEquals(7, recommendCount.intValue());
+  }
+
+  public void testReplacedStore() throws Exception {
+    MutableInt recommendCount = new MutableInt();
+    Recommender mockRecommender = new MockRecommender(recommendCount);
+    File storeFile = getTestTempFile("store.bin");
+    PrecomputedRecommenderWriter.write(mockRecommender, 1, storeFile);
+    PrecomputedRecommender recommender = new PrecomputedRecommender(mockRecommender, storeFile);
+    recommender.recommend(4, 1);
+    assertEquals(4, recommendCount.intValue());
+
+    PrecomputedRecommenderWriter.write(mockRecommender, 1, storeFile);
+    assertTrue(storeFile.setLastModified(System.currentTimeMillis() + 10000L));
+    recommender.refresh(null);
+    assertEquals(7, recommendCount.intValue());
+    // Recomputed results are dropped with the old store
+    recommender.recommend(4, 1);
+    assertEquals(8, recommendCount.intValue());
+  }
+
+  public void testChangedWhileStoreComputed() throws Exception {
+    MutableInt recommendCount = new MutableInt();
+    Recommender mockRecommender = new MockRecommender(recommendCount);
+    File storeFile = getTestTempFile("store.bin");
+    PrecomputedRecommenderWriter.write(mockRecommender, 1, storeFile);
+    PrecomputedRecommender recommender = new PrecomputedRecommender(mockRecommender, storeFile);
+    recommender.setPreference(1, 2, 1.0f);
+    long now = System.currentTimeMillis();
+
+    // A store whose data was read before user 1 changed, though written after
+    PrecomputedRecommenderWriter writer = new PrecomputedRecommenderWriter(1, now - 10000L);
+    writer.add(1L, Arrays.<RecommendedItem>asList(new GenericRecommendedItem(1L, 1.0f)));
+    writer.write(storeFile);
+    assertTrue(storeFile.setLastModified(now + 10000L));
+    recommender.refresh(null);
+    recommender.recommend(1, 1);
+    assertEquals(4, recommendCount.intValue());
+
+    // A store whose data was read after user 1 changed
+    writer = new PrecomputedRecommenderWriter(1, now + 10000L);
+    writer.add(1L, Arrays.<RecommendedItem>asList(new GenericRecommendedItem(1L, 1.0f)));
+    writer.write(storeFile);
+    assertTrue(storeFile.setLastModified(now + 20000L));
+    recommender.refresh(null);
+    recommender.recommend(1, 1);
+    assertEquals(4, recommendCount.intValue());
+  }
+
+  public void testBoundedRecomputed() throws Exception {
+    MutableInt recommendCount = new MutableInt();
+    Recommender mockRecommender = new MockRecommender(recommendCount);
+    File storeFile = getTestTempFile("store.bin");
+    PrecomputedRecommenderWriter.write(mockRecommender, 1, storeFile);
+    PrecomputedRecommender recommender = new PrecomputedRecommender(mockRecommender, storeFile, 1);
+    recommender.recommend(4, 1);
+    recommender.recommend(5, 1);
+    assertEquals(5, recommendCount.intValue());
+    // User 4's results made way for user 5's
+    recommender.recommend(4, 1);
+    assertEquals(6, recommendCount.intValue());
+
+    // A changed user's results may be dropped, but the user is still not served from the store
+    recommender.setPreference(1, 2, 1.0f);
+    recommender.recommend(1, 1);
+    assertEquals(7, recommendCount.intValue());
+    recommender.recommend(5, 1);
+    assertEquals(8, recommendCount.intValue());
+    recommender.recommend(1, 1);
+    assertEquals(9, recommendCount.intValue());
+    // Unchanged stored users never are
+    recommender.recommend(2, 1);
+    assertEquals(9, recommendCount.intValue());
+  }
+
+  public void testWriter() throws Exception {
+    PrecomputedRecommenderWriter writer = new PrecomputedRecommenderWriter(2);
+    writer.add(20L, Arrays.<RecommendedItem>asList(new GenericRecommendedItem(8L, 4.0f)));
+    writer.add(10L, Arrays.<RecommendedItem>asList(new GenericRecommendedItem(5L, 3.0f),
+                                                   new GenericRecommendedItem(6L, 2.0f),
+                                                   new GenericRecommendedItem(7L, 1.0f)));
+    File storeFile = getTestTempFile("store.bin");
+    writer.write(storeFile);
+
+    MutableInt recommendCount = new MutableInt();
+    Recommender recommender = new PrecomputedRecommender(new MockRecommender(recommendCount), storeFile);
+    List<RecommendedItem> recommended = recommender.recommend(10L, 2);
+    assertEquals(2, recommended.size());
+    assertEquals(5L, recommended.get(0).getItemID());
+    assertEquals(3.0f, recommended.get(0).getValue());
+    assertEquals(6L, recommended.get(1).getItemID());
+    assertEquals(2.0f, recommended.get(1).getValue());
+    // User 20 had fewer than asked for, so has no more
+    recommended = recommender.recommend(20L, 2);
+    assertEquals(1, recommended.size());
+    assertEquals(8L, recommended.get(0).getItemID());
+    assertEquals(0, recommendCount.intValue());
+
+    try {
+      writer.add(10L, Arrays.<RecommendedItem>asList(new GenericRecommendedItem(5L, 3.0f)));
+      fail("Should have rejected a duplicate user");
+    } catch (IllegalArgumentException iae) {
+      // good
+    }
+  }
+
+}
@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+
+/** <p>Tests {@link TopItems}.</p> */
+public final class TopItemsTest extends TasteTestCase {
+
+  /** Estimates each ID from the value at its index; IDs past the end are {@link Double#NaN}. */
+  private static TopItems.IDEstimator estimator(final double... values) {
+    return new TopItems.IDEstimator() {
+      @Override
+      public double estimate(long id) {
+        return id < values.length ? values[(int) id] : Double.NaN;
+      }
+    };
+  }
+
+  public void testTopIDsOrder() {
+    TopItems.TopIDs topIDs = new TopItems.TopIDs(3);
+    for (long id : new long[] {4, 9, 0, 7, 2, 8, 5, 1, 6, 3}) {
+      topIDs.offer(id, id / 10.0);
+    }
+    assertEquals(3, topIDs.size());
+    topIDs.sortDescending();
+    for (int i = 0; i < 3; i++) {
+      assertEquals(9 - i, topIDs.getID(i));
+      assertEquals((9 - i) / 10.0, topIDs.getValue(i), EPSILON);
+    }
+  }
+
+  public void testTopIDsTies() {
+    TopItems.TopIDs topIDs = new TopItems.TopIDs(2);
+    topIDs.offer(1, 3.0);
+    topIDs.offer(2, 5.0);
+    // Tied with the least kept value, so not kept
+    topIDs.offer(3, 3.0);
+    topIDs.offer(4, 1.0);
+    long[] ids = topIDs.toSortedIDs();
+    assertEquals(2, ids.length);
+    assertEquals(2, ids[0]);
+    assertEquals(1, ids[1]);
+
+    topIDs = new TopItems.TopIDs(2);
+    for (long id = 1; id <= 5; id++) {
+      topIDs.offer(id, 5.0);
+    }
+    ids = topIDs.toSortedIDs();
+    assertEquals(2, ids.length);
+    // The earliest two are kept, in either order
+    assertTrue(arrayContains(ids, 1));
+    assertTrue(arrayContains(ids, 2));
+  }
+
+  public void testTopIDsEmpty() {
+    TopItems.TopIDs topIDs = new TopItems.TopIDs(0);
+    topIDs.offer(1, 1.0);
+    assertEquals(0, topIDs.size());
+    assertEquals(0, topIDs.toSortedIDs().length);
+    assertTrue(topIDs.toRecommendedItems().isEmpty());
+  }
+
+  public void testNaNSkipped() throws Exception {
+    List<RecommendedItem> topItems = TopItems.getTopItems(3,
+        new LongPrimitiveArrayIterator(new long[] {0, 1, 2, 3, 4}), null,
+        estimator(0.2, Double.NaN, 0.5, Double.NaN, 0.1));
+    assertEquals(3, topItems.size());
+    assertEquals(2, topItems.get(0).getItemID());
+    assertEquals(0, topItems.get(1).getItemID());
+    assertEquals(4, topItems.get(2).getItemID());
+
+    long[] topUsers = TopItems.getTopUsers(2,
+        new LongPrimitiveArrayIterator(new long[] {0, 1, 2, 3}), null, estimator(Double.NaN, 0.3, Double.NaN));
+    assertEquals(1, topUsers.length);
+    assertEquals(1, topUsers[0]);
+  }
+
+  public void testTiesAcrossPartitions() throws Exception {
+    // Items 1 to 4 tie, and are split between both partitions; item 9 is best
+    long[] candidates = {5, 3, 9, 1, 6, 2, 7, 4};
+    TopItems.IDEstimator estimator = estimator(0.0, 0.5, 0.5, 0.5, 0.5, 0.1, 0.1, 0.1, 0.0, 0.9);
+    List<RecommendedItem> sequential =
+        TopItems.getTopItems(3, new LongPrimitiveArrayIterator(candidates), null, estimator);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      List<RecommendedItem> parallel = TopItems.getTopItems(3, candidates, null, estimator, executor, 2);
+      assertEquals(3, parallel.size());
+      long[] expected = {9, 1, 2};
+      for (int i = 0; i < expected.length; i++) {
+        assertEquals(expected[i], sequential.get(i).getItemID());
+        assertEquals(expected[i], parallel.get(i).getItemID());
+        assertEquals(sequential.get(i).getValue(), parallel.get(i).getValue(), EPSILON);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testHowManyExceedsCandidates() throws Exception {
+    List<RecommendedItem> topItems = TopItems.getTopItems(10,
+        new LongPrimitiveArrayIterator(new long[] {0, 1, 2}), null, estimator(0.3, 0.9, 0.6));
+    assertEquals(3, topItems.size());
+    assertEquals(1, topItems.get(0).getItemID());
+    assertEquals(0.9f, topItems.get(0).getValue(), EPSILON);
+    assertEquals(2, topItems.get(1).getItemID());
+    assertEquals(0, topItems.get(2).getItemID());
+
+    long[] topUsers = TopItems.getTopUsers(10,
+        new LongPrimitiveArrayIterator(new long[] {0, 1, 2}), null, estimator(0.3, 0.9, 0.6));
+    assertEquals(3, topUsers.length);
+    assertEquals(1, topUsers[0]);
+    assertEquals(2, topUsers[1]);
+    assertEquals(0, topUsers[2]);
+  }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.slopeone;
+
+import java.io.File;
+
+import org.apache.mahout.cf.taste.common.Weighting;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RunningAverage;
+import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
+import org.apache.mahout.cf.taste.model.DataModel;
+
+/** Tests {@link CompactDiffStorage}. */
+public final class CompactDiffStorageTest extends TasteTestCase {
+
+  public void testGetDiff() throws Exception {
+    DataModel model = getDataModel();
+    CompactDiffStorage storage = new CompactDiffStorage(model, Weighting.UNWEIGHTED);
+    RunningAverage average = storage.getDiff(1, 2);
+    assertEquals(0.23333333333333334, average.getAverage(), EPSILON);
+    assertEquals(3, average.getCount());
+    assertEquals(-0.23333333333333334, storage.getDiff(2, 1).getAverage(), EPSILON);
+  }
+
+  public void testAverageItemPref() throws Exception {
+    DataModel model = getDataModel();
+    CompactDiffStorage storage = new CompactDiffStorage(model, Weighting.UNWEIGHTED);
+    // Over all of the item's preferences, including those of users for whom it's the last item
+    RunningAverage average = storage.getAverageItemPref(2);
+    assertEquals(0.5333333333333333, average.getAverage(), EPSILON);
+    assertEquals(3, average.getCount());
+  }
+
+  public void testUpdate() throws Exception {
+    DataModel model = getDataModel();
+    CompactDiffStorage storage = new CompactDiffStorage(model, Weighting.UNWEIGHTED);
+    storage.updateItemPref(1, 0.5f, false);
+    RunningAverage average = storage.getDiff(1, 2);
+    assertEquals(0.06666666666666668, average.getAverage(), EPSILON);
+    assertEquals(3, average.getCount());
+  }
+
+  public void testRemove() throws Exception {
+    DataModel model = getDataModel();
+    CompactDiffStorage storage = new CompactDiffStorage(model, Weighting.UNWEIGHTED);
+    storage.updateItemPref(1, 0.5f, true);
+    RunningAverage average = storage.getDiff(1, 2);
+    assertEquals(0.1, average.getAverage(), EPSILON);
+    assertEquals(2, average.getCount());
+  }
+
+  public void testMatchesMemoryDiffStorage() throws Exception {
+    DataModel model = getDataModel();
+    MemoryDiffStorage expected = new MemoryDiffStorage(model, Weighting.WEIGHTED, false, Long.MAX_VALUE);
+    File directory = getTestTempDir("diffs");
+    CompactDiffStorage actual = new CompactDiffStorage(model, Weighting.WEIGHTED, 2, directory);
+    LongPrimitiveIterator it1 = model.getItemIDs();
+    while (it1.hasNext()) {
+      long itemID1 = it1.nextLong();
+      LongPrimitiveIterator it2 = model.getItemIDs();
+      while (it2.hasNext()) {
+        long itemID2 = it2.nextLong();
+        RunningAverage expectedDiff = expected.getDiff(itemID1, itemID2);
+        RunningAverage actualDiff = actual.getDiff(itemID1, itemID2);
+        if (expectedDiff == null) {
+          assertNull(actualDiff);
+        } else {
+          assertEquals(expectedDiff.getCount(), actualDiff.getCount());
+          assertEquals(expectedDiff.getAverage(), actualDiff.getAverage(), EPSILON);
+          assertEquals(((RunningAverageAndStdDev) expectedDiff).getStandardDeviation(),
+                       ((RunningAverageAndStdDev) actualDiff).getStandardDeviation(), EPSILON);
+        }
+      }
+    }
+    LongPrimitiveIterator it = model.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      FastIDSet expectedIDs = expected.getRecommendableItemIDs(userID);
+      FastIDSet actualIDs = actual.getRecommendableItemIDs(userID);
+      assertEquals(expectedIDs.size(), actualIDs.size());
+      assertEquals(expectedIDs.size(), expectedIDs.intersectionSize(actualIDs));
+    }
+    assertEquals(1, directory.listFiles().length);
+  }
+
+}
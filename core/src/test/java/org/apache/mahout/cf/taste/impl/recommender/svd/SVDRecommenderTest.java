@@ -0,0 +1,282 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.RecommendationCallback;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.List;
+
+/** <p>Tests {@link SVDRecommender}.</p> */
+public final class SVDRecommenderTest extends TasteTestCase {
+
+  private static DataModel buildDataModel() {
+    return getDataModel(
+            new long[] {1, 2, 3, 4},
+            new Double[][] {
+                    {5.0, 4.0, 1.0},
+                    {4.0, 5.0, 2.0, 1.0},
+                    {1.0, 2.0, 5.0, 4.0},
+                    {2.0, null, 4.0, 5.0},
+            });
+  }
+
+  public void testRecommender() throws Exception {
+    SVDRecommender recommender = new SVDRecommender(buildDataModel(), 2, 50);
+    List<RecommendedItem> recommended = recommender.recommend(1, 1);
+    assertEquals(1, recommended.size());
+    assertEquals(3, recommended.get(0).getItemID());
+  }
+
+  public void testBatchRecommend() throws Exception {
+    SVDRecommender recommender = new SVDRecommender(buildDataModel(), 2, 50);
+    final FastByIDMap<List<RecommendedItem>> results = new FastByIDMap<List<RecommendedItem>>();
+    recommender.recommend(new long[] {1, 2, 3, 4, 5}, 2, new RecommendationCallback() {
+      @Override
+      public void recommended(long userID, List<RecommendedItem> recommendations) {
+        results.put(userID, recommendations);
+      }
+    });
+    assertEquals(5, results.size());
+    assertTrue(results.get(5).isEmpty());
+    for (long userID = 1; userID <= 4; userID++) {
+      List<RecommendedItem> expected = recommender.recommend(userID, 2);
+      List<RecommendedItem> actual = results.get(userID);
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals(expected.get(i).getItemID(), actual.get(i).getItemID());
+        assertEquals(expected.get(i).getValue(), actual.get(i).getValue(), EPSILON);
+      }
+    }
+  }
+
+  public void testParallelTraining() throws Exception {
+    SVDRecommender recommender =
+        new SVDRecommender(buildDataModel(), 2, new ParallelSGDTrainer(2, 10, 0.05, 1.0, 0.0));
+    double rmse = recommender.train(new ParallelSGDTrainer(2, 1, 0.05, 1.0, 0.0));
+    double laterRMSE = recommender.train(new ParallelSGDTrainer(2, 500, 0.05, 0.99, 0.0));
+    assertTrue(laterRMSE < rmse);
+    assertTrue(laterRMSE < 0.5);
+    assertEquals(5.0, recommender.estimatePreference(4, 3), 1.0);
+    List<RecommendedItem> recommended = recommender.recommend(4, 1);
+    assertEquals(1, recommended.size());
+    assertEquals(1, recommended.get(0).getItemID());
+  }
+
+  public void testConvergence() throws Exception {
+    SVDRecommender recommender =
+        new SVDRecommender(buildDataModel(), 2, new ParallelSGDTrainer(1, 0, 0.05, 1.0, 0.0));
+    // With a huge threshold, training stops after the second epoch
+    double rmse = recommender.train(new ParallelSGDTrainer(1, 1000, 0.05, 1.0, 1000.0));
+    assertFalse(Double.isNaN(rmse));
+  }
+
+  public void testFoldInOnRefresh() throws Exception {
+    File dataFile = getTestTempFile("prefs.txt");
+    String[] prefs = {
+        "1,0,5", "1,1,4", "1,2,1",
+        "2,0,4", "2,1,5", "2,2,2", "2,3,1",
+        "3,0,1", "3,1,2", "3,2,5", "3,3,4",
+        "4,0,2", "4,2,4", "4,3,5"};
+    writeLines(dataFile, prefs);
+    SVDRecommender recommender =
+        new SVDRecommender(new FileDataModel(dataFile), 2, new ParallelSGDTrainer(2, 500, 0.05, 0.99, 0.0));
+    try {
+      recommender.estimatePreference(5, 0);
+      fail("Should throw NoSuchUserException");
+    } catch (NoSuchUserException nsue) {
+      // good
+    }
+    try {
+      recommender.estimatePreference(1, 9);
+      fail("Should throw NoSuchItemException");
+    } catch (NoSuchItemException nsie) {
+      // good
+    }
+
+    String[] newPrefs = {"5,0,5", "5,1,5", "5,3,1", "1,9,5", "2,9,5", "3,9,1"};
+    String[] allPrefs = new String[prefs.length + newPrefs.length];
+    System.arraycopy(prefs, 0, allPrefs, 0, prefs.length);
+    System.arraycopy(newPrefs, 0, allPrefs, prefs.length, newPrefs.length);
+    writeLines(dataFile, allPrefs);
+    // Make sure the model sees the file as new enough to reload
+    assertTrue(dataFile.setLastModified(System.currentTimeMillis() + 3600000L));
+    recommender.refresh(null);
+
+    // User 5 is like users 1 and 2, and item 9 is liked by them
+    assertTrue(recommender.estimatePreference(5, 2) < recommender.estimatePreference(5, 1));
+    assertTrue(recommender.estimatePreference(4, 9) < recommender.estimatePreference(1, 9));
+    List<RecommendedItem> recommended = recommender.recommend(5, 1);
+    assertEquals(1, recommended.size());
+    assertEquals(9, recommended.get(0).getItemID());
+  }
+
+  public void testFoldInOnSetPreference() throws Exception {
+    ChangeableDataModel dataModel = new ChangeableDataModel(
+        new long[] {1, 2, 3, 4},
+        new Double[][] {
+            {5.0, 4.0, 1.0, null},
+            {4.0, 5.0, 2.0, 1.0},
+            {1.0, 2.0, 5.0, 4.0},
+            {2.0, null, 4.0, 5.0},
+        });
+    SVDRecommender recommender =
+        new SVDRecommender(dataModel, 2, new ParallelSGDTrainer(2, 500, 0.05, 0.99, 0.0));
+    float before = recommender.estimatePreference(4, 3);
+    float otherBefore = recommender.estimatePreference(1, 3);
+
+    recommender.setPreference(4, 3, 1.0f);
+    // Only user 4 is folded in again, with no refresh
+    assertTrue(recommender.estimatePreference(4, 3) < before - 1.0f);
+    assertEquals(otherBefore, recommender.estimatePreference(1, 3), EPSILON);
+
+    float after = recommender.estimatePreference(4, 3);
+    recommender.removePreference(4, 3);
+    assertTrue(recommender.estimatePreference(4, 3) > after);
+  }
+
+  private static void writeLines(File file, String... lines) throws Exception {
+    PrintWriter writer =
+        new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8")));
+    try {
+      for (String line : lines) {
+        writer.println(line);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /** Rebuilds a {@link org.apache.mahout.cf.taste.impl.model.GenericDataModel} on each change. */
+  private static final class ChangeableDataModel implements DataModel {
+
+    private final long[] userIDs;
+    private final Double[][] prefValues;
+    private DataModel delegate;
+
+    private ChangeableDataModel(long[] userIDs, Double[][] prefValues) {
+      this.userIDs = userIDs;
+      this.prefValues = prefValues;
+      delegate = getDataModel(userIDs, prefValues);
+    }
+
+    @Override
+    public LongPrimitiveIterator getUserIDs() throws TasteException {
+      return delegate.getUserIDs();
+    }
+
+    @Override
+    public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+      return delegate.getPreferencesFromUser(userID);
+    }
+
+    @Override
+    public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+      return delegate.getItemIDsFromUser(userID);
+    }
+
+    @Override
+    public LongPrimitiveIterator getItemIDs() throws TasteException {
+      return delegate.getItemIDs();
+    }
+
+    @Override
+    public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+      return delegate.getPreferencesForItem(itemID);
+    }
+
+    @Override
+    public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+      return delegate.getPreferenceValue(userID, itemID);
+    }
+
+    @Override
+    public int getNumItems() throws TasteException {
+      return delegate.getNumItems();
+    }
+
+    @Override
+    public int getNumUsers() throws TasteException {
+      return delegate.getNumUsers();
+    }
+
+    @Override
+    public int getNumUsersWithPreferenceFor(long... itemIDs) throws TasteException {
+      return delegate.getNumUsersWithPreferenceFor(itemIDs);
+    }
+
+    @Override
+    public void setPreference(long userID, long itemID, float value) {
+      change(userID, itemID, (double) value);
+    }
+
+    @Override
+    public void removePreference(long userID, long itemID) {
+      change(userID, itemID, null);
+    }
+
+    /** Only users and items the model was created with can change. */
+    private void change(long userID, long itemID, Double value) {
+      for (int i = 0; i < userIDs.length; i++) {
+        if (userIDs[i] == userID) {
+          prefValues[i][(int) itemID] = value;
+        }
+      }
+      delegate = getDataModel(userIDs, prefValues);
+    }
+
+    @Override
+    public boolean hasPreferenceValues() {
+      return true;
+    }
+
+    @Override
+    public float getMaxPreference() {
+      return delegate.getMaxPreference();
+    }
+
+    @Override
+    public float getMinPreference() {
+      return delegate.getMinPreference();
+    }
+
+    @Override
+    public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      // Changes are seen at once
+    }
+
+  }
+
+}
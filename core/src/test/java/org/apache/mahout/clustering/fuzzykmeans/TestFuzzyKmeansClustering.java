@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -36,8 +37,10 @@ import org.apache.mahout.clustering.kmeans.TestKmeansClustering;
 import org.apache.mahout.common.DummyOutputCollector;
 import org.apache.mahout.common.DummyReporter;
 import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.common.distance.DistanceMeasure;
 import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
+import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.VectorWritable;
 
@@ -246,33 +249,96 @@ public class TestFuzzyKmeansClustering extends MahoutTestCase {
       for (VectorWritable point : points) {
         mapper.map(new Text(), point, mapCollector, null);
       }
+      mapper.close();
 
       // now verify mapper output
       assertEquals("Mapper Keys", k + 1, mapCollector.getData().size());
 
-      Map<Vector, Double> pointTotalProbMap = new HashMap<Vector, Double>();
-
-      for (Text key : mapCollector.getKeys()) {
-        // SoftCluster cluster = SoftCluster.decodeCluster(key);
-        List<FuzzyKMeansInfo> values = mapCollector.getValue(key);
-
-        for (FuzzyKMeansInfo value : values) {
-
-          Double val = pointTotalProbMap.get(value.getVector());
-          double probVal = 0.0;
-          if (val != null) {
-            probVal = val;
+      // each cluster gets the sum of the points' probabilities raised to the power m, and the points times these;
+      // with m = 2, a point's probability for cluster i is 1 / sum over clusters j of (d_i / d_j)^2
+      double[] expectedProbSums = new double[clusterList.size()];
+      double[][] expectedTotals = new double[clusterList.size()][];
+      for (VectorWritable point : points) {
+        Vector vector = point.get();
+        double[] distances = new double[clusterList.size()];
+        for (int i = 0; i < clusterList.size(); i++) {
+          Vector center = clusterList.get(i).getCenter();
+          double squaredDistance = 0.0;
+          for (int d = 0; d < vector.size(); d++) {
+            double difference = center.get(d) - vector.get(d);
+            squaredDistance += difference * difference;
+          }
+          distances[i] = Math.sqrt(squaredDistance);
+        }
+        for (int i = 0; i < clusterList.size(); i++) {
+          double denominator = 0.0;
+          for (double distance : distances) {
+            double ratio = distances[i] / distance;
+            denominator += ratio * ratio;
+          }
+          double probability = 1.0 / denominator;
+          double weight = probability * probability;
+          expectedProbSums[i] += weight;
+          if (expectedTotals[i] == null) {
+            expectedTotals[i] = new double[vector.size()];
+          }
+          for (int d = 0; d < vector.size(); d++) {
+            expectedTotals[i][d] += weight * vector.get(d);
           }
-
-          pointTotalProbMap.put(value.getVector(), probVal + value.getProbability());
         }
       }
+      for (int i = 0; i < clusterList.size(); i++) {
+        List<FuzzyKMeansInfo> values = mapCollector.getValue(new Text(clusterList.get(i).getIdentifier()));
+        assertEquals("Mapper Values", 1, values.size());
+        assertEquals("Prob Sum", expectedProbSums[i], values.get(0).getProbability(), 1.0e-9);
+        for (int d = 0; d < expectedTotals[i].length; d++) {
+          assertEquals("Weighted Total", expectedTotals[i][d], values.get(0).getVector().get(d), 1.0e-9);
+        }
+        assertEquals("Combiner Pass", 1, values.get(0).getCombinerPass());
+      }
+    }
+  }
 
-      for (Map.Entry<Vector, Double> entry : pointTotalProbMap.entrySet()) {
-        Vector key = entry.getKey();
-        double value = round(entry.getValue(), 1);
-
-        assertEquals("total Prob for Point:" + key, 1.0, value);
+  /** Story: test that weighting points on several threads gives the same partial sums as on one */
+  public void testFuzzyKMeansMapperThreads() throws Exception {
+    List<VectorWritable> points = new ArrayList<VectorWritable>();
+    Random random = RandomUtils.getRandom();
+    for (int i = 0; i < 2000; i++) {
+      points.add(new VectorWritable(new DenseVector(new double[] {random.nextGaussian(), random.nextGaussian()})));
+    }
+    List<SoftCluster> clusterList = new ArrayList<SoftCluster>();
+    for (int i = 0; i < 5; i++) {
+      clusterList.add(new SoftCluster(tweakValue(points.get(i).get()), i));
+    }
+    Map<Text, List<FuzzyKMeansInfo>> results = new HashMap<Text, List<FuzzyKMeansInfo>>();
+    for (int numThreads = 1; numThreads <= 3; numThreads += 2) {
+      FuzzyKMeansMapper mapper = new FuzzyKMeansMapper();
+      mapper.config(clusterList);
+      JobConf conf = new JobConf();
+      conf.set(FuzzyKMeansConfigKeys.DISTANCE_MEASURE_KEY, EuclideanDistanceMeasure.class.getName());
+      conf.set(FuzzyKMeansConfigKeys.CLUSTER_CONVERGENCE_KEY, "0.001");
+      conf.set(FuzzyKMeansConfigKeys.M_KEY, "2");
+      conf.set(FuzzyKMeansConfigKeys.EMIT_MOST_LIKELY_KEY, "true");
+      conf.set(FuzzyKMeansConfigKeys.THRESHOLD_KEY, "0");
+      conf.setInt(FuzzyKMeansConfigKeys.MAPPER_THREADS_KEY, numThreads);
+      mapper.configure(conf);
+      DummyOutputCollector<Text, FuzzyKMeansInfo> mapCollector = new DummyOutputCollector<Text, FuzzyKMeansInfo>();
+      for (VectorWritable point : points) {
+        mapper.map(new Text(), point, mapCollector, null);
+      }
+      mapper.close();
+      if (results.isEmpty()) {
+        results.putAll(mapCollector.getData());
+      } else {
+        assertEquals("Mapper Keys", results.size(), mapCollector.getData().size());
+        for (Map.Entry<Text, List<FuzzyKMeansInfo>> entry : results.entrySet()) {
+          FuzzyKMeansInfo expected = entry.getValue().get(0);
+          List<FuzzyKMeansInfo> values = mapCollector.getValue(entry.getKey());
+          assertEquals("Mapper Values", 1, values.size());
+          assertEquals("Prob Sum", expected.getProbability(), values.get(0).getProbability(), 1.0e-9);
+          assertEquals("Weighted Total", 0.0,
+              expected.getVector().getDistanceSquared(values.get(0).getVector()), 1.0e-9);
+        }
       }
     }
   }
@@ -309,6 +375,7 @@ public class TestFuzzyKmeansClustering extends MahoutTestCase {
       for (VectorWritable point : points) {
         mapper.map(new Text(), point, mapCollector, null);
       }
+      mapper.close();
 
       // run combiner
       DummyOutputCollector<Text, FuzzyKMeansInfo> combinerCollector = new DummyOutputCollector<Text, FuzzyKMeansInfo>();
@@ -363,6 +430,7 @@ public class TestFuzzyKmeansClustering extends MahoutTestCase {
       for (VectorWritable point : points) {
         mapper.map(new Text(), point, mapCollector, null);
       }
+      mapper.close();
 
       // run combiner
       DummyOutputCollector<Text, FuzzyKMeansInfo> combinerCollector = new DummyOutputCollector<Text, FuzzyKMeansInfo>();
@@ -447,6 +515,7 @@ public class TestFuzzyKmeansClustering extends MahoutTestCase {
       for (VectorWritable point : points) {
         mapper.map(new Text(), point, mapCollector, null);
       }
+      mapper.close();
       for (SoftCluster softCluster : clusterList) {
         softCluster.recomputeCenter();
       }
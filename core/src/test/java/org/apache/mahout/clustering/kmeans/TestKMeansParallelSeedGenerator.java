@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.clustering.kmeans;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.mahout.clustering.ClusteringTestUtils;
+import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+
+public class TestKMeansParallelSeedGenerator extends MahoutTestCase {
+
+  /** Story: k-means|| seeding puts one initial cluster in each of several distant groups of points */
+  public void testParallelSeedGenerator() throws Exception {
+    double[][] groupCenters = {{0, 0}, {100, 0}, {0, 100}};
+    Random random = RandomUtils.getRandom();
+    List<VectorWritable> points = new ArrayList<VectorWritable>();
+    for (double[] groupCenter : groupCenters) {
+      for (int i = 0; i < 20; i++) {
+        points.add(new VectorWritable(new DenseVector(new double[] {
+            groupCenter[0] + random.nextGaussian(), groupCenter[1] + random.nextGaussian()})));
+      }
+    }
+    JobConf job = new JobConf(KMeansParallelSeedGenerator.class);
+    FileSystem fs = FileSystem.get(job);
+    Path input = getTestTempFilePath("parallel-input");
+    Path output = getTestTempDirPath("parallel-output");
+    ClusteringTestUtils.writePointsToFile(points, input, fs, job);
+
+    Path seedFile =
+        KMeansParallelSeedGenerator.buildSeeds(input, output, 3, EuclideanDistanceMeasure.class.getName());
+    assertEquals(new Path(output, "part-parallelSeed"), seedFile);
+    assertFalse("work files left", fs.exists(new Path(output, "seeding")));
+
+    SequenceFile.Reader reader = new SequenceFile.Reader(fs, seedFile, job);
+    Text key = new Text();
+    Cluster value = new Cluster();
+    Set<Integer> ids = new HashSet<Integer>();
+    Set<Integer> groups = new HashSet<Integer>();
+    while (reader.next(key, value)) {
+      assertTrue("duplicate id", ids.add(value.getId()));
+      Vector center = value.getCenter();
+      for (int g = 0; g < groupCenters.length; g++) {
+        if (center.getDistanceSquared(new DenseVector(groupCenters[g])) < 25.0) {
+          assertTrue("two clusters in group " + g, groups.add(g));
+        }
+      }
+      value = new Cluster();
+    }
+    reader.close();
+    assertEquals("clusters", 3, ids.size());
+    assertEquals("groups", 3, groups.size());
+  }
+
+  /** Story: candidates are reduced to the means of their points, weighted by how many there are */
+  public void testReduceCandidates() throws Exception {
+    int[] counts = {3, 0, 1};
+    Vector[] totals = {new DenseVector(new double[] {3, 3}), null, new DenseVector(new double[] {10, 10})};
+    List<Vector> seeds = KMeansParallelSeedGenerator.reduceCandidates(counts, totals, 2,
+        new EuclideanDistanceMeasure(), RandomUtils.getRandom());
+    // fewer candidates with points than k: all of them, as the means of their points
+    assertEquals(2, seeds.size());
+    assertEquals(0.0, seeds.get(0).getDistanceSquared(new DenseVector(new double[] {1, 1})), 1.0e-9);
+    assertEquals(0.0, seeds.get(1).getDistanceSquared(new DenseVector(new double[] {10, 10})), 1.0e-9);
+
+    counts = new int[] {3, 1, 2, 1};
+    totals = new Vector[] {new DenseVector(new double[] {3, 0}), new DenseVector(new double[] {2, 0}),
+                           new DenseVector(new double[] {20, 0}), new DenseVector(new double[] {11, 0})};
+    seeds = KMeansParallelSeedGenerator.reduceCandidates(counts, totals, 2, new EuclideanDistanceMeasure(),
+        RandomUtils.getRandom());
+    // k-means over the candidates, weighted by their counts, separates {1, 2} from {10, 11}
+    assertEquals(2, seeds.size());
+    double first = seeds.get(0).get(0);
+    double second = seeds.get(1).get(0);
+    assertEquals(5.0 / 4.0, Math.min(first, second), 1.0e-9);
+    assertEquals(31.0 / 3.0, Math.max(first, second), 1.0e-9);
+  }
+
+}
@@ -18,12 +18,15 @@
 package org.apache.mahout.clustering.kmeans;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
@@ -36,9 +39,11 @@ import org.apache.mahout.clustering.canopy.CanopyDriver;
 import org.apache.mahout.common.DummyOutputCollector;
 import org.apache.mahout.common.DummyReporter;
 import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.common.distance.DistanceMeasure;
 import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
 import org.apache.mahout.common.distance.ManhattanDistanceMeasure;
+import org.apache.mahout.common.distance.WeightedEuclideanDistanceMeasure;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.RandomAccessSparseVector;
 import org.apache.mahout.math.SequentialAccessSparseVector;
@@ -126,6 +131,90 @@ public class TestKmeansClustering extends MahoutTestCase {
     }
   }
 
+  /** Story: skipping distances by the triangle inequality gives the same clusters as computing them all */
+  public void testAcceleratedAssignment() throws Exception {
+    Random random = RandomUtils.getRandom();
+    List<Vector> points = new ArrayList<Vector>();
+    for (int i = 0; i < 500; i++) {
+      Vector point = new DenseVector(5);
+      for (int j = 0; j < 5; j++) {
+        point.set(j, random.nextGaussian() + 4 * (i % 5));
+      }
+      points.add(point);
+    }
+    List<Cluster> clusters = new ArrayList<Cluster>();
+    for (int i = 0; i < 20; i++) {
+      clusters.add(new Cluster(points.get(i), i));
+    }
+
+    DistanceMeasure measure = new EuclideanDistanceMeasure();
+    CenterDistances centers = new CenterDistances(clusters, measure);
+    for (Vector point : points) {
+      int nearest = 0;
+      for (int c = 1; c < clusters.size(); c++) {
+        if (measure.distance(clusters.get(c).getCenter(), point)
+            < measure.distance(clusters.get(nearest).getCenter(), point)) {
+          nearest = c;
+        }
+      }
+      assertEquals(nearest, centers.nearest(point));
+    }
+    assertTrue(centers.getDistanceEvaluations() < points.size() * clusters.size());
+
+    // A subclass isn't taken to be a metric, so computes every distance
+    DistanceMeasure plainMeasure = new EuclideanDistanceMeasure() { };
+    List<List<Cluster>> expected = KMeansClusterer.clusterPoints(points, clusters, plainMeasure, 10, 0.001);
+    List<List<Cluster>> actual = KMeansClusterer.clusterPoints(points, clusters, measure, 10, 0.001);
+    assertEquals(expected.size(), actual.size());
+    List<Cluster> expectedClusters = expected.get(expected.size() - 1);
+    List<Cluster> actualClusters = actual.get(actual.size() - 1);
+    for (int c = 0; c < expectedClusters.size(); c++) {
+      assertEquals(expectedClusters.get(c).getNumPoints(), actualClusters.get(c).getNumPoints());
+      assertEquals(0.0, measure.distance(expectedClusters.get(c).getCenter(), actualClusters.get(c).getCenter()),
+                   1.0e-9);
+    }
+  }
+
+  /** Story: far from the origin, skipping distances still finds the nearest center */
+  public void testAcceleratedAssignmentFarFromOrigin() throws Exception {
+    Random random = RandomUtils.getRandom();
+    List<Vector> points = new ArrayList<Vector>();
+    for (int i = 0; i < 500; i++) {
+      Vector point = new DenseVector(3);
+      for (int j = 0; j < 3; j++) {
+        point.set(j, 1.0e8 + random.nextGaussian() + 4 * (i % 5));
+      }
+      points.add(point);
+    }
+    List<Cluster> clusters = new ArrayList<Cluster>();
+    for (int i = 0; i < 20; i++) {
+      clusters.add(new Cluster(points.get(i), i));
+    }
+
+    CenterDistances centers = new CenterDistances(clusters, new EuclideanDistanceMeasure());
+    for (Vector point : points) {
+      int nearest = 0;
+      for (int c = 1; c < clusters.size(); c++) {
+        Vector difference = point.minus(clusters.get(c).getCenter());
+        Vector nearestDifference = point.minus(clusters.get(nearest).getCenter());
+        if (difference.dot(difference) < nearestDifference.dot(nearestDifference)) {
+          nearest = c;
+        }
+      }
+      assertEquals(nearest, centers.nearest(point));
+    }
+  }
+
+  /** Story: weighted Euclidean distance is only taken to be a metric while none of its weights is negative */
+  public void testWeightedMeasureSupport() throws Exception {
+    WeightedEuclideanDistanceMeasure measure = new WeightedEuclideanDistanceMeasure();
+    assertTrue(CenterDistances.isSupported(measure));
+    measure.setWeights(new DenseVector(new double[] {1.0, 0.0, 2.5}));
+    assertTrue(CenterDistances.isSupported(measure));
+    measure.setWeights(new DenseVector(new double[] {1.0, -0.5, 2.5}));
+    assertFalse(CenterDistances.isSupported(measure));
+  }
+
   public void testStd() {
     List<Vector> points = getPoints(reference);
     Cluster c = new Cluster(points.get(0));
@@ -137,15 +226,6 @@ public class TestKmeansClustering extends MahoutTestCase {
     }
   }
 
-  private static Map<String, Cluster> loadClusterMap(List<Cluster> clusters) {
-    Map<String, Cluster> clusterMap = new HashMap<String, Cluster>();
-
-    for (Cluster cluster : clusters) {
-      clusterMap.put(cluster.getIdentifier(), cluster);
-    }
-    return clusterMap;
-  }
-
   /** Story: test that the mapper will map input points to the nearest cluster */
   public void testKMeansMapper() throws Exception {
     KMeansMapper mapper = new KMeansMapper();
@@ -170,21 +250,77 @@ public class TestKmeansClustering extends MahoutTestCase {
 
       // map the data
       for (VectorWritable point : points) {
-        mapper.map(new Text(), point, collector, null);
+        mapper.map(new Text(), point, collector, new DummyReporter());
       }
+      mapper.close();
       assertEquals("Number of map results", k + 1, collector.getData().size());
-      // now verify that all points are correctly allocated
+      // now verify that all points are correctly allocated, and summed once per cluster
       EuclideanDistanceMeasure euclideanDistanceMeasure = new EuclideanDistanceMeasure();
-      Map<String, Cluster> clusterMap = loadClusterMap(clusters);
-      for (Text key : collector.getKeys()) {
-        Cluster cluster = clusterMap.get(key.toString());
-        List<KMeansInfo> values = collector.getValue(key);
-        for (KMeansInfo value : values) {
-          double distance = euclideanDistanceMeasure.distance(cluster.getCenter(), value.getPointTotal());
-          for (Cluster c : clusters) {
-            assertTrue("distance error", distance <= euclideanDistanceMeasure.distance(value.getPointTotal(), c.getCenter()));
+      int[] expectedCounts = new int[clusters.size()];
+      Vector[] expectedTotals = new Vector[clusters.size()];
+      for (VectorWritable point : points) {
+        int nearest = 0;
+        for (int i = 1; i < clusters.size(); i++) {
+          if (euclideanDistanceMeasure.distance(clusters.get(i).getCenter(), point.get())
+              < euclideanDistanceMeasure.distance(clusters.get(nearest).getCenter(), point.get())) {
+            nearest = i;
           }
         }
+        expectedCounts[nearest]++;
+        expectedTotals[nearest] = expectedTotals[nearest] == null
+            ? point.get() : expectedTotals[nearest].plus(point.get());
+      }
+      for (int i = 0; i < clusters.size(); i++) {
+        List<KMeansInfo> values = collector.getValue(new Text(clusters.get(i).getIdentifier()));
+        if (expectedCounts[i] == 0) {
+          assertNull("unexpected values", values);
+        } else {
+          assertEquals("too many values", 1, values.size());
+          assertEquals("points", expectedCounts[i], values.get(0).getPoints());
+          assertEquals("point total", 0.0, expectedTotals[i].getDistanceSquared(values.get(0).getPointTotal()), 1.0e-9);
+        }
+      }
+    }
+  }
+
+  /** Story: test that assigning points on several threads gives the same partial sums as on one */
+  public void testKMeansMapperThreads() throws Exception {
+    List<VectorWritable> points = new ArrayList<VectorWritable>();
+    Random random = RandomUtils.getRandom();
+    for (int i = 0; i < 2000; i++) {
+      points.add(new VectorWritable(new DenseVector(new double[] {random.nextGaussian(), random.nextGaussian()})));
+    }
+    List<Cluster> clusters = new ArrayList<Cluster>();
+    for (int i = 0; i < 5; i++) {
+      clusters.add(new Cluster(points.get(i).get(), i));
+    }
+    Map<Text, List<KMeansInfo>> results = new HashMap<Text, List<KMeansInfo>>();
+    for (int numThreads = 1; numThreads <= 3; numThreads += 2) {
+      KMeansMapper mapper = new KMeansMapper();
+      JobConf conf = new JobConf();
+      conf.set(KMeansConfigKeys.DISTANCE_MEASURE_KEY, "org.apache.mahout.common.distance.EuclideanDistanceMeasure");
+      conf.set(KMeansConfigKeys.CLUSTER_CONVERGENCE_KEY, "0.001");
+      conf.set(KMeansConfigKeys.CLUSTER_PATH_KEY, "");
+      conf.setInt(KMeansConfigKeys.MAPPER_THREADS_KEY, numThreads);
+      mapper.configure(conf);
+      mapper.config(clusters);
+      DummyOutputCollector<Text, KMeansInfo> collector = new DummyOutputCollector<Text, KMeansInfo>();
+      for (VectorWritable point : points) {
+        mapper.map(new Text(), point, collector, new DummyReporter());
+      }
+      mapper.close();
+      if (results.isEmpty()) {
+        results.putAll(collector.getData());
+      } else {
+        assertEquals("Number of map results", results.size(), collector.getData().size());
+        for (Map.Entry<Text, List<KMeansInfo>> entry : results.entrySet()) {
+          KMeansInfo expected = entry.getValue().get(0);
+          List<KMeansInfo> values = collector.getValue(entry.getKey());
+          assertEquals("too many values", 1, values.size());
+          assertEquals("points", expected.getPoints(), values.get(0).getPoints());
+          assertEquals("point total", 0.0,
+              expected.getPointTotal().getDistanceSquared(values.get(0).getPointTotal()), 1.0e-9);
+        }
       }
     }
   }
@@ -216,8 +352,9 @@ public class TestKmeansClustering extends MahoutTestCase {
       mapper.config(clusters);
       // map the data
       for (VectorWritable point : points) {
-        mapper.map(new Text(), point, collector, null);
+        mapper.map(new Text(), point, collector, new DummyReporter());
       }
+      mapper.close();
       // now combine the data
       KMeansCombiner combiner = new KMeansCombiner();
       DummyOutputCollector<Text, KMeansInfo> collector2 = new DummyOutputCollector<Text, KMeansInfo>();
@@ -272,8 +409,9 @@ public class TestKmeansClustering extends MahoutTestCase {
       mapper.config(clusters);
       // map the data
       for (VectorWritable point : points) {
-        mapper.map(new Text(), point, collector, null);
+        mapper.map(new Text(), point, collector, new DummyReporter());
       }
+      mapper.close();
       // now combine the data
       KMeansCombiner combiner = new KMeansCombiner();
       DummyOutputCollector<Text, KMeansInfo> collector2 = new DummyOutputCollector<Text, KMeansInfo>();
@@ -384,6 +522,84 @@ public class TestKmeansClustering extends MahoutTestCase {
     }
   }
 
+  /** Story: User wishes to run kmeans on reference data in memory, with the same results as the MR job */
+  public void testLocalKMeansJob() throws Exception {
+    List<VectorWritable> points = getPointsWritable(reference);
+
+    Path pointsPath = getTestTempDirPath("points");
+    Path clustersPath = getTestTempDirPath("clusters");
+    Configuration conf = new Configuration();
+    ClusteringTestUtils.writePointsToFile(points, new Path(pointsPath, "file1"), fs, conf);
+    ClusteringTestUtils.writePointsToFile(points, new Path(pointsPath, "file2"), fs, conf);
+    for (int k = 1; k < points.size(); k++) {
+      System.out.println("testLocalKMeansJob k= " + k);
+      JobConf job = new JobConf(KMeansDriver.class);
+      Path path = new Path(clustersPath, "part-00000");
+      FileSystem fs = FileSystem.get(path.toUri(), job);
+      SequenceFile.Writer writer = new SequenceFile.Writer(fs, job, path, Text.class, Cluster.class);
+      for (int i = 0; i < k + 1; i++) {
+        Cluster cluster = new Cluster(points.get(i).get(), i);
+        cluster.addPoint(cluster.getCenter());
+        writer.append(new Text(cluster.getIdentifier()), cluster);
+      }
+      writer.close();
+
+      Path mrOutputPath = getTestTempDirPath("mrOutput" + k);
+      KMeansDriver.runJob(pointsPath, clustersPath, mrOutputPath, EuclideanDistanceMeasure.class.getName(), 0.001,
+          10, 1, true);
+      Path localOutputPath = getTestTempDirPath("localOutput" + k);
+      LocalKMeansDriver.runJob(pointsPath, clustersPath, localOutputPath, EuclideanDistanceMeasure.class.getName(),
+          0.001, 10, true, 2);
+
+      // the same iterations, ending with the same clusters
+      int iterations = 1;
+      while (fs.exists(new Path(mrOutputPath, Cluster.CLUSTERS_DIR + iterations))) {
+        iterations++;
+      }
+      assertTrue("iterations", iterations > 1);
+      assertTrue("too few iterations", fs.exists(new Path(localOutputPath, Cluster.CLUSTERS_DIR + (iterations - 1))));
+      assertFalse("too many iterations", fs.exists(new Path(localOutputPath, Cluster.CLUSTERS_DIR + iterations)));
+      List<Cluster> mrClusters = new ArrayList<Cluster>();
+      KMeansUtil.configureWithClusterInfo(new Path(mrOutputPath, Cluster.CLUSTERS_DIR + (iterations - 1)),
+          mrClusters);
+      List<Cluster> localClusters = new ArrayList<Cluster>();
+      KMeansUtil.configureWithClusterInfo(new Path(localOutputPath, Cluster.CLUSTERS_DIR + (iterations - 1)),
+          localClusters);
+      assertEquals("clusters", mrClusters.size(), localClusters.size());
+      Map<Integer, Vector> mrCenters = new HashMap<Integer, Vector>();
+      for (Cluster cluster : mrClusters) {
+        mrCenters.put(cluster.getId(), cluster.getCenter());
+      }
+      for (Cluster cluster : localClusters) {
+        assertEquals("center " + cluster.getId(), 0.0,
+            mrCenters.get(cluster.getId()).getDistanceSquared(cluster.getCenter()), 1.0e-9);
+      }
+
+      // the same number of points in each cluster
+      assertEquals("clustered points", countClusteredPoints(fs, mrOutputPath, conf),
+          countClusteredPoints(fs, localOutputPath, conf));
+    }
+  }
+
+  private static Map<Integer, Integer> countClusteredPoints(FileSystem fs, Path outputPath, Configuration conf)
+    throws IOException {
+    Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+    for (FileStatus part : fs.listStatus(new Path(outputPath, Cluster.CLUSTERED_POINTS_DIR))) {
+      if (!part.getPath().getName().startsWith("part")) {
+        continue;
+      }
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, part.getPath(), conf);
+      IntWritable clusterId = new IntWritable();
+      WeightedVectorWritable value = new WeightedVectorWritable();
+      while (reader.next(clusterId, value)) {
+        Integer count = counts.get(clusterId.get());
+        counts.put(clusterId.get(), count == null ? 1 : count + 1);
+      }
+      reader.close();
+    }
+    return counts;
+  }
+
   /** Story: User wants to use canopy clustering to input the initial clusters for kmeans job. */
   public void testKMeansWithCanopyClusterInput() throws Exception {
     List<VectorWritable> points = getPointsWritable(reference);
@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.clustering.kmeans;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.mahout.clustering.ClusteringTestUtils;
+import org.apache.mahout.common.MahoutTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.common.distance.EuclideanDistanceMeasure;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorWritable;
+
+public class TestMiniBatchKMeans extends MahoutTestCase {
+
+  private static final double[][] GROUP_CENTERS = {{0, 0}, {100, 0}, {0, 100}};
+
+  private static List<Vector> groupPoints(int pointsPerGroup, Random random) {
+    List<Vector> points = new ArrayList<Vector>();
+    for (double[] groupCenter : GROUP_CENTERS) {
+      for (int i = 0; i < pointsPerGroup; i++) {
+        points.add(new DenseVector(new double[] {
+            groupCenter[0] + random.nextGaussian(), groupCenter[1] + random.nextGaussian()}));
+      }
+    }
+    return points;
+  }
+
+  private static List<Cluster> initialClusters() {
+    List<Cluster> clusters = new ArrayList<Cluster>();
+    clusters.add(new Cluster(new DenseVector(new double[] {5, 5}), 0));
+    clusters.add(new Cluster(new DenseVector(new double[] {90, 10}), 1));
+    clusters.add(new Cluster(new DenseVector(new double[] {10, 90}), 2));
+    return clusters;
+  }
+
+  private static void assertNearGroupCenters(List<Cluster> clusters, double maxDistance) {
+    assertEquals(GROUP_CENTERS.length, clusters.size());
+    for (int c = 0; c < GROUP_CENTERS.length; c++) {
+      double distance = Math.sqrt(clusters.get(c).getCenter().getDistanceSquared(new DenseVector(GROUP_CENTERS[c])));
+      assertTrue("cluster " + c + " is " + distance + " from its group", distance < maxDistance);
+    }
+  }
+
+  /** Story: the centers settle on the groups of points well before the end of one pass over them */
+  public void testClustererConverges() throws Exception {
+    Random random = RandomUtils.getRandom();
+    List<Vector> points = groupPoints(3000, random);
+    Collections.shuffle(points, random);
+    MiniBatchKMeansClusterer clusterer =
+        new MiniBatchKMeansClusterer(initialClusters(), new EuclideanDistanceMeasure(), 100, 0, 0.0, random);
+    for (Vector point : points.subList(0, points.size() / 6)) {
+      clusterer.add(point);
+    }
+    assertEquals(15, clusterer.getNumBatches());
+    assertNearGroupCenters(clusterer.getClusters(), 0.5);
+  }
+
+  /** Story: points in the order of their groups are shuffled enough to find every group */
+  public void testShuffleBuffer() throws Exception {
+    Random random = RandomUtils.getRandom();
+    List<Vector> points = groupPoints(1000, random);
+    MiniBatchKMeansClusterer clusterer =
+        new MiniBatchKMeansClusterer(initialClusters(), new EuclideanDistanceMeasure(), 50, 2000, 0.0, random);
+    for (Vector point : points) {
+      clusterer.add(point);
+    }
+    clusterer.flush();
+    assertEquals(points.size(), clusterer.getNumPoints());
+    long[] counts = clusterer.getCounts();
+    for (int c = 0; c < counts.length; c++) {
+      assertEquals("points of cluster " + c, 1000, counts[c]);
+    }
+    assertNearGroupCenters(clusterer.getClusters(), 0.5);
+  }
+
+  /** Story: a center moves as if it were moved towards each of its points in turn */
+  public void testLearningRates() throws Exception {
+    double[] values = {4, 8, 1, 7, 3, 9, 2};
+    List<Cluster> clusters = new ArrayList<Cluster>();
+    clusters.add(new Cluster(new DenseVector(new double[] {100}), 0));
+    MiniBatchKMeansClusterer mean =
+        new MiniBatchKMeansClusterer(clusters, new EuclideanDistanceMeasure(), 3, 0, 0.0, RandomUtils.getRandom());
+    MiniBatchKMeansClusterer recent =
+        new MiniBatchKMeansClusterer(clusters, new EuclideanDistanceMeasure(), 3, 0, 0.4, RandomUtils.getRandom());
+    double expected = 100;
+    double total = 0;
+    for (int i = 0; i < values.length; i++) {
+      mean.add(new DenseVector(new double[] {values[i]}));
+      recent.add(new DenseVector(new double[] {values[i]}));
+      double rate = Math.max(1.0 / (i + 1), 0.4);
+      expected = (1.0 - rate) * expected + rate * values[i];
+      total += values[i];
+    }
+    mean.flush();
+    recent.flush();
+    assertEquals(3, mean.getNumBatches());
+    // without a minimum rate, the center is the mean of its points
+    assertEquals(total / values.length, mean.getClusters().get(0).getCenter().get(0), 1.0e-9);
+    assertEquals(expected, recent.getClusters().get(0).getCenter().get(0), 1.0e-9);
+  }
+
+  /** Story: checkpoints are clusters as k-means writes them, converged if they moved little since the last */
+  public void testCheckpoint() throws Exception {
+    List<Cluster> clusters = new ArrayList<Cluster>();
+    clusters.add(new Cluster(new DenseVector(new double[] {0}), 7));
+    clusters.add(new Cluster(new DenseVector(new double[] {10}), 9));
+    MiniBatchKMeansClusterer clusterer =
+        new MiniBatchKMeansClusterer(clusters, new EuclideanDistanceMeasure(), 2, 0, 0.0, RandomUtils.getRandom());
+    clusterer.add(new DenseVector(new double[] {0.1}));
+    clusterer.add(new DenseVector(new double[] {13}));
+    List<Cluster> checkpoint = clusterer.checkpoint(1.0);
+    assertEquals("C-9", checkpoint.get(1).getIdentifier());
+    assertEquals("V-7", checkpoint.get(0).getIdentifier());
+    assertEquals(13.0, checkpoint.get(1).computeCentroid().get(0), 1.0e-9);
+
+    clusterer.add(new DenseVector(new double[] {-0.1}));
+    clusterer.add(new DenseVector(new double[] {12}));
+    checkpoint = clusterer.checkpoint(1.0);
+    // cluster 9 moved from 13 to 12.5 since the last checkpoint
+    assertEquals("V-9", checkpoint.get(1).getIdentifier());
+    assertEquals(12.5, checkpoint.get(1).computeCentroid().get(0), 1.0e-9);
+    assertEquals(12.5, clusterer.getClusters().get(1).getCenter().get(0), 1.0e-9);
+  }
+
+  /** Story: the driver writes clusters-N checkpoints which k-means can read, until the clusters converge */
+  public void testMiniBatchKMeansJob() throws Exception {
+    List<VectorWritable> points = new ArrayList<VectorWritable>();
+    Random random = RandomUtils.getRandom();
+    for (Vector point : groupPoints(500, random)) {
+      points.add(new VectorWritable(point));
+    }
+    Collections.shuffle(points, random);
+    JobConf job = new JobConf(MiniBatchKMeansDriver.class);
+    FileSystem fs = FileSystem.get(job);
+    Path input = getTestTempDirPath("minibatch-input");
+    ClusteringTestUtils.writePointsToFile(points, new Path(input, "file1"), fs, job);
+    Path clustersIn = getTestTempDirPath("minibatch-clusters");
+    SequenceFile.Writer writer =
+        new SequenceFile.Writer(fs, job, new Path(clustersIn, "part-00000"), Text.class, Cluster.class);
+    for (Cluster cluster : initialClusters()) {
+      cluster.addPoint(cluster.getCenter());
+      writer.append(new Text(cluster.getIdentifier()), cluster);
+    }
+    writer.close();
+
+    Path output = getTestTempDirPath("minibatch-output");
+    int checkpoints = MiniBatchKMeansDriver.runJob(input, clustersIn, output,
+        EuclideanDistanceMeasure.class.getName(), 0.1, 0, 20, 10, 0.0, false);
+    assertTrue("checkpoints", checkpoints > 1);
+    assertFalse(fs.exists(new Path(output, Cluster.CLUSTERS_DIR + (checkpoints + 1))));
+
+    List<Cluster> clusters = new ArrayList<Cluster>();
+    KMeansUtil.configureWithClusterInfo(new Path(output, Cluster.CLUSTERS_DIR + checkpoints), clusters);
+    assertNearGroupCenters(clusters, 0.5);
+    for (Cluster cluster : clusters) {
+      assertTrue("converged " + cluster.getIdentifier(), cluster.isConverged());
+    }
+  }
+
+}
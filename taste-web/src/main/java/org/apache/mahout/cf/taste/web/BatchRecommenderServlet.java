@@ -0,0 +1,389 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.web;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A servlet which returns recommendations for many users in one request. Unlike
+ * {@link RecommenderServlet}, which computes one user's recommendations on the request thread, this servlet
+ * hands each user in the batch to a bounded pool of worker threads, so that the users are computed in
+ * parallel, and waits for them only until a deadline. It accepts GET and POST HTTP requests, with these
+ * parameters:</p>
+ *
+ * <ul>
+ * <li><em>userID</em>: a user ID for which to produce recommendations. Give it once per user, or give
+ *  all users comma-separated</li>
+ * <li><em>howMany</em>: (optional) the number of recommendations to produce per user</li>
+ * <li><em>timeoutMillis</em>: (optional) how long to wait for all users, no more than the configured
+ *  timeout</li>
+ * <li><em>format</em>: (optional) "text" or "json"</li>
+ * <li><em>stats</em>: (optional) if "true", return the latency and cache statistics instead</li>
+ * </ul>
+ *
+ * <p>Users whose recommendations aren't ready by the deadline, who can't be queued because the pool is
+ * full, or whose recommendations fail, are given the last recommendations computed for them, if these are
+ * still cached. Their status in the response is then "fallback", or "none" if nothing was cached; the
+ * others are "ok". The response is thus always returned on time, with a partial result if need be.</p>
+ *
+ * <p>The text response has one line per recommended item, with the user ID, status, value and item ID
+ * separated by tabs; users without any item get one line with only user ID and status.</p>
+ *
+ * <p>Like {@link RecommenderServlet}, this requires the <code>init-param</code> "recommender-class", and
+ * shares the {@link Recommender} with it. It also takes the optional <code>init-param</code>s "threads",
+ * the number of worker threads (default: twice the number of processors), "queue-size", the number of users
+ * which may wait for a worker (default 1000), "timeout-millis", the longest a request waits (default 500),
+ * and "fallback-cache-size", the number of users whose last recommendations are kept (default 100000).</p>
+ *
+ * <p>This works within the Servlet 2.4 API that this web application is built against: the request thread
+ * itself still waits for the batch, but never for longer than the deadline, and never for more than one
+ * user's computation at a time.</p>
+ */
+public final class BatchRecommenderServlet extends HttpServlet {
+
+  private static final Logger log = LoggerFactory.getLogger(BatchRecommenderServlet.class);
+
+  private static final int DEFAULT_HOW_MANY = 20;
+  private static final int DEFAULT_QUEUE_SIZE = 1000;
+  private static final int DEFAULT_TIMEOUT_MILLIS = 500;
+  private static final int DEFAULT_FALLBACK_CACHE_SIZE = 100000;
+
+  private static final String STATUS_OK = "ok";
+  private static final String STATUS_FALLBACK = "fallback";
+  private static final String STATUS_NONE = "none";
+
+  private Recommender recommender;
+  private ThreadPoolExecutor executor;
+  private long timeoutMillis;
+  private FastByIDMap<List<RecommendedItem>> lastRecommendations;
+
+  private final LatencyHistogram requestLatencies = new LatencyHistogram();
+  private final LatencyHistogram recommendLatencies = new LatencyHistogram();
+  private final AtomicLong numRequests = new AtomicLong();
+  private final AtomicLong numUsers = new AtomicLong();
+  private final AtomicLong numTimedOut = new AtomicLong();
+  private final AtomicLong numRejected = new AtomicLong();
+  private final AtomicLong numFailed = new AtomicLong();
+  private final AtomicLong fallbackHits = new AtomicLong();
+  private final AtomicLong fallbackMisses = new AtomicLong();
+
+  @Override
+  public void init(ServletConfig config) throws ServletException {
+    super.init(config);
+    String recommenderClassName = config.getInitParameter("recommender-class");
+    if (recommenderClassName == null) {
+      throw new ServletException("Servlet init-param \"recommender-class\" is not defined");
+    }
+    try {
+      RecommenderSingleton.initializeIfNeeded(recommenderClassName);
+    } catch (TasteException te) {
+      throw new ServletException(te);
+    }
+    recommender = RecommenderSingleton.getInstance().getRecommender();
+
+    int numThreads = getIntParameter(config, "threads", 2 * Runtime.getRuntime().availableProcessors());
+    int queueSize = getIntParameter(config, "queue-size", DEFAULT_QUEUE_SIZE);
+    timeoutMillis = getIntParameter(config, "timeout-millis", DEFAULT_TIMEOUT_MILLIS);
+    int fallbackCacheSize = getIntParameter(config, "fallback-cache-size", DEFAULT_FALLBACK_CACHE_SIZE);
+    // Refuse work past the queue bound rather than let waiting users pile up
+    executor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(queueSize), new ThreadPoolExecutor.AbortPolicy());
+    lastRecommendations = new FastByIDMap<List<RecommendedItem>>(fallbackCacheSize, fallbackCacheSize);
+  }
+
+  private static int getIntParameter(ServletConfig config, String name, int defaultValue) {
+    String value = config.getInitParameter(name);
+    return value == null ? defaultValue : Integer.parseInt(value);
+  }
+
+  @Override
+  public void destroy() {
+    executor.shutdownNow();
+    log.info("Served {} requests for {} users", numRequests.get(), numUsers.get());
+    super.destroy();
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request,
+                    HttpServletResponse response) throws ServletException {
+
+    try {
+      if (Boolean.parseBoolean(request.getParameter("stats"))) {
+        writeStats(response);
+        return;
+      }
+
+      long start = System.nanoTime();
+      long[] userIDs = parseUserIDs(request.getParameterValues("userID"));
+      String howManyString = request.getParameter("howMany");
+      int howMany = howManyString == null ? DEFAULT_HOW_MANY : Integer.parseInt(howManyString);
+      String timeoutString = request.getParameter("timeoutMillis");
+      long timeout = timeoutString == null ? timeoutMillis : Math.min(timeoutMillis, Long.parseLong(timeoutString));
+      String format = request.getParameter("format");
+      if (format == null) {
+        format = "text";
+      }
+      if (!"text".equals(format) && !"json".equals(format)) {
+        throw new ServletException("Bad format parameter: " + format);
+      }
+
+      List<List<RecommendedItem>> results = new ArrayList<List<RecommendedItem>>(userIDs.length);
+      String[] statuses = new String[userIDs.length];
+      recommendAll(userIDs, howMany, start + TimeUnit.MILLISECONDS.toNanos(timeout), results, statuses);
+
+      if ("text".equals(format)) {
+        writePlainText(response, userIDs, statuses, results);
+      } else {
+        writeJSON(response, userIDs, statuses, results);
+      }
+      numRequests.incrementAndGet();
+      numUsers.addAndGet(userIDs.length);
+      requestLatencies.record(System.nanoTime() - start);
+    } catch (IOException ioe) {
+      throw new ServletException(ioe);
+    }
+
+  }
+
+  private static long[] parseUserIDs(String[] values) throws ServletException {
+    if (values == null) {
+      throw new ServletException("userID was not specified");
+    }
+    List<String> userIDStrings = new ArrayList<String>();
+    for (String value : values) {
+      for (String userIDString : value.split(",")) {
+        String trimmed = userIDString.trim();
+        if (trimmed.length() > 0) {
+          userIDStrings.add(trimmed);
+        }
+      }
+    }
+    long[] userIDs = new long[userIDStrings.size()];
+    for (int i = 0; i < userIDs.length; i++) {
+      userIDs[i] = Long.parseLong(userIDStrings.get(i));
+    }
+    return userIDs;
+  }
+
+  /**
+   * Queues all users first, so that they are computed in parallel, then collects results in order until the
+   * deadline passes.
+   */
+  private void recommendAll(long[] userIDs,
+                            int howMany,
+                            long deadlineNanos,
+                            List<List<RecommendedItem>> results,
+                            String[] statuses) {
+    List<Future<List<RecommendedItem>>> futures = new ArrayList<Future<List<RecommendedItem>>>(userIDs.length);
+    for (long userID : userIDs) {
+      Future<List<RecommendedItem>> future;
+      try {
+        future = executor.submit(new RecommendTask(userID, howMany));
+      } catch (RejectedExecutionException ree) {
+        numRejected.incrementAndGet();
+        future = null;
+      }
+      futures.add(future);
+    }
+
+    for (int i = 0; i < userIDs.length; i++) {
+      Future<List<RecommendedItem>> future = futures.get(i);
+      List<RecommendedItem> result = null;
+      if (future != null) {
+        try {
+          result = future.get(Math.max(0L, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException te) {
+          numTimedOut.incrementAndGet();
+          // Nobody will use the result, so stop computing it if it hasn't started
+          future.cancel(false);
+        } catch (ExecutionException ee) {
+          numFailed.incrementAndGet();
+          log.warn("Exception while recommending to user " + userIDs[i], ee.getCause());
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          future.cancel(false);
+        }
+      }
+      if (result == null) {
+        result = getLastRecommendations(userIDs[i]);
+        statuses[i] = result == null ? STATUS_NONE : STATUS_FALLBACK;
+        if (result == null) {
+          result = Collections.emptyList();
+        }
+      } else {
+        statuses[i] = STATUS_OK;
+      }
+      results.add(result);
+    }
+  }
+
+  private List<RecommendedItem> getLastRecommendations(long userID) {
+    List<RecommendedItem> result;
+    synchronized (lastRecommendations) {
+      result = lastRecommendations.get(userID);
+    }
+    if (result == null) {
+      fallbackMisses.incrementAndGet();
+    } else {
+      fallbackHits.incrementAndGet();
+    }
+    return result;
+  }
+
+  private final class RecommendTask implements Callable<List<RecommendedItem>> {
+
+    private final long userID;
+    private final int howMany;
+
+    private RecommendTask(long userID, int howMany) {
+      this.userID = userID;
+      this.howMany = howMany;
+    }
+
+    @Override
+    public List<RecommendedItem> call() throws TasteException {
+      long start = System.nanoTime();
+      List<RecommendedItem> result = recommender.recommend(userID, howMany);
+      recommendLatencies.record(System.nanoTime() - start);
+      synchronized (lastRecommendations) {
+        lastRecommendations.put(userID, result);
+      }
+      return result;
+    }
+  }
+
+  private static void writePlainText(HttpServletResponse response,
+                                     long[] userIDs,
+                                     String[] statuses,
+                                     List<List<RecommendedItem>> results) throws IOException {
+    response.setContentType("text/plain");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+    PrintWriter writer = response.getWriter();
+    for (int i = 0; i < userIDs.length; i++) {
+      List<RecommendedItem> items = results.get(i);
+      if (items.isEmpty()) {
+        writer.print(userIDs[i]);
+        writer.print('\t');
+        writer.println(statuses[i]);
+      }
+      for (RecommendedItem recommendedItem : items) {
+        writer.print(userIDs[i]);
+        writer.print('\t');
+        writer.print(statuses[i]);
+        writer.print('\t');
+        writer.print(recommendedItem.getValue());
+        writer.print('\t');
+        writer.println(recommendedItem.getItemID());
+      }
+    }
+  }
+
+  private static void writeJSON(HttpServletResponse response,
+                                long[] userIDs,
+                                String[] statuses,
+                                List<List<RecommendedItem>> results) throws IOException {
+    response.setContentType("text/plain");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+    PrintWriter writer = response.getWriter();
+    writer.print("{\"users\":[");
+    for (int i = 0; i < userIDs.length; i++) {
+      if (i > 0) {
+        writer.print(',');
+      }
+      writer.print("{\"userID\":\"");
+      writer.print(userIDs[i]);
+      writer.print("\",\"status\":\"");
+      writer.print(statuses[i]);
+      writer.print("\",\"item\":[");
+      boolean first = true;
+      for (RecommendedItem recommendedItem : results.get(i)) {
+        if (!first) {
+          writer.print(',');
+        }
+        first = false;
+        writer.print("{\"value\":\"");
+        writer.print(recommendedItem.getValue());
+        writer.print("\",\"id\":\"");
+        writer.print(recommendedItem.getItemID());
+        writer.print("\"}");
+      }
+      writer.print("]}");
+    }
+    writer.println("]}");
+  }
+
+  private void writeStats(HttpServletResponse response) throws IOException {
+    response.setContentType("text/plain");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+    PrintWriter writer = response.getWriter();
+    writer.println("requests\t" + numRequests.get());
+    writer.println("users\t" + numUsers.get());
+    writer.println("timedOut\t" + numTimedOut.get());
+    writer.println("rejected\t" + numRejected.get());
+    writer.println("failed\t" + numFailed.get());
+    long hits = fallbackHits.get();
+    long misses = fallbackMisses.get();
+    writer.println("fallbackCacheHits\t" + hits);
+    writer.println("fallbackCacheMisses\t" + misses);
+    writer.println("fallbackCacheHitRate\t" + (hits + misses == 0L ? 0.0 : (double) hits / (hits + misses)));
+    writer.println("activeWorkers\t" + executor.getActiveCount());
+    writer.println("queuedUsers\t" + executor.getQueue().size());
+    writer.println("requestLatency\t" + requestLatencies);
+    writer.println("recommendLatency\t" + recommendLatencies);
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request,
+                     HttpServletResponse response) throws ServletException {
+    doGet(request, response);
+  }
+
+  @Override
+  public String toString() {
+    return "BatchRecommenderServlet[recommender:" + recommender + ']';
+  }
+
+}
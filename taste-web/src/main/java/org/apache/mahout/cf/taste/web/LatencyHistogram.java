@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.web;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A histogram of latencies which many threads can record into without locking. Bucket <em>i</em>
+ * counts latencies from 2<sup>i</sup> up to 2<sup>i+1</sup> microseconds, so percentiles are only
+ * known to within a factor of two, which is enough to see where the tail is.</p>
+ */
+public final class LatencyHistogram {
+
+  private static final int NUM_BUCKETS = 40;
+
+  private final AtomicLongArray buckets;
+
+  public LatencyHistogram() {
+    buckets = new AtomicLongArray(NUM_BUCKETS);
+  }
+
+  public void record(long nanos) {
+    long micros = nanos / 1000L;
+    int bucket = micros <= 1L ? 0 : 63 - Long.numberOfLeadingZeros(micros);
+    buckets.incrementAndGet(Math.min(bucket, NUM_BUCKETS - 1));
+  }
+
+  public long getCount() {
+    long count = 0L;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      count += buckets.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return upper bound, in microseconds, of the bucket holding that percentile, or 0 if nothing was recorded
+   */
+  public long getPercentileMicros(double percentile) {
+    long[] counts = new long[NUM_BUCKETS];
+    long total = 0L;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+      total += counts[i];
+    }
+    if (total == 0L) {
+      return 0L;
+    }
+    long rank = (long) Math.ceil(total * percentile / 100.0);
+    long seen = 0L;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return 1L << (i + 1);
+      }
+    }
+    return 1L << NUM_BUCKETS;
+  }
+
+  @Override
+  public String toString() {
+    return "count:" + getCount() + ", p50:" + getPercentileMicros(50.0) + "us, p90:" + getPercentileMicros(90.0)
+        + "us, p99:" + getPercentileMicros(99.0) + "us, p99.9:" + getPercentileMicros(99.9) + "us";
+  }
+
+}
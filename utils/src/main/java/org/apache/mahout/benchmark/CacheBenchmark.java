@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.cli2.CommandLine;
+import org.apache.commons.cli2.Group;
+import org.apache.commons.cli2.Option;
+import org.apache.commons.cli2.OptionException;
+import org.apache.commons.cli2.builder.ArgumentBuilder;
+import org.apache.commons.cli2.builder.DefaultOptionBuilder;
+import org.apache.commons.cli2.builder.GroupBuilder;
+import org.apache.commons.cli2.commandline.Parser;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.Cache;
+import org.apache.mahout.cf.taste.impl.common.ConcurrentCache;
+import org.apache.mahout.cf.taste.impl.common.Retriever;
+import org.apache.mahout.common.CommandLineUtil;
+import org.apache.mahout.common.LongPair;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.common.commandline.DefaultOptionCreator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures multi-threaded lookup throughput of {@link Cache} against {@link ConcurrentCache}, using the same
+ * kind of keys and sizing as {@link org.apache.mahout.cf.taste.impl.similarity.CachingItemSimilarity}.
+ */
+public final class CacheBenchmark {
+
+  private static final Logger log = LoggerFactory.getLogger(CacheBenchmark.class);
+
+  private final int numThreads;
+  private final int numItems;
+  private final int cacheSize;
+  private final int lookupsPerThread;
+
+  public CacheBenchmark(int numThreads, int numItems, int cacheSize, int lookupsPerThread) {
+    this.numThreads = numThreads;
+    this.numItems = numItems;
+    this.cacheSize = cacheSize;
+    this.lookupsPerThread = lookupsPerThread;
+  }
+
+  /**
+   * @return lookups per second achieved against the given cache by all threads together
+   */
+  private double run(final Retriever<LongPair,Double> cache) throws InterruptedException, ExecutionException {
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      Future<?>[] futures = new Future<?>[numThreads];
+      long start = System.nanoTime();
+      for (int t = 0; t < numThreads; t++) {
+        futures[t] = executor.submit(new Callable<Double>() {
+          @Override
+          public Double call() throws TasteException {
+            Random random = RandomUtils.getRandom();
+            double sum = 0.0;
+            for (int i = 0; i < lookupsPerThread; i++) {
+              // Skew lookups towards popular items, as in real recommender traffic
+              long itemID1 = (long) (numItems * random.nextDouble() * random.nextDouble());
+              long itemID2 = (long) (numItems * random.nextDouble() * random.nextDouble());
+              LongPair key = itemID1 < itemID2 ? new LongPair(itemID1, itemID2) : new LongPair(itemID2, itemID1);
+              sum += cache.get(key);
+            }
+            return sum;
+          }
+        });
+      }
+      double checksum = 0.0;
+      for (Future<?> future : futures) {
+        checksum += (Double) future.get();
+      }
+      long elapsed = System.nanoTime() - start;
+      log.debug("Checksum {}", checksum);
+      return 1.0e9 * numThreads * lookupsPerThread / elapsed;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void benchmark() throws InterruptedException, ExecutionException {
+    Retriever<LongPair,Double> retriever = new SimilarityLikeRetriever();
+    // Warm up both implementations once before measuring
+    run(new Cache<LongPair,Double>(retriever, cacheSize));
+    run(new ConcurrentCache<LongPair,Double>(retriever, cacheSize, numThreads));
+    double cacheRate = run(new Cache<LongPair,Double>(retriever, cacheSize));
+    double concurrentCacheRate = run(new ConcurrentCache<LongPair,Double>(retriever, cacheSize, numThreads));
+    log.info("Threads: {}, items: {}, cache size: {}", new Object[] {numThreads, numItems, cacheSize});
+    log.info("Cache: {} lookups/sec", (long) cacheRate);
+    log.info("ConcurrentCache: {} lookups/sec ({}x)", (long) concurrentCacheRate,
+             (float) (concurrentCacheRate / cacheRate));
+  }
+
+  /** Stands in for a similarity computation: cheap, deterministic, and not optimized away. */
+  private static final class SimilarityLikeRetriever implements Retriever<LongPair,Double> {
+    @Override
+    public Double get(LongPair key) {
+      double x = key.getFirst() * 31.0 + key.getSecond();
+      for (int i = 0; i < 50; i++) {
+        x = Math.sin(x);
+      }
+      return x;
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException, ExecutionException {
+
+    DefaultOptionBuilder obuilder = new DefaultOptionBuilder();
+    ArgumentBuilder abuilder = new ArgumentBuilder();
+    GroupBuilder gbuilder = new GroupBuilder();
+
+    Option threadsOpt = obuilder.withLongName("numThreads").withRequired(false).withArgument(
+      abuilder.withName("nt").withMinimum(1).withMaximum(1).create()).withDescription(
+      "Number of threads doing lookups. Default: number of processors").withShortName("nt").create();
+    Option itemsOpt = obuilder.withLongName("numItems").withRequired(false).withArgument(
+      abuilder.withName("ni").withMinimum(1).withMaximum(1).create()).withDescription(
+      "Number of distinct item IDs in keys. Default: 10000").withShortName("ni").create();
+    Option cacheSizeOpt = obuilder.withLongName("cacheSize").withRequired(false).withArgument(
+      abuilder.withName("cs").withMinimum(1).withMaximum(1).create()).withDescription(
+      "Maximum number of cache entries. Default: 100000").withShortName("cs").create();
+    Option lookupsOpt = obuilder.withLongName("lookups").withRequired(false).withArgument(
+      abuilder.withName("l").withMinimum(1).withMaximum(1).create()).withDescription(
+      "Number of lookups per thread. Default: 1000000").withShortName("l").create();
+
+    Option helpOpt = DefaultOptionCreator.helpOption();
+
+    Group group = gbuilder.withName("Options").withOption(threadsOpt).withOption(itemsOpt)
+        .withOption(cacheSizeOpt).withOption(lookupsOpt).withOption(helpOpt).create();
+
+    try {
+      Parser parser = new Parser();
+      parser.setGroup(group);
+      CommandLine cmdLine = parser.parse(args);
+
+      if (cmdLine.hasOption(helpOpt)) {
+        CommandLineUtil.printHelp(group);
+        return;
+      }
+
+      int numThreads = Runtime.getRuntime().availableProcessors();
+      if (cmdLine.hasOption(threadsOpt)) {
+        numThreads = Integer.parseInt((String) cmdLine.getValue(threadsOpt));
+      }
+      int numItems = 10000;
+      if (cmdLine.hasOption(itemsOpt)) {
+        numItems = Integer.parseInt((String) cmdLine.getValue(itemsOpt));
+      }
+      int cacheSize = 100000;
+      if (cmdLine.hasOption(cacheSizeOpt)) {
+        cacheSize = Integer.parseInt((String) cmdLine.getValue(cacheSizeOpt));
+      }
+      int lookups = 1000000;
+      if (cmdLine.hasOption(lookupsOpt)) {
+        lookups = Integer.parseInt((String) cmdLine.getValue(lookupsOpt));
+      }
+      new CacheBenchmark(numThreads, numItems, cacheSize, lookups).benchmark();
+    } catch (OptionException e) {
+      CommandLineUtil.printHelp(group);
+    }
+
+  }
+
+}
@@ -0,0 +1,260 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Random;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.cli2.CommandLine;
+import org.apache.commons.cli2.Group;
+import org.apache.commons.cli2.Option;
+import org.apache.commons.cli2.OptionException;
+import org.apache.commons.cli2.builder.ArgumentBuilder;
+import org.apache.commons.cli2.builder.DefaultOptionBuilder;
+import org.apache.commons.cli2.builder.GroupBuilder;
+import org.apache.commons.cli2.commandline.Parser;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.model.jdbc.AbstractJDBCDataModel;
+import org.apache.mahout.cf.taste.impl.model.jdbc.BulkLoadingJDBCDataModel;
+import org.apache.mahout.cf.taste.impl.model.jdbc.ConnectionPoolDataSource;
+import org.apache.mahout.cf.taste.impl.model.jdbc.MySQLJDBCDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.common.CommandLineUtil;
+import org.apache.mahout.common.IOUtils;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.common.commandline.DefaultOptionCreator;
+import org.hsqldb.jdbc.jdbcDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures reads of user preferences through an {@link AbstractJDBCDataModel}, with and without its per-user
+ * cache, against a {@link BulkLoadingJDBCDataModel} over the same table. The table lives in an in-process
+ * HSQLDB database, so the numbers leave out network round trips, and understate what a remote database costs
+ * per query. Only the standard SQL queries of {@link MySQLJDBCDataModel} are used.
+ */
+public final class JDBCDataModelBenchmark {
+
+  private static final Logger log = LoggerFactory.getLogger(JDBCDataModelBenchmark.class);
+
+  private static final String TIMESTAMP_COLUMN = "last_modified";
+
+  private final int numUsers;
+  private final int numItems;
+  private final int prefsPerUser;
+  private final int lookups;
+
+  public JDBCDataModelBenchmark(int numUsers, int numItems, int prefsPerUser, int lookups) {
+    this.numUsers = numUsers;
+    this.numItems = numItems;
+    this.prefsPerUser = prefsPerUser;
+    this.lookups = lookups;
+  }
+
+  private static DataSource createDataSource() {
+    jdbcDataSource hsqldbDataSource = new jdbcDataSource();
+    hsqldbDataSource.setDatabase("jdbc:hsqldb:mem:taste");
+    hsqldbDataSource.setUser("sa");
+    hsqldbDataSource.setPassword("");
+    return new ConnectionPoolDataSource(hsqldbDataSource);
+  }
+
+  private void createTable(DataSource dataSource) throws SQLException {
+    Connection conn = null;
+    Statement stmt = null;
+    PreparedStatement insert = null;
+    try {
+      conn = dataSource.getConnection();
+      stmt = conn.createStatement();
+      stmt.execute("DROP TABLE " + AbstractJDBCDataModel.DEFAULT_PREFERENCE_TABLE + " IF EXISTS");
+      stmt.execute("CREATE TABLE " + AbstractJDBCDataModel.DEFAULT_PREFERENCE_TABLE + " ("
+          + AbstractJDBCDataModel.DEFAULT_USER_ID_COLUMN + " BIGINT NOT NULL, "
+          + AbstractJDBCDataModel.DEFAULT_ITEM_ID_COLUMN + " BIGINT NOT NULL, "
+          + AbstractJDBCDataModel.DEFAULT_PREFERENCE_COLUMN + " REAL NOT NULL, "
+          + TIMESTAMP_COLUMN + " TIMESTAMP NOT NULL, "
+          + "PRIMARY KEY (" + AbstractJDBCDataModel.DEFAULT_USER_ID_COLUMN + ", "
+          + AbstractJDBCDataModel.DEFAULT_ITEM_ID_COLUMN + "))");
+      stmt.execute("CREATE INDEX " + TIMESTAMP_COLUMN + "_index ON "
+          + AbstractJDBCDataModel.DEFAULT_PREFERENCE_TABLE + " (" + TIMESTAMP_COLUMN + ')');
+
+      insert = conn.prepareStatement("INSERT INTO " + AbstractJDBCDataModel.DEFAULT_PREFERENCE_TABLE
+          + " VALUES (?,?,?,?)");
+      Random random = RandomUtils.getRandom();
+      Timestamp now = new Timestamp(System.currentTimeMillis());
+      for (int userID = 0; userID < numUsers; userID++) {
+        // Consecutive items from a random start, so no item repeats within a user
+        int firstItemID = random.nextInt(numItems);
+        for (int i = 0; i < prefsPerUser; i++) {
+          insert.setLong(1, userID);
+          insert.setLong(2, (firstItemID + i) % numItems);
+          insert.setFloat(3, 1.0f + random.nextInt(5));
+          insert.setTimestamp(4, now);
+          insert.addBatch();
+        }
+        insert.executeBatch();
+      }
+    } finally {
+      IOUtils.quietClose(null, insert, null);
+      IOUtils.quietClose(null, stmt, conn);
+    }
+  }
+
+  /** Touches a few users' rows, as users rating items between refreshes would. */
+  private void changeSomeUsers(DataSource dataSource, int numChanged) throws SQLException {
+    Connection conn = null;
+    PreparedStatement update = null;
+    try {
+      conn = dataSource.getConnection();
+      update = conn.prepareStatement("UPDATE " + AbstractJDBCDataModel.DEFAULT_PREFERENCE_TABLE + " SET "
+          + AbstractJDBCDataModel.DEFAULT_PREFERENCE_COLUMN + "=?, " + TIMESTAMP_COLUMN + "=? WHERE "
+          + AbstractJDBCDataModel.DEFAULT_USER_ID_COLUMN + "=?");
+      Random random = RandomUtils.getRandom();
+      // Strictly later than the rows loaded already
+      Timestamp later = new Timestamp(System.currentTimeMillis() + 1000L);
+      for (int i = 0; i < numChanged; i++) {
+        update.setFloat(1, 1.0f + random.nextInt(5));
+        update.setTimestamp(2, later);
+        update.setLong(3, random.nextInt(numUsers));
+        update.executeUpdate();
+      }
+    } finally {
+      IOUtils.quietClose(null, update, conn);
+    }
+  }
+
+  /**
+   * @return user lookups per second
+   */
+  private double run(DataModel dataModel) throws TasteException {
+    Random random = RandomUtils.getRandom();
+    long start = System.nanoTime();
+    long checksum = 0L;
+    for (int i = 0; i < lookups; i++) {
+      // Skew lookups towards active users, as in real recommender traffic
+      long userID = (long) (numUsers * random.nextDouble() * random.nextDouble());
+      checksum += dataModel.getPreferencesFromUser(userID).length();
+    }
+    long elapsed = System.nanoTime() - start;
+    log.debug("Checksum {}", checksum);
+    return 1.0e9 * lookups / elapsed;
+  }
+
+  public void benchmark() throws SQLException, TasteException {
+    DataSource dataSource = createDataSource();
+    long start = System.currentTimeMillis();
+    createTable(dataSource);
+    log.info("Created {} users with {} preferences each in {}ms",
+             new Object[] {numUsers, prefsPerUser, System.currentTimeMillis() - start});
+
+    AbstractJDBCDataModel jdbcModel = new MySQLJDBCDataModel(dataSource);
+    run(jdbcModel);
+    double uncachedRate = run(jdbcModel);
+
+    jdbcModel.setMaxCachedUsers(numUsers / 10);
+    run(jdbcModel);
+    double cachedRate = run(jdbcModel);
+
+    start = System.currentTimeMillis();
+    BulkLoadingJDBCDataModel bulkModel = new BulkLoadingJDBCDataModel(jdbcModel, TIMESTAMP_COLUMN);
+    long loadTime = System.currentTimeMillis() - start;
+    run(bulkModel);
+    double bulkRate = run(bulkModel);
+
+    int numChanged = Math.max(1, numUsers / 100);
+    changeSomeUsers(dataSource, numChanged);
+    start = System.currentTimeMillis();
+    bulkModel.refresh(null);
+    long refreshTime = System.currentTimeMillis() - start;
+    start = System.currentTimeMillis();
+    bulkModel.reload();
+    long reloadTime = System.currentTimeMillis() - start;
+
+    log.info("Users: {}, items: {}, lookups: {}", new Object[] {numUsers, numItems, lookups});
+    log.info("JDBC model: {} lookups/sec", (long) uncachedRate);
+    log.info("JDBC model with per-user cache: {} lookups/sec ({}x)", (long) cachedRate,
+             (float) (cachedRate / uncachedRate));
+    log.info("Bulk-loaded model: {} lookups/sec ({}x), loaded in {}ms",
+             new Object[] {(long) bulkRate, (float) (bulkRate / uncachedRate), loadTime});
+    log.info("Bulk-loaded model: refreshed {} changed users in {}ms, full reload in {}ms",
+             new Object[] {numChanged, refreshTime, reloadTime});
+  }
+
+  public static void main(String[] args) throws SQLException, TasteException {
+
+    DefaultOptionBuilder obuilder = new DefaultOptionBuilder();
+    ArgumentBuilder abuilder = new ArgumentBuilder();
+    GroupBuilder gbuilder = new GroupBuilder();
+
+    Option usersOpt = obuilder.withLongName("numUsers").withRequired(false).withArgument(
+      abuilder.withName("nu").withMinimum(1).withMaximum(1).create()).withDescription(
+      "Number of users in the table. Default: 10000").withShortName("nu").create();
+    Option itemsOpt = obuilder.withLongName("numItems").withRequired(false).withArgument(
+      abuilder.withName("ni").withMinimum(1).withMaximum(1).create()).withDescription(
+      "Number of distinct items. Default: 5000").withShortName("ni").create();
+    Option prefsOpt = obuilder.withLongName("prefsPerUser").withRequired(false).withArgument(
+      abuilder.withName("p").withMinimum(1).withMaximum(1).create()).withDescription(
+      "Number of preferences of each user. Default: 50").withShortName("p").create();
+    Option lookupsOpt = obuilder.withLongName("lookups").withRequired(false).withArgument(
+      abuilder.withName("l").withMinimum(1).withMaximum(1).create()).withDescription(
+      "Number of user lookups per run. Default: 100000").withShortName("l").create();
+
+    Option helpOpt = DefaultOptionCreator.helpOption();
+
+    Group group = gbuilder.withName("Options").withOption(usersOpt).withOption(itemsOpt)
+        .withOption(prefsOpt).withOption(lookupsOpt).withOption(helpOpt).create();
+
+    try {
+      Parser parser = new Parser();
+      parser.setGroup(group);
+      CommandLine cmdLine = parser.parse(args);
+
+      if (cmdLine.hasOption(helpOpt)) {
+        CommandLineUtil.printHelp(group);
+        return;
+      }
+
+      int numUsers = 10000;
+      if (cmdLine.hasOption(usersOpt)) {
+        numUsers = Integer.parseInt((String) cmdLine.getValue(usersOpt));
+      }
+      int numItems = 5000;
+      if (cmdLine.hasOption(itemsOpt)) {
+        numItems = Integer.parseInt((String) cmdLine.getValue(itemsOpt));
+      }
+      int prefsPerUser = 50;
+      if (cmdLine.hasOption(prefsOpt)) {
+        prefsPerUser = Integer.parseInt((String) cmdLine.getValue(prefsOpt));
+      }
+      int lookups = 100000;
+      if (cmdLine.hasOption(lookupsOpt)) {
+        lookups = Integer.parseInt((String) cmdLine.getValue(lookupsOpt));
+      }
+      new JDBCDataModelBenchmark(numUsers, numItems, Math.min(prefsPerUser, numItems), lookups).benchmark();
+    } catch (OptionException e) {
+      CommandLineUtil.printHelp(group);
+    }
+
+  }
+
+}